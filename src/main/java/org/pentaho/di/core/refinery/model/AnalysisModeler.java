@@ -2,7 +2,7 @@
  *
  * Pentaho Community Edition Project: data-refinery-pdi-plugin
  *
- * Copyright (C) 2002-2017 by Hitachi Vantara : http://www.pentaho.com
+ * Copyright (C) 2002-2026 by Hitachi Vantara : http://www.pentaho.com
  *
  * *******************************************************************************
  *
@@ -26,28 +26,19 @@ import org.pentaho.di.core.ProvidesDatabaseConnectionInformation;
 import org.pentaho.di.core.database.Database;
 import org.pentaho.di.core.exception.KettleDatabaseException;
 import org.pentaho.di.core.exception.KettleException;
+import org.pentaho.di.core.refinery.model.AnalysisSchemaRewriter.ColumnReference;
 import org.pentaho.di.core.row.RowMetaInterface;
 import org.pentaho.di.core.row.ValueMetaInterface;
 import org.pentaho.di.job.entries.build.JobEntryBuildModel;
 import org.pentaho.di.job.entry.JobEntryBase;
-import org.w3c.dom.Node;
-import org.w3c.dom.NodeList;
-import org.xml.sax.InputSource;
-
-import javax.xml.transform.Source;
-import javax.xml.transform.Transformer;
-import javax.xml.transform.TransformerConfigurationException;
-import javax.xml.transform.TransformerException;
-import javax.xml.transform.TransformerFactory;
-import javax.xml.transform.stream.StreamResult;
-import javax.xml.transform.stream.StreamSource;
-import javax.xml.xpath.XPath;
-import javax.xml.xpath.XPathConstants;
-import javax.xml.xpath.XPathException;
-import javax.xml.xpath.XPathExpressionException;
-import javax.xml.xpath.XPathFactory;
-import java.io.StringReader;
-import java.io.StringWriter;
+
+import javax.xml.stream.XMLStreamException;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
@@ -61,6 +52,7 @@ public class AnalysisModeler {
   private static final Class<?> PKG = JobEntryBuildModel.class;
   private JobEntryBase jobEntry;
   private ProvidesDatabaseConnectionInformation connectionInfo;
+  private final RowMetaInterface capturedFields;
 
   private static Map<String, List<Integer>> analysisTypeMapping = new HashMap<String, List<Integer>>();
 
@@ -75,88 +67,78 @@ public class AnalysisModeler {
 
   public AnalysisModeler(
       final JobEntryBase jobEntry, final ProvidesDatabaseConnectionInformation connectionInfo ) {
+    this( jobEntry, connectionInfo, null );
+  }
+
+  /**
+   * @param capturedFields fields the output step inserted into the table, used to validate columns without a database
+   *                       round trip; null to always read the table fields from the database
+   */
+  public AnalysisModeler( final JobEntryBase jobEntry, final ProvidesDatabaseConnectionInformation connectionInfo,
+                          final RowMetaInterface capturedFields ) {
     this.jobEntry = jobEntry;
     this.connectionInfo = connectionInfo;
+    this.capturedFields = capturedFields;
   }
 
+  /**
+   * Validates and rewrites the schema in a single streaming pass, see {@link AnalysisSchemaRewriter}
+   */
   public String replaceTableAndSchemaNames( final String schema, final String modelName ) throws KettleException {
+    AnalysisSchemaRewriter rewritten;
     try {
-      validateSDRSchema( schema );
-      return transformSchema( schema, modelName, getTablename() );
-    } catch ( TransformerConfigurationException e ) {
-      throw new KettleException( e );
-    } catch ( TransformerException e ) {
+      rewritten = AnalysisSchemaRewriter.rewrite( schema, modelName, getTablename() );
+    } catch ( XMLStreamException e ) {
       throw new KettleException( e );
     }
+    validateSDRSchema( rewritten );
+    return rewritten.getSchema();
   }
 
-  private String transformSchema( final String schema, final String modelName, final String tableName )
-    throws TransformerException {
-    TransformerFactory factory = TransformerFactory.newInstance();
-    Source xslt = new StreamSource( new StringReader( constructXsltForSwap( modelName, tableName ) ) );
-    Transformer transformer = factory.newTransformer( xslt );
-    Source text = new StreamSource( new StringReader( schema ) );
-    StringWriter writer = new StringWriter();
-    transformer.transform( text, new StreamResult( writer ) );
-    return writer.toString();
-  }
-
-  private String constructXsltForSwap( final String modelName, final String tableName ) {
-    return "<xsl:stylesheet version=\"1.0\" xmlns:xsl=\"http://www.w3.org/1999/XSL/Transform\" "
-      + "xmlns:fn=\"http://www.w3.org/2005/xpath-functions\">"
-      + "<xsl:template match=\"@*|node()\">\n"
-      + "<xsl:copy>\n"
-      + "    <xsl:apply-templates select=\"@*|node()\"/>\n"
-      + "  </xsl:copy>"
-      + "</xsl:template>"
-      + "<xsl:template match=\"Table/@name\">"
-      + "    <xsl:attribute name=\"name\">" + tableName + "</xsl:attribute>"
-      + "</xsl:template>"
-      + "<xsl:template match=\"Schema/@name\">"
-      + "    <xsl:attribute name=\"name\">" + modelName + "</xsl:attribute>"
-      + "</xsl:template>"
-      + "<xsl:template match=\"Cube/@name\">"
-      + "    <xsl:attribute name=\"name\">" + modelName + "</xsl:attribute>"
-      + "</xsl:template>"
-      + "</xsl:stylesheet>";
-  }
-
-  private void validateSDRSchema( final String schema ) throws KettleException {
+  /**
+   * Streaming variant of {@link #replaceTableAndSchemaNames(String, String)}, the rewritten schema is written to out as
+   * UTF-8 while the input is read. Validation needs the whole schema, so whatever was written to out must be discarded
+   * if this throws.
+   */
+  public void replaceTableAndSchemaNames( final InputStream schema, final OutputStream out, final String modelName )
+    throws KettleException {
+    AnalysisSchemaRewriter rewritten;
     try {
-      validateSingleTable( schema );
-      validateSingleCube( schema );
-      validateColumns( schema );
-    } catch ( XPathException e ) {
+      Writer writer = new BufferedWriter( new OutputStreamWriter( out, "UTF-8" ) );
+      rewritten = AnalysisSchemaRewriter.rewrite( schema, writer, modelName, getTablename() );
+      writer.flush();
+    } catch ( XMLStreamException | IOException e ) {
       throw new KettleException( e );
     }
+    validateSDRSchema( rewritten );
+  }
+
+  private void validateSDRSchema( final AnalysisSchemaRewriter schema ) throws KettleException {
+    if ( schema.getTableNames().size() != 1 ) {
+      throw new KettleException( getString( PKG, "AnalysisModeler.SelectModelErrorMultipleTables" ) );
+    }
+    if ( schema.getCubeCount() != 1 ) {
+      throw new KettleException( getString( PKG, "AnalysisModeler.SelectModelErrorMultipleCubes" ) );
+    }
+    validateColumns( schema.getColumns() );
   }
 
-  private void validateColumns( final String schema ) throws XPathExpressionException, KettleException {
+  /**
+   * Checks the columns against the fields captured from the output step first. Those only cover the inserted fields
+   * and carry stream types, so a failed check is repeated against the table in the database before it is reported.
+   */
+  private void validateColumns( final List<ColumnReference> columns ) throws KettleException {
     ArrayList<String> notFound = new ArrayList<String>();
     ArrayList<String> incompatibleTypes = new ArrayList<String>();
-    List<ValueMetaInterface> fieldsInDatabase = getFieldsInDatabase();
-    NodeList levelColumnAttributes = getNodeList( schema, "//Level | //Measure" );
-    for ( int i = 0; i < levelColumnAttributes.getLength(); i++ ) {
-      Node node = levelColumnAttributes.item( i );
-      Node schemaColumnNode = node.getAttributes().getNamedItem( "column" );
-      String schemaColumn = schemaColumnNode.getTextContent();
-      boolean foundColumn = false;
-      for ( ValueMetaInterface valueMetaInterface : fieldsInDatabase ) {
-        if (  valueMetaInterface.getName().equals( schemaColumn ) ) {
-          foundColumn = true;
-          Node type = node.getAttributes().getNamedItem( "type" );
-          if ( type != null ) {
-            List<Integer> validTypes = analysisTypeMapping.get( type.getTextContent() );
-            if ( !validTypes.contains( valueMetaInterface.getType() ) ) {
-              incompatibleTypes.add( schemaColumnNode.getTextContent() );
-            }
-          }
-        }
-      }
-      if ( !foundColumn ) {
-        notFound.add( schemaColumnNode.getTextContent() );
+    if ( capturedFields != null && !capturedFields.isEmpty() ) {
+      checkColumns( columns, capturedFields.getValueMetaList(), notFound, incompatibleTypes );
+      if ( notFound.isEmpty() && incompatibleTypes.isEmpty() ) {
+        return;
       }
+      notFound.clear();
+      incompatibleTypes.clear();
     }
+    checkColumns( columns, getFieldsInDatabase(), notFound, incompatibleTypes );
     if ( !notFound.isEmpty()  || !incompatibleTypes.isEmpty() ) {
       throw new KettleException(
         getString( PKG, "AnalysisModeler.ColumnValidation",
@@ -165,25 +147,37 @@ public class AnalysisModeler {
     }
   }
 
-  private String msgIfNotEmpty( final ArrayList<String> notFound, final String msgKey ) {
-    if ( notFound.isEmpty() ) {
-      return "";
+  private void checkColumns( final List<ColumnReference> columns, final List<ValueMetaInterface> fields,
+                             final List<String> notFound, final List<String> incompatibleTypes ) {
+    Map<String, ValueMetaInterface> fieldIndex = new HashMap<String, ValueMetaInterface>();
+    for ( ValueMetaInterface valueMetaInterface : fields ) {
+      if ( !fieldIndex.containsKey( valueMetaInterface.getName() ) ) {
+        fieldIndex.put( valueMetaInterface.getName(), valueMetaInterface );
+      }
     }
-    return getString( PKG, msgKey, notFound.toString() );
-  }
-
-  private void validateSingleTable( final String schema ) throws XPathExpressionException, KettleException {
-    NodeList tableNameAttributes = getNodeList( schema, "//Table/@name" );
-    if ( !modelTablesAreSupported( tableNameAttributes ) ) {
-      throw new KettleException( getString( PKG, "AnalysisModeler.SelectModelErrorMultipleTables" ) );
+    for ( ColumnReference reference : columns ) {
+      String schemaColumn = reference.getColumn();
+      if ( schemaColumn == null ) {
+        // levels keyed by an expression
+        continue;
+      }
+      ValueMetaInterface valueMetaInterface = fieldIndex.get( schemaColumn );
+      if ( valueMetaInterface == null ) {
+        notFound.add( schemaColumn );
+      } else if ( reference.getType() != null ) {
+        List<Integer> validTypes = analysisTypeMapping.get( reference.getType() );
+        if ( validTypes == null || !validTypes.contains( valueMetaInterface.getType() ) ) {
+          incompatibleTypes.add( schemaColumn );
+        }
+      }
     }
   }
 
-  private void validateSingleCube( final String schema ) throws XPathExpressionException, KettleException {
-    NodeList tableNameAttributes = getNodeList( schema, "//Cube" );
-    if ( tableNameAttributes.getLength() != 1 ) {
-      throw new KettleException( getString( PKG, "AnalysisModeler.SelectModelErrorMultipleCubes" ) );
+  private String msgIfNotEmpty( final ArrayList<String> notFound, final String msgKey ) {
+    if ( notFound.isEmpty() ) {
+      return "";
     }
+    return getString( PKG, msgKey, notFound.toString() );
   }
 
   List<ValueMetaInterface> getFieldsInDatabase() throws KettleDatabaseException {
@@ -200,27 +194,4 @@ public class AnalysisModeler {
   private String getTablename() {
     return jobEntry.environmentSubstitute( connectionInfo.getTableName() );
   }
-
-  private NodeList getNodeList( final String schema, final String xPathExpression ) throws XPathExpressionException {
-    XPathFactory factory = XPathFactory.newInstance();
-    XPath xpath = factory.newXPath();
-    return (NodeList) xpath.compile( xPathExpression )
-        .evaluate( new InputSource( new StringReader( schema ) ), XPathConstants.NODESET );
-  }
-
-  private boolean modelTablesAreSupported( final NodeList tableNameAttributes ) {
-    int length = tableNameAttributes.getLength();
-    String uniqueTableName;
-    if ( length > 0 ) {
-      uniqueTableName = tableNameAttributes.item( 0 ).getTextContent();
-    } else {
-      return false;
-    }
-    for ( int i = 1; i < length; i++ ) {
-      if ( !tableNameAttributes.item( i ).getTextContent().equals( uniqueTableName ) ) {
-        return false;
-      }
-    }
-    return true;
-  }
 }
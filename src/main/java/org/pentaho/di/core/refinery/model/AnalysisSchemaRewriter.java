@@ -0,0 +1,285 @@
+/*! ******************************************************************************
+ *
+ * Pentaho Community Edition Project: data-refinery-pdi-plugin
+ *
+ * Copyright (C) 2002-2026 by Hitachi Vantara : http://www.pentaho.com
+ *
+ * *******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ********************************************************************************/
+
+package org.pentaho.di.core.refinery.model;
+
+import org.apache.commons.lang.StringUtils;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Copies a Mondrian schema in one streaming pass, setting the schema and cube names to the model name and every table
+ * name to the target table, while collecting what {@link AnalysisModeler} validates: the original table names, the
+ * number of cubes and the column and type of every level and measure.
+ * <p>
+ * The output matches what an identity XSLT transform with those attribute overrides writes: an UTF-8 XML declaration,
+ * elements without children closed as <code>&lt;Table/&gt;</code>, comments and processing instructions kept,
+ * whitespace outside the root element and the DTD dropped.
+ */
+class AnalysisSchemaRewriter {
+
+  private static final XMLInputFactory INPUT_FACTORY = createInputFactory();
+
+  private final String modelName;
+  private final String tableName;
+
+  private final Set<String> tableNames = new LinkedHashSet<>();
+  private final List<ColumnReference> columns = new ArrayList<>();
+  private int cubeCount;
+  private String schema;
+
+  private AnalysisSchemaRewriter( final String modelName, final String tableName ) {
+    this.modelName = modelName;
+    this.tableName = tableName;
+  }
+
+  static AnalysisSchemaRewriter rewrite( final String schema, final String modelName, final String tableName )
+    throws XMLStreamException {
+    AnalysisSchemaRewriter rewriter = new AnalysisSchemaRewriter( modelName, tableName );
+    StringBuilder out = new StringBuilder( schema.length() + 64 );
+    try {
+      rewriter.run( INPUT_FACTORY.createXMLStreamReader( new StringReader( schema ) ), out );
+    } catch ( IOException e ) {
+      // not thrown by a StringBuilder
+      throw new XMLStreamException( e );
+    }
+    rewriter.schema = out.toString();
+    return rewriter;
+  }
+
+  /**
+   * Rewrites a schema from a stream, the encoding is taken from the XML declaration. Nothing but the current element is
+   * held in memory; callers must validate the collected information before using what was written.
+   *
+   * @param out receives the rewritten schema, see {@link #getSchema()}
+   */
+  static AnalysisSchemaRewriter rewrite( final InputStream schema, final Appendable out, final String modelName,
+                                         final String tableName ) throws XMLStreamException, IOException {
+    AnalysisSchemaRewriter rewriter = new AnalysisSchemaRewriter( modelName, tableName );
+    rewriter.run( INPUT_FACTORY.createXMLStreamReader( schema ), out );
+    return rewriter;
+  }
+
+  /**
+   * @return the rewritten schema, null if it was written to a stream
+   */
+  String getSchema() {
+    return schema;
+  }
+
+  /**
+   * @return the distinct table names of the original schema, in document order
+   */
+  Set<String> getTableNames() {
+    return Collections.unmodifiableSet( tableNames );
+  }
+
+  int getCubeCount() {
+    return cubeCount;
+  }
+
+  /**
+   * @return the column references of all levels and measures, in document order
+   */
+  List<ColumnReference> getColumns() {
+    return Collections.unmodifiableList( columns );
+  }
+
+  private void run( final XMLStreamReader reader, final Appendable out ) throws XMLStreamException, IOException {
+    out.append( "<?xml version=\"1.0\" encoding=\"UTF-8\"?>" );
+    try {
+      int depth = 0;
+      // start tag written up to its attributes, closed once we know if the element has children
+      boolean startTagOpen = false;
+      while ( reader.hasNext() ) {
+        int event = reader.next();
+        if ( startTagOpen && event != XMLStreamConstants.END_ELEMENT ) {
+          out.append( '>' );
+          startTagOpen = false;
+        }
+        switch ( event ) {
+          case XMLStreamConstants.START_ELEMENT:
+            depth++;
+            writeStartTag( reader, out );
+            startTagOpen = true;
+            break;
+          case XMLStreamConstants.END_ELEMENT:
+            depth--;
+            if ( startTagOpen ) {
+              out.append( "/>" );
+              startTagOpen = false;
+            } else {
+              out.append( "</" ).append( qualifiedName( reader.getPrefix(), reader.getLocalName() ) ).append( '>' );
+            }
+            break;
+          case XMLStreamConstants.CHARACTERS:
+          case XMLStreamConstants.SPACE:
+          case XMLStreamConstants.CDATA:
+            if ( depth > 0 ) {
+              escape( reader.getTextCharacters(), reader.getTextStart(), reader.getTextLength(), false, out );
+            }
+            break;
+          case XMLStreamConstants.COMMENT:
+            out.append( "<!--" ).append( reader.getText() ).append( "-->" );
+            break;
+          case XMLStreamConstants.PROCESSING_INSTRUCTION:
+            out.append( "<?" ).append( reader.getPITarget() );
+            if ( StringUtils.isNotEmpty( reader.getPIData() ) ) {
+              out.append( ' ' ).append( reader.getPIData() );
+            }
+            out.append( "?>" );
+            break;
+          default:
+            // document start and end, DTD
+            break;
+        }
+      }
+    } finally {
+      reader.close();
+    }
+  }
+
+  private void writeStartTag( final XMLStreamReader reader, final Appendable out ) throws IOException {
+    String element = reader.getLocalName();
+    out.append( '<' ).append( qualifiedName( reader.getPrefix(), element ) );
+    for ( int i = 0; i < reader.getNamespaceCount(); i++ ) {
+      String prefix = reader.getNamespacePrefix( i );
+      out.append( StringUtils.isEmpty( prefix ) ? " xmlns" : " xmlns:" + prefix ).append( "=\"" );
+      escape( StringUtils.defaultString( reader.getNamespaceURI( i ) ), out );
+      out.append( '"' );
+    }
+    String column = null;
+    String type = null;
+    for ( int i = 0; i < reader.getAttributeCount(); i++ ) {
+      String attribute = reader.getAttributeLocalName( i );
+      String prefix = reader.getAttributePrefix( i );
+      String value = reader.getAttributeValue( i );
+      if ( StringUtils.isEmpty( prefix ) ) {
+        if ( "column".equals( attribute ) ) {
+          column = value;
+        } else if ( "type".equals( attribute ) ) {
+          type = value;
+        } else if ( "name".equals( attribute ) ) {
+          value = rewriteName( element, value );
+        }
+      }
+      out.append( ' ' ).append( qualifiedName( prefix, attribute ) ).append( "=\"" );
+      escape( value, out );
+      out.append( '"' );
+    }
+    if ( "Cube".equals( element ) ) {
+      cubeCount++;
+    } else if ( "Level".equals( element ) || "Measure".equals( element ) ) {
+      columns.add( new ColumnReference( column, type ) );
+    }
+  }
+
+  private String rewriteName( final String element, final String name ) {
+    if ( "Table".equals( element ) ) {
+      tableNames.add( name );
+      return tableName;
+    } else if ( "Schema".equals( element ) || "Cube".equals( element ) ) {
+      return modelName;
+    }
+    return name;
+  }
+
+  private static String qualifiedName( final String prefix, final String localName ) {
+    return StringUtils.isEmpty( prefix ) ? localName : prefix + ":" + localName;
+  }
+
+  private static void escape( final String value, final Appendable out ) throws IOException {
+    escape( value.toCharArray(), 0, value.length(), true, out );
+  }
+
+  private static void escape( final char[] chars, final int start, final int length, final boolean attribute,
+                              final Appendable out ) throws IOException {
+    for ( int i = start; i < start + length; i++ ) {
+      char c = chars[ i ];
+      switch ( c ) {
+        case '&':
+          out.append( "&amp;" );
+          break;
+        case '<':
+          out.append( "&lt;" );
+          break;
+        case '>':
+          out.append( "&gt;" );
+          break;
+        case '\r':
+          out.append( "&#13;" );
+          break;
+        case '"':
+          out.append( attribute ? "&quot;" : "\"" );
+          break;
+        case '\n':
+          out.append( attribute ? "&#10;" : "\n" );
+          break;
+        case '\t':
+          out.append( attribute ? "&#9;" : "\t" );
+          break;
+        default:
+          out.append( c );
+      }
+    }
+  }
+
+  private static XMLInputFactory createInputFactory() {
+    XMLInputFactory factory = XMLInputFactory.newInstance();
+    factory.setProperty( XMLInputFactory.SUPPORT_DTD, false );
+    factory.setProperty( XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false );
+    factory.setProperty( XMLInputFactory.IS_COALESCING, false );
+    return factory;
+  }
+
+  /**
+   * Column and declared type of a level or measure, either may be null
+   */
+  static class ColumnReference {
+    private final String column;
+    private final String type;
+
+    ColumnReference( final String column, final String type ) {
+      this.column = column;
+      this.type = type;
+    }
+
+    String getColumn() {
+      return column;
+    }
+
+    String getType() {
+      return type;
+    }
+  }
+}
@@ -0,0 +1,127 @@
+/*! ******************************************************************************
+ *
+ * Pentaho Community Edition Project: data-refinery-pdi-plugin
+ *
+ * Copyright (C) 2002-2026 by Hitachi Vantara : http://www.pentaho.com
+ *
+ * *******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ********************************************************************************/
+
+package org.pentaho.di.core.refinery.model;
+
+import org.apache.commons.lang.StringUtils;
+import org.pentaho.agilebi.modeler.models.annotations.CreateAttribute;
+import org.pentaho.agilebi.modeler.models.annotations.ModelAnnotation;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Dependencies between the annotations of a group, looked up by name instead of by scanning the group.
+ * <p>
+ * An attribute with a parent attribute can only be applied once the level for the parent exists, so
+ * {@link #parentsFirst(List)} moves such attributes right behind the annotation that creates their parent. Everything
+ * else keeps its position. Applying in that order gets a whole chain of attributes in on one pass instead of one
+ * retry pass per level.
+ */
+class AnnotationDependencies {
+
+  private final Map<String, ModelAnnotation> levelCreators = new HashMap<>();
+
+  AnnotationDependencies( final Collection<ModelAnnotation> annotations ) {
+    for ( ModelAnnotation annotation : annotations ) {
+      CreateAttribute attribute = asCreateAttribute( annotation );
+      if ( attribute != null ) {
+        String key = levelKey( attribute.getDimension(), attribute.getName() );
+        if ( !levelCreators.containsKey( key ) ) {
+          levelCreators.put( key, annotation );
+        }
+      }
+    }
+  }
+
+  /**
+   * @return the annotations reordered so parent attributes created in the group come before their children
+   */
+  List<ModelAnnotation> parentsFirst( final List<ModelAnnotation> annotations ) {
+    List<ModelAnnotation> ordered = new ArrayList<>( annotations.size() );
+    Set<ModelAnnotation> emitted = newIdentitySet();
+    Map<ModelAnnotation, List<ModelAnnotation>> waiting = new IdentityHashMap<>();
+    Set<ModelAnnotation> remaining = newIdentitySet();
+    remaining.addAll( annotations );
+    for ( ModelAnnotation annotation : annotations ) {
+      ModelAnnotation parent = getParentCreator( annotation );
+      if ( parent != null && remaining.contains( parent ) && !emitted.contains( parent ) ) {
+        List<ModelAnnotation> children = waiting.get( parent );
+        if ( children == null ) {
+          children = new ArrayList<>();
+          waiting.put( parent, children );
+        }
+        children.add( annotation );
+      } else {
+        emit( annotation, ordered, emitted, waiting );
+      }
+    }
+    // cycles in parent references, leave them to the retry passes
+    for ( ModelAnnotation annotation : annotations ) {
+      if ( !emitted.contains( annotation ) ) {
+        emit( annotation, ordered, emitted, waiting );
+      }
+    }
+    return ordered;
+  }
+
+  ModelAnnotation getParentCreator( final ModelAnnotation annotation ) {
+    CreateAttribute attribute = asCreateAttribute( annotation );
+    if ( attribute == null || StringUtils.isBlank( attribute.getParentAttribute() ) ) {
+      return null;
+    }
+    ModelAnnotation creator = levelCreators.get( levelKey( attribute.getDimension(), attribute.getParentAttribute() ) );
+    return creator == annotation ? null : creator;
+  }
+
+  private void emit( final ModelAnnotation annotation, final List<ModelAnnotation> ordered,
+                     final Set<ModelAnnotation> emitted, final Map<ModelAnnotation, List<ModelAnnotation>> waiting ) {
+    if ( !emitted.add( annotation ) ) {
+      return;
+    }
+    ordered.add( annotation );
+    List<ModelAnnotation> children = waiting.remove( annotation );
+    if ( children != null ) {
+      for ( ModelAnnotation child : children ) {
+        emit( child, ordered, emitted, waiting );
+      }
+    }
+  }
+
+  static CreateAttribute asCreateAttribute( final ModelAnnotation annotation ) {
+    return annotation.getAnnotation() instanceof CreateAttribute ? (CreateAttribute) annotation.getAnnotation() : null;
+  }
+
+  private static String levelKey( final String dimension, final String level ) {
+    return StringUtils.defaultString( dimension ) + "\u0000" + StringUtils.defaultString( level );
+  }
+
+  static Set<ModelAnnotation> newIdentitySet() {
+    return Collections.newSetFromMap( new IdentityHashMap<ModelAnnotation, Boolean>() );
+  }
+}
@@ -0,0 +1,97 @@
+/*! ******************************************************************************
+ *
+ * Pentaho Community Edition Project: data-refinery-pdi-plugin
+ *
+ * Copyright (C) 2002-2026 by Hitachi Vantara : http://www.pentaho.com
+ *
+ * *******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ********************************************************************************/
+
+package org.pentaho.di.core.refinery.model;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Wall clock time spent in each phase of building a model. Phases are kept in the order they were first recorded and
+ * recording the same phase again adds to it, e.g. for annotations of the same type applied in several rounds.
+ */
+public class BuildModelTimings {
+
+  public static final String CONNECTION = "connection";
+  public static final String MODEL_EXISTS = "modelExists";
+  public static final String DOWNLOAD_DSW = "downloadDswFile";
+  public static final String DOWNLOAD_ANALYSIS = "downloadAnalysisFile";
+  public static final String GENERATE_DOMAIN = "generateDomain";
+  public static final String AUTO_MODEL = "autoModelFlat";
+  public static final String POPULATE_DOMAIN = "populateDomain";
+  public static final String APPLY_ANNOTATIONS = "applyAnnotations";
+  public static final String UPDATE_MODEL = "updateModel";
+  public static final String GENERATE_XMI = "generateXmi";
+  public static final String REWRITE_ANALYSIS = "rewriteAnalysis";
+
+  private final Map<String, Long> elapsedNanos = new LinkedHashMap<>();
+
+  /**
+   * @return start mark to pass to {@link #record(String, long)}
+   */
+  public long start() {
+    return System.nanoTime();
+  }
+
+  /**
+   * Adds the time elapsed since a start mark to a phase.
+   */
+  public void record( final String phase, final long startNanos ) {
+    add( phase, System.nanoTime() - startNanos );
+  }
+
+  public synchronized void add( final String phase, final long nanos ) {
+    Long previous = elapsedNanos.get( phase );
+    elapsedNanos.put( phase, previous == null ? nanos : previous + nanos );
+  }
+
+  /**
+   * @return milliseconds per phase, in recording order
+   */
+  public synchronized Map<String, Long> getMillis() {
+    Map<String, Long> millis = new LinkedHashMap<>();
+    for ( Map.Entry<String, Long> entry : elapsedNanos.entrySet() ) {
+      millis.put( entry.getKey(), TimeUnit.NANOSECONDS.toMillis( entry.getValue() ) );
+    }
+    return millis;
+  }
+
+  public synchronized boolean isEmpty() {
+    return elapsedNanos.isEmpty();
+  }
+
+  /**
+   * @return phases as <code>phase=12ms</code> pairs separated by comma, suitable for a single log line
+   */
+  @Override
+  public String toString() {
+    StringBuilder line = new StringBuilder();
+    for ( Map.Entry<String, Long> entry : getMillis().entrySet() ) {
+      if ( line.length() > 0 ) {
+        line.append( ", " );
+      }
+      line.append( entry.getKey() ).append( '=' ).append( entry.getValue() ).append( "ms" );
+    }
+    return line.toString();
+  }
+}
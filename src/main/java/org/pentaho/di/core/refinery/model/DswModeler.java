@@ -2,7 +2,7 @@
  *
  * Pentaho Community Edition Project: data-refinery-pdi-plugin
  *
- * Copyright (C) 2002-2017 by Hitachi Vantara : http://www.pentaho.com
+ * Copyright (C) 2002-2026 by Hitachi Vantara : http://www.pentaho.com
  *
  * *******************************************************************************
  *
@@ -35,8 +35,6 @@ import org.pentaho.agilebi.modeler.models.annotations.CreateAttribute;
 import org.pentaho.agilebi.modeler.models.annotations.ModelAnnotation;
 import org.pentaho.agilebi.modeler.models.annotations.ModelAnnotationGroup;
 import org.pentaho.agilebi.modeler.models.annotations.ModelAnnotationGroup.ApplyStatus;
-import org.pentaho.agilebi.modeler.nodes.DimensionMetaData;
-import org.pentaho.agilebi.modeler.nodes.DimensionMetaDataCollection;
 import org.pentaho.agilebi.modeler.nodes.HierarchyMetaData;
 import org.pentaho.agilebi.modeler.nodes.LevelMetaData;
 import org.pentaho.agilebi.modeler.util.TableModelerSource;
@@ -67,7 +65,10 @@ import org.pentaho.metastore.api.IMetaStore;
 import org.pentaho.pms.core.exception.PentahoMetadataException;
 
 import java.util.ArrayList;
+import java.util.EnumMap;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
@@ -122,8 +123,22 @@ public class DswModeler {
                              final PhysicalTableImporter.ImportStrategy importStrategy, final ModelAnnotationGroup modelAnnotations,
                              final IMetaStore metaStore )
     throws ModelerException {
+    return createModel( modelName, source, dbMeta, importStrategy, modelAnnotations, metaStore,
+        new BuildModelTimings() );
+  }
+
+  /**
+   * Creates a new DSW-enabled XMI model, recording the time spent in each modeling phase
+   * @param timings receives generateDomain, autoModelFlat, populateDomain and per annotation type timings
+   */
+  public Domain createModel( final String modelName, TableModelerSource source, DatabaseMeta dbMeta,
+                             final PhysicalTableImporter.ImportStrategy importStrategy, final ModelAnnotationGroup modelAnnotations,
+                             final IMetaStore metaStore, final BuildModelTimings timings )
+    throws ModelerException {
     // Create PME with physical metadata and then set into modeler
+    long start = timings.start();
     Domain domain = source.generateDomain( importStrategy );
+    timings.record( BuildModelTimings.GENERATE_DOMAIN, start );
 
     if ( domain.getLogicalModels().get( 0 ).getLogicalTables().get( 0 ).getLogicalColumns().size() == 0 ) {
       throw new ModelerException( BaseMessages.getString( PKG, "BuildModelJob.Error.NoData" ) );
@@ -137,15 +152,21 @@ public class DswModeler {
     model.setModelName( modelName );
 
     // Use modeler to generate OLAP metadata
+    start = timings.start();
     model.getWorkspaceHelper().autoModelFlat( model );
+    timings.record( BuildModelTimings.AUTO_MODEL, start );
+
+    ModelerWorkspaceIndex index = new ModelerWorkspaceIndex( model );
 
     // if there is a dimension with the same name as the geo, remove it preemptively
     if ( hasGeoDimConflict( geoContext, modelAnnotations ) ) {
-      removeAutoGeo( model );
+      removeAutoGeo( model, index );
     }
 
     // Now save update PME with OLAP metadata
+    start = timings.start();
     model.getWorkspaceHelper().populateDomain( model );
+    timings.record( BuildModelTimings.POPULATE_DOMAIN, start );
 
     // Now to do black magic to make PME a DSW data source
     enableDswModel( domain, model );
@@ -153,7 +174,7 @@ public class DswModeler {
     // set the category name that will show up in report designer
     setReportModelName( modelName, model );
 
-    applyAnnotations( model, modelAnnotations, metaStore );
+    applyAnnotations( model, modelAnnotations, metaStore, timings );
 
     final Domain modeledDomain = model.getDomain();
 
@@ -180,33 +201,32 @@ public class DswModeler {
     return false;
   }
 
-  private void removeAutoGeo( final ModelerWorkspace workspace ) {
-    DimensionMetaDataCollection dimensions = workspace.getModel().getDimensions();
-    DimensionMetaData toRemove = null;
+  private void removeAutoGeo( final ModelerWorkspace workspace, final ModelerWorkspaceIndex index ) {
     GeoContext geoContext = workspace.getGeoContext();
-    for ( DimensionMetaData dimensionMetaData : dimensions ) {
-      if ( geoContext != null && dimensionMetaData.getName().equals( geoContext.getDimensionName() ) ) {
-        for ( HierarchyMetaData hierarchyMetaData : dimensionMetaData ) {
-          if ( hierarchyMetaData.getName().equals( geoContext.getDimensionName() ) ) {
-            for ( LevelMetaData levelMetaData : hierarchyMetaData ) {
-              if ( levelMetaData.getMemberAnnotations().get( "Data.Role" ) != null ) {
-                toRemove = dimensionMetaData;
-                break;
-              }
-            }
-          }
-        }
-      }
+    if ( geoContext == null ) {
+      return;
     }
-    if ( toRemove != null ) {
-      dimensions.remove( toRemove );
+    HierarchyMetaData hierarchyMetaData =
+        index.getHierarchy( geoContext.getDimensionName(), geoContext.getDimensionName() );
+    if ( hierarchyMetaData == null ) {
+      return;
+    }
+    for ( LevelMetaData levelMetaData : hierarchyMetaData ) {
+      if ( levelMetaData.getMemberAnnotations().get( "Data.Role" ) != null ) {
+        workspace.getModel().getDimensions().remove( index.getDimension( geoContext.getDimensionName() ) );
+        index.invalidate();
+        return;
+      }
     }
   }
 
   private GeoContext initGeoContext() {
     try {
       GeoContextConfigProvider config = getGeoContextConfigProvider();
-
+      if ( config instanceof GeoContextBlueprintConfigProvider ) {
+        // reads the geo roles configuration only after it changed
+        return ( (GeoContextBlueprintConfigProvider) config ).getGeoContext();
+      }
       return GeoContextFactory.create( config );
     } catch ( Throwable e ) {
       log.logDebug( "unable to locate geoRoles properties" );
@@ -214,11 +234,77 @@ public class DswModeler {
     return null;
   }
 
-  private void applyAnnotations(
-      final ModelerWorkspace model, final ModelAnnotationGroup modelAnnotations, final IMetaStore metaStore )
+  /**
+   * Applies the annotations with {@link ModelAnnotationGroup#applyAnnotations} one type at a time, so each type can be
+   * timed, attributes after the attribute creating their parent level so wide models with deep hierarchies need few
+   * retry passes. Annotations failing on one of another type are retried for as long as a round gets at least one more
+   * annotation applied, the same outcome as a single call over all of them.
+   * <p>
+   * All annotations are applied one after another to the one workspace: annotations mutate its collections and the
+   * Domain, neither of which is thread safe, and separately built workspaces cannot be merged into one.
+   */
+  private void applyAnnotations( final ModelerWorkspace model, final ModelAnnotationGroup modelAnnotations,
+                                 final IMetaStore metaStore, final BuildModelTimings timings )
     throws ModelerException {
-    Map<ApplyStatus, List<ModelAnnotation>> statusMap =
-        modelAnnotations.applyAnnotations( model, metaStore );
+    Map<ApplyStatus, List<ModelAnnotation>> statusMap = new EnumMap<>( ApplyStatus.class );
+    for ( ApplyStatus status : ApplyStatus.values() ) {
+      statusMap.put( status, new ArrayList<ModelAnnotation>() );
+    }
+    // types in order of first appearance
+    Map<String, ModelAnnotationGroup> pending = new LinkedHashMap<>();
+    for ( ModelAnnotation modelAnnotation : new AnnotationDependencies( modelAnnotations )
+        .parentsFirst( modelAnnotations ) ) {
+      if ( modelAnnotation.getAnnotation() == null ) {
+        statusMap.get( NULL_ANNOTATION ).add( modelAnnotation );
+        continue;
+      }
+      ModelAnnotation.Type type = modelAnnotation.getType();
+      String phase = BuildModelTimings.APPLY_ANNOTATIONS + "." + ( type == null ? "OTHER" : type.name() );
+      ModelAnnotationGroup group = pending.get( phase );
+      if ( group == null ) {
+        group = new ModelAnnotationGroup();
+        pending.put( phase, group );
+      }
+      group.add( modelAnnotation );
+    }
+
+    // applied annotations so far, and the count when the failures of a type were last retried
+    int appliedCount = 0;
+    Map<String, Integer> retriedAt = new HashMap<>();
+    boolean progress = true;
+    while ( progress && !pending.isEmpty() ) {
+      progress = false;
+      for ( Iterator<Map.Entry<String, ModelAnnotationGroup>> groups = pending.entrySet().iterator();
+            groups.hasNext(); ) {
+        Map.Entry<String, ModelAnnotationGroup> group = groups.next();
+        Integer retried = retriedAt.get( group.getKey() );
+        if ( retried != null && retried == appliedCount ) {
+          // applyAnnotations gave up on them already and nothing changed since
+          continue;
+        }
+        long start = timings.start();
+        Map<ApplyStatus, List<ModelAnnotation>> applied = group.getValue().applyAnnotations( model, metaStore );
+        timings.record( group.getKey(), start );
+
+        List<ModelAnnotation> succeeded = applied.get( SUCCESS );
+        statusMap.get( SUCCESS ).addAll( succeeded );
+        appliedCount += succeeded.size();
+        progress |= !succeeded.isEmpty();
+        List<ModelAnnotation> failed = applied.get( FAILED );
+        if ( failed.isEmpty() ) {
+          groups.remove();
+        } else {
+          ModelAnnotationGroup retry = new ModelAnnotationGroup();
+          retry.addAll( failed );
+          group.setValue( retry );
+          retriedAt.put( group.getKey(), appliedCount );
+        }
+      }
+    }
+    for ( ModelAnnotationGroup failed : pending.values() ) {
+      statusMap.get( FAILED ).addAll( failed );
+    }
+
     if ( log.isBasic() ) {
       logBasic( statusMap.get( SUCCESS ), "ModelAnnotation.log.AnnotationSuccess" );
       logBasic( statusMap.get( FAILED ), "ModelAnnotation.log.AnnotationFailure" );
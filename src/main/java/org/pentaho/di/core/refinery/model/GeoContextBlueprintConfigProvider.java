@@ -1,7 +1,7 @@
 /*
  * ******************************************************************************
  *
- * Copyright (C) 2002-2017 by Hitachi Vantara : http://www.pentaho.com
+ * Copyright (C) 2002-2026 by Hitachi Vantara : http://www.pentaho.com
  *
  * ******************************************************************************
  *
@@ -20,23 +20,42 @@
 
 package org.pentaho.di.core.refinery.model;
 
+import org.apache.commons.lang.SerializationException;
+import org.apache.commons.lang.SerializationUtils;
 import org.osgi.framework.BundleContext;
 import org.osgi.framework.ServiceReference;
 import org.pentaho.agilebi.modeler.ModelerException;
+import org.pentaho.agilebi.modeler.geo.GeoContext;
 import org.pentaho.agilebi.modeler.geo.GeoContextConfigProvider;
+import org.pentaho.agilebi.modeler.geo.GeoContextFactory;
 import org.osgi.service.cm.ConfigurationAdmin;
 import org.osgi.service.cm.Configuration;
 
 import java.util.Dictionary;
+import java.util.Enumeration;
 import java.util.Hashtable;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Created by rfellows on 11/23/15.
+ * <p>
+ * The <code>pentaho.geo.roles</code> properties are read from the configuration admin once and shared by all providers
+ * until {@link GeoRolesConfigurationListener} reports a change. Each provider works on its own copy, builds its
+ * {@link GeoContext} once per configuration version and hands out copies of it, so runs never share mutable state.
  */
 public class GeoContextBlueprintConfigProvider implements GeoContextConfigProvider {
 
+  public static final String GEO_ROLES_PID = "pentaho.geo.roles";
+
+  // bumped on every change of the geo roles configuration
+  private static final AtomicLong CONFIG_VERSION = new AtomicLong();
+  private static ConfigSnapshot snapshot;
+
   private BundleContext bundleContext;
   protected Dictionary<String, Object> props = new Hashtable<>();
+  private volatile long propsVersion = -1;
+  private GeoContext geoContext;
+  private boolean serializable = true;
 
   public BundleContext getBundleContext() {
     return bundleContext;
@@ -50,19 +69,82 @@ public class GeoContextBlueprintConfigProvider implements GeoContextConfigProvid
 
   protected void initProps() {
 
+    long version = CONFIG_VERSION.get();
+    propsVersion = version;
+    geoContext = null;
     final ServiceReference serviceReference = getBundleContext().getServiceReference( ConfigurationAdmin.class.getName() );
     if ( serviceReference != null ) {
 
       try {
         final ConfigurationAdmin admin = (ConfigurationAdmin) getBundleContext().getService( serviceReference );
-        final Configuration configuration = admin.getConfiguration( "pentaho.geo.roles" );
+        ConfigSnapshot cached = getSnapshot( admin, version );
+        if ( cached != null ) {
+          props = copy( cached.props );
+          return;
+        }
+        final Configuration configuration = admin.getConfiguration( GEO_ROLES_PID );
         props = configuration.getProperties();
+        putSnapshot( new ConfigSnapshot( admin, version, copy( props ) ) );
       } catch ( Exception e ) {
         props = new Hashtable<>();
       }
     }
   }
 
+  /**
+   * @return a copy of the geo context for the current configuration, which is read and built again only after it
+   * changed
+   */
+  public synchronized GeoContext getGeoContext() throws ModelerException {
+    if ( getBundleContext() == null ) {
+      // properties set directly are not tracked
+      return GeoContextFactory.create( this );
+    }
+    if ( propsVersion != CONFIG_VERSION.get() ) {
+      initProps();
+    }
+    if ( geoContext == null ) {
+      geoContext = GeoContextFactory.create( this );
+    }
+    if ( serializable ) {
+      try {
+        return (GeoContext) SerializationUtils.clone( geoContext );
+      } catch ( SerializationException e ) {
+        serializable = false;
+      }
+    }
+    return GeoContextFactory.create( this );
+  }
+
+  /**
+   * Makes every provider read the geo roles configuration again on its next {@link #getGeoContext()}.
+   */
+  static void configurationChanged() {
+    CONFIG_VERSION.incrementAndGet();
+  }
+
+  private static synchronized ConfigSnapshot getSnapshot( final ConfigurationAdmin admin, final long version ) {
+    return snapshot != null && snapshot.admin == admin && snapshot.version == version ? snapshot : null;
+  }
+
+  private static synchronized void putSnapshot( final ConfigSnapshot newSnapshot ) {
+    if ( snapshot == null || snapshot.version <= newSnapshot.version ) {
+      snapshot = newSnapshot;
+    }
+  }
+
+  private static Dictionary<String, Object> copy( final Dictionary<String, Object> source ) {
+    if ( source == null ) {
+      return null;
+    }
+    Hashtable<String, Object> copy = new Hashtable<>();
+    for ( Enumeration<String> keys = source.keys(); keys.hasMoreElements(); ) {
+      String key = keys.nextElement();
+      copy.put( key, source.get( key ) );
+    }
+    return copy;
+  }
+
   @Override
   public String getDimensionName() throws ModelerException {
     Object value = this.props.get( "geo.dimension.name" );
@@ -104,4 +186,19 @@ public class GeoContextBlueprintConfigProvider implements GeoContextConfigProvid
       return null;
     }
   }
+
+  /**
+   * Geo roles properties read from one configuration admin at one configuration version, never modified
+   */
+  private static class ConfigSnapshot {
+    private final ConfigurationAdmin admin;
+    private final long version;
+    private final Dictionary<String, Object> props;
+
+    ConfigSnapshot( final ConfigurationAdmin admin, final long version, final Dictionary<String, Object> props ) {
+      this.admin = admin;
+      this.version = version;
+      this.props = props;
+    }
+  }
 }
@@ -0,0 +1,41 @@
+/*! ******************************************************************************
+ *
+ * Pentaho Community Edition Project: data-refinery-pdi-plugin
+ *
+ * Copyright (C) 2002-2026 by Hitachi Vantara : http://www.pentaho.com
+ *
+ * *******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ********************************************************************************/
+
+package org.pentaho.di.core.refinery.model;
+
+import org.osgi.service.cm.ConfigurationEvent;
+import org.osgi.service.cm.ConfigurationListener;
+
+/**
+ * Tells {@link GeoContextBlueprintConfigProvider} when the <code>pentaho.geo.roles</code> configuration is updated or
+ * deleted. Registered once for the bundle, unlike the providers, which are created per use.
+ */
+public class GeoRolesConfigurationListener implements ConfigurationListener {
+
+  @Override
+  public void configurationEvent( final ConfigurationEvent event ) {
+    if ( GeoContextBlueprintConfigProvider.GEO_ROLES_PID.equals( event.getPid() )
+        && ( event.getType() == ConfigurationEvent.CM_UPDATED || event.getType() == ConfigurationEvent.CM_DELETED ) ) {
+      GeoContextBlueprintConfigProvider.configurationChanged();
+    }
+  }
+}
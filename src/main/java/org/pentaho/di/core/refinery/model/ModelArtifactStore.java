@@ -0,0 +1,421 @@
+/*! ******************************************************************************
+ *
+ * Pentaho Community Edition Project: data-refinery-pdi-plugin
+ *
+ * Copyright (C) 2002-2026 by Hitachi Vantara : http://www.pentaho.com
+ *
+ * *******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ********************************************************************************/
+
+package org.pentaho.di.core.refinery.model;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.input.ReaderInputStream;
+import org.apache.commons.lang.StringUtils;
+import org.pentaho.di.core.Const;
+import org.pentaho.di.core.exception.KettleException;
+import org.pentaho.di.core.util.EnvUtil;
+import org.pentaho.di.i18n.BaseMessages;
+import org.pentaho.di.job.entries.build.JobEntryBuildModel;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.StringReader;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Keeps generated model artifacts (XMI, Mondrian schemas) on local disk so job variables only have to carry a small
+ * handle instead of the whole document.
+ * <p>
+ * Artifacts are content addressed: a handle holds the SHA-256 digest and the size of the stored bytes, and storing the
+ * same content twice reuses the same file. Values that are not handles (e.g. a schema set by a Set Variables job
+ * entry) are passed through unchanged, so readers can treat every variable value the same way.
+ * <p>
+ * An artifact is kept for as long as a job holds its handle, see {@link #retain(String)}, and purged a day after it was
+ * last stored, read or released.
+ */
+public class ModelArtifactStore {
+
+  public static final String HANDLE_PREFIX = "refinery-artifact:";
+
+  /** Directory holding the artifacts, defaults to a folder of the current user under java.io.tmpdir */
+  public static final String KETTLE_DATA_REFINERY_ARTIFACT_DIR = "KETTLE_DATA_REFINERY_ARTIFACT_DIR";
+  /** Set to Y to keep putting the whole model in job variables */
+  public static final String KETTLE_DATA_REFINERY_INLINE_MODELS = "KETTLE_DATA_REFINERY_INLINE_MODELS";
+
+  private static final String ENCODING = "UTF-8";
+  private static final String DIGEST_ALGORITHM = "SHA-256";
+  private static final String ARTIFACT_EXTENSION = ".xml";
+  private static final long RETENTION_MILLIS = TimeUnit.DAYS.toMillis( 1 );
+  private static final long PURGE_INTERVAL_MILLIS = TimeUnit.HOURS.toMillis( 1 );
+  private static final String OWNER_ONLY = "rwx------";
+  private static final Class<?> PKG = JobEntryBuildModel.class;
+
+  private static ModelArtifactStore instance;
+
+  private final File directory;
+  private final boolean inline;
+  private final AtomicLong nextPurge = new AtomicLong();
+  /** digests of artifacts whose handles are still held, with the number of holders */
+  private final Map<String, Integer> retained = new HashMap<>();
+
+  public ModelArtifactStore( final File directory, final boolean inline ) {
+    this.directory = directory;
+    this.inline = inline;
+  }
+
+  public static synchronized ModelArtifactStore getInstance() {
+    if ( instance == null ) {
+      String dir = EnvUtil.getSystemProperty( KETTLE_DATA_REFINERY_ARTIFACT_DIR );
+      // java.io.tmpdir is usually shared, so every user gets a folder of their own
+      File directory = StringUtils.isBlank( dir ) ? new File( System.getProperty( "java.io.tmpdir" ),
+          "pdi-refinery-artifacts-" + System.getProperty( "user.name" ) ) : new File( dir );
+      boolean inline = "Y".equalsIgnoreCase( Const.NVL( EnvUtil.getSystemProperty( KETTLE_DATA_REFINERY_INLINE_MODELS ),
+          "N" ) );
+      instance = new ModelArtifactStore( directory, inline );
+    }
+    return instance;
+  }
+
+  public static boolean isHandle( final String value ) {
+    return value != null && value.startsWith( HANDLE_PREFIX );
+  }
+
+  /**
+   * Writes content to the store.
+   *
+   * @param content document to store, may be null or a handle of an already stored document
+   * @return a handle for the stored document, the content itself when inlining is enabled, or null for null content
+   * @throws KettleException if the artifact cannot be written
+   */
+  public String store( final String content ) throws KettleException {
+    if ( content == null || inline || isHandle( content ) ) {
+      return content;
+    }
+    return storeFrom( new ArtifactWriter() {
+      @Override public void writeTo( final OutputStream out ) throws IOException {
+        // encode straight to disk so the document is never copied into a byte array
+        Writer writer = new BufferedWriter( new OutputStreamWriter( out, ENCODING ) );
+        writer.write( content );
+        writer.flush();
+      }
+    } );
+  }
+
+  /**
+   * Streams a document into the store, hashing it on the way, so it never has to be held in memory. Nothing is stored
+   * if the writer fails.
+   *
+   * @param content writes the UTF-8 encoded document, may be null
+   * @return a handle for the stored document, the content itself when inlining is enabled, or null for null content
+   * @throws KettleException if the artifact cannot be written or the writer failed
+   */
+  public String storeFrom( final ArtifactWriter content ) throws KettleException {
+    if ( content == null ) {
+      return null;
+    }
+    if ( inline ) {
+      ByteArrayOutputStream out = new ByteArrayOutputStream();
+      try {
+        content.writeTo( out );
+        return out.toString( ENCODING );
+      } catch ( IOException e ) {
+        throw new KettleException( e );
+      }
+    }
+    createDirectory();
+    purgeIfDue();
+    File temp = null;
+    try {
+      // created readable by the owner only
+      temp = Files.createTempFile( directory.toPath(), "artifact", ".tmp" ).toFile();
+      MessageDigest digest = MessageDigest.getInstance( DIGEST_ALGORITHM );
+      try ( OutputStream out =
+                new DigestOutputStream( new BufferedOutputStream( new FileOutputStream( temp ) ), digest ) ) {
+        content.writeTo( out );
+      }
+      String hex = toHex( digest.digest() );
+      long size = temp.length();
+      File target = artifactFile( hex );
+      if ( target.isFile() && target.length() == size ) {
+        // same content already stored, keep it around a while longer
+        target.setLastModified( System.currentTimeMillis() );
+      } else {
+        Files.move( temp.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING );
+      }
+      return HANDLE_PREFIX + hex + ":" + size;
+    } catch ( IOException | NoSuchAlgorithmException e ) {
+      throw new KettleException( e );
+    } finally {
+      if ( temp != null && temp.exists() ) {
+        temp.delete();
+      }
+    }
+  }
+
+  /**
+   * Opens a stored artifact for reading. Values that are not handles are streamed from the String itself.
+   *
+   * @param value handle or plain document
+   * @return stream over the document, or null for null
+   * @throws KettleException if the handle does not point to a stored artifact
+   */
+  public InputStream open( final String value ) throws KettleException {
+    if ( value == null ) {
+      return null;
+    }
+    if ( !isHandle( value ) ) {
+      // encoded as it is read, a large document is not copied into a byte array first
+      return new ReaderInputStream( new StringReader( value ), ENCODING );
+    }
+    File file = getArtifactFile( value );
+    try {
+      InputStream input = new BufferedInputStream( new FileInputStream( file ) );
+      // retention counts from the last use
+      file.setLastModified( System.currentTimeMillis() );
+      return input;
+    } catch ( FileNotFoundException e ) {
+      throw new KettleException( BaseMessages.getString( PKG, "ModelArtifactStore.Error.NotFound", value ), e );
+    }
+  }
+
+  /**
+   * Keeps an artifact from being purged until it is released as often as it was retained, e.g. for as long as the job
+   * holding its handle in a variable runs. Values that are not handles are ignored.
+   */
+  public synchronized void retain( final String value ) {
+    String digest = getDigest( value );
+    if ( digest != null && digest.matches( "[0-9a-f]+" ) ) {
+      Integer holders = retained.get( digest );
+      retained.put( digest, holders == null ? 1 : holders + 1 );
+    }
+  }
+
+  /**
+   * Gives up a hold taken with {@link #retain(String)}. The artifact expires a retention period after the last
+   * release.
+   */
+  public synchronized void release( final String value ) {
+    String digest = getDigest( value );
+    Integer holders = digest == null ? null : retained.get( digest );
+    if ( holders == null ) {
+      return;
+    }
+    if ( holders > 1 ) {
+      retained.put( digest, holders - 1 );
+    } else {
+      retained.remove( digest );
+      artifactFile( digest ).setLastModified( System.currentTimeMillis() );
+    }
+  }
+
+  /**
+   * @param value handle or plain document
+   * @return a source opening the document with {@link #open(String)} each time, or null for null
+   */
+  public ModelSource source( final String value ) {
+    if ( value == null ) {
+      return null;
+    }
+    return new ModelSource() {
+      @Override public InputStream open() throws KettleException {
+        return ModelArtifactStore.this.open( value );
+      }
+    };
+  }
+
+  /**
+   * Reads a whole artifact back into a String, for callers that need the document itself.
+   */
+  public String resolve( final String value ) throws KettleException {
+    if ( !isHandle( value ) ) {
+      return value;
+    }
+    try ( InputStream input = open( value ) ) {
+      return IOUtils.toString( input, ENCODING );
+    } catch ( IOException e ) {
+      throw new KettleException( e );
+    }
+  }
+
+  /**
+   * @return hex encoded SHA-256 digest of the artifact a handle points to, null if the value is not a handle
+   */
+  public static String getDigest( final String value ) {
+    if ( !isHandle( value ) ) {
+      return null;
+    }
+    return StringUtils.substringBefore( value.substring( HANDLE_PREFIX.length() ), ":" );
+  }
+
+  /**
+   * @return size in bytes of the artifact a handle points to, -1 if the value is not a handle
+   */
+  public static long getSize( final String value ) {
+    if ( !isHandle( value ) ) {
+      return -1;
+    }
+    return Const.toLong( StringUtils.substringAfter( value.substring( HANDLE_PREFIX.length() ), ":" ), -1 );
+  }
+
+  /**
+   * Same digest as {@link #getDigest(String)} for handles, which are not read; plain documents are hashed as UTF-8 the
+   * way {@link #store(String)} would.
+   *
+   * @return hex encoded SHA-256 digest of a handle or plain document, null for null
+   */
+  public static String digestOf( final String value ) throws KettleException {
+    if ( value == null ) {
+      return null;
+    }
+    if ( isHandle( value ) ) {
+      return getDigest( value );
+    }
+    try {
+      return toHex( MessageDigest.getInstance( DIGEST_ALGORITHM ).digest( value.getBytes( ENCODING ) ) );
+    } catch ( IOException | NoSuchAlgorithmException e ) {
+      throw new KettleException( e );
+    }
+  }
+
+  /**
+   * Reads a source to the end without keeping it
+   *
+   * @return hex encoded SHA-256 digest of the source, null for null
+   */
+  public static String digestFrom( final ModelSource source ) throws KettleException {
+    if ( source == null ) {
+      return null;
+    }
+    try ( InputStream in = source.open() ) {
+      MessageDigest digest = MessageDigest.getInstance( DIGEST_ALGORITHM );
+      byte[] buffer = new byte[ 8192 ];
+      for ( int read = in.read( buffer ); read >= 0; read = in.read( buffer ) ) {
+        digest.update( buffer, 0, read );
+      }
+      return toHex( digest.digest() );
+    } catch ( IOException | NoSuchAlgorithmException e ) {
+      throw new KettleException( e );
+    }
+  }
+
+  File getArtifactFile( final String handle ) throws KettleException {
+    String digest = getDigest( handle );
+    if ( StringUtils.isBlank( digest ) || !digest.matches( "[0-9a-f]+" ) ) {
+      throw new KettleException( BaseMessages.getString( PKG, "ModelArtifactStore.Error.InvalidHandle", handle ) );
+    }
+    File file = artifactFile( digest );
+    if ( !file.isFile() || file.length() != getSize( handle ) ) {
+      throw new KettleException( BaseMessages.getString( PKG, "ModelArtifactStore.Error.NotFound", handle ) );
+    }
+    return file;
+  }
+
+  /**
+   * Creates the artifact directory readable by the current user only, as the artifacts hold whole models.
+   */
+  private void createDirectory() throws KettleException {
+    if ( directory.isDirectory() ) {
+      return;
+    }
+    Path path = directory.toPath();
+    try {
+      if ( path.getFileSystem().supportedFileAttributeViews().contains( "posix" ) ) {
+        Files.createDirectories( path,
+            PosixFilePermissions.asFileAttribute( PosixFilePermissions.fromString( OWNER_ONLY ) ) );
+      } else {
+        Files.createDirectories( path );
+        directory.setReadable( false, false );
+        directory.setWritable( false, false );
+        directory.setExecutable( false, false );
+        directory.setReadable( true, true );
+        directory.setWritable( true, true );
+        directory.setExecutable( true, true );
+      }
+    } catch ( IOException e ) {
+      throw new KettleException(
+          BaseMessages.getString( PKG, "ModelArtifactStore.Error.CreateDirectory", directory.getPath() ), e );
+    }
+  }
+
+  /**
+   * Purges expired artifacts at most once per interval, so a long running server does not keep them forever.
+   */
+  void purgeIfDue() {
+    long now = System.currentTimeMillis();
+    long due = nextPurge.get();
+    if ( now >= due && nextPurge.compareAndSet( due, now + PURGE_INTERVAL_MILLIS ) ) {
+      purgeExpired();
+    }
+  }
+
+  /**
+   * Deletes artifacts nobody retains that were neither stored nor read within the retention period
+   */
+  synchronized void purgeExpired() {
+    File[] files = directory.listFiles();
+    if ( files == null ) {
+      return;
+    }
+    long cutoff = System.currentTimeMillis() - RETENTION_MILLIS;
+    for ( File file : files ) {
+      if ( file.isFile() && file.lastModified() < cutoff
+          && !retained.containsKey( StringUtils.removeEnd( file.getName(), ARTIFACT_EXTENSION ) ) ) {
+        file.delete();
+      }
+    }
+  }
+
+  private File artifactFile( final String digest ) {
+    return new File( directory, digest + ARTIFACT_EXTENSION );
+  }
+
+  private static String toHex( final byte[] bytes ) {
+    StringBuilder hex = new StringBuilder( bytes.length * 2 );
+    for ( byte b : bytes ) {
+      hex.append( Character.forDigit( ( b >> 4 ) & 0xF, 16 ) ).append( Character.forDigit( b & 0xF, 16 ) );
+    }
+    return hex.toString();
+  }
+
+  /**
+   * Writes a document into the store
+   */
+  public interface ArtifactWriter {
+    void writeTo( OutputStream out ) throws IOException, KettleException;
+  }
+}
@@ -0,0 +1,551 @@
+/*! ******************************************************************************
+ *
+ * Pentaho Community Edition Project: data-refinery-pdi-plugin
+ *
+ * Copyright (C) 2002-2026 by Hitachi Vantara : http://www.pentaho.com
+ *
+ * *******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ********************************************************************************/
+
+package org.pentaho.di.core.refinery.model;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.lang.StringUtils;
+import org.pentaho.di.core.Const;
+import org.pentaho.di.core.util.EnvUtil;
+
+import javax.ws.rs.core.EntityTag;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Disk copies of BA server responses that came with an ETag or Last-Modified header, i.e. model downloads and data
+ * source ID lists, so a job asking for the same ones again mostly pays for a 304 instead of the whole transfer.
+ * <p>
+ * {@link ModelServerFetcher} sends the validators of a cached copy with its request and reads the copy when the server
+ * answers 304, the server still decides on authorization and freshness. Entries are keyed by URL and user and survive
+ * restarts; the least recently used ones are dropped once the cache outgrows its size limit. Responses larger than the
+ * whole cache are passed through and not kept. Bodies are copied to disk while the caller reads them, so caching does
+ * not hold up the first byte.
+ */
+public class ModelDownloadCache {
+
+  /** Directory holding the cached responses, defaults to a folder of the current user under java.io.tmpdir */
+  public static final String KETTLE_DATA_REFINERY_DOWNLOAD_CACHE_DIR = "KETTLE_DATA_REFINERY_DOWNLOAD_CACHE_DIR";
+  /** Size limit of the cache in megabytes, 0 disables it */
+  public static final String KETTLE_DATA_REFINERY_DOWNLOAD_CACHE_MB = "KETTLE_DATA_REFINERY_DOWNLOAD_CACHE_MB";
+  private static final int DEFAULT_SIZE_MB = 64;
+
+  private static final String BODY_EXTENSION = ".body";
+  private static final String META_EXTENSION = ".meta";
+  private static final String TEMP_EXTENSION = ".tmp";
+  private static final long STALE_TEMP_MILLIS = TimeUnit.HOURS.toMillis( 1 );
+  private static final String KEY = "key";
+  private static final String ENTITY_TAG = "etag";
+  private static final String WEAK = "weak";
+  private static final String LAST_MODIFIED = "lastModified";
+  private static final String CONTENT_TYPE = "contentType";
+  private static final String OWNER_ONLY = "rwx------";
+
+  private static ModelDownloadCache instance;
+
+  private final File directory;
+  private final long maxBytes;
+  private final Map<String, Entry> entries = new LinkedHashMap<>( 16, 0.75f, true );
+  private boolean loaded;
+  private long totalBytes;
+
+  private final AtomicLong hits = new AtomicLong();
+  private final AtomicLong misses = new AtomicLong();
+  private final AtomicLong evictions = new AtomicLong();
+
+  public ModelDownloadCache( final File directory, final long maxBytes ) {
+    this.directory = directory;
+    this.maxBytes = maxBytes;
+  }
+
+  public static synchronized ModelDownloadCache getInstance() {
+    if ( instance == null ) {
+      String dir = EnvUtil.getSystemProperty( KETTLE_DATA_REFINERY_DOWNLOAD_CACHE_DIR );
+      // java.io.tmpdir is usually shared, so every user gets a folder of their own
+      File directory = StringUtils.isBlank( dir ) ? new File( System.getProperty( "java.io.tmpdir" ),
+          "pdi-refinery-downloads-" + System.getProperty( "user.name" ) ) : new File( dir );
+      long megabytes = Const.toInt( EnvUtil.getSystemProperty( KETTLE_DATA_REFINERY_DOWNLOAD_CACHE_MB ),
+          DEFAULT_SIZE_MB );
+      instance = new ModelDownloadCache( directory, megabytes * 1024 * 1024 );
+    }
+    return instance;
+  }
+
+  public boolean isEnabled() {
+    return maxBytes > 0;
+  }
+
+  public synchronized Entry get( final String key ) {
+    ensureLoaded();
+    return entries.get( key );
+  }
+
+  /**
+   * Opens the cached copy after the server confirmed it with a 304
+   *
+   * @return the cached body, or null if it has gone from disk meanwhile; the entry is dropped then
+   */
+  public InputStream openNotModified( final Entry entry ) {
+    try {
+      InputStream body = new FileInputStream( entry.body );
+      entry.body.setLastModified( System.currentTimeMillis() );
+      hits.incrementAndGet();
+      return body;
+    } catch ( FileNotFoundException e ) {
+      invalidate( entry.key );
+      return null;
+    }
+  }
+
+  /**
+   * Stores a response body, which may be as large as it gets, if it came with a validator
+   *
+   * @see #put(String, EntityTag, Date, String, long, InputStream)
+   */
+  public InputStream put( final String key, final EntityTag entityTag, final Date lastModified,
+                          final String contentType, final InputStream body ) throws IOException {
+    return put( key, entityTag, lastModified, contentType, -1, body );
+  }
+
+  /**
+   * Stores a response body if it came with a validator. The body is copied to disk while the caller reads it and kept
+   * once it is read to the end or closed; what the caller leaves unread is copied on close. A body larger than the
+   * whole cache is not kept, nor is one that breaks off.
+   *
+   * @param length announced size of the body, -1 if unknown
+   * @return the stream to read the response from
+   */
+  public InputStream put( final String key, final EntityTag entityTag, final Date lastModified,
+                          final String contentType, final long length, final InputStream body ) throws IOException {
+    if ( !isEnabled() ) {
+      return body;
+    }
+    misses.incrementAndGet();
+    if ( ( entityTag == null && lastModified == null ) || length > maxBytes ) {
+      // oversized would evict everything else and itself, just serve it
+      invalidate( key );
+      return body;
+    }
+    createDirectory();
+    // owner only on POSIX file systems, unlike File.createTempFile
+    File temp = Files.createTempFile( directory.toPath(), "download", TEMP_EXTENSION ).toFile();
+    try {
+      return new TeeInputStream( body, new Entry( key, fileName( key ), null, entityTag, lastModified, contentType, 0 ),
+          temp );
+    } catch ( IOException | RuntimeException e ) {
+      temp.delete();
+      throw e;
+    }
+  }
+
+  public synchronized void invalidate( final String key ) {
+    if ( !isEnabled() ) {
+      return;
+    }
+    ensureLoaded();
+    remove( entries.remove( key ) );
+  }
+
+  public synchronized void clear() {
+    ensureLoaded();
+    for ( Entry entry : entries.values() ) {
+      delete( entry );
+    }
+    entries.clear();
+    totalBytes = 0;
+  }
+
+  /**
+   * @return responses served from disk after a 304
+   */
+  public long getHits() {
+    return hits.get();
+  }
+
+  /**
+   * @return responses transferred in full, cached or not
+   */
+  public long getMisses() {
+    return misses.get();
+  }
+
+  /**
+   * @return entries dropped to stay within the size limit
+   */
+  public long getEvictions() {
+    return evictions.get();
+  }
+
+  /**
+   * @return bytes currently cached
+   */
+  public synchronized long getSize() {
+    ensureLoaded();
+    return totalBytes;
+  }
+
+  @Override public String toString() {
+    return "hits=" + getHits() + ", misses=" + getMisses() + ", evictions=" + getEvictions() + ", bytes=" + getSize();
+  }
+
+  private void evict() {
+    for ( Iterator<Entry> eldest = entries.values().iterator(); totalBytes > maxBytes && eldest.hasNext(); ) {
+      Entry entry = eldest.next();
+      eldest.remove();
+      remove( entry );
+      evictions.incrementAndGet();
+    }
+  }
+
+  private void remove( final Entry entry ) {
+    if ( entry != null ) {
+      totalBytes -= entry.size;
+      delete( entry );
+    }
+  }
+
+  private void delete( final Entry entry ) {
+    // meta first, a body without meta is cleaned up on the next load
+    new File( directory, entry.fileName + META_EXTENSION ).delete();
+    entry.body.delete();
+  }
+
+  /**
+   * Moves a completely read body into the cache, dropping the previous copy
+   */
+  private synchronized void keep( final Entry received, final File temp ) throws IOException {
+    ensureLoaded();
+    remove( entries.remove( received.key ) );
+    Entry entry = new Entry( received.key, received.fileName, new File( directory, received.fileName + BODY_EXTENSION ),
+        received.entityTag, received.lastModified, received.contentType, temp.length() );
+    Files.move( temp.toPath(), entry.body.toPath(), StandardCopyOption.REPLACE_EXISTING );
+    try {
+      writeMeta( entry );
+    } catch ( IOException e ) {
+      entry.body.delete();
+      throw e;
+    }
+    entries.put( entry.key, entry );
+    totalBytes += entry.size;
+    evict();
+  }
+
+  /**
+   * Creates the cache directory readable by the current user only, as it holds per-user server responses
+   */
+  private void createDirectory() throws IOException {
+    if ( directory.isDirectory() ) {
+      return;
+    }
+    Path path = directory.toPath();
+    if ( path.getFileSystem().supportedFileAttributeViews().contains( "posix" ) ) {
+      Files.createDirectories( path,
+          PosixFilePermissions.asFileAttribute( PosixFilePermissions.fromString( OWNER_ONLY ) ) );
+    } else {
+      Files.createDirectories( path );
+      directory.setReadable( false, false );
+      directory.setWritable( false, false );
+      directory.setExecutable( false, false );
+      directory.setReadable( true, true );
+      directory.setWritable( true, true );
+      directory.setExecutable( true, true );
+    }
+  }
+
+  /**
+   * Picks up what earlier runs left on disk, least recently used first
+   */
+  private void ensureLoaded() {
+    if ( loaded ) {
+      return;
+    }
+    loaded = true;
+    File[] files = directory.listFiles();
+    if ( files == null ) {
+      return;
+    }
+    List<Entry> found = new ArrayList<>();
+    long staleTemp = System.currentTimeMillis() - STALE_TEMP_MILLIS;
+    for ( File file : files ) {
+      String name = file.getName();
+      if ( name.endsWith( META_EXTENSION ) ) {
+        Entry entry = readMeta( file );
+        if ( entry == null ) {
+          file.delete();
+        } else {
+          found.add( entry );
+        }
+      } else if ( name.endsWith( BODY_EXTENSION )
+          && !new File( directory, StringUtils.removeEnd( name, BODY_EXTENSION ) + META_EXTENSION ).isFile() ) {
+        file.delete();
+      } else if ( name.endsWith( TEMP_EXTENSION ) && file.lastModified() < staleTemp ) {
+        // left behind by a crash, younger ones may still be written or read
+        file.delete();
+      }
+    }
+    Collections.sort( found, new Comparator<Entry>() {
+      @Override public int compare( final Entry a, final Entry b ) {
+        return Long.compare( a.body.lastModified(), b.body.lastModified() );
+      }
+    } );
+    for ( Entry entry : found ) {
+      entries.put( entry.key, entry );
+      totalBytes += entry.size;
+    }
+    evict();
+  }
+
+  private Entry readMeta( final File file ) {
+    Properties meta = new Properties();
+    try ( InputStream in = new FileInputStream( file ) ) {
+      meta.load( in );
+    } catch ( IOException e ) {
+      return null;
+    }
+    String key = meta.getProperty( KEY );
+    String fileName = StringUtils.removeEnd( file.getName(), META_EXTENSION );
+    File body = new File( directory, fileName + BODY_EXTENSION );
+    if ( key == null || !fileName.equals( fileName( key ) ) || !body.isFile() ) {
+      body.delete();
+      return null;
+    }
+    String tag = meta.getProperty( ENTITY_TAG );
+    long lastModified = Const.toLong( meta.getProperty( LAST_MODIFIED ), -1 );
+    return new Entry( key, fileName, body,
+        tag == null ? null : new EntityTag( tag, "Y".equals( meta.getProperty( WEAK ) ) ),
+        lastModified < 0 ? null : new Date( lastModified ), meta.getProperty( CONTENT_TYPE ), body.length() );
+  }
+
+  private void writeMeta( final Entry entry ) throws IOException {
+    Properties meta = new Properties();
+    meta.setProperty( KEY, entry.key );
+    if ( entry.entityTag != null ) {
+      meta.setProperty( ENTITY_TAG, entry.entityTag.getValue() );
+      meta.setProperty( WEAK, entry.entityTag.isWeak() ? "Y" : "N" );
+    }
+    if ( entry.lastModified != null ) {
+      meta.setProperty( LAST_MODIFIED, String.valueOf( entry.lastModified.getTime() ) );
+    }
+    if ( entry.contentType != null ) {
+      meta.setProperty( CONTENT_TYPE, entry.contentType );
+    }
+    try ( OutputStream out = new FileOutputStream( new File( directory, entry.fileName + META_EXTENSION ) ) ) {
+      meta.store( out, null );
+    }
+  }
+
+  private String fileName( final String key ) {
+    try {
+      byte[] digest = MessageDigest.getInstance( "SHA-256" ).digest( key.getBytes( "UTF-8" ) );
+      StringBuilder hex = new StringBuilder( digest.length * 2 );
+      for ( byte b : digest ) {
+        hex.append( Character.forDigit( ( b >> 4 ) & 0xF, 16 ) ).append( Character.forDigit( b & 0xF, 16 ) );
+      }
+      return hex.toString();
+    } catch ( NoSuchAlgorithmException | IOException e ) {
+      // both are always available
+      throw new IllegalStateException( e );
+    }
+  }
+
+  /**
+   * Copies a response body to a temporary file as it is read and hands the file to the cache once the body is
+   * complete. Copying stops, and the file is dropped, as soon as the body outgrows the cache.
+   */
+  private class TeeInputStream extends FilterInputStream {
+    private final Entry received;
+    private final File temp;
+    private OutputStream copy;
+    private long copied;
+    private boolean closed;
+
+    TeeInputStream( final InputStream body, final Entry received, final File temp ) throws IOException {
+      super( body );
+      this.received = received;
+      this.temp = temp;
+      this.copy = new BufferedOutputStream( new FileOutputStream( temp ) );
+    }
+
+    @Override public int read() throws IOException {
+      int b = readOrDrop( null, 0, 1 );
+      if ( b >= 0 ) {
+        copy( new byte[] { (byte) b }, 0, 1 );
+      }
+      return b;
+    }
+
+    @Override public int read( final byte[] b, final int off, final int len ) throws IOException {
+      int n = readOrDrop( b, off, len );
+      if ( n > 0 ) {
+        copy( b, off, n );
+      }
+      return n;
+    }
+
+    @Override public long skip( final long n ) throws IOException {
+      // read instead, skipped bytes belong to the copy too
+      byte[] buffer = new byte[ (int) Math.min( Math.max( n, 0 ), IOUtils.DEFAULT_BUFFER_SIZE ) ];
+      int read = read( buffer, 0, buffer.length );
+      return Math.max( read, 0 );
+    }
+
+    @Override public boolean markSupported() {
+      return false;
+    }
+
+    @Override public void close() throws IOException {
+      if ( closed ) {
+        return;
+      }
+      closed = true;
+      try {
+        if ( copy != null ) {
+          // finish the copy with what the caller left unread, at most up to the size limit
+          byte[] buffer = new byte[ IOUtils.DEFAULT_BUFFER_SIZE ];
+          while ( copy != null && read( buffer, 0, buffer.length ) >= 0 ) {
+            continue;
+          }
+        }
+      } catch ( IOException e ) {
+        drop();
+      } finally {
+        super.close();
+      }
+    }
+
+    private int readOrDrop( final byte[] b, final int off, final int len ) throws IOException {
+      try {
+        int n = b == null ? in.read() : in.read( b, off, len );
+        if ( n < 0 ) {
+          complete();
+        }
+        return n;
+      } catch ( IOException e ) {
+        drop();
+        throw e;
+      }
+    }
+
+    private void copy( final byte[] b, final int off, final int len ) throws IOException {
+      if ( copy == null ) {
+        return;
+      }
+      copied += len;
+      if ( copied > maxBytes ) {
+        // would evict everything else and itself, keep serving it but stop copying
+        drop();
+        return;
+      }
+      try {
+        copy.write( b, off, len );
+      } catch ( IOException e ) {
+        // the cache is only a shortcut, a full disk must not fail the download
+        drop();
+      }
+    }
+
+    private void complete() {
+      if ( copy == null ) {
+        return;
+      }
+      try {
+        copy.close();
+        copy = null;
+        keep( received, temp );
+      } catch ( IOException e ) {
+        invalidate( received.key );
+      } finally {
+        temp.delete();
+      }
+    }
+
+    private void drop() {
+      if ( copy != null ) {
+        IOUtils.closeQuietly( copy );
+        copy = null;
+        temp.delete();
+        invalidate( received.key );
+      }
+    }
+  }
+
+  public static class Entry {
+    private final String key;
+    private final String fileName;
+    private final File body;
+    private final EntityTag entityTag;
+    private final Date lastModified;
+    private final String contentType;
+    private final long size;
+
+    Entry( final String key, final String fileName, final File body, final EntityTag entityTag,
+           final Date lastModified, final String contentType, final long size ) {
+      this.key = key;
+      this.fileName = fileName;
+      this.body = body;
+      this.entityTag = entityTag;
+      this.lastModified = lastModified;
+      this.contentType = contentType;
+      this.size = size;
+    }
+
+    public EntityTag getEntityTag() {
+      return entityTag;
+    }
+
+    public Date getLastModified() {
+      return lastModified == null ? null : new Date( lastModified.getTime() );
+    }
+
+    public String getContentType() {
+      return contentType;
+    }
+
+    public long getSize() {
+      return size;
+    }
+  }
+}
@@ -0,0 +1,163 @@
+/*! ******************************************************************************
+ *
+ * Pentaho Community Edition Project: data-refinery-pdi-plugin
+ *
+ * Copyright (C) 2002-2026 by Hitachi Vantara : http://www.pentaho.com
+ *
+ * *******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ********************************************************************************/
+
+package org.pentaho.di.core.refinery.model;
+
+import org.apache.commons.lang.StringUtils;
+import org.pentaho.di.core.Const;
+import org.pentaho.di.core.refinery.model.ModelServerFetcher.AuthorizationException;
+import org.pentaho.di.core.refinery.model.ModelServerFetcher.ServerException;
+import org.pentaho.di.core.refinery.publish.agilebi.BiServerConnection;
+import org.pentaho.di.core.refinery.publish.util.BiServerExecutor;
+import org.pentaho.di.core.util.EnvUtil;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+/**
+ * Short lived index of the analysis and DSW data source IDs visible to a user on a BA server, so a job with many Build
+ * Model entries does not download both ID lists for every existence check.
+ * <p>
+ * The data-access REST API has no per-ID existence call short of downloading the model, so the index answers from
+ * the ID lists: both lists are fetched concurrently on a miss, a model found in the index is reported as existing
+ * until the entry expires, and a model missing from an index that was not loaded by the same call is checked again
+ * against fresh lists. Publishing through {@link #invalidate(BiServerConnection)} drops the entry for that server and
+ * user right away.
+ */
+public class ModelIdIndex {
+
+  /** Time in milliseconds an ID index stays valid, 0 disables caching */
+  public static final String KETTLE_DATA_REFINERY_MODEL_ID_TTL = "KETTLE_DATA_REFINERY_MODEL_ID_TTL";
+  private static final int DEFAULT_TTL_MILLIS = 30000;
+
+  private static ModelIdIndex instance;
+
+  private final long ttlMillis;
+  private final ConcurrentMap<String, Entry> entries = new ConcurrentHashMap<>();
+
+  public ModelIdIndex( final long ttlMillis ) {
+    this.ttlMillis = ttlMillis;
+  }
+
+  public static synchronized ModelIdIndex getInstance() {
+    if ( instance == null ) {
+      instance = new ModelIdIndex(
+          Const.toInt( EnvUtil.getSystemProperty( KETTLE_DATA_REFINERY_MODEL_ID_TTL ), DEFAULT_TTL_MILLIS ) );
+    }
+    return instance;
+  }
+
+  /**
+   * @param fetcher fetcher connected to the server and user to look at
+   * @param modelId analysis or DSW data source ID
+   * @return true if the model is visible to the fetcher's user
+   */
+  public boolean contains( final ModelServerFetcher fetcher, final String modelId )
+    throws AuthorizationException, ServerException {
+    String key = key( fetcher.getBiServerConnection() );
+    if ( key == null || ttlMillis <= 0 ) {
+      return fetchIds( fetcher ).contains( modelId );
+    }
+    Entry entry = entries.get( key );
+    if ( entry != null && !entry.isExpired() && entry.ids.contains( modelId ) ) {
+      return true;
+    }
+    // either no usable index or a miss that may be stale, the model could have been created since
+    Set<String> ids = fetchIds( fetcher );
+    entries.put( key, new Entry( ids, System.currentTimeMillis() + ttlMillis ) );
+    return ids.contains( modelId );
+  }
+
+  /**
+   * Drops the cached IDs for a server and user, e.g. after publishing to it
+   */
+  public void invalidate( final BiServerConnection connection ) {
+    String key = key( connection );
+    if ( key != null ) {
+      entries.remove( key );
+    }
+  }
+
+  public void clear() {
+    entries.clear();
+  }
+
+  /**
+   * Fetches the analysis and DSW ID lists concurrently
+   */
+  static Set<String> fetchIds( final ModelServerFetcher fetcher ) throws AuthorizationException, ServerException {
+    Future<List<String>> analysisIds = BiServerExecutor.callAsync( new Callable<List<String>>() {
+      @Override public List<String> call() throws Exception {
+        return fetcher.fetchAnalysisList();
+      }
+    }, BiServerExecutor.getDefault() );
+    Set<String> ids = new HashSet<>();
+    try {
+      ids.addAll( fetcher.fetchDswList() );
+      ids.addAll( analysisIds.get() );
+    } catch ( InterruptedException e ) {
+      Thread.currentThread().interrupt();
+      throw new ServerException();
+    } catch ( ExecutionException e ) {
+      Throwable cause = e.getCause();
+      if ( cause instanceof AuthorizationException ) {
+        throw (AuthorizationException) cause;
+      } else if ( cause instanceof ServerException ) {
+        throw (ServerException) cause;
+      } else if ( cause instanceof RuntimeException ) {
+        throw (RuntimeException) cause;
+      }
+      throw new RuntimeException( cause );
+    } finally {
+      analysisIds.cancel( true );
+    }
+    return Collections.unmodifiableSet( ids );
+  }
+
+  private static String key( final BiServerConnection connection ) {
+    if ( connection == null || StringUtils.isBlank( connection.getUrl() ) ) {
+      return null;
+    }
+    return connection.getUrl() + "|" + Const.NVL( connection.getUserId(), "" );
+  }
+
+  private static class Entry {
+    private final Set<String> ids;
+    private final long expires;
+
+    Entry( final Set<String> ids, final long expires ) {
+      this.ids = ids;
+      this.expires = expires;
+    }
+
+    boolean isExpired() {
+      return System.currentTimeMillis() >= expires;
+    }
+  }
+}
@@ -2,7 +2,7 @@
  *
  * Pentaho Community Edition Project: data-refinery-pdi-plugin
  *
- * Copyright (C) 2002-2017 by Hitachi Vantara : http://www.pentaho.com
+ * Copyright (C) 2002-2026 by Hitachi Vantara : http://www.pentaho.com
  *
  * *******************************************************************************
  *
@@ -26,34 +26,47 @@ import com.sun.jersey.api.client.ClientResponse;
 import com.sun.jersey.api.client.WebResource;
 import org.apache.commons.io.IOUtils;
 import org.apache.commons.lang.StringUtils;
+import org.pentaho.di.core.Const;
 import org.pentaho.di.core.exception.KettleException;
 import org.pentaho.di.core.refinery.publish.agilebi.BiServerConnection;
 import org.pentaho.di.core.refinery.publish.agilebi.ModelServerAction;
 import org.pentaho.metadata.model.Domain;
 import org.pentaho.metadata.util.XmiParser;
-import org.w3c.dom.NodeList;
-import org.xml.sax.InputSource;
 
+import javax.ws.rs.core.EntityTag;
+import javax.ws.rs.core.HttpHeaders;
 import javax.ws.rs.core.MediaType;
-import javax.xml.xpath.XPath;
-import javax.xml.xpath.XPathConstants;
-import javax.xml.xpath.XPathExpressionException;
-import javax.xml.xpath.XPathFactory;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.UnsupportedEncodingException;
 import java.net.URI;
+import java.nio.charset.Charset;
+import java.nio.charset.IllegalCharsetNameException;
 import java.net.URISyntaxException;
 import java.util.ArrayList;
+import java.util.Date;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipInputStream;
 
 public class ModelServerFetcher extends ModelServerAction {
 
+  private static final int NOT_MODIFIED = 304;
+  private static final String DEFAULT_CHARSET = "UTF-8";
+
+  private static XMLInputFactory idListFactory;
+
   private enum DataSourceType {
     ANALYSIS( "analysis" ),
-    DSW( "dsw" );
+    DSW( "dsw" ),
+    METADATA( "metadata" );
 
     private static final String DATASOURCE_PATH = "plugin/data-access/api/datasource";
     private final String listPath;
@@ -92,6 +105,14 @@ public class ModelServerFetcher extends ModelServerAction {
     return fetchDatasourceIds( DataSourceType.DSW.getListPath() );
   }
 
+  /**
+   * @param prefix only IDs starting with it are kept, all if empty
+   * @return list of accessible DSW IDs starting with prefix
+   */
+  public List<String> fetchDswList( String prefix ) throws AuthorizationException, ServerException {
+    return fetchDatasourceIds( DataSourceType.DSW.getListPath(), prefix );
+  }
+
   /**
    *
    * @return list of accessible analysis datasource IDs
@@ -103,114 +124,386 @@ public class ModelServerFetcher extends ModelServerAction {
     return fetchDatasourceIds( DataSourceType.ANALYSIS.getListPath() );
   }
 
+  /**
+   * @param prefix only IDs starting with it are kept, all if empty
+   * @return list of accessible analysis datasource IDs starting with prefix
+   */
+  public List<String> fetchAnalysisList( String prefix ) throws AuthorizationException, ServerException {
+    return fetchDatasourceIds( DataSourceType.ANALYSIS.getListPath(), prefix );
+  }
+
+  /**
+   * @return list of accessible metadata domain IDs
+   */
+  public List<String> fetchMetadataList() throws AuthorizationException, ServerException {
+    return fetchDatasourceIds( DataSourceType.METADATA.getListPath() );
+  }
+
+  /**
+   * @param prefix only IDs starting with it are kept, all if empty
+   * @return list of accessible metadata domain IDs starting with prefix
+   */
+  public List<String> fetchMetadataList( String prefix ) throws AuthorizationException, ServerException {
+    return fetchDatasourceIds( DataSourceType.METADATA.getListPath(), prefix );
+  }
+
   protected List<String> fetchDatasourceIds( String path ) throws AuthorizationException, ServerException {
-    WebResource listGet = getResource( path );
-    ClientResponse response = httpGet( listGet.type( MediaType.APPLICATION_XML ) );
-    if ( isSuccess( response ) ) {
-      InputStream input = null;
-      try {
-        input = response.getEntity( InputStream.class );
-        InputSource source = new InputSource( input );
-        // <List>
-        //   <Item ... xsi:type="xs:string">Model.xmi</Item>
-        // </List>
-
-        // Weird Mac OS issue.  Without it, XPathFactory.newInstance() could intermittently fail
-        if ( Thread.currentThread().getContextClassLoader() == null ) {
-          Thread.currentThread().setContextClassLoader( getClass().getClassLoader() );
-        }
-        XPath xpath = XPathFactory.newInstance().newXPath();
-        NodeList items = (NodeList) xpath.evaluate( "/List/Item/text()", source, XPathConstants.NODESET );
-        ArrayList<String> result = new ArrayList<String>( items.getLength() );
-        for ( int i = 0; i < items.getLength(); i++ ) {
-          result.add( items.item( i ).getNodeValue() );
+    return fetchDatasourceIds( path, null );
+  }
+
+  /**
+   * @throws ServerException also when the list cannot be read or parsed
+   */
+  protected List<String> fetchDatasourceIds( String path, String prefix )
+    throws AuthorizationException, ServerException {
+    Download download;
+    try {
+      download = download( path, MediaType.APPLICATION_XML_TYPE, null, null );
+    } catch ( IOException e ) {
+      throw new ServerException( e );
+    }
+    try {
+      return parseDatasourceIds( download.getBody(), prefix );
+    } catch ( XMLStreamException e ) {
+      throw new ServerException( e );
+    } finally {
+      download.close();
+    }
+  }
+
+  /**
+   * Reads the IDs of a data source list as the response streams in, without building a document of the whole list
+   * <pre>
+   * &lt;List&gt;
+   *   &lt;Item ... xsi:type="xs:string"&gt;Model.xmi&lt;/Item&gt;
+   * &lt;/List&gt;
+   * </pre>
+   *
+   * @param prefix only IDs starting with it are kept, all if empty
+   */
+  static List<String> parseDatasourceIds( final InputStream input, final String prefix ) throws XMLStreamException {
+    ArrayList<String> result = new ArrayList<String>();
+    XMLStreamReader reader = getIdListFactory().createXMLStreamReader( input );
+    try {
+      int depth = 0;
+      boolean list = false;
+      StringBuilder item = null;
+      while ( reader.hasNext() ) {
+        switch ( reader.next() ) {
+          case XMLStreamConstants.START_ELEMENT:
+            depth++;
+            if ( depth == 1 ) {
+              list = "List".equals( reader.getLocalName() );
+            } else if ( depth == 2 && list && "Item".equals( reader.getLocalName() ) ) {
+              item = new StringBuilder();
+            }
+            break;
+          case XMLStreamConstants.CHARACTERS:
+          case XMLStreamConstants.CDATA:
+          case XMLStreamConstants.SPACE:
+            // only text directly inside the item, same as /List/Item/text()
+            if ( item != null && depth == 2 ) {
+              item.append( reader.getTextCharacters(), reader.getTextStart(), reader.getTextLength() );
+            }
+            break;
+          case XMLStreamConstants.END_ELEMENT:
+            if ( depth == 2 && item != null ) {
+              String id = item.toString();
+              if ( !id.isEmpty() && ( StringUtils.isEmpty( prefix ) || id.startsWith( prefix ) ) ) {
+                result.add( id );
+              }
+              item = null;
+            }
+            depth--;
+            break;
+          default:
+            break;
         }
-        return result;
-      } catch ( XPathExpressionException e ) {
-        // shouldn't really happen
-        throw new RuntimeException( e );
-      } finally {
-        IOUtils.closeQuietly( input );
       }
-    } else {
-      switch ( response.getStatus() ) {
-        case 401:
-          throw new AuthorizationException();
-        case 500:
-        default:
-          throw new ServerException();
+    } finally {
+      reader.close();
+    }
+    return result;
+  }
+
+  private static synchronized XMLInputFactory getIdListFactory() {
+    if ( idListFactory == null ) {
+      // Weird Mac OS issue.  Without it, factory lookup could intermittently fail
+      if ( Thread.currentThread().getContextClassLoader() == null ) {
+        Thread.currentThread().setContextClassLoader( ModelServerFetcher.class.getClassLoader() );
       }
+      XMLInputFactory factory = XMLInputFactory.newInstance();
+      factory.setProperty( XMLInputFactory.SUPPORT_DTD, false );
+      factory.setProperty( XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false );
+      idListFactory = factory;
     }
+    return idListFactory;
   }
 
+  /**
+   * Reads the whole schema into memory, prefer {@link #openAnalysisFile(String)} for large models. The schema is decoded
+   * with the charset of the response, UTF-8 if it names none.
+   */
   public String downloadAnalysisFile( String analysisId )
           throws KettleException, AuthorizationException, ServerException, UnsupportedEncodingException {
-    String encodedId;
+    Download download = openAnalysisDownload( analysisId );
     try {
-      encodedId = new URI( null, null, analysisId, null ).getRawPath();
-    } catch ( URISyntaxException e ) {
+      return IOUtils.toString( download.getBody(), charsetOf( download.getContentType() ) );
+    } catch ( IOException e ) {
       throw new KettleException( e );
+    } finally {
+      download.close();
     }
-    ClientResponse response =
-        getResource( DataSourceType.ANALYSIS.getDownloadPath( encodedId ) ).get( ClientResponse.class );
-    if ( isSuccess( response ) ) {
-      if ( response.getType().toString().equals( "application/zip" ) ) {
-        try ( ZipInputStream zipInputStream = extractFromZip( "schema.xml", response ) ) {
-          return IOUtils.toString( zipInputStream );
-        } catch ( IOException e ) {
-          throw new KettleException( e );
-        }
-      } else {
-        return response.getEntity( String.class );
+  }
+
+  /**
+   * Opens the Mondrian schema of an analysis data source as a stream, unpacked if the server sends a zip. The caller
+   * must close it.
+   */
+  public InputStream openAnalysisFile( String analysisId )
+          throws KettleException, AuthorizationException, ServerException {
+    return openAnalysisDownload( analysisId ).getBody();
+  }
+
+  private Download openAnalysisDownload( String analysisId )
+          throws KettleException, AuthorizationException, ServerException {
+    Download download;
+    try {
+      download = download( DataSourceType.ANALYSIS.getDownloadPath( encodeId( analysisId ) ), null, null, null );
+    } catch ( IOException e ) {
+      throw new KettleException( e );
+    }
+    if ( "application/zip".equals( download.getContentType() ) ) {
+      try {
+        // the zip entry has no content type of its own
+        return new Download( extractFromZip( "schema.xml", download.getBody() ), null, download.getEntityTag(),
+            download.getLastModified(), false );
+      } catch ( KettleException e ) {
+        download.close();
+        throw e;
       }
-    } else {
-      switch ( response.getStatus() ) {
-        case 401:
-          throw new AuthorizationException();
-        case 500:
-        default:
-          throw new ServerException();
+    }
+    return download;
+  }
+
+  /**
+   * @param contentType value of a Content-Type header, may be null
+   * @return the charset it names, UTF-8 if it names none or one this JVM does not support
+   */
+  static String charsetOf( final String contentType ) {
+    if ( contentType != null ) {
+      for ( String parameter : contentType.split( ";" ) ) {
+        String[] pair = parameter.split( "=", 2 );
+        if ( pair.length == 2 && "charset".equalsIgnoreCase( pair[ 0 ].trim() ) ) {
+          String charset = StringUtils.strip( pair[ 1 ].trim(), "\"" );
+          try {
+            if ( Charset.isSupported( charset ) ) {
+              return charset;
+            }
+          } catch ( IllegalCharsetNameException e ) {
+            // same as none
+          }
+        }
       }
     }
+    return DEFAULT_CHARSET;
   }
 
   /**
-   * Fetches and parses a DSW model
+   * Fetches and parses a DSW model. Models the server sends with an ETag or Last-Modified header are kept parsed in the
+   * {@link TemplateDomainCache} and revalidated with a conditional request on the next download.
    * @param dswId
-   * @return
+   * @return a model the caller may change
    * @throws AuthorizationException 
    * @throws ServerException 
    */
   public Domain downloadDswFile( String dswId )
           throws KettleException, AuthorizationException, ServerException, UnsupportedEncodingException {
-    String encodedId;
+    final String path = DataSourceType.DSW.getDownloadPath( encodeId( dswId ) );
+    final TemplateDomainCache cache = getTemplateDomainCache();
+    final String cacheKey = cache.isEnabled() ? getCacheKey( path ) : null;
+    final TemplateDomainCache.Entry cached = cacheKey == null ? null : cache.get( cacheKey );
+
+    Download download;
     try {
-      encodedId = new URI( null, null, dswId, null ).getRawPath();
-    } catch ( URISyntaxException e ) {
+      download = cached == null
+          ? download( path, null, null, null )
+          : download( path, null, cached.getEntityTag(), cached.getLastModified() );
+    } catch ( AuthorizationException e ) {
+      if ( cacheKey != null ) {
+        cache.invalidate( cacheKey );
+      }
+      throw e;
+    } catch ( IOException e ) {
       throw new KettleException( e );
     }
-    ClientResponse response = getResource( DataSourceType.DSW.getDownloadPath( encodedId ) ).get( ClientResponse.class );
-    if ( isSuccess( response ) ) {
-      try ( ZipInputStream zipInputStream = extractFromZip( dswId, response ) ) {
-        XmiParser parser = new XmiParser();
-        return parser.parseXmi( zipInputStream );
+    try {
+      if ( download.isNotModified()
+          || cached != null && cached.matches( download.getEntityTag(), download.getLastModified() ) ) {
+        // either the server confirmed the parsed copy or the payload is the one already parsed
+        return copyTemplate( cached );
+      }
+      if ( cacheKey == null ) {
+        try ( ZipInputStream zipInputStream = extractFromZip( dswId, download.getBody() ) ) {
+          XmiParser parser = new XmiParser();
+          return parser.parseXmi( zipInputStream );
+        } catch ( Exception e ) {
+          throw new KettleException( e );
+        }
+      }
+      try ( ZipInputStream zipInputStream = extractFromZip( dswId, download.getBody() ) ) {
+        byte[] xmi = IOUtils.toByteArray( zipInputStream );
+        Domain domain = new XmiParser().parseXmi( new ByteArrayInputStream( xmi ) );
+        // not kept if the server sent nothing to revalidate it with
+        TemplateDomainCache.Entry entry =
+            cache.put( cacheKey, download.getEntityTag(), download.getLastModified(), xmi, domain );
+        return entry == null ? domain : entry.copyDomain();
       } catch ( Exception e ) {
         throw new KettleException( e );
       }
+    } finally {
+      download.close();
+    }
+  }
+
+  /**
+   * Asynchronous {@link #openAnalysisFile(String)}, completes once the response headers are in
+   */
+  public CompletableFuture<InputStream> openAnalysisFileAsync( final String analysisId ) {
+    return callAsync( new Callable<InputStream>() {
+      @Override public InputStream call() throws Exception {
+        return openAnalysisFile( analysisId );
+      }
+    } );
+  }
+
+  /**
+   * Asynchronous {@link #downloadAnalysisFile(String)}
+   */
+  public CompletableFuture<String> downloadAnalysisFileAsync( final String analysisId ) {
+    return callAsync( new Callable<String>() {
+      @Override public String call() throws Exception {
+        return downloadAnalysisFile( analysisId );
+      }
+    } );
+  }
+
+  /**
+   * Asynchronous {@link #downloadDswFile(String)}
+   */
+  public CompletableFuture<Domain> downloadDswFileAsync( final String dswId ) {
+    return callAsync( new Callable<Domain>() {
+      @Override public Domain call() throws Exception {
+        return downloadDswFile( dswId );
+      }
+    } );
+  }
+
+  /**
+   * GETs a download or ID list, through the {@link ModelDownloadCache} if it is enabled. The validators of a cached
+   * copy are sent along; without one, those of a copy the caller keeps itself are.
+   *
+   * @param type content type to send, null for none
+   * @param entityTag ETag of the caller's own copy, may be null
+   * @param lastModified Last-Modified of the caller's own copy, may be null
+   * @return the response body, or a not modified download if the server confirmed the caller's own copy
+   */
+  private Download download( final String path, final MediaType type, final EntityTag entityTag,
+                             final Date lastModified ) throws AuthorizationException, ServerException, IOException {
+    final ModelDownloadCache cache = getDownloadCache();
+    final String cacheKey = cache.isEnabled() ? getCacheKey( path ) : null;
+    final ModelDownloadCache.Entry cached = cacheKey == null ? null : cache.get( cacheKey );
+    EntityTag sendTag = cached == null ? entityTag : cached.getEntityTag();
+    Date sendLastModified = cached == null ? lastModified : cached.getLastModified();
+
+    WebResource resource = getResource( path );
+    ClientResponse response;
+    if ( sendTag == null && sendLastModified == null ) {
+      response = type == null ? httpGet( resource ) : httpGet( resource.type( type ) );
     } else {
-      switch ( response.getStatus() ) {
-        case 401:
-          throw new AuthorizationException();
-        case 500:
-        default:
+      WebResource.Builder request = type == null ? resource.getRequestBuilder() : resource.type( type );
+      if ( sendTag != null ) {
+        request = request.header( HttpHeaders.IF_NONE_MATCH, sendTag );
+      }
+      if ( sendLastModified != null ) {
+        request = request.header( HttpHeaders.IF_MODIFIED_SINCE, sendLastModified );
+      }
+      response = httpGet( request );
+    }
+
+    if ( response.getStatus() == NOT_MODIFIED ) {
+      response.close();
+      if ( cached == null ) {
+        if ( entityTag == null && lastModified == null ) {
+          // nothing was asked to be confirmed
           throw new ServerException();
+        }
+        return new Download( null, null, entityTag, lastModified, true );
+      }
+      InputStream body = cache.openNotModified( cached );
+      if ( body == null ) {
+        // evicted since, the entry is gone now
+        return download( path, type, entityTag, lastModified );
+      }
+      return new Download( body, cached.getContentType(), cached.getEntityTag(), cached.getLastModified(), false );
+    }
+    if ( isSuccess( response ) ) {
+      String contentType = response.getType() == null ? null : response.getType().toString();
+      EntityTag responseTag = response.getEntityTag();
+      Date responseLastModified = response.getLastModified();
+      InputStream body = response.getEntity( InputStream.class );
+      if ( cacheKey != null ) {
+        body = cache.put( cacheKey, responseTag, responseLastModified, contentType, response.getLength(), body );
       }
+      return new Download( body, contentType, responseTag, responseLastModified, false );
+    }
+    response.close();
+    switch ( response.getStatus() ) {
+      case 401:
+        if ( cacheKey != null ) {
+          cache.invalidate( cacheKey );
+        }
+        throw new AuthorizationException();
+      case 500:
+      default:
+        throw new ServerException();
+    }
+  }
+
+  private Domain copyTemplate( final TemplateDomainCache.Entry cached ) throws KettleException {
+    try {
+      return cached.copyDomain();
+    } catch ( Exception e ) {
+      throw new KettleException( e );
     }
   }
 
-  private ZipInputStream extractFromZip( final String fileName, final ClientResponse response ) throws KettleException {
+  /**
+   * @return cache key for a download or list path, per server and user
+   */
+  protected String getCacheKey( final String path ) {
+    String user = biServerConnection == null ? "" : Const.NVL( biServerConnection.getUserId(), "" );
+    return getUrl( path ) + "|" + user;
+  }
+
+  protected TemplateDomainCache getTemplateDomainCache() {
+    return TemplateDomainCache.getInstance();
+  }
+
+  protected ModelDownloadCache getDownloadCache() {
+    return ModelDownloadCache.getInstance();
+  }
+
+  private static String encodeId( final String dataSourceId ) throws KettleException {
+    try {
+      return new URI( null, null, dataSourceId, null ).getRawPath();
+    } catch ( URISyntaxException e ) {
+      throw new KettleException( e );
+    }
+  }
+
+  private ZipInputStream extractFromZip( final String fileName, final InputStream input ) throws KettleException {
     try {
-      InputStream input = response.getEntity( InputStream.class );
       ZipInputStream zipin = new ZipInputStream( input );
       // fileName=Model.xmi -> Model.zip[ Model.xmi, Model.mondrian.xml ]
       for ( ZipEntry entry = zipin.getNextEntry(); entry != null; entry = zipin.getNextEntry() ) {
@@ -225,11 +518,66 @@ public class ModelServerFetcher extends ModelServerAction {
     throw new KettleException( "file not found" );
   }
 
+  /**
+   * Response body with the validators it came with
+   */
+  private static class Download {
+    private final InputStream body;
+    private final String contentType;
+    private final EntityTag entityTag;
+    private final Date lastModified;
+    private final boolean notModified;
+
+    Download( final InputStream body, final String contentType, final EntityTag entityTag, final Date lastModified,
+              final boolean notModified ) {
+      this.body = body;
+      this.contentType = contentType;
+      this.entityTag = entityTag;
+      this.lastModified = lastModified;
+      this.notModified = notModified;
+    }
+
+    InputStream getBody() {
+      return body;
+    }
+
+    String getContentType() {
+      return contentType;
+    }
+
+    EntityTag getEntityTag() {
+      return entityTag;
+    }
+
+    Date getLastModified() {
+      return lastModified;
+    }
+
+    /**
+     * @return true if the server confirmed the copy the caller holds, there is no body then
+     */
+    boolean isNotModified() {
+      return notModified;
+    }
+
+    void close() {
+      IOUtils.closeQuietly( body );
+    }
+  }
+
   /**
    * generic 500 or something else not covered
    */
   public static class ServerException extends Exception {
     private static final long serialVersionUID = 1L;
+
+    public ServerException() {
+      super();
+    }
+
+    public ServerException( final Throwable cause ) {
+      super( cause );
+    }
   }
   /**
    * 401
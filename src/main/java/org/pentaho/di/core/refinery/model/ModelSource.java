@@ -0,0 +1,42 @@
+/*! ******************************************************************************
+ *
+ * Pentaho Community Edition Project: data-refinery-pdi-plugin
+ *
+ * Copyright (C) 2002-2026 by Hitachi Vantara : http://www.pentaho.com
+ *
+ * *******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ********************************************************************************/
+
+package org.pentaho.di.core.refinery.model;
+
+import org.pentaho.di.core.exception.KettleException;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * A model document (XMI, Mondrian schema) read as a stream, so it is published without being copied into memory as a
+ * whole. Sources can be opened more than once, e.g. to publish the same model to several servers.
+ *
+ * @see ModelArtifactStore#source(String)
+ */
+public interface ModelSource {
+
+  /**
+   * @return a new stream over the UTF-8 encoded document, closed by the caller
+   */
+  InputStream open() throws IOException, KettleException;
+}
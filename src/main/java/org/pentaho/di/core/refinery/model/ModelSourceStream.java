@@ -0,0 +1,54 @@
+/*! ******************************************************************************
+ *
+ * Pentaho Community Edition Project: data-refinery-pdi-plugin
+ *
+ * Copyright (C) 2002-2026 by Hitachi Vantara : http://www.pentaho.com
+ *
+ * *******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ********************************************************************************/
+
+package org.pentaho.di.core.refinery.model;
+
+import org.pentaho.di.core.exception.KettleException;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Stream over a {@link ModelSource} that can open its source again, so an upload already sent can be sent once more,
+ * e.g. after the server rejected the session it went out on.
+ */
+public class ModelSourceStream extends FilterInputStream {
+
+  private final ModelSource source;
+
+  private ModelSourceStream( final InputStream in, final ModelSource source ) {
+    super( in );
+    this.source = source;
+  }
+
+  public static ModelSourceStream open( final ModelSource source ) throws IOException, KettleException {
+    return new ModelSourceStream( source.open(), source );
+  }
+
+  /**
+   * @return a new stream from the start of the source, this one is left as it is
+   */
+  public ModelSourceStream reopen() throws IOException, KettleException {
+    return open( source );
+  }
+}
@@ -0,0 +1,88 @@
+/*! ******************************************************************************
+ *
+ * Pentaho Community Edition Project: data-refinery-pdi-plugin
+ *
+ * Copyright (C) 2002-2026 by Hitachi Vantara : http://www.pentaho.com
+ *
+ * *******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ********************************************************************************/
+
+package org.pentaho.di.core.refinery.model;
+
+import org.pentaho.agilebi.modeler.ModelerWorkspace;
+import org.pentaho.agilebi.modeler.nodes.DimensionMetaData;
+import org.pentaho.agilebi.modeler.nodes.HierarchyMetaData;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Name lookups over the dimensions and hierarchies of a workspace, so callers do not walk the whole
+ * model tree for every name.
+ * <p>
+ * The index is built on first use and rebuilt on the first lookup after {@link #invalidate()}, which callers must
+ * invoke whenever the model may have changed, e.g. after an annotation was applied. A batch of changes followed by
+ * lookups therefore costs one walk of the model instead of one per lookup.
+ */
+class ModelerWorkspaceIndex {
+
+  private final ModelerWorkspace workspace;
+
+  private Map<String, DimensionMetaData> dimensions;
+  private Map<String, Map<String, HierarchyMetaData>> hierarchies;
+
+  ModelerWorkspaceIndex( final ModelerWorkspace workspace ) {
+    this.workspace = workspace;
+  }
+
+  void invalidate() {
+    dimensions = null;
+  }
+
+  DimensionMetaData getDimension( final String dimension ) {
+    ensureIndexed();
+    return dimensions.get( dimension );
+  }
+
+  HierarchyMetaData getHierarchy( final String dimension, final String hierarchy ) {
+    ensureIndexed();
+    Map<String, HierarchyMetaData> dimensionHierarchies = hierarchies.get( dimension );
+    return dimensionHierarchies == null ? null : dimensionHierarchies.get( hierarchy );
+  }
+
+  private void ensureIndexed() {
+    if ( dimensions != null ) {
+      return;
+    }
+    Map<String, DimensionMetaData> dimensionIndex = new HashMap<>();
+    hierarchies = new HashMap<>();
+    for ( DimensionMetaData dimension : workspace.getModel().getDimensions() ) {
+      // first one wins, same as a linear search
+      if ( dimensionIndex.containsKey( dimension.getName() ) ) {
+        continue;
+      }
+      dimensionIndex.put( dimension.getName(), dimension );
+      Map<String, HierarchyMetaData> dimensionHierarchies = new HashMap<>();
+      for ( HierarchyMetaData hierarchy : dimension ) {
+        if ( !dimensionHierarchies.containsKey( hierarchy.getName() ) ) {
+          dimensionHierarchies.put( hierarchy.getName(), hierarchy );
+        }
+      }
+      hierarchies.put( dimension.getName(), dimensionHierarchies );
+    }
+    dimensions = dimensionIndex;
+  }
+}
@@ -0,0 +1,158 @@
+/*! ******************************************************************************
+ *
+ * Pentaho Community Edition Project: data-refinery-pdi-plugin
+ *
+ * Copyright (C) 2002-2026 by Hitachi Vantara : http://www.pentaho.com
+ *
+ * *******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ********************************************************************************/
+
+package org.pentaho.di.core.refinery.model;
+
+import org.apache.commons.lang.SerializationException;
+import org.apache.commons.lang.SerializationUtils;
+import org.pentaho.di.core.Const;
+import org.pentaho.di.core.util.EnvUtil;
+import org.pentaho.metadata.model.Domain;
+import org.pentaho.metadata.util.XmiParser;
+
+import javax.ws.rs.core.EntityTag;
+import java.io.ByteArrayInputStream;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Parsed DSW template models, kept so a job that stamps the same template onto another table on every run does not
+ * download and parse the XMI each time.
+ * <p>
+ * Entries are keyed by download URL and remember the ETag and Last-Modified the server sent with them. The server is
+ * still asked on every use, with a conditional request, so authorization and freshness stay its call; only the
+ * payload and the parse are saved. Entries never leave the cache: callers get a copy they are free to change, e.g. in
+ * {@link DswModeler#updateModel}.
+ */
+public class TemplateDomainCache {
+
+  /** Number of parsed templates kept, 0 disables the cache */
+  public static final String KETTLE_DATA_REFINERY_TEMPLATE_CACHE_SIZE = "KETTLE_DATA_REFINERY_TEMPLATE_CACHE_SIZE";
+  private static final int DEFAULT_SIZE = 16;
+
+  private static TemplateDomainCache instance;
+
+  private final int maxSize;
+  private final Map<String, Entry> entries;
+
+  public TemplateDomainCache( final int maxSize ) {
+    this.maxSize = maxSize;
+    entries = new LinkedHashMap<String, Entry>( 16, 0.75f, true ) {
+      private static final long serialVersionUID = 1L;
+
+      @Override protected boolean removeEldestEntry( final Map.Entry<String, Entry> eldest ) {
+        return size() > TemplateDomainCache.this.maxSize;
+      }
+    };
+  }
+
+  public static synchronized TemplateDomainCache getInstance() {
+    if ( instance == null ) {
+      instance = new TemplateDomainCache(
+          Const.toInt( EnvUtil.getSystemProperty( KETTLE_DATA_REFINERY_TEMPLATE_CACHE_SIZE ), DEFAULT_SIZE ) );
+    }
+    return instance;
+  }
+
+  public boolean isEnabled() {
+    return maxSize > 0;
+  }
+
+  public synchronized Entry get( final String key ) {
+    return entries.get( key );
+  }
+
+  /**
+   * Caches a freshly downloaded template if the server sent a validator for it
+   *
+   * @return the cached entry, or null if there was nothing to revalidate it with
+   */
+  public synchronized Entry put( final String key, final EntityTag entityTag, final Date lastModified,
+                                 final byte[] xmi, final Domain domain ) {
+    if ( !isEnabled() || ( entityTag == null && lastModified == null ) ) {
+      entries.remove( key );
+      return null;
+    }
+    Entry entry = new Entry( entityTag, lastModified, xmi, domain );
+    entries.put( key, entry );
+    return entry;
+  }
+
+  public synchronized void invalidate( final String key ) {
+    entries.remove( key );
+  }
+
+  public synchronized void clear() {
+    entries.clear();
+  }
+
+  public static class Entry {
+    private final EntityTag entityTag;
+    private final Date lastModified;
+    private final byte[] xmi;
+    private final Domain domain;
+    private volatile boolean serializable = true;
+
+    Entry( final EntityTag entityTag, final Date lastModified, final byte[] xmi, final Domain domain ) {
+      this.entityTag = entityTag;
+      this.lastModified = lastModified;
+      this.xmi = xmi;
+      this.domain = domain;
+    }
+
+    public EntityTag getEntityTag() {
+      return entityTag;
+    }
+
+    public Date getLastModified() {
+      return lastModified == null ? null : new Date( lastModified.getTime() );
+    }
+
+    /**
+     * @return true if a response with these validators carries the cached template
+     */
+    public boolean matches( final EntityTag responseTag, final Date responseLastModified ) {
+      if ( entityTag != null && responseTag != null ) {
+        // a weak tag still means semantically equivalent content, good enough for a template
+        return entityTag.getValue().equals( responseTag.getValue() );
+      }
+      return entityTag == null && responseTag == null && lastModified != null
+          && lastModified.equals( responseLastModified );
+    }
+
+    /**
+     * @return a deep copy of the cached template; serializing the object graph is much cheaper than parsing the XMI,
+     * which is only done again if the model does not serialize
+     */
+    public Domain copyDomain() throws Exception {
+      if ( serializable ) {
+        try {
+          return (Domain) SerializationUtils.clone( domain );
+        } catch ( SerializationException e ) {
+          serializable = false;
+        }
+      }
+      return new XmiParser().parseXmi( new ByteArrayInputStream( xmi ) );
+    }
+  }
+}
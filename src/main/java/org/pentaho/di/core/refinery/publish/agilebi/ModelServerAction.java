@@ -2,7 +2,7 @@
  *
  * Pentaho Community Edition Project: data-refinery-pdi-plugin
  *
- * Copyright (C) 2002-2021 by Hitachi Vantara : http://www.pentaho.com
+ * Copyright (C) 2002-2026 by Hitachi Vantara : http://www.pentaho.com
  *
  * *******************************************************************************
  *
@@ -23,27 +23,33 @@
 package org.pentaho.di.core.refinery.publish.agilebi;
 
 import com.sun.jersey.api.client.Client;
+import com.sun.jersey.api.client.ClientHandlerException;
 import com.sun.jersey.api.client.ClientResponse;
 import com.sun.jersey.api.client.WebResource;
 import com.sun.jersey.api.client.WebResource.Builder;
-import com.sun.jersey.api.client.config.ClientConfig;
-import com.sun.jersey.api.client.config.DefaultClientConfig;
 import com.sun.jersey.api.client.filter.HTTPBasicAuthFilter;
-import com.sun.jersey.api.json.JSONConfiguration;
 import org.pentaho.database.IDatabaseDialect;
 import org.pentaho.database.model.IDatabaseType;
 import org.pentaho.database.service.DatabaseDialectService;
 import org.pentaho.database.util.DatabaseTypeHelper;
 import org.pentaho.di.core.database.DatabaseInterface;
 import org.pentaho.di.core.database.DatabaseMeta;
+import org.pentaho.di.core.refinery.publish.util.BiServerClients;
+import org.pentaho.di.core.refinery.publish.util.BiServerExecutor;
+import org.pentaho.di.core.refinery.publish.util.BiServerLimiter;
+import org.pentaho.di.core.refinery.publish.util.ConnectionValidationCache;
 
-import javax.ws.rs.ext.Providers;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
 
 public class ModelServerAction {
 
   protected BiServerConnection biServerConnection;
-  private Client _client = null;
+  // asynchronous calls may pick it at the same time, they get the same shared client
+  private volatile Client _client = null;
   protected DatabaseMeta databaseMeta;
+  private Executor executor;
 
   public ModelServerAction() {
     super();
@@ -53,39 +59,59 @@ public class ModelServerAction {
     setBiServerConnection( serverConnection );
   }
 
+  /**
+   * @return the client shared by all actions of this kind for the current server and user, see
+   * {@link BiServerClients}
+   */
   protected Client getClient() {
-
-    // initialize
     if ( this._client == null ) {
-      /*
-      MessageBodyReader and MessageBodyWriter interfaces from JAX-RS-1.1 api are loaded by the main classloader
-      (due to configuration in custom.properties), as well as Jersey-1.19 classes,
-      whereas Jackson-2 is loaded by bundle's classloader. As a result, Jackson's providers are not visible to Jersey.
-
-      Moving Jackson to be also loaded by the main classloader is not working.
-      Cause Jackson-2 implements JAX-RS 2.0, and we would also have to replace JAX-RS-1.1 api
-      (the one implemented by Jersey-1.19) by JAX-RS-2.0.
-      While it's looking fine on the shallow (2.0 is compatible with 1.1),
-      it leads to similar errors when starting Jersey-2 required by other bundles, where Jersey-2 is instantiated
-      using JAX-RS api - api classes do not see an implementation.
-
-      Thus, we've come to the solution to load Jackson classes in this particular case by the main classloader.
-       */
-      ClassLoader orig = Thread.currentThread().getContextClassLoader();
-      try {
-        Thread.currentThread().setContextClassLoader( Providers.class.getClassLoader() );
-
-        ClientConfig clientConfig = new DefaultClientConfig();
-        clientConfig.getFeatures().put( JSONConfiguration.FEATURE_POJO_MAPPING, Boolean.TRUE );
-        this._client = Client.create( clientConfig );
-      } finally {
-        Thread.currentThread().setContextClassLoader( orig );
-      }
+      final BiServerConnection connection = biServerConnection;
+      BiServerClients.ClientSetup setup = connection == null ? null : new BiServerClients.ClientSetup() {
+        @Override public void setup( final Client client ) {
+          setupClient( client, connection );
+        }
+      };
+      this._client = getClients().getClient( getClass().getName(), connection, 0, setup );
     }
-
     return this._client;
   }
 
+  protected BiServerClients getClients() {
+    return BiServerClients.getInstance();
+  }
+
+  /**
+   * Runs a server call on the {@link #getExecutor() executor}, with the caller's context class loader
+   *
+   * @return completes with the call's result, or exceptionally with the exception it threw
+   */
+  protected <T> CompletableFuture<T> callAsync( final Callable<T> call ) {
+    return BiServerExecutor.callAsync( call, getExecutor() );
+  }
+
+  /**
+   * @return runs the asynchronous calls, {@link BiServerExecutor#getDefault()} unless set
+   */
+  public Executor getExecutor() {
+    return executor == null ? BiServerExecutor.getDefault() : executor;
+  }
+
+  /**
+   * @param executor runs the asynchronous calls of this action, null for the default
+   */
+  public void setExecutor( final Executor executor ) {
+    this.executor = executor;
+  }
+
+  /**
+   * Closes a response whose body is not read, so its connection can be reused
+   */
+  protected static void release( final ClientResponse response ) {
+    if ( response != null ) {
+      response.close();
+    }
+  }
+
   protected IDatabaseType getDatabaseType( DatabaseInterface databaseInterface ) {
     ClassLoader orig = Thread.currentThread().getContextClassLoader();
     IDatabaseType dbType = null;
@@ -102,19 +128,84 @@ public class ModelServerAction {
   }
 
   protected ClientResponse httpPut( final Builder builder ) {
-    return builder.put( ClientResponse.class );
+    return send( new Request() {
+      @Override public ClientResponse send() {
+        return builder.put( ClientResponse.class );
+      }
+    }, true );
   }
 
   protected ClientResponse httpPost( final Builder builder ) {
-    return builder.post( ClientResponse.class );
+    return send( new Request() {
+      @Override public ClientResponse send() {
+        return builder.post( ClientResponse.class );
+      }
+    }, true );
   }
 
   protected ClientResponse httpGet( final Builder builder ) {
-    return builder.get( ClientResponse.class );
+    return send( new Request() {
+      @Override public ClientResponse send() {
+        return builder.get( ClientResponse.class );
+      }
+    }, false );
+  }
+
+  /**
+   * GET without setting a content type
+   */
+  protected ClientResponse httpGet( final WebResource resource ) {
+    return send( new Request() {
+      @Override public ClientResponse send() {
+        return resource.get( ClientResponse.class );
+      }
+    }, false );
   }
 
   protected ClientResponse httpDelete( final Builder builder ) {
-    return builder.delete( ClientResponse.class );
+    return send( new Request() {
+      @Override public ClientResponse send() {
+        return builder.delete( ClientResponse.class );
+      }
+    }, false );
+  }
+
+  /**
+   * Sends a request once the {@link BiServerLimiter} lets it through to the server, and tells the limiter how it went
+   *
+   * @param sendsBody true if the request may carry an upload, which keeps its latency out of the limit
+   */
+  private ClientResponse send( final Request request, final boolean sendsBody ) {
+    BiServerLimiter.Permit permit;
+    try {
+      permit = getLimiter().acquire( biServerConnection == null ? null : biServerConnection.getUrl(), sendsBody );
+    } catch ( InterruptedException e ) {
+      Thread.currentThread().interrupt();
+      throw new ClientHandlerException( e );
+    }
+    ClientResponse response;
+    try {
+      response = request.send();
+    } catch ( RuntimeException e ) {
+      permit.release( e );
+      throw e;
+    }
+    permit.release( response == null ? -1 : response.getStatus() );
+    return checkAuthorized( response );
+  }
+
+  protected BiServerLimiter getLimiter() {
+    return BiServerLimiter.getInstance();
+  }
+
+  /**
+   * Drops the cached validation of the connection once the server rejects its credentials
+   */
+  protected ClientResponse checkAuthorized( final ClientResponse response ) {
+    if ( response != null && response.getStatus() == 401 ) {
+      ConnectionValidationCache.getInstance().invalidate( biServerConnection );
+    }
+    return response;
   }
 
   protected String getUrl( final String path ) {
@@ -132,9 +223,17 @@ public class ModelServerAction {
    */
   public void setBiServerConnection( BiServerConnection biServerConnection ) {
     this.biServerConnection = biServerConnection;
-    setupClient( getClient(), biServerConnection );
+    // picked from the shared clients on next use
+    this._client = null;
+  }
+
+  public BiServerConnection getBiServerConnection() {
+    return biServerConnection;
   }
 
+  /**
+   * Sets up a new shared client for a server and user, once
+   */
   protected void setupClient( Client client, BiServerConnection biServerConnection ) {
     client
       .addFilter( new HTTPBasicAuthFilter( biServerConnection.getUserId(), biServerConnection.getPassword() ) );
@@ -155,4 +254,7 @@ public class ModelServerAction {
     return response.getStatus() >= 200 && response.getStatus() < 300;
   }
 
+  private interface Request {
+    ClientResponse send();
+  }
 }
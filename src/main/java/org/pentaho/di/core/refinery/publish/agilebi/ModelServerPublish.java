@@ -29,7 +29,6 @@ import com.sun.jersey.api.client.WebResource.Builder;
 import com.sun.jersey.core.header.FormDataContentDisposition;
 import com.sun.jersey.multipart.FormDataMultiPart;
 import org.apache.commons.lang.StringUtils;
-import com.hitachivantara.security.web.impl.client.csrf.jaxrsv1.CsrfTokenFilter;
 import com.hitachivantara.security.web.impl.client.csrf.jaxrsv1.util.SessionCookiesFilter;
 import org.jfree.util.Log;
 import org.pentaho.database.model.DatabaseAccessType;
@@ -38,16 +37,20 @@ import org.pentaho.di.core.database.DatabaseInterface;
 import org.pentaho.di.core.exception.KettleException;
 import org.pentaho.di.core.logging.LogChannelInterface;
 import org.pentaho.di.core.refinery.publish.model.DataSourceAclModel;
+import org.pentaho.di.core.refinery.publish.util.BiServerSessions;
 import org.pentaho.di.core.refinery.publish.util.JAXBUtils;
+import org.pentaho.di.core.refinery.publish.util.SessionCsrfTokenFilter;
+import org.pentaho.di.core.refinery.publish.util.UploadEncodingFilter;
 import org.pentaho.di.job.entries.publish.exception.DuplicateDataSourceException;
 
 import javax.ws.rs.core.MediaType;
 import java.io.InputStream;
 import java.io.UnsupportedEncodingException;
-import java.net.CookieManager;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.net.URLEncoder;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * This is copied from AgileBI's org.pentaho.agilebi.spoon.publish.ModelServerPublish
@@ -65,6 +68,8 @@ public class ModelServerPublish extends ModelServerAction {
   private static final String PLUGIN_DATA_ACCESS_API_CONNECTION_DELETE =
     "plugin/data-access/api/connection/deletebyname";
   private static final String DATA_ACCESS_API_CONNECTION_GET = "plugin/data-access/api/connection/getresponse";
+  private static final String PLUGIN_DATA_ACCESS_API_ANALYSIS_DELETE =
+    "plugin/data-access/api/datasource/analysis/catalog/";
   private static final String API_CSRF_TOKEN = "api/csrf/token";
   private boolean forceOverwrite;
   private DataSourceAclModel aclModel;
@@ -74,6 +79,10 @@ public class ModelServerPublish extends ModelServerAction {
     this.logChannel = logChannel;
   }
 
+  /**
+   * Adds the session cookies and CSRF token shared by all publishes to the server as the same user, see
+   * {@link BiServerSessions}, and streams the uploaded files, see {@link UploadEncodingFilter}
+   */
   @Override
   protected void setupClient( Client client, BiServerConnection biServerConnection ) {
 
@@ -85,12 +94,19 @@ public class ModelServerPublish extends ModelServerAction {
       throw new RuntimeException( e );
     }
 
-    client.addFilter( new SessionCookiesFilter( new CookieManager() ) );
-    client.addFilter( new CsrfTokenFilter( tokenServiceUri ) );
+    BiServerSessions.Session session = getSessions().getSession( biServerConnection );
+    client.addFilter( new SessionCookiesFilter( session.getCookieManager() ) );
+    client.addFilter( new SessionCsrfTokenFilter( tokenServiceUri, session ) );
+    // runs before the CSRF filter, which may send the request again
+    client.addFilter( new UploadEncodingFilter() );
 
     super.setupClient( client, biServerConnection );
   }
 
+  protected BiServerSessions getSessions() {
+    return BiServerSessions.getInstance();
+  }
+
   /**
    * Publishes a datasource to the current BI server
    *
@@ -99,6 +115,14 @@ public class ModelServerPublish extends ModelServerAction {
    * @throws org.pentaho.di.core.exception.KettleDatabaseException
    */
   public boolean publishDataSource( boolean update, String connectionId ) throws KettleException {
+    return updateConnection( createDatabaseConnection( connectionId ), update );
+  }
+
+  /**
+   * @param connectionId ID of the connection on the server, null for a new one
+   * @return the connection {@link #publishDataSource(boolean, String)} sends for the current database meta
+   */
+  public DatabaseConnection createDatabaseConnection( String connectionId ) {
 
     // create a new connection object and populate it from the databaseMeta
     DatabaseConnection connection = new DatabaseConnection();
@@ -118,7 +142,7 @@ public class ModelServerPublish extends ModelServerAction {
     connection.setAccessType( DatabaseAccessType.NATIVE );
     connection.setExtraOptions( getDatabaseMeta().getExtraOptions() );
     connection.setDatabaseType( getDatabaseType( intf ) );
-    return updateConnection( connection, update );
+    return connection;
   }
 
   /**
@@ -145,6 +169,7 @@ public class ModelServerPublish extends ModelServerAction {
       if ( resp == null ) {
         return false;
       }
+      release( resp );
 
       if ( resp.getStatus() == 409 ) {
         throw new DuplicateDataSourceException();
@@ -193,6 +218,21 @@ public class ModelServerPublish extends ModelServerAction {
     return deleteEntity( biServerConnection.getUrl() + "plugin/data-access/api/datasource/dsw/domain/" + domainId );
   }
 
+  /**
+   * Jersey call to delete the analysis data source of a Mondrian catalog
+   *
+   * @return
+   */
+  public boolean deleteMondrianSchema( String catalogName ) {
+    try {
+      return deleteEntity( biServerConnection.getUrl() + PLUGIN_DATA_ACCESS_API_ANALYSIS_DELETE
+        + new URI( null, null, catalogName, null ).getRawPath() );
+    } catch ( URISyntaxException e ) {
+      logChannel.logError( e.getMessage() );
+      return false;
+    }
+  }
+
   protected boolean deleteEntity( String url ) {
     try {
       WebResource resource = getClient().resource( url );
@@ -200,6 +240,7 @@ public class ModelServerPublish extends ModelServerAction {
         .type( MediaType.APPLICATION_JSON );
 
       ClientResponse resp = httpDelete( builder );
+      release( resp );
       if ( resp == null || resp.getStatus() != 200 ) {
         return false;
       }
@@ -253,6 +294,7 @@ public class ModelServerPublish extends ModelServerAction {
         }
       } else {
         Log.info( resp );
+        release( resp );
       }
     } catch ( Exception ex ) {
       Log.error( ex.getMessage() );
@@ -298,6 +340,8 @@ public class ModelServerPublish extends ModelServerAction {
         if ( resp.getEntity( String.class ).equals( PUBLISH_SUCCESS + "" ) ) {
           response = PUBLISH_SUCCESS;
         }
+      } else {
+        release( resp );
       }
     } catch ( Exception ex ) {
       Log.error( ex.getMessage() );
@@ -329,6 +373,7 @@ public class ModelServerPublish extends ModelServerAction {
       Builder builder = resourceBuilder( resource, part );
       ClientResponse resp = httpPut( builder );
       if ( resp != null ) {
+        release( resp );
         // TODO: we can get more info from the response;
         switch ( ClientResponse.Status.fromStatusCode( resp.getStatus() ) ) {
           case OK:
@@ -375,6 +420,7 @@ public class ModelServerPublish extends ModelServerAction {
 
         return connection;
       }
+      release( response );
     } catch ( Exception ex ) {
       Log.error( ex.getMessage() );
     }
@@ -382,6 +428,109 @@ public class ModelServerPublish extends ModelServerAction {
     return null;
   }
 
+  /**
+   * Asynchronous {@link #publishDataSource(boolean, String)}
+   */
+  public CompletableFuture<Boolean> publishDataSourceAsync( final boolean update, final String connectionId ) {
+    return callAsync( new Callable<Boolean>() {
+      @Override public Boolean call() throws Exception {
+        return publishDataSource( update, connectionId );
+      }
+    } );
+  }
+
+  /**
+   * Asynchronous {@link #connectionNameExists(String)}
+   */
+  public CompletableFuture<DatabaseConnection> connectionNameExistsAsync( final String connectionName ) {
+    return callAsync( new Callable<DatabaseConnection>() {
+      @Override public DatabaseConnection call() {
+        return connectionNameExists( connectionName );
+      }
+    } );
+  }
+
+  /**
+   * Asynchronous {@link #deleteConnection(String)}
+   */
+  public CompletableFuture<Boolean> deleteConnectionAsync( final String connectionName ) {
+    return callAsync( new Callable<Boolean>() {
+      @Override public Boolean call() {
+        return deleteConnection( connectionName );
+      }
+    } );
+  }
+
+  /**
+   * Asynchronous {@link #deleteMetadataXmi(String)}
+   */
+  public CompletableFuture<Boolean> deleteMetadataXmiAsync( final String domainId ) {
+    return callAsync( new Callable<Boolean>() {
+      @Override public Boolean call() {
+        return deleteMetadataXmi( domainId );
+      }
+    } );
+  }
+
+  /**
+   * Asynchronous {@link #deleteDSWXmi(String)}
+   */
+  public CompletableFuture<Boolean> deleteDSWXmiAsync( final String domainId ) {
+    return callAsync( new Callable<Boolean>() {
+      @Override public Boolean call() {
+        return deleteDSWXmi( domainId );
+      }
+    } );
+  }
+
+  /**
+   * Asynchronous {@link #deleteMondrianSchema(String)}
+   */
+  public CompletableFuture<Boolean> deleteMondrianSchemaAsync( final String catalogName ) {
+    return callAsync( new Callable<Boolean>() {
+      @Override public Boolean call() {
+        return deleteMondrianSchema( catalogName );
+      }
+    } );
+  }
+
+  /**
+   * Asynchronous {@link #publishMondrianSchema(InputStream, String, String, boolean)}, the stream is read on the
+   * executor and must stay open until the future completes
+   */
+  public CompletableFuture<Integer> publishMondrianSchemaAsync( final InputStream mondrianFile,
+                                                                final String catalogName, final String datasourceInfo,
+                                                                final boolean overwriteInRepos ) {
+    return callAsync( new Callable<Integer>() {
+      @Override public Integer call() {
+        return publishMondrianSchema( mondrianFile, catalogName, datasourceInfo, overwriteInRepos );
+      }
+    } );
+  }
+
+  /**
+   * Asynchronous {@link #publishMetaDataFile(InputStream, String)}, the stream must stay open until the future
+   * completes
+   */
+  public CompletableFuture<Integer> publishMetaDataFileAsync( final InputStream metadataFile, final String domainId ) {
+    return callAsync( new Callable<Integer>() {
+      @Override public Integer call() throws Exception {
+        return publishMetaDataFile( metadataFile, domainId );
+      }
+    } );
+  }
+
+  /**
+   * Asynchronous {@link #publishDsw(InputStream, String)}, the stream must stay open until the future completes
+   */
+  public CompletableFuture<Integer> publishDswAsync( final InputStream metadataFile, final String domainId ) {
+    return callAsync( new Callable<Integer>() {
+      @Override public Integer call() throws Exception {
+        return publishDsw( metadataFile, domainId );
+      }
+    } );
+  }
+
   public boolean isForceOverwrite() {
     return forceOverwrite;
   }
@@ -23,6 +23,8 @@
 package org.pentaho.di.core.refinery.publish.model;
 
 import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
 
 import org.pentaho.di.core.refinery.publish.agilebi.BiServerConnection;
 
@@ -35,6 +37,10 @@ public class DataSourcePublishModel implements Serializable {
   public static final String ACCESS_TYPE_EVERYONE = "everyone";
   public static final String ACCESS_TYPE_USER = "user";
   public static final String ACCESS_TYPE_ROLE = "role";
+  /** A server failing rolls back what was published to the others */
+  public static final String PUBLISH_POLICY_ALL_OR_NOTHING = "all_or_nothing";
+  /** Servers that succeeded keep the model if others fail */
+  public static final String PUBLISH_POLICY_BEST_EFFORT = "best_effort";
 
   private String modelName = "";
   private boolean override;
@@ -42,6 +48,8 @@ public class DataSourcePublishModel implements Serializable {
   private String accessType = ACCESS_TYPE_EVERYONE;
 
   private BiServerConnection biServerConnection;
+  private List<BiServerConnection> additionalBiServerConnections = new ArrayList<>();
+  private String publishPolicy = PUBLISH_POLICY_ALL_OR_NOTHING;
 
   public BiServerConnection getBiServerConnection() {
     return biServerConnection;
@@ -51,6 +59,30 @@ public class DataSourcePublishModel implements Serializable {
     this.biServerConnection = biServerConnection;
   }
 
+  /**
+   * @return servers the model is published to besides {@link #getBiServerConnection()}; one without a user takes the
+   * credentials of that connection
+   */
+  public List<BiServerConnection> getAdditionalBiServerConnections() {
+    return additionalBiServerConnections;
+  }
+
+  public void setAdditionalBiServerConnections( List<BiServerConnection> additionalBiServerConnections ) {
+    this.additionalBiServerConnections =
+      additionalBiServerConnections == null ? new ArrayList<BiServerConnection>() : additionalBiServerConnections;
+  }
+
+  /**
+   * @return {@link #PUBLISH_POLICY_ALL_OR_NOTHING} or {@link #PUBLISH_POLICY_BEST_EFFORT}, may contain variables
+   */
+  public String getPublishPolicy() {
+    return publishPolicy;
+  }
+
+  public void setPublishPolicy( String publishPolicy ) {
+    this.publishPolicy = publishPolicy;
+  }
+
   public String getModelName() {
     return modelName;
   }
@@ -24,14 +24,13 @@ package org.pentaho.di.core.refinery.publish.util;
 
 import com.google.common.annotations.VisibleForTesting;
 import com.sun.jersey.api.client.Client;
+import com.sun.jersey.api.client.ClientHandlerException;
 import com.sun.jersey.api.client.ClientResponse;
 import com.sun.jersey.api.client.WebResource;
-import com.sun.jersey.api.client.config.ClientConfig;
-import com.sun.jersey.api.client.config.DefaultClientConfig;
 import com.sun.jersey.api.client.filter.HTTPBasicAuthFilter;
-import com.sun.jersey.api.json.JSONConfiguration;
 import com.sun.jersey.core.header.FormDataContentDisposition;
 import com.sun.jersey.multipart.FormDataMultiPart;
+import com.sun.jersey.multipart.file.FileDataBodyPart;
 import org.apache.http.HttpResponse;
 import org.apache.http.auth.AuthScope;
 import org.apache.http.auth.UsernamePasswordCredentials;
@@ -44,14 +43,11 @@ import org.pentaho.di.core.Const;
 import org.pentaho.di.core.refinery.publish.agilebi.BiServerConnection;
 import org.pentaho.di.core.refinery.publish.model.ResponseStatus;
 import org.pentaho.di.core.util.EnvUtil;
-import org.pentaho.di.core.util.HttpClientManager;
 import org.pentaho.di.core.util.HttpClientUtil;
 
 import javax.ws.rs.core.MediaType;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
-import java.io.InputStream;
 import java.net.URLEncoder;
 
 /**
@@ -60,20 +56,29 @@ import java.net.URLEncoder;
 public abstract class BaseRestUtil {
 
   protected static final String KETTLE_DATA_REFINERY_HTTP_CLIENT_TIMEOUT = "KETTLE_DATA_REFINERY_HTTP_CLIENT_TIMEOUT";
+  private static final String REST_CLIENT_PROFILE = "rest";
 
   protected Client getAnonymousClient() {
-    ClientConfig clientConfig = new DefaultClientConfig();
-    clientConfig.getFeatures().put( JSONConfiguration.FEATURE_POJO_MAPPING, Boolean.TRUE );
-    clientConfig.getProperties().put(
-        ClientConfig.PROPERTY_READ_TIMEOUT,
-            Const.toInt( EnvUtil.getSystemProperty( KETTLE_DATA_REFINERY_HTTP_CLIENT_TIMEOUT ), 2000 ) );  // 2 sec. timeout
-    return Client.create( clientConfig );
+    return getClients().getClient( REST_CLIENT_PROFILE, null, getReadTimeout(), null );
   }
 
   protected Client getAuthenticatedClient( final BiServerConnection connection ) {
-    Client client = getAnonymousClient();
-    client.addFilter( new HTTPBasicAuthFilter( connection.getUserId(), connection.getPassword() ) );
-    return client;
+    return getClients().getClient( REST_CLIENT_PROFILE, connection, getReadTimeout(),
+        new BiServerClients.ClientSetup() {
+          @Override public void setup( final Client client ) {
+            client.addFilter( new HTTPBasicAuthFilter( connection.getUserId(), connection.getPassword() ) );
+            client.addFilter( new UploadEncodingFilter() );
+          }
+        } );
+  }
+
+  protected BiServerClients getClients() {
+    return BiServerClients.getInstance();
+  }
+
+  private int getReadTimeout() {
+    // 2 sec. timeout
+    return Const.toInt( EnvUtil.getSystemProperty( KETTLE_DATA_REFINERY_HTTP_CLIENT_TIMEOUT ), 2000 );
   }
 
   protected WebResource getWebResource( final BiServerConnection connection, final String restUrl,
@@ -87,37 +92,64 @@ public abstract class BaseRestUtil {
 
   protected ClientResponse httpGet( final BiServerConnection connection, final String restUrl, boolean authenticate ) {
 
-    Client client = getAnonymousClient();
-    if ( authenticate ) {
-      client = getAuthenticatedClient( connection );
-    }
+    Client client = authenticate ? getAuthenticatedClient( connection ) : getAnonymousClient();
 
     WebResource resource = getWebResource( connection, restUrl, client );
     WebResource.Builder builder = getDefaultWebResourceBuilder( resource );
-    return builder.get( ClientResponse.class );
+    BiServerLimiter.Permit permit = acquirePermit( connection, false );
+    try {
+      ClientResponse response = builder.get( ClientResponse.class );
+      permit.release( response == null ? -1 : response.getStatus() );
+      return response;
+    } catch ( RuntimeException e ) {
+      permit.release( e );
+      throw e;
+    }
   }
 
   protected ClientResponse httpPut( final BiServerConnection connection, final String restUrl,
       final boolean authenticate, final Object requestEntity ) {
 
-    Client client = getAnonymousClient();
-    if ( authenticate ) {
-      client = getAuthenticatedClient( connection );
-    }
+    Client client = authenticate ? getAuthenticatedClient( connection ) : getAnonymousClient();
 
     WebResource resource = getWebResource( connection, restUrl, client );
     WebResource.Builder builder = getDefaultWebResourceBuilder( resource );
-    return builder.put( ClientResponse.class, requestEntity );
+    BiServerLimiter.Permit permit = acquirePermit( connection, requestEntity != null );
+    try {
+      ClientResponse response = builder.put( ClientResponse.class, requestEntity );
+      permit.release( response == null ? -1 : response.getStatus() );
+      return response;
+    } catch ( RuntimeException e ) {
+      permit.release( e );
+      throw e;
+    }
   }
 
-  protected FormDataMultiPart createFileUploadRequest( final File file, final String repositoryPath ) throws Exception {
+  /**
+   * Waits until the {@link BiServerLimiter} lets another request through to the server
+   */
+  private BiServerLimiter.Permit acquirePermit( final BiServerConnection connection, final boolean sendsBody ) {
+    try {
+      return getLimiter().acquire( connection == null ? null : connection.getUrl(), sendsBody );
+    } catch ( InterruptedException e ) {
+      Thread.currentThread().interrupt();
+      throw new ClientHandlerException( e );
+    }
+  }
+
+  protected BiServerLimiter getLimiter() {
+    return BiServerLimiter.getInstance();
+  }
 
-    InputStream in = new FileInputStream( file );
+  /**
+   * The file is read when the request is sent, and again if it has to be sent once more
+   */
+  protected FormDataMultiPart createFileUploadRequest( final File file, final String repositoryPath ) throws Exception {
 
     FormDataMultiPart part = new FormDataMultiPart();
-    part.field( "importPath", repositoryPath, MediaType.MULTIPART_FORM_DATA_TYPE )
-        .field( "fileUpload", in, MediaType.MULTIPART_FORM_DATA_TYPE )
-        .field( "overwriteFile", String.valueOf( true ), MediaType.MULTIPART_FORM_DATA_TYPE );
+    part.field( "importPath", repositoryPath, MediaType.MULTIPART_FORM_DATA_TYPE );
+    part.bodyPart( new FileDataBodyPart( "fileUpload", file, MediaType.MULTIPART_FORM_DATA_TYPE ) );
+    part.field( "overwriteFile", String.valueOf( true ), MediaType.MULTIPART_FORM_DATA_TYPE );
 
     part.getField( "fileUpload" ).setContentDisposition(
         FormDataContentDisposition.name( "fileUpload" )
@@ -152,16 +184,25 @@ public abstract class BaseRestUtil {
 
     HttpGet get = createGetMethod( url );
 
+    BiServerLimiter.Permit permit = null;
     try {
+      permit = acquirePermit( connection, false );
       // execute the GET
       HttpResponse response = ( authContext == null ) ? client.execute( get ) : client.execute( get, authContext );
+      permit.release( response.getStatusLine().getStatusCode() );
 
       responseStatus.setStatus( response.getStatusLine().getStatusCode() );
       responseStatus.setMessage( getResponseString( response ) );
 
     } catch ( Exception e ) {
+      if ( permit != null ) {
+        permit.release( e );
+      }
       responseStatus.setStatus( -1 );
       responseStatus.setMessage( e.getMessage() );
+    } finally {
+      // back to the pool
+      get.releaseConnection();
     }
 
     return responseStatus;
@@ -169,14 +210,12 @@ public abstract class BaseRestUtil {
 
   @VisibleForTesting
   HttpClient getSimpleHttpClient() {
-    return HttpClientManager.getInstance().createDefaultClient();
+    return getClients().getHttpClient( null, 0 );
   }
 
   @VisibleForTesting
   HttpClient getAuthenticateHttpClient( BiServerConnection connection ) {
-    HttpClientManager.HttpClientBuilderFacade clientBuilder = HttpClientManager.getInstance().createBuilder();
-    clientBuilder.setCredentials( connection.getUserId(), connection.getPassword() );
-    return clientBuilder.build();
+    return getClients().getHttpClient( connection, 0 );
   }
 
   @VisibleForTesting
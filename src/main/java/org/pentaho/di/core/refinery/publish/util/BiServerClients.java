@@ -0,0 +1,255 @@
+/*! ******************************************************************************
+ *
+ * Pentaho Community Edition Project: data-refinery-pdi-plugin
+ *
+ * Copyright (C) 2002-2026 by Hitachi Vantara : http://www.pentaho.com
+ *
+ * *******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ********************************************************************************/
+
+package org.pentaho.di.core.refinery.publish.util;
+
+import com.sun.jersey.api.client.Client;
+import com.sun.jersey.api.client.config.ClientConfig;
+import com.sun.jersey.api.client.config.DefaultClientConfig;
+import com.sun.jersey.api.json.JSONConfiguration;
+import org.apache.http.client.HttpClient;
+import org.pentaho.di.core.Const;
+import org.pentaho.di.core.refinery.publish.agilebi.BiServerConnection;
+import org.pentaho.di.core.util.EnvUtil;
+import org.pentaho.di.core.util.HttpClientManager;
+
+import javax.ws.rs.ext.Providers;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * HTTP clients shared by everything talking to BA servers, keyed by server URL, user, a hash of the password and
+ * configuration, so a publish no longer builds a client, and with it a fresh connection, for every call.
+ * <p>
+ * Jersey clients keep the JDK connection handler, which reuses keep-alive connections per server on its own (sized by
+ * the standard <code>http.maxConnections</code> property) as long as responses are read or closed. Apache clients are
+ * built by Kettle's {@link HttpClientManager} and use its connection pool. Clients unused for
+ * {@link #KETTLE_DATA_REFINERY_HTTP_IDLE_TIMEOUT}, or the least recently used ones beyond
+ * {@link #KETTLE_DATA_REFINERY_HTTP_MAX_CLIENTS}, are no longer handed out. A dropped client is not destroyed: actions
+ * keep the client they got and may still be uploading on it, so it stays usable until nobody refers to it any more
+ * and is collected along with what it holds. The connections themselves stay bounded by the JDK keep-alive cache.
+ */
+public class BiServerClients {
+
+  /** Maximum number of shared clients of each kind */
+  public static final String KETTLE_DATA_REFINERY_HTTP_MAX_CLIENTS = "KETTLE_DATA_REFINERY_HTTP_MAX_CLIENTS";
+  /** Time in milliseconds after which unused clients are dropped */
+  public static final String KETTLE_DATA_REFINERY_HTTP_IDLE_TIMEOUT = "KETTLE_DATA_REFINERY_HTTP_IDLE_TIMEOUT";
+  /** Connect timeout in milliseconds, 0 waits forever */
+  public static final String KETTLE_DATA_REFINERY_HTTP_CONNECT_TIMEOUT = "KETTLE_DATA_REFINERY_HTTP_CONNECT_TIMEOUT";
+
+  private static final int DEFAULT_MAX_CLIENTS = 64;
+  private static final int DEFAULT_IDLE_TIMEOUT = 60000;
+  private static final int DEFAULT_CONNECT_TIMEOUT = 30000;
+  private static final char SEPARATOR = '\u0000';
+
+  private static BiServerClients instance;
+
+  private final int maxClients;
+  private final long idleTimeout;
+  private final int connectTimeout;
+  private final Map<String, Entry<Client>> clients;
+  private final Map<String, Entry<HttpClient>> httpClients;
+  private long lastSweep = System.currentTimeMillis();
+
+  public BiServerClients( final int maxClients, final long idleTimeout, final int connectTimeout ) {
+    this.maxClients = maxClients;
+    this.idleTimeout = idleTimeout;
+    this.connectTimeout = connectTimeout;
+    clients = new EntryMap<>();
+    httpClients = new EntryMap<>();
+  }
+
+  public static synchronized BiServerClients getInstance() {
+    if ( instance == null ) {
+      instance = new BiServerClients(
+          Const.toInt( EnvUtil.getSystemProperty( KETTLE_DATA_REFINERY_HTTP_MAX_CLIENTS ), DEFAULT_MAX_CLIENTS ),
+          Const.toInt( EnvUtil.getSystemProperty( KETTLE_DATA_REFINERY_HTTP_IDLE_TIMEOUT ), DEFAULT_IDLE_TIMEOUT ),
+          Const.toInt( EnvUtil.getSystemProperty( KETTLE_DATA_REFINERY_HTTP_CONNECT_TIMEOUT ),
+              DEFAULT_CONNECT_TIMEOUT ) );
+    }
+    return instance;
+  }
+
+  /**
+   * Sets up a new client before it is shared, e.g. adds authentication filters
+   */
+  public interface ClientSetup {
+    void setup( Client client );
+  }
+
+  /**
+   * @param profile tells apart clients set up differently for the same server and user
+   * @param connection server and user the client is set up for, null for an anonymous client
+   * @param readTimeout read timeout in milliseconds, 0 waits forever
+   * @param setup called once on a new client, may be null
+   * @return a shared Jersey client, its setup must not be changed
+   */
+  public synchronized Client getClient( final String profile, final BiServerConnection connection,
+                                        final int readTimeout, final ClientSetup setup ) {
+    sweep();
+    String key = key( profile, connection ) + SEPARATOR + readTimeout;
+    Entry<Client> entry = clients.get( key );
+    if ( entry == null ) {
+      Client client = createClient( readTimeout );
+      if ( setup != null ) {
+        setup.setup( client );
+      }
+      entry = new Entry<>( client );
+      clients.put( key, entry );
+    }
+    return entry.use();
+  }
+
+  /**
+   * @param connection server and user to authenticate as, null for an anonymous client
+   * @param readTimeout read timeout in milliseconds, 0 waits forever
+   * @return a shared Apache client on Kettle's pooled connections
+   */
+  public synchronized HttpClient getHttpClient( final BiServerConnection connection, final int readTimeout ) {
+    sweep();
+    String key = key( "http", connection ) + SEPARATOR + readTimeout;
+    Entry<HttpClient> entry = httpClients.get( key );
+    if ( entry == null ) {
+      entry = new Entry<>( createHttpClient( connection, readTimeout ) );
+      httpClients.put( key, entry );
+    }
+    return entry.use();
+  }
+
+  /**
+   * Drops all shared clients
+   */
+  public synchronized void clear() {
+    clients.clear();
+    httpClients.clear();
+  }
+
+  synchronized int size() {
+    return clients.size() + httpClients.size();
+  }
+
+  Client createClient( final int readTimeout ) {
+    /*
+    MessageBodyReader and MessageBodyWriter interfaces from JAX-RS-1.1 api are loaded by the main classloader
+    (due to configuration in custom.properties), as well as Jersey-1.19 classes,
+    whereas Jackson-2 is loaded by bundle's classloader. As a result, Jackson's providers are not visible to Jersey.
+
+    Moving Jackson to be also loaded by the main classloader is not working.
+    Cause Jackson-2 implements JAX-RS 2.0, and we would also have to replace JAX-RS-1.1 api
+    (the one implemented by Jersey-1.19) by JAX-RS-2.0.
+    While it's looking fine on the shallow (2.0 is compatible with 1.1),
+    it leads to similar errors when starting Jersey-2 required by other bundles, where Jersey-2 is instantiated
+    using JAX-RS api - api classes do not see an implementation.
+
+    Thus, we've come to the solution to load Jackson classes in this particular case by the main classloader.
+     */
+    ClassLoader orig = Thread.currentThread().getContextClassLoader();
+    try {
+      Thread.currentThread().setContextClassLoader( Providers.class.getClassLoader() );
+
+      ClientConfig clientConfig = new DefaultClientConfig();
+      clientConfig.getFeatures().put( JSONConfiguration.FEATURE_POJO_MAPPING, Boolean.TRUE );
+      clientConfig.getProperties().put( ClientConfig.PROPERTY_CONNECT_TIMEOUT, connectTimeout );
+      if ( readTimeout > 0 ) {
+        clientConfig.getProperties().put( ClientConfig.PROPERTY_READ_TIMEOUT, readTimeout );
+      }
+      return Client.create( clientConfig );
+    } finally {
+      Thread.currentThread().setContextClassLoader( orig );
+    }
+  }
+
+  HttpClient createHttpClient( final BiServerConnection connection, final int readTimeout ) {
+    HttpClientManager.HttpClientBuilderFacade builder = HttpClientManager.getInstance().createBuilder();
+    builder.setConnectionTimeout( connectTimeout );
+    builder.setSocketTimeout( readTimeout );
+    if ( connection != null ) {
+      builder.setCredentials( connection.getUserId(), connection.getPassword() );
+    }
+    return builder.build();
+  }
+
+  /**
+   * Drops clients nobody asked for within the idle timeout, least recently used first
+   */
+  private void sweep() {
+    long now = System.currentTimeMillis();
+    if ( now - lastSweep < idleTimeout / 2 ) {
+      return;
+    }
+    lastSweep = now;
+    sweep( clients, now );
+    sweep( httpClients, now );
+  }
+
+  private <T> void sweep( final Map<String, Entry<T>> entries, final long now ) {
+    for ( Iterator<Entry<T>> eldest = entries.values().iterator(); eldest.hasNext(); ) {
+      Entry<T> entry = eldest.next();
+      if ( now - entry.lastUsed < idleTimeout ) {
+        break;
+      }
+      eldest.remove();
+    }
+  }
+
+  static String key( final String profile, final BiServerConnection connection ) {
+    if ( connection == null ) {
+      return profile;
+    }
+    // separated by a character that cannot be typed into a user name or password
+    return profile + SEPARATOR + Const.NVL( connection.getUrl(), "" ) + SEPARATOR
+        + Const.NVL( connection.getUserId(), "" ) + SEPARATOR
+        + ConnectionValidationCache.hash( Const.NVL( connection.getPassword(), "" ) );
+  }
+
+  /**
+   * Least recently used first, dropping what falls off beyond the maximum
+   */
+  private class EntryMap<T> extends LinkedHashMap<String, BiServerClients.Entry<T>> {
+    private static final long serialVersionUID = 1L;
+
+    EntryMap() {
+      super( 16, 0.75f, true );
+    }
+
+    @Override
+    protected boolean removeEldestEntry( final Map.Entry<String, BiServerClients.Entry<T>> eldest ) {
+      return size() > maxClients;
+    }
+  }
+
+  private static class Entry<T> {
+    private final T client;
+    private long lastUsed;
+
+    Entry( final T client ) {
+      this.client = client;
+    }
+
+    T use() {
+      lastUsed = System.currentTimeMillis();
+      return client;
+    }
+  }
+}
@@ -0,0 +1,133 @@
+/*! ******************************************************************************
+ *
+ * Pentaho Community Edition Project: data-refinery-pdi-plugin
+ *
+ * Copyright (C) 2002-2026 by Hitachi Vantara : http://www.pentaho.com
+ *
+ * *******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ********************************************************************************/
+
+package org.pentaho.di.core.refinery.publish.util;
+
+import org.pentaho.di.core.Const;
+import org.pentaho.di.core.util.EnvUtil;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Logger;
+
+/**
+ * Default executor for the asynchronous BA server calls of
+ * {@link org.pentaho.di.core.refinery.publish.agilebi.ModelServerAction}, and for every other blocking call the plugin
+ * runs in the background (connection checks, model ID lists, loading sub-transformations). The calls spend nearly all
+ * their time waiting on I/O, so on a JVM with virtual threads every call gets its own virtual thread, otherwise they
+ * run on a pool of daemon threads that grows with demand.
+ * <p>
+ * Hosts with their own I/O pool can replace the default with {@link #setDefault(Executor)}, or a single action with
+ * <code>ModelServerAction.setExecutor</code>.
+ */
+public class BiServerExecutor {
+
+  /** N keeps BA server calls on platform threads even if the JVM supports virtual threads */
+  public static final String KETTLE_DATA_REFINERY_IO_VIRTUAL_THREADS = "KETTLE_DATA_REFINERY_IO_VIRTUAL_THREADS";
+
+  private static final Logger logger = Logger.getLogger( BiServerExecutor.class.getName() );
+
+  private static Executor instance;
+  // only the built-in executor is shut down when replaced, a host's own stays the host's business
+  private static ExecutorService builtIn;
+
+  private BiServerExecutor() {
+  }
+
+  public static synchronized Executor getDefault() {
+    if ( instance == null ) {
+      builtIn = create( !"N".equalsIgnoreCase(
+          Const.NVL( EnvUtil.getSystemProperty( KETTLE_DATA_REFINERY_IO_VIRTUAL_THREADS ), "Y" ) ) );
+      instance = builtIn;
+    }
+    return instance;
+  }
+
+  /**
+   * @param executor runs BA server calls from now on, null goes back to the built-in executor. A built-in executor
+   *                 in use so far is shut down once its running calls are done.
+   */
+  public static synchronized void setDefault( final Executor executor ) {
+    if ( builtIn != null && builtIn != executor ) {
+      builtIn.shutdown();
+      builtIn = null;
+    }
+    instance = executor;
+  }
+
+  /**
+   * Runs a call on an executor with the caller's context class loader, which plugin lookups on the other thread rely
+   * on.
+   *
+   * @return completes with the call's result, or exceptionally with what it threw or the executor's rejection
+   */
+  public static <T> CompletableFuture<T> callAsync( final Callable<T> call, final Executor executor ) {
+    final CompletableFuture<T> result = new CompletableFuture<>();
+    final ClassLoader contextClassLoader = Thread.currentThread().getContextClassLoader();
+    try {
+      executor.execute( new Runnable() {
+        @Override public void run() {
+          ClassLoader orig = Thread.currentThread().getContextClassLoader();
+          Thread.currentThread().setContextClassLoader( contextClassLoader );
+          try {
+            result.complete( call.call() );
+          } catch ( Throwable e ) {
+            result.completeExceptionally( e );
+          } finally {
+            Thread.currentThread().setContextClassLoader( orig );
+          }
+        }
+      } );
+    } catch ( RejectedExecutionException e ) {
+      result.completeExceptionally( e );
+    }
+    return result;
+  }
+
+  static ExecutorService create( final boolean virtualThreads ) {
+    if ( virtualThreads ) {
+      try {
+        // looked up by name to keep running on JVMs without virtual threads
+        return (ExecutorService) Executors.class.getMethod( "newVirtualThreadPerTaskExecutor" ).invoke( null );
+      } catch ( NoSuchMethodException e ) {
+        // no virtual threads on this JVM
+      } catch ( ReflectiveOperationException | RuntimeException e ) {
+        logger.warning( "Virtual threads unavailable, using platform threads: " + e );
+      }
+    }
+    return Executors.newCachedThreadPool( new ThreadFactory() {
+      private final AtomicInteger count = new AtomicInteger();
+
+      @Override public Thread newThread( final Runnable runnable ) {
+        Thread thread = new Thread( runnable, "refinery-bi-server-" + count.incrementAndGet() );
+        thread.setDaemon( true );
+        return thread;
+      }
+    } );
+  }
+}
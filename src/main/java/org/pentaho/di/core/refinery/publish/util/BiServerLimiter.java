@@ -0,0 +1,418 @@
+/*! ******************************************************************************
+ *
+ * Pentaho Community Edition Project: data-refinery-pdi-plugin
+ *
+ * Copyright (C) 2002-2026 by Hitachi Vantara : http://www.pentaho.com
+ *
+ * *******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ********************************************************************************/
+
+package org.pentaho.di.core.refinery.publish.util;
+
+import org.apache.commons.lang.StringUtils;
+import org.pentaho.di.core.Const;
+import org.pentaho.di.core.util.EnvUtil;
+
+import java.net.SocketTimeoutException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Adaptive limit on the number of requests in flight to each BA server, so many jobs publishing at once queue here
+ * instead of overloading the server until its responses time out.
+ * <p>
+ * Each server starts at {@link #KETTLE_DATA_REFINERY_SERVER_INITIAL_CONCURRENCY} requests. The limit grows by one
+ * per round of requests that used it fully while latency stays within
+ * {@link #KETTLE_DATA_REFINERY_SERVER_LATENCY_TOLERANCE} times the lowest latency seen lately, and is cut by a quarter
+ * when latency goes above that, a request times out or the server answers 429, 502, 503 or 504 (additive increase,
+ * multiplicative decrease). It never goes below one or above {@link #KETTLE_DATA_REFINERY_SERVER_MAX_CONCURRENCY}.
+ * Requests sending a body, such as uploads, take as long as their body does, so only their overload answers and
+ * timeouts count, never their latency.
+ * <p>
+ * Requests over the limit wait in arrival order. A permit covers a request until its response headers are in.
+ */
+public class BiServerLimiter {
+
+  /** Upper bound of the requests in flight to one server, 0 turns limiting off */
+  public static final String KETTLE_DATA_REFINERY_SERVER_MAX_CONCURRENCY =
+      "KETTLE_DATA_REFINERY_SERVER_MAX_CONCURRENCY";
+  /** Requests in flight to a server before anything is known about its latency */
+  public static final String KETTLE_DATA_REFINERY_SERVER_INITIAL_CONCURRENCY =
+      "KETTLE_DATA_REFINERY_SERVER_INITIAL_CONCURRENCY";
+  /** How many times the lowest recent latency a response may take before the server counts as overloaded */
+  public static final String KETTLE_DATA_REFINERY_SERVER_LATENCY_TOLERANCE =
+      "KETTLE_DATA_REFINERY_SERVER_LATENCY_TOLERANCE";
+
+  private static final int DEFAULT_MAX_CONCURRENCY = 10;
+  private static final int DEFAULT_INITIAL_CONCURRENCY = 4;
+  private static final double DEFAULT_LATENCY_TOLERANCE = 2.0;
+  private static final double BACKOFF_RATIO = 0.75;
+  // lets the lowest latency follow a server that got slower for good, doubling within about 70 responses
+  private static final double BASELINE_DRIFT = 1.01;
+
+  private static BiServerLimiter instance;
+
+  private final int maxConcurrency;
+  private final int initialConcurrency;
+  private final double latencyTolerance;
+  private final ConcurrentMap<String, ServerLimit> limits = new ConcurrentHashMap<>();
+
+  public BiServerLimiter( final int maxConcurrency, final int initialConcurrency, final double latencyTolerance ) {
+    this.maxConcurrency = maxConcurrency;
+    this.initialConcurrency = Math.max( 1, Math.min( initialConcurrency, maxConcurrency ) );
+    this.latencyTolerance = latencyTolerance;
+  }
+
+  public static synchronized BiServerLimiter getInstance() {
+    if ( instance == null ) {
+      double tolerance;
+      try {
+        tolerance = Double.parseDouble( Const.NVL( EnvUtil.getSystemProperty(
+            KETTLE_DATA_REFINERY_SERVER_LATENCY_TOLERANCE ), String.valueOf( DEFAULT_LATENCY_TOLERANCE ) ) );
+      } catch ( NumberFormatException e ) {
+        tolerance = DEFAULT_LATENCY_TOLERANCE;
+      }
+      instance = new BiServerLimiter(
+          Const.toInt( EnvUtil.getSystemProperty( KETTLE_DATA_REFINERY_SERVER_MAX_CONCURRENCY ),
+              DEFAULT_MAX_CONCURRENCY ),
+          Const.toInt( EnvUtil.getSystemProperty( KETTLE_DATA_REFINERY_SERVER_INITIAL_CONCURRENCY ),
+              DEFAULT_INITIAL_CONCURRENCY ),
+          Math.max( 1.0, tolerance ) );
+    }
+    return instance;
+  }
+
+  /**
+   * Waits for a free slot on the server of a URL
+   *
+   * @param url any URL on the server, requests are limited per scheme, host and port
+   * @return the permit to release once the response is in
+   */
+  public Permit acquire( final String url ) throws InterruptedException {
+    return acquire( url, false );
+  }
+
+  /**
+   * @param sendsBody true for a request with a body, e.g. an upload, whose latency is left out of the limit
+   */
+  public Permit acquire( final String url, final boolean sendsBody ) throws InterruptedException {
+    if ( maxConcurrency <= 0 || StringUtils.isBlank( url ) ) {
+      return Permit.UNLIMITED;
+    }
+    return getLimit( url ).acquire( !sendsBody );
+  }
+
+  /**
+   * @return the limit of the server of a URL, created on first use
+   */
+  public ServerLimit getLimit( final String url ) {
+    String server = server( url );
+    ServerLimit limit = limits.get( server );
+    if ( limit == null ) {
+      ServerLimit created = new ServerLimit( server );
+      limit = limits.putIfAbsent( server, created );
+      if ( limit == null ) {
+        limit = created;
+      }
+    }
+    return limit;
+  }
+
+  /**
+   * @return the limits of all servers used so far, by server
+   */
+  public Map<String, ServerLimit> getLimits() {
+    return Collections.unmodifiableMap( new TreeMap<>( limits ) );
+  }
+
+  public void clear() {
+    limits.clear();
+  }
+
+  private static String server( final String url ) {
+    try {
+      URI uri = new URI( url );
+      if ( uri.getHost() != null ) {
+        return uri.getScheme() + "://" + uri.getHost() + ":" + uri.getPort();
+      }
+    } catch ( URISyntaxException e ) {
+      // limited on its own then
+    }
+    return url;
+  }
+
+  /**
+   * @return true if a failed request tells that the server is overloaded
+   */
+  static boolean isOverload( final Throwable failure ) {
+    for ( Throwable cause = failure; cause != null; cause = cause.getCause() ) {
+      if ( cause instanceof SocketTimeoutException ) {
+        return true;
+      }
+      if ( cause.getCause() == cause ) {
+        break;
+      }
+    }
+    return false;
+  }
+
+  static boolean isOverload( final int status ) {
+    return status == 429 || status == 502 || status == 503 || status == 504;
+  }
+
+  /**
+   * Limit, queue and metrics of one server
+   */
+  public class ServerLimit {
+    private final String server;
+    // waiters are woken by ticket, a lock with one condition keeps them off the monitor of this public object
+    private final Lock lock = new ReentrantLock();
+    private final Condition changed = lock.newCondition();
+
+    private double limit = initialConcurrency;
+    private int inFlight;
+    private long nextTicket;
+    private long nowServing;
+    private final Set<Long> abandoned = new HashSet<>();
+    private long baselineNanos = Long.MAX_VALUE;
+    private long lastBackoffNanos = Long.MIN_VALUE;
+
+    private long requests;
+    private long backoffs;
+    private long queueNanos;
+    private long maxQueueNanos;
+
+    ServerLimit( final String server ) {
+      this.server = server;
+    }
+
+    Permit acquire( final boolean measured ) throws InterruptedException {
+      long queuedAt = System.nanoTime();
+      boolean saturated;
+      lock.lock();
+      try {
+        long ticket = nextTicket++;
+        try {
+          while ( ticket != nowServing || inFlight >= (int) limit ) {
+            changed.await();
+          }
+        } catch ( InterruptedException e ) {
+          // out of the line without holding up those behind
+          if ( ticket == nowServing ) {
+            advance();
+          } else {
+            abandoned.add( ticket );
+          }
+          changed.signalAll();
+          throw e;
+        }
+        advance();
+        inFlight++;
+        saturated = inFlight >= (int) limit;
+        long waited = System.nanoTime() - queuedAt;
+        requests++;
+        queueNanos += waited;
+        maxQueueNanos = Math.max( maxQueueNanos, waited );
+        // the next in line may fit as well
+        changed.signalAll();
+      } finally {
+        lock.unlock();
+      }
+      return new Permit( this, System.nanoTime(), saturated, measured );
+    }
+
+    private void advance() {
+      nowServing++;
+      while ( abandoned.remove( nowServing ) ) {
+        nowServing++;
+      }
+    }
+
+    /**
+     * @param measured false if the request's latency tells nothing, e.g. it failed without a response or sent a body
+     */
+    void release( final long sentAt, final boolean saturated, final boolean measured, final boolean overload ) {
+      lock.lock();
+      try {
+        inFlight--;
+        changed.signalAll();
+        if ( !measured && !overload ) {
+          return;
+        }
+        long latency = System.nanoTime() - sentAt;
+        if ( !overload ) {
+          // a long cast saturates, the first response sets the baseline
+          baselineNanos = Math.min( latency, (long) ( baselineNanos * BASELINE_DRIFT ) );
+        }
+        if ( overload || latency > baselineNanos * latencyTolerance ) {
+          // one cut for all the requests that were already on their way when the last one happened
+          if ( sentAt > lastBackoffNanos ) {
+            limit = Math.max( 1, limit * BACKOFF_RATIO );
+            lastBackoffNanos = System.nanoTime();
+            backoffs++;
+          }
+        } else if ( saturated ) {
+          limit = Math.min( maxConcurrency, limit + 1 / limit );
+        }
+      } finally {
+        lock.unlock();
+      }
+    }
+
+    public String getServer() {
+      return server;
+    }
+
+    /**
+     * @return requests currently allowed in flight
+     */
+    public int getLimit() {
+      lock.lock();
+      try {
+        return (int) limit;
+      } finally {
+        lock.unlock();
+      }
+    }
+
+    public int getInFlight() {
+      lock.lock();
+      try {
+        return inFlight;
+      } finally {
+        lock.unlock();
+      }
+    }
+
+    /**
+     * @return requests waiting for a slot
+     */
+    public int getQueued() {
+      lock.lock();
+      try {
+        return (int) ( nextTicket - nowServing ) - abandoned.size();
+      } finally {
+        lock.unlock();
+      }
+    }
+
+    /**
+     * @return requests let through so far
+     */
+    public long getRequests() {
+      lock.lock();
+      try {
+        return requests;
+      } finally {
+        lock.unlock();
+      }
+    }
+
+    /**
+     * @return how often the limit was cut
+     */
+    public long getBackoffs() {
+      lock.lock();
+      try {
+        return backoffs;
+      } finally {
+        lock.unlock();
+      }
+    }
+
+    public long getTotalQueueTimeMillis() {
+      lock.lock();
+      try {
+        return TimeUnit.NANOSECONDS.toMillis( queueNanos );
+      } finally {
+        lock.unlock();
+      }
+    }
+
+    public long getMaxQueueTimeMillis() {
+      lock.lock();
+      try {
+        return TimeUnit.NANOSECONDS.toMillis( maxQueueNanos );
+      } finally {
+        lock.unlock();
+      }
+    }
+
+    @Override public String toString() {
+      lock.lock();
+      try {
+        return server + ": limit " + (int) limit + ", in flight " + inFlight + ", queued " + getQueued()
+            + ", requests " + requests + ", backoffs " + backoffs + ", queue time " + getTotalQueueTimeMillis()
+            + " ms (max " + getMaxQueueTimeMillis() + " ms)";
+      } finally {
+        lock.unlock();
+      }
+    }
+  }
+
+  /**
+   * Slot for one request, released exactly once
+   */
+  public static class Permit {
+    static final Permit UNLIMITED = new Permit( null, 0, false, false );
+
+    private final ServerLimit limit;
+    private final long sentAt;
+    private final boolean saturated;
+    private final boolean measured;
+    private boolean released;
+
+    Permit( final ServerLimit limit, final long sentAt, final boolean saturated, final boolean measured ) {
+      this.limit = limit;
+      this.sentAt = sentAt;
+      this.saturated = saturated;
+      this.measured = measured;
+    }
+
+    /**
+     * @param status HTTP status of the response
+     */
+    public void release( final int status ) {
+      release( measured, isOverload( status ) );
+    }
+
+    /**
+     * @param failure why the request got no response
+     */
+    public void release( final Throwable failure ) {
+      release( false, isOverload( failure ) );
+    }
+
+    private synchronized void release( final boolean measuredLatency, final boolean overload ) {
+      if ( limit == null || released ) {
+        return;
+      }
+      released = true;
+      limit.release( sentAt, saturated, measuredLatency, overload );
+    }
+  }
+}
@@ -0,0 +1,165 @@
+/*! ******************************************************************************
+ *
+ * Pentaho Community Edition Project: data-refinery-pdi-plugin
+ *
+ * Copyright (C) 2002-2026 by Hitachi Vantara : http://www.pentaho.com
+ *
+ * *******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ********************************************************************************/
+
+package org.pentaho.di.core.refinery.publish.util;
+
+import org.pentaho.di.core.Const;
+import org.pentaho.di.core.refinery.publish.agilebi.BiServerConnection;
+import org.pentaho.di.core.util.EnvUtil;
+
+import java.net.CookieManager;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Server sessions shared by everything publishing to a BA server as the same user, so consecutive publishes and job
+ * entries keep sending the session cookie and CSRF token they already have instead of logging in again and starting a
+ * new session each time.
+ * <p>
+ * A session unused for {@link #KETTLE_DATA_REFINERY_SESSION_IDLE_TIMEOUT} is assumed to have expired on the server and
+ * starts over; {@link SessionCsrfTokenFilter} starts it over as well when the server rejects it.
+ */
+public class BiServerSessions {
+
+  /** Time in milliseconds after which an unused session is dropped, keep it below the server's session timeout */
+  public static final String KETTLE_DATA_REFINERY_SESSION_IDLE_TIMEOUT = "KETTLE_DATA_REFINERY_SESSION_IDLE_TIMEOUT";
+  // Tomcat's default session timeout is 30 minutes
+  private static final int DEFAULT_IDLE_TIMEOUT = 20 * 60 * 1000;
+  private static final char SEPARATOR = '\u0000';
+
+  private static BiServerSessions instance;
+
+  private final long idleTimeout;
+  private final ConcurrentMap<String, Session> sessions = new ConcurrentHashMap<>();
+
+  public BiServerSessions( final long idleTimeout ) {
+    this.idleTimeout = idleTimeout;
+  }
+
+  public static synchronized BiServerSessions getInstance() {
+    if ( instance == null ) {
+      instance = new BiServerSessions(
+          Const.toInt( EnvUtil.getSystemProperty( KETTLE_DATA_REFINERY_SESSION_IDLE_TIMEOUT ), DEFAULT_IDLE_TIMEOUT ) );
+    }
+    return instance;
+  }
+
+  /**
+   * @return the session of a server and user, created on first use
+   */
+  public Session getSession( final BiServerConnection connection ) {
+    // separated by a character that cannot be typed into a user name, the password only goes in hashed
+    String key = Const.NVL( connection.getUrl(), "" ) + SEPARATOR + Const.NVL( connection.getUserId(), "" )
+        + SEPARATOR + ConnectionValidationCache.hash( Const.NVL( connection.getPassword(), "" ) );
+    Session session = sessions.get( key );
+    if ( session == null ) {
+      Session created = new Session( idleTimeout );
+      session = sessions.putIfAbsent( key, created );
+      if ( session == null ) {
+        session = created;
+      }
+    }
+    return session;
+  }
+
+  /**
+   * Forgets all sessions, the server lets them expire
+   */
+  public void clear() {
+    sessions.clear();
+  }
+
+  /**
+   * Session cookies and CSRF token of one server and user. Each time the session starts over its generation goes up,
+   * so requests that all failed on the same old session start it over only once.
+   */
+  public static class Session {
+    private final CookieManager cookieManager = new CookieManager();
+    private final long idleTimeout;
+    private long generation;
+    private long lastUsed;
+    private String csrfHeader;
+    private String csrfToken;
+
+    Session( final long idleTimeout ) {
+      this.idleTimeout = idleTimeout;
+    }
+
+    /**
+     * @return keeps the session cookies, hand it to a {@code SessionCookiesFilter}
+     */
+    public CookieManager getCookieManager() {
+      return cookieManager;
+    }
+
+    /**
+     * Marks the session as used, starting it over first if it was unused for too long
+     *
+     * @return the current generation
+     */
+    public synchronized long use() {
+      long now = System.currentTimeMillis();
+      if ( lastUsed > 0 && now - lastUsed > idleTimeout ) {
+        startOver();
+      }
+      lastUsed = now;
+      return generation;
+    }
+
+    /**
+     * Starts the session over unless that already happened since the given generation
+     */
+    public synchronized void reset( final long generation ) {
+      if ( this.generation == generation ) {
+        startOver();
+      }
+    }
+
+    public synchronized long getGeneration() {
+      return generation;
+    }
+
+    /**
+     * @return header name and value of the CSRF token, null if none is known yet
+     */
+    public synchronized String[] getCsrfToken() {
+      return csrfToken == null ? null : new String[] { csrfHeader, csrfToken };
+    }
+
+    /**
+     * Keeps a CSRF token fetched in the given generation, unless the session started over meanwhile
+     */
+    public synchronized void setCsrfToken( final long generation, final String header, final String token ) {
+      if ( this.generation == generation ) {
+        csrfHeader = header;
+        csrfToken = token;
+      }
+    }
+
+    private void startOver() {
+      cookieManager.getCookieStore().removeAll();
+      csrfHeader = null;
+      csrfToken = null;
+      generation++;
+    }
+  }
+}
@@ -0,0 +1,135 @@
+/*! ******************************************************************************
+ *
+ * Pentaho Community Edition Project: data-refinery-pdi-plugin
+ *
+ * Copyright (C) 2002-2026 by Hitachi Vantara : http://www.pentaho.com
+ *
+ * *******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ********************************************************************************/
+
+package org.pentaho.di.core.refinery.publish.util;
+
+import org.apache.commons.lang.StringUtils;
+import org.pentaho.di.core.Const;
+import org.pentaho.di.core.refinery.publish.agilebi.BiServerConnection;
+import org.pentaho.di.core.util.EnvUtil;
+
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Remembers for a short while which BA server connections passed validation, so the Build Model and Publish entries
+ * of a job do not probe the server, the user and its permissions again before each call.
+ * <p>
+ * Entries are kept per server URL, user and a hash of the password, so changed credentials are validated again. Only
+ * successful validations are kept; a 401 from any later call drops the entry through
+ * {@link #invalidate(BiServerConnection)}.
+ */
+public class ConnectionValidationCache {
+
+  /** Time in milliseconds a successful validation is trusted, 0 disables caching */
+  public static final String KETTLE_DATA_REFINERY_CONNECTION_VALIDATION_TTL =
+      "KETTLE_DATA_REFINERY_CONNECTION_VALIDATION_TTL";
+  private static final int DEFAULT_TTL_MILLIS = 30000;
+
+  private static ConnectionValidationCache instance;
+
+  private final long ttlMillis;
+  private final ConcurrentMap<String, Long> validUntil = new ConcurrentHashMap<>();
+
+  public ConnectionValidationCache( final long ttlMillis ) {
+    this.ttlMillis = ttlMillis;
+  }
+
+  public static synchronized ConnectionValidationCache getInstance() {
+    if ( instance == null ) {
+      instance = new ConnectionValidationCache( Const.toInt(
+          EnvUtil.getSystemProperty( KETTLE_DATA_REFINERY_CONNECTION_VALIDATION_TTL ), DEFAULT_TTL_MILLIS ) );
+    }
+    return instance;
+  }
+
+  /**
+   * @return true if the connection passed validation within the time to live
+   */
+  public boolean isValid( final BiServerConnection connection ) {
+    String key = key( connection );
+    if ( key == null ) {
+      return false;
+    }
+    Long expires = validUntil.get( key );
+    if ( expires == null ) {
+      return false;
+    }
+    if ( System.currentTimeMillis() >= expires ) {
+      validUntil.remove( key, expires );
+      return false;
+    }
+    return true;
+  }
+
+  /**
+   * Records that the connection just passed validation
+   */
+  public void validated( final BiServerConnection connection ) {
+    String key = key( connection );
+    if ( key != null ) {
+      validUntil.put( key, System.currentTimeMillis() + ttlMillis );
+    }
+  }
+
+  /**
+   * Forgets the validation of a connection, e.g. after the server rejected its credentials
+   */
+  public void invalidate( final BiServerConnection connection ) {
+    String key = key( connection );
+    if ( key != null ) {
+      validUntil.remove( key );
+    }
+  }
+
+  public void clear() {
+    validUntil.clear();
+  }
+
+  private String key( final BiServerConnection connection ) {
+    if ( ttlMillis <= 0 || connection == null || StringUtils.isBlank( connection.getUrl() ) ) {
+      return null;
+    }
+    return connection.getUrl() + "|" + Const.NVL( connection.getUserId(), "" ) + "|"
+        + hash( Const.NVL( connection.getPassword(), "" ) );
+  }
+
+  /**
+   * Keeps passwords out of the map while still telling changed ones apart
+   */
+  static String hash( final String password ) {
+    try {
+      byte[] digest = MessageDigest.getInstance( "SHA-256" ).digest( password.getBytes( "UTF-8" ) );
+      StringBuilder hex = new StringBuilder( digest.length * 2 );
+      for ( byte b : digest ) {
+        hex.append( Character.forDigit( ( b >> 4 ) & 0xf, 16 ) ).append( Character.forDigit( b & 0xf, 16 ) );
+      }
+      return hex.toString();
+    } catch ( NoSuchAlgorithmException | UnsupportedEncodingException e ) {
+      // both are required on every JVM
+      throw new IllegalStateException( e );
+    }
+  }
+}
@@ -0,0 +1,227 @@
+/*! ******************************************************************************
+ *
+ * Pentaho Community Edition Project: data-refinery-pdi-plugin
+ *
+ * Copyright (C) 2002-2026 by Hitachi Vantara : http://www.pentaho.com
+ *
+ * *******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ********************************************************************************/
+
+
+package org.pentaho.di.core.refinery.publish.util;
+
+import org.apache.commons.lang.StringUtils;
+import org.pentaho.di.core.Const;
+import org.pentaho.di.core.refinery.publish.agilebi.BiServerConnection;
+import org.pentaho.di.core.util.EnvUtil;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Properties;
+
+/**
+ * Local record of what was last published to which BA server, so publishing an unchanged connection or model can be
+ * skipped instead of making the server reload its catalog and flush the Mondrian caches again.
+ * <p>
+ * Entries map server URL, user and artifact (e.g. <code>analysis/Sales</code>) to a fingerprint of everything the
+ * publish sent: the content digest, the ACL and any other request parameters. The ledger only knows what this machine
+ * published last, so callers still make sure the artifact exists on the server before skipping it; anything else
+ * changed there by others is overwritten by the next change on our side.
+ * <p>
+ * Entries survive restarts in one properties file in the Kettle home, shared by every process of the user: it is read
+ * again for every check, and changed under an exclusive file lock on what is in the file at that point, so entries
+ * other processes recorded meanwhile are kept.
+ */
+public class PublishLedger {
+
+  /** File holding the ledger, defaults to a file in the Kettle home directory */
+  public static final String KETTLE_DATA_REFINERY_PUBLISH_LEDGER = "KETTLE_DATA_REFINERY_PUBLISH_LEDGER";
+  /** Set to N to publish connections and models even if they did not change */
+  public static final String KETTLE_DATA_REFINERY_SKIP_UNCHANGED = "KETTLE_DATA_REFINERY_SKIP_UNCHANGED";
+
+  private static final char SEPARATOR = '\u0000';
+
+  private static PublishLedger instance;
+
+  private final File file;
+  private final boolean enabled;
+  // last read or written, used while the file cannot be
+  private Properties entries = new Properties();
+
+  public PublishLedger( final File file, final boolean enabled ) {
+    this.file = file;
+    this.enabled = enabled;
+  }
+
+  public static synchronized PublishLedger getInstance() {
+    if ( instance == null ) {
+      String path = EnvUtil.getSystemProperty( KETTLE_DATA_REFINERY_PUBLISH_LEDGER );
+      File file = StringUtils.isBlank( path )
+          ? new File( Const.getKettleDirectory(), "refinery-publish-ledger.properties" )
+          : new File( path );
+      instance = new PublishLedger( file,
+          !"N".equalsIgnoreCase( EnvUtil.getSystemProperty( KETTLE_DATA_REFINERY_SKIP_UNCHANGED ) ) );
+    }
+    return instance;
+  }
+
+  public boolean isEnabled() {
+    return enabled;
+  }
+
+  /**
+   * @param artifact type and name of what was published, e.g. <code>connection/Sales DB</code>
+   * @param fingerprint see {@link #fingerprint(String...)}
+   * @return true if the last successful publish of the artifact to the server sent the same fingerprint
+   */
+  public synchronized boolean isPublished( final BiServerConnection server, final String artifact,
+                                           final String fingerprint ) {
+    String key = key( server, artifact );
+    return key != null && fingerprint != null && fingerprint.equals( read().getProperty( key ) );
+  }
+
+  /**
+   * Records a successful publish
+   */
+  public synchronized void published( final BiServerConnection server, final String artifact,
+                                      final String fingerprint ) {
+    String key = key( server, artifact );
+    if ( key != null && fingerprint != null ) {
+      update( key, fingerprint );
+    }
+  }
+
+  /**
+   * Forgets an artifact, e.g. after it was deleted or its publish failed and the server state is unknown
+   */
+  public synchronized void forget( final BiServerConnection server, final String artifact ) {
+    String key = key( server, artifact );
+    if ( key != null ) {
+      update( key, null );
+    }
+  }
+
+  public synchronized void clear() {
+    entries = new Properties();
+    file.delete();
+  }
+
+  /**
+   * @param parts content digest and everything else a publish sends along, null is taken as empty
+   * @return hex encoded SHA-256 digest over all parts
+   */
+  public static String fingerprint( final String... parts ) {
+    try {
+      MessageDigest digest = MessageDigest.getInstance( "SHA-256" );
+      for ( String part : parts ) {
+        digest.update( Const.NVL( part, "" ).getBytes( "UTF-8" ) );
+        digest.update( (byte) SEPARATOR );
+      }
+      byte[] bytes = digest.digest();
+      StringBuilder hex = new StringBuilder( bytes.length * 2 );
+      for ( byte b : bytes ) {
+        hex.append( Character.forDigit( ( b >> 4 ) & 0xf, 16 ) ).append( Character.forDigit( b & 0xf, 16 ) );
+      }
+      return hex.toString();
+    } catch ( NoSuchAlgorithmException | IOException e ) {
+      // both are required on every JVM
+      throw new IllegalStateException( e );
+    }
+  }
+
+  private String key( final BiServerConnection server, final String artifact ) {
+    if ( !enabled || server == null || StringUtils.isBlank( server.getUrl() ) || artifact == null ) {
+      return null;
+    }
+    // separated by a character that cannot be typed into a URL, user or model name
+    return server.getUrl() + SEPARATOR + Const.NVL( server.getUserId(), "" ) + SEPARATOR + artifact;
+  }
+
+  /**
+   * @return the entries in the file, shared locked so no half written ledger is read
+   */
+  private Properties read() {
+    try ( FileChannel channel = FileChannel.open( file.toPath(), StandardOpenOption.READ );
+          FileLock lock = channel.lock( 0, Long.MAX_VALUE, true ) ) {
+      entries = load( channel );
+    } catch ( NoSuchFileException e ) {
+      // nothing published yet, or cleared
+      entries = new Properties();
+    } catch ( IOException | OverlappingFileLockException e ) {
+      // keep going on what this process knows
+    }
+    return entries;
+  }
+
+  /**
+   * Changes one entry in the file, exclusively locked from reading the entries to writing them back
+   *
+   * @param fingerprint null removes the entry
+   */
+  private void update( final String key, final String fingerprint ) {
+    File directory = file.getAbsoluteFile().getParentFile();
+    if ( directory.isDirectory() || directory.mkdirs() || directory.isDirectory() ) {
+      try ( FileChannel channel = FileChannel.open( file.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE,
+            StandardOpenOption.CREATE );
+            FileLock lock = channel.lock() ) {
+        // what other processes recorded since is kept
+        Properties current = load( channel );
+        if ( change( current, key, fingerprint ) ) {
+          channel.truncate( 0 );
+          // not closed, that would close the channel before the lock is released
+          OutputStream out = Channels.newOutputStream( channel.position( 0 ) );
+          current.store( out, null );
+          out.flush();
+        }
+        entries = current;
+        return;
+      } catch ( IOException | OverlappingFileLockException e ) {
+        // a lost entry only means publishing again
+      }
+    }
+    change( entries, key, fingerprint );
+  }
+
+  private static Properties load( final FileChannel channel ) throws IOException {
+    Properties loaded = new Properties();
+    try {
+      loaded.load( Channels.newInputStream( channel.position( 0 ) ) );
+    } catch ( IllegalArgumentException e ) {
+      // unreadable, everything is published again and the ledger rewritten
+      loaded.clear();
+    }
+    return loaded;
+  }
+
+  /**
+   * @return true if the entry changed
+   */
+  private static boolean change( final Properties entries, final String key, final String fingerprint ) {
+    if ( fingerprint == null ) {
+      return entries.remove( key ) != null;
+    }
+    return !fingerprint.equals( entries.setProperty( key, fingerprint ) );
+  }
+}
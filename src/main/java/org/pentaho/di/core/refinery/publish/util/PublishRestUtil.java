@@ -67,25 +67,55 @@ public class PublishRestUtil extends BaseRestUtil {
 
   public boolean canPublish( final BiServerConnection connection ) {
 
-    ClientResponse response = httpGet( connection, CAN_PUBLISH_PATH, true );
-
-    if ( response != null ) {
-      lastHTTPStatus = response.getStatus();
-      return Boolean.parseBoolean( response.getEntity( String.class ) );
-    }
-    lastHTTPStatus = -1;
-    return false;
+    ResponseStatus response = checkCanPublish( connection );
+    lastHTTPStatus = response.getStatus();
+    return isAuthorized( response );
   }
 
   public boolean canManageDatasources( final BiServerConnection connection ) {
 
-    ClientResponse response = httpGet( connection, CAN_MANAGE_DATASOURCES, true );
+    ResponseStatus response = checkCanManageDatasources( connection );
+    lastHTTPStatus = response.getStatus();
+    return isAuthorized( response );
+  }
+
+  /**
+   * Like {@link #canPublish(BiServerConnection)}, but hands back the response instead of keeping its status in
+   * {@link #getLastHTTPStatus()}, so concurrent checks do not overwrite each other's status
+   */
+  public ResponseStatus checkCanPublish( final BiServerConnection connection ) {
+    return checkAuthorized( connection, CAN_PUBLISH_PATH );
+  }
+
+  /**
+   * Like {@link #canManageDatasources(BiServerConnection)}, but hands back the response instead of keeping its status
+   * in {@link #getLastHTTPStatus()}
+   */
+  public ResponseStatus checkCanManageDatasources( final BiServerConnection connection ) {
+    return checkAuthorized( connection, CAN_MANAGE_DATASOURCES );
+  }
+
+  /**
+   * @return true if an authorization check came back allowed
+   */
+  public static boolean isAuthorized( final ResponseStatus response ) {
+    return response != null && Boolean.parseBoolean( response.getMessage() );
+  }
+
+  /**
+   * @return the status and body of the check, status -1 if the server did not answer
+   */
+  protected ResponseStatus checkAuthorized( final BiServerConnection connection, final String path ) {
+
+    ResponseStatus status = new ResponseStatus();
+    ClientResponse response = httpGet( connection, path, true );
     if ( response != null ) {
-      lastHTTPStatus = response.getStatus();
-      return Boolean.parseBoolean( response.getEntity( String.class ) );
+      status.setStatus( response.getStatus() );
+      status.setMessage( response.getEntity( String.class ) );
+    } else {
+      status.setStatus( -1 );
     }
-    lastHTTPStatus = -1;
-    return false;
+    return status;
   }
 
   public boolean canCreate( final BiServerConnection connection ) {
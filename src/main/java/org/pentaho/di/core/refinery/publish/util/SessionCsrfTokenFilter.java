@@ -0,0 +1,216 @@
+/*! ******************************************************************************
+ *
+ * Pentaho Community Edition Project: data-refinery-pdi-plugin
+ *
+ * Copyright (C) 2002-2026 by Hitachi Vantara : http://www.pentaho.com
+ *
+ * *******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ********************************************************************************/
+
+package org.pentaho.di.core.refinery.publish.util;
+
+import com.sun.jersey.api.client.ClientHandlerException;
+import com.sun.jersey.api.client.ClientRequest;
+import com.sun.jersey.api.client.ClientResponse;
+import com.sun.jersey.api.client.filter.ClientFilter;
+import com.sun.jersey.multipart.BodyPart;
+import com.sun.jersey.multipart.MultiPart;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.lang.StringUtils;
+import org.pentaho.di.core.exception.KettleException;
+import org.pentaho.di.core.refinery.model.ModelSourceStream;
+
+import javax.ws.rs.core.HttpHeaders;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+
+/**
+ * Adds the CSRF token of a {@link BiServerSessions.Session} to state changing requests, fetching it from the server's
+ * token service only when the session has none yet, and starts the session over when the server answers 401, or 403
+ * to a state changing request with a body naming CSRF. Any other 403 is a missing permission and left alone. Requests
+ * whose body can be written again, including uploads streamed from a {@link ModelSourceStream}, are then sent once
+ * more on the fresh session.
+ * <p>
+ * Goes before the filter handling the session cookies and after the one adding the credentials, so the token is
+ * fetched on the same session and login as the request it is meant for.
+ */
+public class SessionCsrfTokenFilter extends ClientFilter {
+
+  static final String CSRF_HEADER = "X-CSRF-HEADER";
+  static final String CSRF_TOKEN = "X-CSRF-TOKEN";
+  private static final String COOKIE = "Cookie";
+
+  private final URI tokenServiceUri;
+  private final BiServerSessions.Session session;
+
+  /**
+   * @param tokenServiceUri the server's CSRF token service, asked with the target in a <code>url</code> parameter
+   */
+  public SessionCsrfTokenFilter( final URI tokenServiceUri, final BiServerSessions.Session session ) {
+    this.tokenServiceUri = tokenServiceUri;
+    this.session = session;
+  }
+
+  @Override
+  public ClientResponse handle( final ClientRequest request ) throws ClientHandlerException {
+    long generation = session.use();
+    String[] token = addToken( request, generation );
+    ClientResponse response = getNext().handle( request );
+    if ( !isSessionRejected( request, response ) ) {
+      return response;
+    }
+    session.reset( generation );
+    if ( !canResend( request ) ) {
+      return response;
+    }
+    response.close();
+    reopenUploads( request );
+    if ( token != null ) {
+      request.getHeaders().remove( token[ 0 ] );
+    }
+    // the cookie filter adds the new session's cookies
+    request.getHeaders().remove( COOKIE );
+    addToken( request, session.use() );
+    return getNext().handle( request );
+  }
+
+  /**
+   * @return the header and token added, null if none
+   */
+  private String[] addToken( final ClientRequest request, final long generation ) {
+    if ( !isStateChanging( request.getMethod() ) ) {
+      return null;
+    }
+    String[] token = session.getCsrfToken();
+    if ( token == null ) {
+      token = fetchToken( request, generation );
+    }
+    if ( token != null ) {
+      request.getHeaders().putSingle( token[ 0 ], token[ 1 ] );
+    }
+    return token;
+  }
+
+  private String[] fetchToken( final ClientRequest request, final long generation ) {
+    ClientRequest.Builder builder = ClientRequest.create();
+    Object authorization = request.getHeaders().getFirst( HttpHeaders.AUTHORIZATION );
+    if ( authorization != null ) {
+      builder.header( HttpHeaders.AUTHORIZATION, authorization );
+    }
+    ClientRequest tokenRequest;
+    try {
+      tokenRequest = builder.build( URI.create( tokenServiceUri.toString() + "?url="
+          + URLEncoder.encode( request.getURI().toString(), "UTF-8" ) ), "GET" );
+    } catch ( UnsupportedEncodingException e ) {
+      throw new ClientHandlerException( e );
+    }
+    // same timeouts as the request itself
+    tokenRequest.getProperties().putAll( request.getProperties() );
+
+    ClientResponse response = getNext().handle( tokenRequest );
+    try {
+      String header = response.getHeaders().getFirst( CSRF_HEADER );
+      String token = response.getHeaders().getFirst( CSRF_TOKEN );
+      if ( response.getStatus() >= 300 || StringUtils.isEmpty( header ) || StringUtils.isEmpty( token ) ) {
+        // not protected, or no token service on older servers
+        return null;
+      }
+      session.setCsrfToken( generation, header, token );
+      return new String[] { header, token };
+    } finally {
+      response.close();
+    }
+  }
+
+  private static boolean isStateChanging( final String method ) {
+    return !( "GET".equals( method ) || "HEAD".equals( method ) || "OPTIONS".equals( method )
+        || "TRACE".equals( method ) );
+  }
+
+  /**
+   * @return true if the server turned down the session or its CSRF token rather than the user's permissions
+   */
+  static boolean isSessionRejected( final ClientRequest request, final ClientResponse response ) {
+    if ( response.getStatus() == 401 ) {
+      return true;
+    }
+    return response.getStatus() == 403 && isStateChanging( request.getMethod() ) && mentionsCsrf( response );
+  }
+
+  /**
+   * Reads the body of a response and puts it back for whoever reads the response next
+   */
+  private static boolean mentionsCsrf( final ClientResponse response ) {
+    InputStream body = response.getEntityInputStream();
+    if ( body == null ) {
+      return false;
+    }
+    byte[] content;
+    try {
+      content = IOUtils.toByteArray( body );
+    } catch ( IOException e ) {
+      return false;
+    } finally {
+      IOUtils.closeQuietly( body );
+    }
+    response.setEntityInputStream( new ByteArrayInputStream( content ) );
+    return new String( content, StandardCharsets.UTF_8 ).toLowerCase( Locale.ROOT ).contains( "csrf" );
+  }
+
+  /**
+   * @return false if the request body was a stream that is used up by now and cannot be opened again
+   */
+  static boolean canResend( final ClientRequest request ) {
+    Object entity = request.getEntity();
+    if ( entity instanceof InputStream ) {
+      return entity instanceof ModelSourceStream;
+    }
+    if ( entity instanceof MultiPart ) {
+      for ( BodyPart part : ( (MultiPart) entity ).getBodyParts() ) {
+        if ( part.getEntity() instanceof InputStream && !( part.getEntity() instanceof ModelSourceStream ) ) {
+          return false;
+        }
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Replaces uploads used up by the first attempt with new streams from the start of their sources
+   */
+  private static void reopenUploads( final ClientRequest request ) {
+    try {
+      Object entity = request.getEntity();
+      if ( entity instanceof ModelSourceStream ) {
+        request.setEntity( ( (ModelSourceStream) entity ).reopen() );
+      } else if ( entity instanceof MultiPart ) {
+        for ( BodyPart part : ( (MultiPart) entity ).getBodyParts() ) {
+          if ( part.getEntity() instanceof ModelSourceStream ) {
+            part.setEntity( ( (ModelSourceStream) part.getEntity() ).reopen() );
+          }
+        }
+      }
+    } catch ( IOException | KettleException e ) {
+      throw new ClientHandlerException( e );
+    }
+  }
+}
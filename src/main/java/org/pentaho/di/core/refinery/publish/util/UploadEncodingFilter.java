@@ -0,0 +1,109 @@
+/*! ******************************************************************************
+ *
+ * Pentaho Community Edition Project: data-refinery-pdi-plugin
+ *
+ * Copyright (C) 2002-2026 by Hitachi Vantara : http://www.pentaho.com
+ *
+ * *******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ********************************************************************************/
+
+package org.pentaho.di.core.refinery.publish.util;
+
+import com.sun.jersey.api.client.AbstractClientRequestAdapter;
+import com.sun.jersey.api.client.ClientHandlerException;
+import com.sun.jersey.api.client.ClientRequest;
+import com.sun.jersey.api.client.ClientRequestAdapter;
+import com.sun.jersey.api.client.ClientResponse;
+import com.sun.jersey.api.client.config.ClientConfig;
+import com.sun.jersey.api.client.filter.ClientFilter;
+import com.sun.jersey.multipart.MultiPart;
+import org.pentaho.di.core.Const;
+import org.pentaho.di.core.util.EnvUtil;
+
+import javax.ws.rs.core.HttpHeaders;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Streams upload bodies (multipart forms, files and streams) to the server in chunks instead of letting the JDK
+ * connection buffer the whole body in memory to compute its length, and optionally gzip-compresses them.
+ * <p>
+ * Compression is off unless {@link #KETTLE_DATA_REFINERY_HTTP_COMPRESS_UPLOADS} is set, as the BA server, or a proxy in
+ * front of it, has to inflate request bodies sent with <code>Content-Encoding: gzip</code>. Goes before any filter
+ * that may send a request again, so a body is never compressed twice.
+ */
+public class UploadEncodingFilter extends ClientFilter {
+
+  /** Chunk size in bytes for upload bodies, 0 sends them with a content length as before */
+  public static final String KETTLE_DATA_REFINERY_HTTP_CHUNK_SIZE = "KETTLE_DATA_REFINERY_HTTP_CHUNK_SIZE";
+  /** Y to gzip-compress upload bodies */
+  public static final String KETTLE_DATA_REFINERY_HTTP_COMPRESS_UPLOADS = "KETTLE_DATA_REFINERY_HTTP_COMPRESS_UPLOADS";
+
+  static final String GZIP = "gzip";
+  private static final int DEFAULT_CHUNK_SIZE = 64 * 1024;
+
+  private final int chunkSize;
+  private final boolean compress;
+
+  public UploadEncodingFilter() {
+    this( Const.toInt( EnvUtil.getSystemProperty( KETTLE_DATA_REFINERY_HTTP_CHUNK_SIZE ), DEFAULT_CHUNK_SIZE ),
+        "Y".equalsIgnoreCase( EnvUtil.getSystemProperty( KETTLE_DATA_REFINERY_HTTP_COMPRESS_UPLOADS ) ) );
+  }
+
+  public UploadEncodingFilter( final int chunkSize, final boolean compress ) {
+    this.chunkSize = chunkSize;
+    this.compress = compress;
+  }
+
+  @Override
+  public ClientResponse handle( final ClientRequest request ) throws ClientHandlerException {
+    if ( isUpload( request.getEntity() ) ) {
+      if ( chunkSize > 0 ) {
+        request.getProperties().put( ClientConfig.PROPERTY_CHUNKED_ENCODING_SIZE, chunkSize );
+      }
+      if ( compress && !request.getHeaders().containsKey( HttpHeaders.CONTENT_ENCODING ) ) {
+        request.getHeaders().putSingle( HttpHeaders.CONTENT_ENCODING, GZIP );
+        request.setAdapter( new GzipAdapter( request.getAdapter(), Math.max( chunkSize, 512 ) ) );
+      }
+    }
+    return getNext().handle( request );
+  }
+
+  /**
+   * @return true for bodies that may be large, small JSON and XML bodies are sent as they are
+   */
+  static boolean isUpload( final Object entity ) {
+    return entity instanceof MultiPart || entity instanceof InputStream || entity instanceof File;
+  }
+
+  private static class GzipAdapter extends AbstractClientRequestAdapter {
+    private final int bufferSize;
+
+    GzipAdapter( final ClientRequestAdapter adapter, final int bufferSize ) {
+      super( adapter );
+      this.bufferSize = bufferSize;
+    }
+
+    @Override
+    public OutputStream adapt( final ClientRequest request, final OutputStream out ) throws IOException {
+      ClientRequestAdapter adapter = getAdapter();
+      return new GZIPOutputStream( adapter == null ? out : adapter.adapt( request, out ), bufferSize );
+    }
+  }
+}
@@ -2,7 +2,7 @@
  *
  * Pentaho Community Edition Project: data-refinery-pdi-plugin
  *
- * Copyright (C) 2002-2023 by Hitachi Vantara : http://www.pentaho.com
+ * Copyright (C) 2002-2026 by Hitachi Vantara : http://www.pentaho.com
  *
  * *******************************************************************************
  *
@@ -22,6 +22,7 @@
 
 package org.pentaho.di.job.entries.build;
 
+import org.apache.commons.io.IOUtils;
 import org.apache.commons.lang.BooleanUtils;
 import org.apache.commons.lang.StringUtils;
 import org.pentaho.agilebi.modeler.ModelerException;
@@ -30,6 +31,7 @@ import org.pentaho.agilebi.modeler.util.TableModelerSource;
 import org.pentaho.di.cluster.SlaveServer;
 import org.pentaho.di.core.Const;
 import org.pentaho.di.core.ProvidesDatabaseConnectionInformation;
+import org.pentaho.di.core.ProvidesModelerMeta;
 import org.pentaho.di.core.Result;
 import org.pentaho.di.core.database.DatabaseMeta;
 import org.pentaho.di.core.encryption.Encr;
@@ -37,17 +39,22 @@ import org.pentaho.di.core.exception.KettleException;
 import org.pentaho.di.core.exception.KettleXMLException;
 import org.pentaho.di.core.logging.LogChannel;
 import org.pentaho.di.core.refinery.model.AnalysisModeler;
+import org.pentaho.di.core.refinery.model.BuildModelTimings;
 import org.pentaho.di.core.refinery.model.DswModeler;
 import org.pentaho.di.core.refinery.model.DswModeler.ColumnMismatchException;
 import org.pentaho.di.core.refinery.model.DswModeler.UnsupportedModelException;
+import org.pentaho.di.core.refinery.model.ModelArtifactStore;
+import org.pentaho.di.core.refinery.model.ModelIdIndex;
 import org.pentaho.di.core.refinery.model.ModelServerFetcher;
 import org.pentaho.di.core.refinery.model.ModelServerFetcher.AuthorizationException;
 import org.pentaho.di.core.refinery.model.ModelServerFetcher.ServerException;
 import org.pentaho.di.core.refinery.model.RefineryValueMetaStrategy;
 import org.pentaho.di.core.refinery.publish.agilebi.BiServerConnection;
+import org.pentaho.di.core.row.RowMetaInterface;
 import org.pentaho.di.core.xml.XMLHandler;
 import org.pentaho.di.i18n.BaseMessages;
 import org.pentaho.di.job.Job;
+import org.pentaho.di.job.JobAdapter;
 import org.pentaho.di.job.JobMeta;
 import org.pentaho.di.job.entries.trans.JobEntryTrans;
 import org.pentaho.di.job.entry.JobEntryBase;
@@ -59,6 +66,7 @@ import org.pentaho.di.trans.TransMeta;
 import org.pentaho.di.trans.dataservice.DataServiceContext;
 import org.pentaho.di.trans.dataservice.client.DataServiceConnectionInformation;
 import org.pentaho.di.trans.step.StepMetaDataCombi;
+import org.pentaho.di.trans.steps.tableoutput.TableOutputMeta;
 import org.pentaho.di.trans.util.TransUtil;
 import org.pentaho.di.ui.job.entries.build.JobEntryBuildModelDialog;
 import org.pentaho.di.ui.job.entries.common.ConnectionValidator;
@@ -69,9 +77,11 @@ import org.pentaho.metastore.api.IMetaStore;
 import org.pentaho.metastore.api.exceptions.MetaStoreException;
 import org.w3c.dom.Node;
 
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.util.ArrayList;
-import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 
 import static org.pentaho.di.core.Const.nullToEmpty;
 import static org.pentaho.platform.util.StringUtil.isEmpty;
@@ -85,9 +95,11 @@ public class JobEntryBuildModel extends JobEntryBase implements JobEntryInterfac
   public static final String PLUGIN_ID = "DataRefineryBuildModel";
   public static final String KEY_MODEL_ANNOTATIONS = "KEY_MODEL_ANNOTATIONS";
   public static final String KEY_OUTPUT_STEP_PREFIX = "JobEntryBuildModel.OutputStep.";
+  public static final String TIMING_VARIABLE_PREFIX = "JobEntryBuildModel.Timing.";
   private static Class<?> PKG = JobEntryBuildModel.class; // for i18n purposes, needed by Translator2!!
 
   private DswModeler modeler;
+  private BuildModelTimings timings;
 
   /* serializable */
   private String outputStep;
@@ -209,9 +221,13 @@ public class JobEntryBuildModel extends JobEntryBase implements JobEntryInterfac
       throw new KettleException( this.getMsg( "BuildModelJob.Missing.ModelName" ) );
     }
 
-    DatabaseMeta dbMeta = getConnectionInfo().getDatabaseMeta();
-    String schemaName = StringUtils.defaultIfBlank( environmentSubstitute( getConnectionInfo().getSchemaName() ), "" );
-    String tableName = environmentSubstitute( getConnectionInfo().getTableName() );
+    BuildModelTimings timings = getTimings();
+    long start = timings.start();
+    ProvidesDatabaseConnectionInformation connectionInfo = getConnectionInfo();
+    timings.record( BuildModelTimings.CONNECTION, start );
+    DatabaseMeta dbMeta = connectionInfo.getDatabaseMeta();
+    String schemaName = StringUtils.defaultIfBlank( environmentSubstitute( connectionInfo.getSchemaName() ), "" );
+    String tableName = environmentSubstitute( connectionInfo.getTableName() );
 
     TableModelerSource source = new TableModelerSource( dbMeta, tableName, schemaName ); //$NON-NLS-1$
     source.setSchemaName( StringUtils.defaultIfBlank( source.getSchemaName(), "" ) );
@@ -223,15 +239,21 @@ public class JobEntryBuildModel extends JobEntryBase implements JobEntryInterfac
 
       if ( useExistingModel() ) {
         String existingModelId = environmentSubstitute( getSelectedModel() );
+        start = timings.start();
         ModelServerFetcher fetcher = getModelServerFetcher();
+        timings.record( BuildModelTimings.CONNECTION, start );
         // model can be created/deleted in between checking and fetching, but there is no sure way to tell
         // if a model doesn't exist or some other error occurred
-        if ( !modelExists( existingModelId, fetcher ) ) {
+        start = timings.start();
+        boolean exists = modelExists( existingModelId, fetcher );
+        timings.record( BuildModelTimings.MODEL_EXISTS, start );
+        if ( !exists ) {
           if ( isCreateOnPublish() ) {
             logBasic( getMsg( "BuildModelJob.Info.ModelNotFound", existingModelId ) );
             modeledDomain =
                 getDswModeler()
-                    .createModel( modelName, source, dbMeta, importStrategy, modelAnnotations, getMetaStore() );
+                    .createModel( modelName, source, dbMeta, importStrategy, modelAnnotations, getMetaStore(),
+                        timings );
           } else {
             if ( Const.isEmpty( existingModelId ) ) {
               throw new KettleException( getMsg( "BuildModelJob.Error.ModelNullNotFound", getName() ) );
@@ -240,16 +262,22 @@ public class JobEntryBuildModel extends JobEntryBase implements JobEntryInterfac
             }
           }
         } else {
+          start = timings.start();
           final Domain templateModel = fetcher.downloadDswFile( existingModelId );
+          timings.record( BuildModelTimings.DOWNLOAD_DSW, start );
+          start = timings.start();
           modeledDomain = getDswModeler().updateModel( modelName, templateModel, dbMeta, schemaName, tableName );
+          timings.record( BuildModelTimings.UPDATE_MODEL, start );
         }
       } else {
         modeledDomain =
             getDswModeler()
-                .createModel( modelName, source, dbMeta, importStrategy, modelAnnotations, getMetaStore() );
+                .createModel( modelName, source, dbMeta, importStrategy, modelAnnotations, getMetaStore(), timings );
       }
+      start = timings.start();
       XmiParser parser = new XmiParser();
       String localXmi = parser.generateXmi( modeledDomain );
+      timings.record( BuildModelTimings.GENERATE_XMI, start );
       return localXmi;
     } catch ( AuthorizationException e ) {
       throw new KettleException( getMsg( "BuildModelJob.Error.Authorization" ) );
@@ -359,10 +387,11 @@ public class JobEntryBuildModel extends JobEntryBase implements JobEntryInterfac
 
   protected boolean modelExists( String modelId, ModelServerFetcher fetcher ) throws KettleException,
     AuthorizationException, ServerException {
-    HashSet<String> allIds = new HashSet<String>();
-    allIds.addAll( fetcher.fetchAnalysisList() );
-    allIds.addAll( fetcher.fetchDswList() );
-    return allIds.contains( modelId );
+    return getModelIdIndex().contains( fetcher, modelId );
+  }
+
+  protected ModelIdIndex getModelIdIndex() {
+    return ModelIdIndex.getInstance();
   }
 
   public BiServerConnection environmentSubstitute( BiServerConnection conn ) {
@@ -386,19 +415,22 @@ public class JobEntryBuildModel extends JobEntryBase implements JobEntryInterfac
 
     String outputStep = environmentSubstitute( getOutputStep() );
     String modelName = environmentSubstitute( getModelName() );
+    timings = new BuildModelTimings();
 
     try {
 
-      setVarAndLogBasic( "JobEntryBuildModel.DatabaseConnection." + modelName, getConnectionInfo().getDatabaseMeta()
-          .getName() );
+      long start = timings.start();
+      String connectionName = getConnectionInfo().getDatabaseMeta().getName();
+      timings.record( BuildModelTimings.CONNECTION, start );
+      setVarAndLogBasic( "JobEntryBuildModel.DatabaseConnection." + modelName, connectionName );
 
       if ( isPublishAnalysis() ) {
-        setVarAndLogDebug( "JobEntryBuildModel.Mondrian.Schema." + modelName, buildAnalysis( modelName ) );
-        setVarAndLogBasic( "JobEntryBuildModel.Mondrian.Datasource." + modelName, getConnectionInfo().getDatabaseMeta()
-            .getName() );
+        setVarAndLogDebug( "JobEntryBuildModel.Mondrian.Schema." + modelName,
+            retainWhileJobRuns( getArtifactStore().store( buildAnalysis( modelName ) ) ) );
+        setVarAndLogBasic( "JobEntryBuildModel.Mondrian.Datasource." + modelName, connectionName );
       } else {
-        setVarAndLogDebug( "JobEntryBuildModel.XMI." + modelName, buildXmi( getParentJob().getJobMeta(), outputStep,
-            modelName ) );
+        setVarAndLogDebug( "JobEntryBuildModel.XMI." + modelName, retainWhileJobRuns(
+            getArtifactStore().store( buildXmi( getParentJob().getJobMeta(), outputStep, modelName ) ) ) );
         setVarAndLogBasic( "JobEntryBuildModel.XMI.DSW." + modelName, "true" );
       }
 
@@ -407,18 +439,61 @@ public class JobEntryBuildModel extends JobEntryBase implements JobEntryInterfac
       log.logError( e.getMessage(), e );
       result.setResult( false );
       result.setNrErrors( 1 );
+    } finally {
+      publishTimings( modelName );
     }
 
     return result;
   }
 
+  /**
+   * Exposes phase timings as <code>JobEntryBuildModel.Timing.&lt;model&gt;.&lt;phase&gt;</code> variables holding
+   * milliseconds, and as a single log line
+   */
+  void publishTimings( final String modelName ) {
+    BuildModelTimings timings = getTimings();
+    if ( timings.isEmpty() ) {
+      return;
+    }
+    for ( Map.Entry<String, Long> phase : timings.getMillis().entrySet() ) {
+      parentJob.setVariable( TIMING_VARIABLE_PREFIX + modelName + "." + phase.getKey(),
+          String.valueOf( phase.getValue() ) );
+    }
+    log.logBasic( getMsg( "BuildModelJob.Timings", modelName, timings.toString() ) );
+  }
+
+  /**
+   * @return timings of the current or last execution
+   */
+  public BuildModelTimings getTimings() {
+    if ( timings == null ) {
+      timings = new BuildModelTimings();
+    }
+    return timings;
+  }
+
+  /**
+   * Streams the selected analysis schema from the server through the rewrite into the artifact store, so neither the
+   * downloaded nor the rewritten schema is held in memory as a whole.
+   *
+   * @return handle of the rewritten schema, see {@link ModelArtifactStore}
+   */
   String buildAnalysis( final String modelName ) throws KettleException {
-    String analysisFile;
+    final InputStream analysisFile;
     String selectedModelName = environmentSubstitute( getSelectedModel() );
+    BuildModelTimings timings = getTimings();
 
     try {
-      if ( modelExists( selectedModelName, getModelServerFetcher() ) ) {
-        analysisFile = getModelServerFetcher().downloadAnalysisFile( selectedModelName );
+      long start = timings.start();
+      ModelServerFetcher fetcher = getModelServerFetcher();
+      timings.record( BuildModelTimings.CONNECTION, start );
+      start = timings.start();
+      boolean exists = modelExists( selectedModelName, fetcher );
+      timings.record( BuildModelTimings.MODEL_EXISTS, start );
+      if ( exists ) {
+        start = timings.start();
+        analysisFile = fetcher.openAnalysisFile( selectedModelName );
+        timings.record( BuildModelTimings.DOWNLOAD_ANALYSIS, start );
       } else {
         if ( Const.isEmpty( selectedModelName ) ) {
           throw new KettleException( getMsg( "BuildModelJob.Error.ModelNullNotFound", getName() ) );
@@ -429,18 +504,76 @@ public class JobEntryBuildModel extends JobEntryBase implements JobEntryInterfac
     } catch ( Exception e ) {
       throw new KettleException( e );
     }
-    AnalysisModeler analysisModeler = getAnalysisModeler();
-    return analysisModeler.replaceTableAndSchemaNames( analysisFile, modelName );
+    try {
+      final AnalysisModeler analysisModeler = getAnalysisModeler();
+      long start = timings.start();
+      // the download is read while rewriting, so this covers most of the transfer as well
+      String analysis = getArtifactStore().storeFrom( new ModelArtifactStore.ArtifactWriter() {
+        @Override public void writeTo( final OutputStream out ) throws KettleException {
+          analysisModeler.replaceTableAndSchemaNames( analysisFile, out, modelName );
+        }
+      } );
+      timings.record( BuildModelTimings.REWRITE_ANALYSIS, start );
+      return analysis;
+    } finally {
+      IOUtils.closeQuietly( analysisFile );
+    }
   }
 
   AnalysisModeler getAnalysisModeler() throws KettleException {
-    return new AnalysisModeler( this, getConnectionInfo() );
+    return new AnalysisModeler( this, getConnectionInfo(), getCapturedRowMeta() );
+  }
+
+  /**
+   * @return the fields the output step inserted, if it ran in this job, or null. Also null when a Table Output step maps
+   * stream fields to table columns, as the captured fields cannot be trusted to carry the column names then.
+   */
+  RowMetaInterface getCapturedRowMeta() {
+    StepMetaDataCombi stepMetaDataCombi = getStepMetaDataCombi();
+    if ( stepMetaDataCombi != null && stepMetaDataCombi.meta instanceof TableOutputMeta
+        && ( (TableOutputMeta) stepMetaDataCombi.meta ).specifyFields() ) {
+      return null;
+    }
+    if ( stepMetaDataCombi != null && stepMetaDataCombi.meta instanceof ProvidesModelerMeta ) {
+      return ( (ProvidesModelerMeta) stepMetaDataCombi.meta ).getRowMeta( stepMetaDataCombi.data );
+    }
+    return null;
   }
 
   ModelServerFetcher getModelServerFetcher() throws KettleException {
     return new ModelServerFetcher( validBIServerConnection() );
   }
 
+  /**
+   * Models are kept out of band and only referenced from job variables, see {@link ModelArtifactStore}
+   */
+  protected ModelArtifactStore getArtifactStore() {
+    return ModelArtifactStore.getInstance();
+  }
+
+  /**
+   * Keeps a stored model until the outermost job finishes, as any entry after this one may read it from the variable
+   *
+   * @return the handle
+   */
+  String retainWhileJobRuns( final String handle ) {
+    if ( !ModelArtifactStore.isHandle( handle ) ) {
+      return handle;
+    }
+    final ModelArtifactStore store = getArtifactStore();
+    Job root = parentJob;
+    while ( root.getParentJob() != null ) {
+      root = root.getParentJob();
+    }
+    store.retain( handle );
+    root.addJobListener( new JobAdapter() {
+      @Override public void jobFinished( final Job job ) {
+        store.release( handle );
+      }
+    } );
+    return handle;
+  }
+
   protected void setVarAndLogDebug( final String varName, final String value ) {
     parentJob.setVariable( varName, value );
     log.logDebug( getMsg( "BuildModelJob.SetVariable", varName, parentJob.getVariable( varName ) ) );
@@ -28,13 +28,23 @@ import org.pentaho.database.model.DatabaseConnection;
 import org.pentaho.di.core.database.DatabaseMeta;
 import org.pentaho.di.core.exception.KettleException;
 import org.pentaho.di.core.logging.LogChannelInterface;
+import org.pentaho.di.core.refinery.model.ModelArtifactStore;
+import org.pentaho.di.core.refinery.model.ModelServerFetcher;
+import org.pentaho.di.core.refinery.model.ModelServerFetcher.AuthorizationException;
+import org.pentaho.di.core.refinery.model.ModelServerFetcher.ServerException;
+import org.pentaho.di.core.refinery.model.ModelSource;
+import org.pentaho.di.core.refinery.model.ModelSourceStream;
 import org.pentaho.di.core.refinery.publish.agilebi.ModelServerPublish;
+import org.pentaho.di.core.refinery.publish.model.DataSourceAclModel;
+import org.pentaho.di.core.refinery.publish.util.PublishLedger;
 import org.pentaho.di.i18n.BaseMessages;
 import org.pentaho.di.job.entries.publish.exception.DuplicateDataSourceException;
 import org.pentaho.di.trans.dataservice.client.DataServiceConnectionInformation;
 
-import java.io.ByteArrayInputStream;
 import java.io.InputStream;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
 
 /**
  * Created by bmorrise on 9/1/16.
@@ -44,7 +54,12 @@ public class DatasourcePublishService implements PublishService {
   private static Class<?> PKG = JobEntryDatasourcePublish.class;
 
   private static final String METADATA_EXTENSION = ".xmi";
-  private static final String ENCODING = "UTF-8";
+
+  // artifact types in the publish ledger
+  protected static final String CONNECTION = "connection/";
+  protected static final String METADATA = "metadata/";
+  protected static final String DSW = "dsw/";
+  protected static final String ANALYSIS = "analysis/";
 
   private LogChannelInterface log;
 
@@ -52,21 +67,41 @@ public class DatasourcePublishService implements PublishService {
     this.log = log;
   }
 
-  public void publishDatabaseMeta( final ModelServerPublish modelServerPublish, final DatabaseMeta databaseMeta,
-                                   final boolean forceOverride ) throws KettleException {
+  public boolean publishDatabaseMeta( final ModelServerPublish modelServerPublish, final DatabaseMeta databaseMeta,
+                                      final boolean forceOverride ) throws KettleException {
 
-    if ( isKettleThinLocal( databaseMeta ) ) {
-      throw new KettleException( getMsg( "JobEntryDatasourcePublish.Publish.LocalPentahoDataService" ) );
-    }
-    if ( isKettleThin( databaseMeta ) ) {
-      databaseMeta.setForcingIdentifiersToLowerCase( false );
-    }
-
-    modelServerPublish.setDatabaseMeta( databaseMeta ); // provide database info
+    // fail before asking the server
+    checkPublishable( databaseMeta );
 
     // TODO Simple Check - Need to make this smarter and inspect the database connection
     DatabaseConnection connection = modelServerPublish.connectionNameExists( databaseMeta.getName() );
 
+    return publishDatabaseMeta( modelServerPublish, databaseMeta, connection, forceOverride );
+  }
+
+  /**
+   * Publishes a database connection the caller already looked up on the server
+   *
+   * @param connection the connection of the same name on the server, null if there is none
+   * @return true if uploaded, false if skipped as unchanged
+   */
+  public boolean publishDatabaseMeta( final ModelServerPublish modelServerPublish, final DatabaseMeta databaseMeta,
+                                      final DatabaseConnection connection, final boolean forceOverride )
+    throws KettleException {
+
+    checkPublishable( databaseMeta );
+
+    modelServerPublish.setDatabaseMeta( databaseMeta ); // provide database info
+
+    String name = databaseMeta.getName();
+    String fingerprint = forceOverride ? connectionFingerprint( modelServerPublish ) : null;
+    // the lookup already tells whether the server still has it
+    if ( connection != null && isRecorded( modelServerPublish, CONNECTION + name, fingerprint ) ) {
+      log.logBasic( this.getMsg( "JobEntryDatasourcePublish.Publish.DBConnection.Unchanged", name ) );
+      return false;
+    }
+    forget( modelServerPublish, CONNECTION + name );
+
     try {
       boolean success;
       if ( forceOverride ) {
@@ -90,7 +125,9 @@ public class DatasourcePublishService implements PublishService {
     } catch ( Exception e ) {
       throw new KettleException( e );
     }
+    record( modelServerPublish, CONNECTION + name, fingerprint );
     log.logBasic( this.getMsg( "JobEntryDatasourcePublish.Publish.DBConnection.Success", databaseMeta.getName() ) );
+    return true;
   }
 
   protected void deleteDatabaseMeta( final ModelServerPublish modelServerPublish, final DatabaseMeta databaseMeta )
@@ -102,6 +139,7 @@ public class DatasourcePublishService implements PublishService {
 
     // TODO Simple Check - Need to make this smarter and inspect the database connection
     DatabaseConnection connection = modelServerPublish.connectionNameExists( databaseMeta.getName() );
+    forget( modelServerPublish, CONNECTION + databaseMeta.getName() );
 
     try {
       boolean success = true;
@@ -127,8 +165,10 @@ public class DatasourcePublishService implements PublishService {
     try {
       boolean success = true;
       if ( dswFlag != null && dswFlag.equalsIgnoreCase( "true" ) ) {
+        forget( modelServerPublish, DSW + checkDswId( modelName ) );
         success = modelServerPublish.deleteDSWXmi( checkDswId( modelName ) );
       } else {
+        forget( modelServerPublish, METADATA + modelName );
         success = modelServerPublish.deleteMetadataXmi( modelName );
       }
 
@@ -144,6 +184,15 @@ public class DatasourcePublishService implements PublishService {
     log.logBasic( this.getMsg( "JobEntryDatasourcePublish.Delete.XMI.Success", modelName ) );
   }
 
+  protected void deleteMondrianSchema( final ModelServerPublish modelServerPublish, final String modelName )
+    throws KettleException {
+    forget( modelServerPublish, ANALYSIS + modelName );
+    if ( !modelServerPublish.deleteMondrianSchema( modelName ) ) {
+      throw new KettleException( this.getMsg( "JobEntryDatasourcePublish.Delete.Mondrian.Failed", modelName ) );
+    }
+    log.logBasic( this.getMsg( "JobEntryDatasourcePublish.Delete.Mondrian.Success", modelName ) );
+  }
+
   protected String checkDswId( String modelName ) {
     if ( !modelName.endsWith( METADATA_EXTENSION ) ) {
       if ( StringUtils.endsWithIgnoreCase( modelName, METADATA_EXTENSION ) ) {
@@ -154,18 +203,50 @@ public class DatasourcePublishService implements PublishService {
     return modelName;
   }
 
-  public void publishMondrianSchema( final String modelName, final String mondrianSchema,
-                                     final String mondrianDatasource, final ModelServerPublish modelServerPublish,
-                                     final boolean forceOverride ) throws KettleException {
+  public boolean publishMondrianSchema( final String modelName, final String mondrianSchema,
+                                        final String mondrianDatasource, final ModelServerPublish modelServerPublish,
+                                        final boolean forceOverride ) throws KettleException {
 
     if ( mondrianSchema == null || mondrianDatasource == null ) {
-      return;
+      return false;
     }
+    return uploadMondrianSchema( modelName, getArtifactStore().source( mondrianSchema ),
+      ModelArtifactStore.getDigest( mondrianSchema ), mondrianDatasource, modelServerPublish, forceOverride );
+  }
+
+  /**
+   * Publishes a Mondrian schema streamed from its source straight into the request body
+   */
+  public boolean publishMondrianSchemaFrom( final String modelName, final ModelSource mondrianSchema,
+                                            final String mondrianDatasource,
+                                            final ModelServerPublish modelServerPublish,
+                                            final boolean forceOverride ) throws KettleException {
+
+    if ( mondrianSchema == null || mondrianDatasource == null ) {
+      return false;
+    }
+    return uploadMondrianSchema( modelName, mondrianSchema, null, mondrianDatasource, modelServerPublish,
+      forceOverride );
+  }
+
+  /**
+   * @param digest content digest if known without reading the source
+   */
+  private boolean uploadMondrianSchema( final String modelName, final ModelSource mondrianSchema, final String digest,
+                                        final String mondrianDatasource, final ModelServerPublish modelServerPublish,
+                                        final boolean forceOverride ) throws KettleException {
+
+    String fingerprint = fingerprint( modelServerPublish, forceOverride, mondrianSchema, digest, mondrianDatasource );
+    if ( isUnchanged( modelServerPublish, ANALYSIS, modelName, fingerprint ) ) {
+      log.logBasic( this.getMsg( "JobEntryDatasourcePublish.Publish.Mondrian.Unchanged", modelName ) );
+      return false;
+    }
+    forget( modelServerPublish, ANALYSIS + modelName );
 
     // Publish Mondrian Schema
     InputStream mondrianInputStream = null;
     try {
-      mondrianInputStream = new ByteArrayInputStream( mondrianSchema.getBytes( ENCODING ) );
+      mondrianInputStream = ModelSourceStream.open( mondrianSchema );
       modelServerPublish.setForceOverwrite( forceOverride );
       int status =
         modelServerPublish.publishMondrianSchema( mondrianInputStream, modelName, mondrianDatasource, forceOverride );
@@ -177,21 +258,53 @@ public class DatasourcePublishService implements PublishService {
     } finally {
       IOUtils.closeQuietly( mondrianInputStream );
     }
+    record( modelServerPublish, ANALYSIS + modelName, fingerprint );
     log.logBasic( this.getMsg( "JobEntryDatasourcePublish.Publish.Mondrian.Success", modelName ) );
+    return true;
   }
 
-  public void publishMetadataXmi( final String modelName, final String xmiString,
-                                  final ModelServerPublish modelServerPublish,
-                                  final boolean forceOverride ) throws KettleException {
+  public boolean publishMetadataXmi( final String modelName, final String xmiString,
+                                     final ModelServerPublish modelServerPublish,
+                                     final boolean forceOverride ) throws KettleException {
 
     if ( xmiString == null ) {
-      return;
+      return false;
     }
+    return uploadMetadataXmi( modelName, getArtifactStore().source( xmiString ),
+      ModelArtifactStore.getDigest( xmiString ), modelServerPublish, forceOverride );
+  }
+
+  /**
+   * Publishes a metadata model streamed from its source straight into the request body
+   */
+  public boolean publishMetadataXmiFrom( final String modelName, final ModelSource xmi,
+                                         final ModelServerPublish modelServerPublish,
+                                         final boolean forceOverride ) throws KettleException {
+
+    if ( xmi == null ) {
+      return false;
+    }
+    return uploadMetadataXmi( modelName, xmi, null, modelServerPublish, forceOverride );
+  }
+
+  /**
+   * @param digest content digest if known without reading the source
+   */
+  private boolean uploadMetadataXmi( final String modelName, final ModelSource xmi, final String digest,
+                                     final ModelServerPublish modelServerPublish,
+                                     final boolean forceOverride ) throws KettleException {
+
+    String fingerprint = fingerprint( modelServerPublish, forceOverride, xmi, digest, null );
+    if ( isUnchanged( modelServerPublish, METADATA, modelName, fingerprint ) ) {
+      log.logBasic( this.getMsg( "JobEntryDatasourcePublish.Publish.Metadata.Unchanged", modelName ) );
+      return false;
+    }
+    forget( modelServerPublish, METADATA + modelName );
 
     // Publish XMI
     InputStream xmiInputStream = null;
     try {
-      xmiInputStream = new ByteArrayInputStream( xmiString.getBytes( ENCODING ) );
+      xmiInputStream = ModelSourceStream.open( xmi );
       modelServerPublish.setForceOverwrite( forceOverride );
       int status = modelServerPublish.publishMetaDataFile( xmiInputStream, modelName );
       if ( status != ModelServerPublish.PUBLISH_SUCCESS ) {
@@ -202,23 +315,56 @@ public class DatasourcePublishService implements PublishService {
     } finally {
       IOUtils.closeQuietly( xmiInputStream );
     }
+    record( modelServerPublish, METADATA + modelName, fingerprint );
     log.logBasic( this.getMsg( "JobEntryDatasourcePublish.Publish.Metadata.Success", modelName ) );
+    return true;
   }
 
-  public void publishDswXmi( final String modelName, final String xmiString,
-                             final ModelServerPublish modelServerPublish,
-                             final boolean forceOverride ) throws KettleException {
+  public boolean publishDswXmi( final String modelName, final String xmiString,
+                                final ModelServerPublish modelServerPublish,
+                                final boolean forceOverride ) throws KettleException {
 
     if ( xmiString == null ) {
-      return;
+      return false;
     }
+    return uploadDswXmi( modelName, getArtifactStore().source( xmiString ), ModelArtifactStore.getDigest( xmiString ),
+      modelServerPublish, forceOverride );
+  }
+
+  /**
+   * Publishes a DSW model streamed from its source straight into the request body
+   */
+  public boolean publishDswXmiFrom( final String modelName, final ModelSource xmi,
+                                    final ModelServerPublish modelServerPublish,
+                                    final boolean forceOverride ) throws KettleException {
+
+    if ( xmi == null ) {
+      return false;
+    }
+    return uploadDswXmi( modelName, xmi, null, modelServerPublish, forceOverride );
+  }
+
+  /**
+   * @param digest content digest if known without reading the source
+   */
+  private boolean uploadDswXmi( final String modelName, final ModelSource xmi, final String digest,
+                                final ModelServerPublish modelServerPublish,
+                                final boolean forceOverride ) throws KettleException {
+
+    String domainId = checkDswId( modelName );
+    String fingerprint = fingerprint( modelServerPublish, forceOverride, xmi, digest, null );
+    if ( isUnchanged( modelServerPublish, DSW, domainId, fingerprint ) ) {
+      log.logBasic( this.getMsg( "JobEntryDatasourcePublish.Publish.Dsw.Unchanged", modelName ) );
+      return false;
+    }
+    forget( modelServerPublish, DSW + domainId );
 
     // Publish XMI
     InputStream xmiInputStream = null;
     try {
-      xmiInputStream = IOUtils.toInputStream( xmiString, ENCODING );
+      xmiInputStream = ModelSourceStream.open( xmi );
       modelServerPublish.setForceOverwrite( forceOverride );
-      int status = modelServerPublish.publishDsw( xmiInputStream, checkDswId( modelName ) );
+      int status = modelServerPublish.publishDsw( xmiInputStream, domainId );
       if ( status == ModelServerPublish.PUBLISH_CONFLICT ) {
         throw new DuplicateDataSourceException( this.getMsg( "JobEntryDatasourcePublish.Publish.Dsw.Conflict", modelName ) );
       } else if ( status != ModelServerPublish.PUBLISH_SUCCESS ) {
@@ -229,9 +375,128 @@ public class DatasourcePublishService implements PublishService {
     } finally {
       IOUtils.closeQuietly( xmiInputStream );
     }
+    record( modelServerPublish, DSW + domainId, fingerprint );
     log.logBasic( this.getMsg( "JobEntryDatasourcePublish.Publish.Dsw.Success", modelName ) );
+    return true;
+  }
+
+
+  /**
+   * Build Model hands over models as artifact store handles, anything else is published as is
+   */
+  protected ModelArtifactStore getArtifactStore() {
+    return ModelArtifactStore.getInstance();
+  }
+
+  /**
+   * Remembers what was last published where, so unchanged connections and models are not uploaded again
+   */
+  protected PublishLedger getPublishLedger() {
+    return PublishLedger.getInstance();
+  }
+
+  /**
+   * The ledger only knows what this machine published; the server is asked in case someone deleted the model since.
+   * The ID lists answer that with one call, mostly a 304 through the download cache, and only the IDs starting with
+   * the one asked for are kept while the list is parsed.
+   *
+   * @param type {@link #ANALYSIS}, {@link #DSW} or {@link #METADATA}
+   * @return true if the model is on the server, false if it is not or the server could not tell
+   */
+  protected boolean isOnServer( final ModelServerPublish modelServerPublish, final String type, final String id ) {
+    ModelServerFetcher fetcher = getModelServerFetcher( modelServerPublish );
+    try {
+      List<String> ids;
+      if ( ANALYSIS.equals( type ) ) {
+        ids = fetcher.fetchAnalysisList( id );
+      } else if ( DSW.equals( type ) ) {
+        ids = fetcher.fetchDswList( id );
+      } else {
+        ids = fetcher.fetchMetadataList( id );
+      }
+      return ids.contains( id );
+    } catch ( AuthorizationException | ServerException | RuntimeException e ) {
+      // publish as usual, the upload reports any real problem
+      return false;
+    }
+  }
+
+  protected ModelServerFetcher getModelServerFetcher( final ModelServerPublish modelServerPublish ) {
+    return new ModelServerFetcher( modelServerPublish.getBiServerConnection() );
+  }
+
+  private boolean isUnchanged( final ModelServerPublish modelServerPublish, final String type, final String id,
+                               final String fingerprint ) {
+    return isRecorded( modelServerPublish, type + id, fingerprint ) && isOnServer( modelServerPublish, type, id );
+  }
+
+  private boolean isRecorded( final ModelServerPublish modelServerPublish, final String artifact,
+                              final String fingerprint ) {
+    return fingerprint != null
+      && getPublishLedger().isPublished( modelServerPublish.getBiServerConnection(), artifact, fingerprint );
+  }
+
+  private void record( final ModelServerPublish modelServerPublish, final String artifact, final String fingerprint ) {
+    if ( fingerprint != null ) {
+      getPublishLedger().published( modelServerPublish.getBiServerConnection(), artifact, fingerprint );
+    }
+  }
+
+  /**
+   * Called before anything is sent, the server state is unknown until the publish succeeds
+   */
+  private void forget( final ModelServerPublish modelServerPublish, final String artifact ) {
+    getPublishLedger().forget( modelServerPublish.getBiServerConnection(), artifact );
   }
 
+  /**
+   * Without override an existing model makes the publish fail, which a skip must not hide, so only overriding
+   * publishes get a fingerprint.
+   *
+   * @param digest content digest, the source is read for it if null
+   * @param parameters anything else sent along that changes what ends up on the server
+   * @return the content digest combined with the ACL and parameters, null if the publish must not be skipped
+   */
+  private String fingerprint( final ModelServerPublish modelServerPublish, final boolean forceOverride,
+                              final ModelSource source, final String digest, final String parameters )
+    throws KettleException {
+    if ( !forceOverride || !getPublishLedger().isEnabled() || modelServerPublish.getBiServerConnection() == null ) {
+      return null;
+    }
+    DataSourceAclModel acl = modelServerPublish.getAclModel();
+    return PublishLedger.fingerprint( digest != null ? digest : ModelArtifactStore.digestFrom( source ),
+      acl == null ? null : acl.toXml(), parameters );
+  }
+
+  /**
+   * @return fingerprint of the connection the server would get, null if the publish must not be skipped
+   */
+  private String connectionFingerprint( final ModelServerPublish modelServerPublish ) {
+    if ( !getPublishLedger().isEnabled() || modelServerPublish.getBiServerConnection() == null ) {
+      return null;
+    }
+    DatabaseConnection sent = modelServerPublish.createDatabaseConnection( null );
+    if ( sent == null ) {
+      return null;
+    }
+    Map<String, String> extraOptions = sent.getExtraOptions();
+    return PublishLedger.fingerprint( sent.getName(), sent.getHostname(), sent.getDatabasePort(),
+      sent.getDatabaseName(), sent.getUsername(), sent.getPassword(),
+      String.valueOf( sent.isForcingIdentifiersToLowerCase() ), String.valueOf( sent.isQuoteAllFields() ),
+      String.valueOf( sent.getAccessType() ),
+      sent.getDatabaseType() == null ? null : sent.getDatabaseType().getShortName(),
+      // sorted, the map's own order may differ between runs
+      extraOptions == null ? null : new TreeMap<>( extraOptions ).toString() );
+  }
+
+  private void checkPublishable( final DatabaseMeta databaseMeta ) throws KettleException {
+    if ( isKettleThinLocal( databaseMeta ) ) {
+      throw new KettleException( getMsg( "JobEntryDatasourcePublish.Publish.LocalPentahoDataService" ) );
+    }
+    if ( isKettleThin( databaseMeta ) ) {
+      databaseMeta.setForcingIdentifiersToLowerCase( false );
+    }
+  }
 
   private boolean isKettleThinLocal( final DatabaseMeta databaseMeta ) {
     return isKettleThin( databaseMeta )
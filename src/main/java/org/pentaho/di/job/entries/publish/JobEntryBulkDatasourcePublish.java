@@ -0,0 +1,507 @@
+/*! ******************************************************************************
+ *
+ * Pentaho Community Edition Project: data-refinery-pdi-plugin
+ *
+ * Copyright (C) 2002-2026 by Hitachi Vantara : http://www.pentaho.com
+ *
+ * *******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ********************************************************************************/
+
+package org.pentaho.di.job.entries.publish;
+
+import org.apache.commons.lang.StringUtils;
+import org.pentaho.database.model.DatabaseAccessType;
+import org.pentaho.database.model.DatabaseConnection;
+import org.pentaho.di.cluster.SlaveServer;
+import org.pentaho.di.core.Const;
+import org.pentaho.di.core.Result;
+import org.pentaho.di.core.RowMetaAndData;
+import org.pentaho.di.core.database.DatabaseMeta;
+import org.pentaho.di.core.exception.KettleException;
+import org.pentaho.di.core.exception.KettleXMLException;
+import org.pentaho.di.core.refinery.model.ModelIdIndex;
+import org.pentaho.di.core.refinery.publish.agilebi.ModelServerPublish;
+import org.pentaho.di.core.row.RowMeta;
+import org.pentaho.di.core.row.RowMetaInterface;
+import org.pentaho.di.core.row.value.ValueMetaString;
+import org.pentaho.di.core.xml.XMLHandler;
+import org.pentaho.di.repository.ObjectId;
+import org.pentaho.di.repository.Repository;
+import org.pentaho.metastore.api.IMetaStore;
+import org.w3c.dom.Node;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Semaphore;
+import java.util.function.BiConsumer;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * Publishes many models in one go: the models named, and the models built earlier in the job whose name matches a
+ * pattern. The server is validated once, every database connection is published once for all models using it, and the
+ * models are published a few at a time, sharing the pooled client and session of the server.
+ * <p>
+ * A model that fails is rolled back on its own, and a connection is only rolled back if none of its models made it.
+ * The status of every model is logged and passed on as result rows, see {@link #getStatusRowMeta()}.
+ */
+@org.pentaho.di.core.annotations.JobEntry( id = "DATASOURCE_BULK_PUBLISH",
+  i18nPackageName = "org.pentaho.di.job.entries.publish", image = "publish.svg",
+  name = "JobEntryBulkDatasourcePublish.JobName", description = "JobEntryBulkDatasourcePublish.JobDescription",
+  documentationUrl = "Work_with_data/Using_the_Publish_Model_job_entry_for_SDR",
+  categoryDescription = "JobCategory.Category.Modeling" )
+public class JobEntryBulkDatasourcePublish extends JobEntryDatasourcePublish {
+
+  public static final int DEFAULT_PARALLELISM = 4;
+
+  private static final String XMI_PREFIX = "JobEntryBuildModel.XMI.";
+  private static final String DSW_PREFIX = "JobEntryBuildModel.XMI.DSW.";
+  private static final String MONDRIAN_SCHEMA_PREFIX = "JobEntryBuildModel.Mondrian.Schema.";
+  private static final String MONDRIAN_DATASOURCE_PREFIX = "JobEntryBuildModel.Mondrian.Datasource.";
+  private static final String DATABASE_CONNECTION_PREFIX = "JobEntryBuildModel.DatabaseConnection.";
+
+  private String modelNames;
+  private String modelPattern;
+  private String parallelism;
+
+  public final class BulkFields {
+    public static final String MODEL_NAMES = "model_names";
+    public static final String MODEL_PATTERN = "model_pattern";
+    public static final String PARALLELISM = "parallelism";
+  }
+
+  public JobEntryBulkDatasourcePublish( DatasourcePublishService datasourcePublishService ) {
+    super( datasourcePublishService );
+  }
+
+  /**
+   * @return models to publish, separated by commas or line breaks, may contain variables
+   */
+  public String getModelNames() {
+    return modelNames;
+  }
+
+  public void setModelNames( String modelNames ) {
+    this.modelNames = modelNames;
+  }
+
+  /**
+   * @return regular expression selecting models built earlier in the job, may contain variables
+   */
+  public String getModelPattern() {
+    return modelPattern;
+  }
+
+  public void setModelPattern( String modelPattern ) {
+    this.modelPattern = modelPattern;
+  }
+
+  /**
+   * @return number of models published at the same time, may contain variables
+   */
+  public String getParallelism() {
+    return parallelism;
+  }
+
+  public void setParallelism( String parallelism ) {
+    this.parallelism = parallelism;
+  }
+
+  @Override
+  public Result execute( Result result, int i ) throws KettleException {
+    List<ModelPublish> models = new ArrayList<>();
+    ModelServerPublish modelServerPublish = null;
+    try {
+      if ( !getDataSourcePublishModel().getAdditionalBiServerConnections().isEmpty() ) {
+        throw new KettleException( getMsg( "JobEntryBulkDatasourcePublish.Error.AdditionalServers" ) );
+      }
+      modelServerPublish = prepareModelServerPublish();
+
+      for ( String modelName : getModels() ) {
+        models.add( new ModelPublish( modelName ) );
+      }
+      if ( models.isEmpty() ) {
+        throw new KettleException( getMsg( "JobEntryBulkDatasourcePublish.Error.NoModels" ) );
+      }
+      int permits = Math.max( 1, Const.toInt( environmentSubstitute( parallelism ), DEFAULT_PARALLELISM ) );
+      log.logBasic( getMsg( "JobEntryBulkDatasourcePublish.Publish.Models", String.valueOf( models.size() ),
+        String.valueOf( permits ) ) );
+
+      publish( models, modelServerPublish, new Semaphore( permits ), getExecutor( modelServerPublish ) );
+    } catch ( KettleException e ) {
+      logError( e.getMessage(), e );
+      result.setResult( false );
+      result.setNrErrors( 1 );
+      return result;
+    } finally {
+      if ( modelServerPublish != null ) {
+        // data sources on the server changed, or may have
+        ModelIdIndex.getInstance().invalidate( modelServerPublish.getBiServerConnection() );
+      }
+    }
+
+    List<RowMetaAndData> rows = new ArrayList<>( models.size() );
+    int failed = 0;
+    for ( ModelPublish model : models ) {
+      if ( model.error == null ) {
+        log.logBasic( getMsg( "JobEntryBulkDatasourcePublish.Publish.Model.Success", model.modelName ) );
+      } else {
+        failed++;
+        log.logError( getMsg( "JobEntryBulkDatasourcePublish.Publish.Model.Failed", model.modelName,
+          model.error.getMessage() ) );
+      }
+      rows.add( new RowMetaAndData( getStatusRowMeta(), model.modelName,
+        model.connection == null ? null : model.connection.databaseMeta.getName(),
+        model.error == null ? STATUS_PUBLISHED : STATUS_FAILED,
+        model.error == null ? null : Const.trim( model.error.getMessage() ) ) );
+    }
+    log.logBasic( getMsg( "JobEntryBulkDatasourcePublish.Publish.Summary", String.valueOf( models.size() - failed ),
+      String.valueOf( models.size() ) ) );
+
+    result.setRows( rows );
+    result.setResult( failed == 0 );
+    result.setNrErrors( failed );
+    return result;
+  }
+
+  /**
+   * @return layout of the result rows, one per model: model name, connection name, status and error message
+   */
+  public static RowMetaInterface getStatusRowMeta() {
+    RowMetaInterface rowMeta = new RowMeta();
+    rowMeta.addValueMeta( new ValueMetaString( "model_name" ) );
+    rowMeta.addValueMeta( new ValueMetaString( "connection_name" ) );
+    rowMeta.addValueMeta( new ValueMetaString( "status" ) );
+    rowMeta.addValueMeta( new ValueMetaString( "message" ) );
+    return rowMeta;
+  }
+
+  /**
+   * Publishes every connection, then every model whose connection made it, and rolls back connections none of whose
+   * models made it
+   */
+  private void publish( final List<ModelPublish> models, final ModelServerPublish modelServerPublish,
+                        final Semaphore permits, final Executor executor ) throws KettleException {
+    final boolean forceOverride = getDataSourcePublishModel().isOverride();
+
+    Map<String, ConnectionPublish> connections = new LinkedHashMap<>();
+    DatabaseMetaLookup databaseMetas = new DatabaseMetaLookup();
+    for ( ModelPublish model : models ) {
+      // variables are read here, the publishes run on other threads
+      String modelName = model.modelName;
+      model.dswFlag = getParentJob().getVariable( DSW_PREFIX + modelName );
+      model.xmiString = getParentJob().getVariable( XMI_PREFIX + modelName );
+      model.mondrianSchema = getParentJob().getVariable( MONDRIAN_SCHEMA_PREFIX + modelName );
+      model.mondrianDatasource = getParentJob().getVariable( MONDRIAN_DATASOURCE_PREFIX + modelName );
+      if ( model.xmiString == null && model.mondrianSchema == null ) {
+        model.error = new KettleException( getMsg( "JobEntryBulkDatasourcePublish.Error.ModelNotBuilt", modelName ) );
+        continue;
+      }
+      try {
+        DatabaseMeta databaseMeta = databaseMetas.find( model );
+        ConnectionPublish connection = connections.get( databaseMeta.getName() );
+        if ( connection == null ) {
+          connection = new ConnectionPublish( databaseMeta );
+          connections.put( databaseMeta.getName(), connection );
+        }
+        model.connection = connection;
+      } catch ( KettleException e ) {
+        model.error = e;
+      }
+    }
+
+    for ( final ConnectionPublish connection : connections.values() ) {
+      if ( isStopped() ) {
+        break;
+      }
+      final ModelServerPublish publisher = copyOf( modelServerPublish );
+      connection.future = submit( new PublishStep() {
+        @Override public void publish() throws KettleException {
+          // check overwrite condition, the connection found is also what gets updated
+          DatabaseConnection dbConnection = publisher.connectionNameExists( connection.databaseMeta.getName() );
+          if ( dbConnection != null && !forceOverride ) {
+            throw new KettleException( getMsg( "JobEntryDatasourcePublish.Error.DBConnectionExists" ) );
+          }
+          connection.published = getDatasourcePublishService()
+            .publishDatabaseMeta( publisher, connection.databaseMeta, dbConnection, forceOverride );
+        }
+      }, permits, executor );
+    }
+    for ( ConnectionPublish connection : connections.values() ) {
+      connection.error = failure( connection.future );
+    }
+
+    for ( final ModelPublish model : models ) {
+      if ( model.error != null ) {
+        continue;
+      } else if ( model.connection.error != null ) {
+        model.error = model.connection.error;
+        continue;
+      }
+      if ( isStopped() ) {
+        break;
+      }
+      final ModelServerPublish publisher = copyOf( modelServerPublish );
+      model.future = submit( new PublishStep() {
+        @Override public void publish() throws KettleException {
+          publishModel( model, publisher, forceOverride );
+        }
+      }, permits, executor );
+    }
+    for ( ModelPublish model : models ) {
+      if ( model.error == null ) {
+        model.error = failure( model.future );
+      }
+      if ( model.error == null ) {
+        model.connection.used = true;
+      }
+    }
+
+    for ( ConnectionPublish connection : connections.values() ) {
+      // a connection skipped as unchanged was there before, it stays
+      if ( connection.published && !connection.used ) {
+        logBasic( getMsg( "JobEntryBulkDatasourcePublish.Rollback.Connection", connection.databaseMeta.getName() ) );
+        try {
+          getDatasourcePublishService().deleteDatabaseMeta( modelServerPublish, connection.databaseMeta );
+        } catch ( KettleException e ) {
+          logError( e.getMessage(), e );
+        }
+      }
+    }
+  }
+
+  /**
+   * Publishes the XMI and Mondrian schema of a model, and rolls back what of them was published if either fails
+   */
+  private void publishModel( final ModelPublish model, final ModelServerPublish publisher,
+                             final boolean forceOverride ) throws KettleException {
+    String modelName = model.modelName;
+    try {
+      if ( model.dswFlag != null && model.dswFlag.equalsIgnoreCase( "true" ) ) {
+        model.metaPublished =
+          getDatasourcePublishService().publishDswXmi( modelName, model.xmiString, publisher, forceOverride );
+      } else {
+        model.metaPublished =
+          getDatasourcePublishService().publishMetadataXmi( modelName, model.xmiString, publisher, forceOverride );
+      }
+
+      model.analysisPublished = getDatasourcePublishService().publishMondrianSchema( modelName, model.mondrianSchema,
+        model.mondrianDatasource, publisher, forceOverride );
+    } catch ( KettleException e ) {
+      logBasic( getMsg( "JobEntryBulkDatasourcePublish.Rollback.Model", modelName ) );
+      // the connection is shared with other models, it is rolled back once none of them made it
+      rollback( publisher, model, modelName, model.dswFlag, model.connection.databaseMeta );
+      throw e;
+    }
+  }
+
+  /**
+   * Runs a publish on the executor once fewer than the permitted number of publishes are running
+   *
+   * @return null if interrupted while waiting, the publishes already running are still waited for and rolled back
+   */
+  private CompletableFuture<Void> submit( final PublishStep step, final Semaphore permits, final Executor executor ) {
+    try {
+      permits.acquire();
+    } catch ( InterruptedException e ) {
+      Thread.currentThread().interrupt();
+      return null;
+    }
+    CompletableFuture<Void> published = publishAsync( step, executor );
+    published.whenComplete( new BiConsumer<Void, Throwable>() {
+      @Override public void accept( final Void ignored, final Throwable error ) {
+        permits.release();
+      }
+    } );
+    return published;
+  }
+
+  /**
+   * Waits for a publish
+   *
+   * @return why it failed, null if it succeeded
+   */
+  private KettleException failure( final CompletableFuture<Void> published ) {
+    if ( published == null ) {
+      return new KettleException( getMsg( "JobEntryBulkDatasourcePublish.Error.Stopped" ) );
+    }
+    try {
+      await( published );
+      return null;
+    } catch ( KettleException e ) {
+      return e;
+    }
+  }
+
+  private boolean isStopped() {
+    return Thread.currentThread().isInterrupted() || getParentJob() != null && getParentJob().isStopped();
+  }
+
+  /**
+   * @return the models named, then the built models matching the pattern in alphabetical order, without duplicates
+   */
+  Collection<String> getModels() throws KettleException {
+    Set<String> models = new LinkedHashSet<>();
+    for ( String modelName : Const.NVL( environmentSubstitute( modelNames ), "" ).split( "[,;\\r\\n]" ) ) {
+      if ( StringUtils.isNotBlank( modelName ) ) {
+        models.add( modelName.trim() );
+      }
+    }
+
+    String pattern = environmentSubstitute( modelPattern );
+    if ( StringUtils.isNotBlank( pattern ) ) {
+      Pattern regex;
+      try {
+        regex = Pattern.compile( pattern );
+      } catch ( PatternSyntaxException e ) {
+        throw new KettleException( getMsg( "JobEntryBulkDatasourcePublish.Error.InvalidPattern", pattern ), e );
+      }
+      List<String> built = new ArrayList<>();
+      for ( String variable : getParentJob().listVariables() ) {
+        String modelName = getBuiltModelName( variable );
+        if ( modelName != null && regex.matcher( modelName ).matches() && !built.contains( modelName ) ) {
+          built.add( modelName );
+        }
+      }
+      Collections.sort( built );
+      models.addAll( built );
+    }
+    return models;
+  }
+
+  /**
+   * @return the name of the model a build model entry set the variable for, null for any other variable
+   */
+  static String getBuiltModelName( final String variable ) {
+    if ( variable.startsWith( DSW_PREFIX ) ) {
+      return null;
+    } else if ( variable.startsWith( XMI_PREFIX ) ) {
+      return variable.substring( XMI_PREFIX.length() );
+    } else if ( variable.startsWith( MONDRIAN_SCHEMA_PREFIX ) ) {
+      return variable.substring( MONDRIAN_SCHEMA_PREFIX.length() );
+    }
+    return null;
+  }
+
+  @Override
+  public String getXML() {
+    StringBuilder xml = new StringBuilder();
+    xml.append( super.getXML() );
+    xml.append( "      " ).append( XMLHandler.addTagValue( BulkFields.MODEL_NAMES, modelNames ) );
+    xml.append( "      " ).append( XMLHandler.addTagValue( BulkFields.MODEL_PATTERN, modelPattern ) );
+    xml.append( "      " ).append( XMLHandler.addTagValue( BulkFields.PARALLELISM, parallelism ) );
+    return xml.toString();
+  }
+
+  @Override
+  public void loadXML( Node entrynode, List<DatabaseMeta> databases, List<SlaveServer> slaveServers, Repository rep,
+                       IMetaStore metaStore ) throws KettleXMLException {
+    super.loadXML( entrynode, databases, slaveServers, rep, metaStore );
+    setModelNames( XMLHandler.getTagValue( entrynode, BulkFields.MODEL_NAMES ) );
+    setModelPattern( XMLHandler.getTagValue( entrynode, BulkFields.MODEL_PATTERN ) );
+    setParallelism( XMLHandler.getTagValue( entrynode, BulkFields.PARALLELISM ) );
+  }
+
+  @Override
+  public void loadRep( Repository rep, IMetaStore metaStore, ObjectId id_jobentry, List<DatabaseMeta> databases,
+                       List<SlaveServer> slaveServers ) throws KettleException {
+    super.loadRep( rep, metaStore, id_jobentry, databases, slaveServers );
+    setModelNames( rep.getJobEntryAttributeString( id_jobentry, BulkFields.MODEL_NAMES ) );
+    setModelPattern( rep.getJobEntryAttributeString( id_jobentry, BulkFields.MODEL_PATTERN ) );
+    setParallelism( rep.getJobEntryAttributeString( id_jobentry, BulkFields.PARALLELISM ) );
+  }
+
+  @Override
+  public void saveRep( Repository rep, IMetaStore metaStore, ObjectId id_job ) throws KettleException {
+    super.saveRep( rep, metaStore, id_job );
+    rep.saveJobEntryAttribute( id_job, getObjectId(), BulkFields.MODEL_NAMES, modelNames );
+    rep.saveJobEntryAttribute( id_job, getObjectId(), BulkFields.MODEL_PATTERN, modelPattern );
+    rep.saveJobEntryAttribute( id_job, getObjectId(), BulkFields.PARALLELISM, parallelism );
+  }
+
+  /**
+   * Finds the database connection of each model, by the name the build model entry left for it
+   */
+  private class DatabaseMetaLookup {
+    private DatabaseMeta discovered;
+    private boolean discoveredOnce;
+
+    DatabaseMeta find( final ModelPublish model ) throws KettleException {
+      String name = getParentJob().getVariable( DATABASE_CONNECTION_PREFIX + model.modelName );
+      if ( name == null ) {
+        name = model.mondrianDatasource;
+      }
+      if ( name == null ) {
+        // a model that names no connection is not published against whatever connection happens to be found
+        throw new KettleException( getMsg( "JobEntryDatasourcePublish.Error.UnableToFindDBConnection" ) );
+      }
+      DatabaseMeta databaseMeta = getParentJob().getJobMeta().findDatabase( name );
+      if ( databaseMeta == null ) {
+        // the connection of a build model entry may only be known to the transformation it reads from
+        if ( !discoveredOnce ) {
+          discovered = discoverDatabaseMeta( getParentJob().getJobMeta() );
+          discoveredOnce = true;
+        }
+        if ( discovered != null && name.equals( discovered.getName() ) ) {
+          databaseMeta = discovered;
+        }
+      }
+      if ( databaseMeta == null ) {
+        throw new KettleException( getMsg( "JobEntryDatasourcePublish.Error.UnableToFindDBConnection" ) );
+      }
+      // Cannot publish JNDI data sources at this time, we don't know if BIServer has access to it
+      if ( DatabaseAccessType.values()[ databaseMeta.getAccessType() ] == DatabaseAccessType.JNDI ) {
+        throw new KettleException( getMsg( "JobEntryDatasourcePublish.Error.JNDIDatasource", databaseMeta.getName() ) );
+      }
+      return databaseMeta;
+    }
+  }
+
+  private static class ConnectionPublish {
+    private final DatabaseMeta databaseMeta;
+    private CompletableFuture<Void> future;
+    private KettleException error;
+    private boolean published;
+    private boolean used;
+
+    ConnectionPublish( final DatabaseMeta databaseMeta ) {
+      this.databaseMeta = databaseMeta;
+    }
+  }
+
+  private static class ModelPublish extends PublishedArtifacts {
+    private final String modelName;
+    private String dswFlag;
+    private String xmiString;
+    private String mondrianSchema;
+    private String mondrianDatasource;
+    private ConnectionPublish connection;
+    private CompletableFuture<Void> future;
+    private KettleException error;
+
+    ModelPublish( final String modelName ) {
+      this.modelName = modelName;
+    }
+  }
+}
@@ -2,7 +2,7 @@
  *
  * Pentaho Community Edition Project: data-refinery-pdi-plugin
  *
- * Copyright (C) 2002-2023 by Hitachi Vantara : http://www.pentaho.com
+ * Copyright (C) 2002-2026 by Hitachi Vantara : http://www.pentaho.com
  *
  * *******************************************************************************
  *
@@ -29,15 +29,21 @@ import org.pentaho.database.model.DatabaseConnection;
 import org.pentaho.di.cluster.SlaveServer;
 import org.pentaho.di.core.Const;
 import org.pentaho.di.core.Result;
+import org.pentaho.di.core.RowMetaAndData;
 import org.pentaho.di.core.database.DatabaseMeta;
 import org.pentaho.di.core.encryption.Encr;
 import org.pentaho.di.core.exception.KettleException;
 import org.pentaho.di.core.exception.KettleXMLException;
+import org.pentaho.di.core.refinery.model.ModelIdIndex;
 import org.pentaho.di.core.refinery.publish.agilebi.BiServerConnection;
 import org.pentaho.di.core.refinery.publish.agilebi.ModelServerPublish;
 import org.pentaho.di.core.refinery.publish.model.DataSourceAclModel;
 import org.pentaho.di.core.refinery.publish.model.DataSourcePublishModel;
+import org.pentaho.di.core.refinery.publish.util.BiServerExecutor;
 import org.pentaho.di.core.refinery.publish.util.PublishRestUtil;
+import org.pentaho.di.core.row.RowMeta;
+import org.pentaho.di.core.row.RowMetaInterface;
+import org.pentaho.di.core.row.value.ValueMetaString;
 import org.pentaho.di.core.variables.VariableSpace;
 import org.pentaho.di.core.xml.XMLHandler;
 import org.pentaho.di.i18n.BaseMessages;
@@ -53,7 +59,15 @@ import org.pentaho.di.ui.job.entries.common.ConnectionValidator;
 import org.pentaho.metastore.api.IMetaStore;
 import org.w3c.dom.Node;
 
+import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
 
 @org.pentaho.di.core.annotations.JobEntry( id = "DATASOURCE_PUBLISH",
   i18nPackageName = "org.pentaho.di.job.entries.publish", image = "publish.svg",
@@ -64,6 +78,10 @@ public class JobEntryDatasourcePublish extends JobEntryBase implements Cloneable
 
   private static Class<?> PKG = JobEntryDatasourcePublish.class; // for i18n purposes, needed by Translator2!!
 
+  public static final String STATUS_PUBLISHED = "published";
+  public static final String STATUS_FAILED = "failed";
+  public static final String STATUS_ROLLED_BACK = "rolled_back";
+
   private DataSourcePublishModel dataSourcePublishModel;
   private DatasourcePublishService datasourcePublishService;
 
@@ -76,12 +94,24 @@ public class JobEntryDatasourcePublish extends JobEntryBase implements Cloneable
     public static final String BASERVER_PASSWORD = "ba_server_password";
     public static final String ACL_ACCESS_TYPE = "acl_access_type";
     public static final String ACL_USER_OR_ROLE = "acl_user_or_role";
+    public static final String ADDITIONAL_BASERVERS = "additional_ba_servers";
+    public static final String BASERVER = "ba_server";
+    public static final String PUBLISH_POLICY = "publish_policy";
+    // repository attributes of the additional servers, one value per server
+    public static final String ADDITIONAL_BASERVER_URL = "additional_ba_server_url";
+    public static final String ADDITIONAL_BASERVER_NAME = "additional_ba_server_name";
+    public static final String ADDITIONAL_BASERVER_USERID = "additional_ba_server_user_id";
+    public static final String ADDITIONAL_BASERVER_PASSWORD = "additional_ba_server_password";
   }
 
   public JobEntryDatasourcePublish( DatasourcePublishService datasourcePublishService ) {
     this.datasourcePublishService = datasourcePublishService;
   }
 
+  protected DatasourcePublishService getDatasourcePublishService() {
+    return datasourcePublishService;
+  }
+
   public DataSourcePublishModel getDataSourcePublishModel() {
     return dataSourcePublishModel;
   }
@@ -92,130 +122,361 @@ public class JobEntryDatasourcePublish extends JobEntryBase implements Cloneable
 
   @Override
   public Result execute( Result result, int i ) throws KettleException {
-    boolean dsPublished, metaPublished;
-    dsPublished = metaPublished = false;
-    DatabaseMeta databaseMeta = null;
-    ModelServerPublish modelServerPublish = null;
-    String dswFlag = null;
-    String modelName = null;
+    List<ServerPublish> servers = new ArrayList<>();
     try {
-      BiServerConnection biServerModel = dataSourcePublishModel.getBiServerConnection();
-
-      // Resolve parametized values before execution
-      biServerModel.setName( environmentSubstitute( biServerModel.getName() ) );
-      biServerModel.setUserId( environmentSubstitute( biServerModel.getUserId() ) );
-      biServerModel.setPassword( environmentSubstitute( biServerModel.getPassword() ) );
-      String url = environmentSubstitute( biServerModel.getUrl() );
-      if ( url != null && url.endsWith( "//" ) ) {
-        url = url.substring( 0, url.length() - 1 );
+      for ( ModelServerPublish modelServerPublish : prepareModelServerPublishes() ) {
+        servers.add( new ServerPublish( modelServerPublish ) );
       }
-      biServerModel.setUrl( url );
-      // Fail early if invalid Pentaho BA Server or Unauthenticated user.
-      // Prevent Spoon from displaying user/password prompt.
-      ConnectionValidator validator = getConnectionValidator( biServerModel );
-      validator.validateConnectionInRuntime();
+      boolean allOrNothing = isAllOrNothing();
+      ModelContent model = readModelContent();
 
-      BiServerConnection connection = new BiServerConnection();
-      connection.setName( biServerModel.getName() );
-      connection.setUrl( biServerModel.getUrl() );
-      connection.setPassword( biServerModel.getPassword() );
-      connection.setUserId( biServerModel.getUserId() );
-      log.logBasic( getMsg( "JobEntryDatasourcePublish.Publish.BAServer", biServerModel.getUrl() ) );
-
-      modelServerPublish = getModelServerPublish();
-      modelServerPublish.setBiServerConnection( connection );
-
-      boolean forceOverride = dataSourcePublishModel.isOverride();
-
-      DataSourceAclModel datasourceAcl = new DataSourceAclModel();
-      String accessType =
-        Const.isEmpty( dataSourcePublishModel.getAccessType() ) ? DataSourcePublishModel.ACCESS_TYPE_EVERYONE
-          : environmentSubstitute( dataSourcePublishModel.getAccessType() ).toLowerCase();
-      String userOrRole = environmentSubstitute( dataSourcePublishModel.getUserOrRole() );
-      if ( DataSourcePublishModel.ACCESS_TYPE_ROLE.equals( accessType ) ) {
-        if ( StringUtils.isBlank( userOrRole ) ) {
-          throw new KettleException( this.getMsg( "JobEntryDatasourcePublish.Error.MissingRoleMsg" ) );
-        }
-        datasourceAcl.addRole( userOrRole );
-      } else if ( DataSourcePublishModel.ACCESS_TYPE_USER.equals( accessType ) ) {
-        if ( StringUtils.isBlank( userOrRole ) ) {
-          throw new KettleException( this.getMsg( "JobEntryDatasourcePublish.Error.MissingUserMsg" ) );
-        }
-        datasourceAcl.addUser( userOrRole );
-      } else if ( !DataSourcePublishModel.ACCESS_TYPE_EVERYONE.equals( accessType ) ) {
-        throw new KettleException( "Access Type '" + accessType + "' not recognized" );
+      if ( servers.size() == 1 ) {
+        ServerPublish server = servers.get( 0 );
+        publishTo( server, model, getExecutor( server.publisher ) );
+        result.setResult( true );
+      } else {
+        publishToAll( servers, model, allOrNothing, result );
       }
-      modelServerPublish.setAclModel( datasourceAcl );
-
-      modelName = getModelName();
-      log.logBasic( this.getMsg( "JobEntryDatasourcePublish.Publish.Model", modelName ) );
-
-      // We support publishing whatever is available to the publish job entry.. so if a build model job entry
-      // feeds this job entry, then we'll be publishing a DB connection and a DSW DS. If a custom set variables
-      // job entry precedes this, then we publish whatever is set by this job entry.
-
-      // Publish Database Meta
-      databaseMeta = discoverDatabaseMeta( getParentJob().getJobMeta() );
-      if ( databaseMeta != null ) {
-        // Cannot publish JNDI data sources at this time, we don't know if BIServer has access to it
-        if ( DatabaseAccessType.values()[ databaseMeta.getAccessType() ] == DatabaseAccessType.JNDI ) {
-          throw new KettleException(
-            this.getMsg( "JobEntryDatasourcePublish.Error.JNDIDatasource", databaseMeta.getName() ) );
-        }
+    } catch ( KettleException e ) {
+      logError( e.getMessage(), e );
+      result.setResult( false );
+      result.setNrErrors( 1 );
+    } finally {
+      for ( ServerPublish server : servers ) {
+        // data sources on the server changed, or may have
+        ModelIdIndex.getInstance().invalidate( server.publisher.getBiServerConnection() );
+      }
+    }
 
-        // check overwrite condition
-        DatabaseConnection dbConnection = modelServerPublish.connectionNameExists( databaseMeta.getName() );
-        if ( dbConnection != null && !dataSourcePublishModel.isOverride() ) {
-          throw new KettleException( this.getMsg( "JobEntryDatasourcePublish.Error.DBConnectionExists" ) );
-        }
+    return result;
+  }
 
-        datasourcePublishService.publishDatabaseMeta( modelServerPublish, databaseMeta, forceOverride );
-      } else {
-        throw new KettleException( this.getMsg( "JobEntryDatasourcePublish.Error.UnableToFindDBConnection" ) );
+  /**
+   * @return layout of the result rows of a publish to more than one server, one per server: server name and URL,
+   * status and error message
+   */
+  public static RowMetaInterface getServerStatusRowMeta() {
+    RowMetaInterface rowMeta = new RowMeta();
+    rowMeta.addValueMeta( new ValueMetaString( "server_name" ) );
+    rowMeta.addValueMeta( new ValueMetaString( "server_url" ) );
+    rowMeta.addValueMeta( new ValueMetaString( "status" ) );
+    rowMeta.addValueMeta( new ValueMetaString( "message" ) );
+    return rowMeta;
+  }
+
+  /**
+   * Reads the model and finds its database connection, on the calling thread
+   */
+  private ModelContent readModelContent() throws KettleException {
+    ModelContent model = new ModelContent();
+    String modelName = getModelName();
+    model.modelName = modelName;
+    log.logBasic( this.getMsg( "JobEntryDatasourcePublish.Publish.Model", modelName ) );
+
+    // We support publishing whatever is available to the publish job entry.. so if a build model job entry
+    // feeds this job entry, then we'll be publishing a DB connection and a DSW DS. If a custom set variables
+    // job entry precedes this, then we publish whatever is set by this job entry.
+
+    // Database Meta
+    DatabaseMeta databaseMeta = discoverDatabaseMeta( getParentJob().getJobMeta() );
+    if ( databaseMeta != null ) {
+      // Cannot publish JNDI data sources at this time, we don't know if BIServer has access to it
+      if ( DatabaseAccessType.values()[ databaseMeta.getAccessType() ] == DatabaseAccessType.JNDI ) {
+        throw new KettleException(
+          this.getMsg( "JobEntryDatasourcePublish.Error.JNDIDatasource", databaseMeta.getName() ) );
       }
-      dsPublished = true;
-
-      // Publish Metadata XMI
-      dswFlag = getParentJob().getVariable( "JobEntryBuildModel.XMI.DSW." + modelName );
-      log.logBasic( getMsg( "JobEntryDatasourcePublish.Publish.ReadVariable", "JobEntryBuildModel.XMI.DSW."
-        + modelName, dswFlag ) );
-      String xmiString = getParentJob().getVariable( "JobEntryBuildModel.XMI." + modelName );
-      log.logDetailed(
-        getMsg( "JobEntryDatasourcePublish.Publish.ReadVariable", "JobEntryBuildModel.XMI." + modelName, xmiString ) );
-      if ( dswFlag != null && dswFlag.equalsIgnoreCase( "true" ) ) {
-        datasourcePublishService.publishDswXmi( modelName, xmiString, modelServerPublish, forceOverride );
-      } else {
-        datasourcePublishService.publishMetadataXmi( modelName, xmiString, modelServerPublish, forceOverride );
+    } else {
+      throw new KettleException( this.getMsg( "JobEntryDatasourcePublish.Error.UnableToFindDBConnection" ) );
+    }
+    model.databaseMeta = databaseMeta;
+
+    // Metadata XMI
+    model.dswFlag = getParentJob().getVariable( "JobEntryBuildModel.XMI.DSW." + modelName );
+    log.logBasic( getMsg( "JobEntryDatasourcePublish.Publish.ReadVariable", "JobEntryBuildModel.XMI.DSW."
+      + modelName, model.dswFlag ) );
+    model.xmiString = getParentJob().getVariable( "JobEntryBuildModel.XMI." + modelName );
+    log.logDetailed( getMsg( "JobEntryDatasourcePublish.Publish.ReadVariable", "JobEntryBuildModel.XMI." + modelName,
+      model.xmiString ) );
+    model.dsw = model.dswFlag != null && model.dswFlag.equalsIgnoreCase( "true" );
+
+    // Mondrian Schema
+    model.mondrianSchema = getParentJob().getVariable( "JobEntryBuildModel.Mondrian.Schema." + modelName );
+    log.logDetailed( getMsg( "JobEntryDatasourcePublish.Publish.ReadVariable", "JobEntryBuildModel.Mondrian.Schema."
+      + modelName, model.mondrianSchema ) );
+    model.mondrianDatasource = getParentJob().getVariable( "JobEntryBuildModel.Mondrian.Datasource." + modelName );
+    log.logBasic( getMsg( "JobEntryDatasourcePublish.Publish.ReadVariable", "JobEntryBuildModel.Mondrian.Datasource."
+      + modelName, model.mondrianDatasource ) );
+    return model;
+  }
+
+  /**
+   * Publishes the model to one server, and rolls back what was published there if a step fails
+   *
+   * @param executor uploads a metadata XMI while the connection is published, null publishes it in turn
+   */
+  private void publishTo( final ServerPublish server, final ModelContent model, final Executor executor )
+    throws KettleException {
+    ModelServerPublish modelServerPublish = server.publisher;
+    boolean forceOverride = dataSourcePublishModel.isOverride();
+    CompletableFuture<Void> metaPublish = null;
+    try {
+      // check overwrite condition, the connection found is also what gets updated
+      DatabaseConnection dbConnection = modelServerPublish.connectionNameExists( model.databaseMeta.getName() );
+      if ( dbConnection != null && !forceOverride ) {
+        throw new KettleException( this.getMsg( "JobEntryDatasourcePublish.Error.DBConnectionExists" ) );
       }
-      metaPublished = true;
 
-      // Publish Mondrian Schema
-      String mondrianSchema = getParentJob().getVariable( "JobEntryBuildModel.Mondrian.Schema." + modelName );
-      log.logDetailed( getMsg( "JobEntryDatasourcePublish.Publish.ReadVariable", "JobEntryBuildModel.Mondrian.Schema."
-        + modelName, mondrianSchema ) );
-      String mondrianDatasource = getParentJob().getVariable( "JobEntryBuildModel.Mondrian.Datasource." + modelName );
-      log.logBasic( getMsg( "JobEntryDatasourcePublish.Publish.ReadVariable", "JobEntryBuildModel.Mondrian.Datasource."
-        + modelName, mondrianDatasource ) );
+      // A metadata XMI only names the connection, so it is uploaded while the connection is published. The server
+      // checks the connection of a DSW model and builds analysis catalogs against it, those wait for it.
+      PublishStep metadataXmi = null;
+      if ( !model.dsw && executor != null ) {
+        // on a publisher of its own, the connection publish below sets up the shared one meanwhile
+        metadataXmi = metadataXmiStep( server, model, copyOf( modelServerPublish ), forceOverride );
+        metaPublish = publishAsync( metadataXmi, executor );
+      } else if ( !model.dsw ) {
+        metadataXmi = metadataXmiStep( server, model, modelServerPublish, forceOverride );
+      }
+
+      // Publish Database Meta; only what was uploaded is rolled back, anything skipped as unchanged was there before
+      server.dsPublished = datasourcePublishService
+        .publishDatabaseMeta( modelServerPublish, model.databaseMeta, dbConnection, forceOverride );
 
-      datasourcePublishService
-        .publishMondrianSchema( modelName, mondrianSchema, mondrianDatasource, modelServerPublish, forceOverride );
+      // Publish XMI
+      if ( model.dsw ) {
+        server.metaPublished =
+          datasourcePublishService.publishDswXmi( model.modelName, model.xmiString, modelServerPublish, forceOverride );
+      } else if ( metaPublish == null ) {
+        metadataXmi.publish();
+      }
 
-      result.setResult( true );
+      // Publish Mondrian Schema
+      server.analysisPublished = datasourcePublishService.publishMondrianSchema( model.modelName,
+        model.mondrianSchema, model.mondrianDatasource, modelServerPublish, forceOverride );
 
+      await( metaPublish );
     } catch ( KettleException e ) {
       logBasic( this.getMsg( "JobEntryDatasourcePublish.Rollback" ) );
-      if ( dsPublished && databaseMeta != null ) {
-        datasourcePublishService.deleteDatabaseMeta( modelServerPublish, databaseMeta );
+      if ( metaPublish != null ) {
+        // an upload still running is waited for, it may still succeed and then needs to be deleted as well
+        completesNormally( metaPublish );
       }
-      if ( metaPublished && modelName != null ) {
-        datasourcePublishService.deleteXMI( modelServerPublish, modelName, dswFlag );
+      rollback( server, model );
+      throw e;
+    }
+  }
+
+  /**
+   * Publishes the model to all servers at once, each through its own client and session. A server failing rolls back
+   * the others unless the publish policy is best effort; the status of every server is passed on as result rows.
+   */
+  private void publishToAll( final List<ServerPublish> servers, final ModelContent model, final boolean allOrNothing,
+                             final Result result ) {
+    log.logBasic( getMsg( "JobEntryDatasourcePublish.Publish.Servers", model.modelName,
+      String.valueOf( servers.size() ) ) );
+    for ( final ServerPublish server : servers ) {
+      // the servers publish next to each other, each one's steps in turn
+      server.future = publishAsync( new PublishStep() {
+        @Override public void publish() throws KettleException {
+          publishTo( server, model, null );
+        }
+      }, getExecutor( server.publisher ) );
+    }
+    int failed = 0;
+    for ( ServerPublish server : servers ) {
+      try {
+        await( server.future );
+      } catch ( KettleException e ) {
+        server.error = e;
+        failed++;
+      }
+    }
+    if ( failed > 0 && allOrNothing ) {
+      for ( ServerPublish server : servers ) {
+        if ( server.error == null ) {
+          logBasic( getMsg( "JobEntryDatasourcePublish.Rollback.Server", getServerUrl( server ) ) );
+          rollback( server, model );
+          server.rolledBack = true;
+        }
+      }
+    }
+
+    List<RowMetaAndData> rows = new ArrayList<>( servers.size() );
+    for ( ServerPublish server : servers ) {
+      BiServerConnection connection = server.publisher.getBiServerConnection();
+      String status;
+      if ( server.error != null ) {
+        status = STATUS_FAILED;
+        log.logError( getMsg( "JobEntryDatasourcePublish.Publish.Server.Failed", getServerUrl( server ),
+          server.error.getMessage() ) );
+      } else if ( server.rolledBack ) {
+        status = STATUS_ROLLED_BACK;
+      } else {
+        status = STATUS_PUBLISHED;
+        log.logBasic( getMsg( "JobEntryDatasourcePublish.Publish.Server.Success", getServerUrl( server ) ) );
+      }
+      rows.add( new RowMetaAndData( getServerStatusRowMeta(), connection.getName(), connection.getUrl(), status,
+        server.error == null ? null : Const.trim( server.error.getMessage() ) ) );
+    }
+    log.logBasic( getMsg( "JobEntryDatasourcePublish.Publish.Summary", String.valueOf( servers.size() - failed ),
+      String.valueOf( servers.size() ) ) );
+
+    boolean success = failed == 0 || !allOrNothing && failed < servers.size();
+    result.setRows( rows );
+    result.setResult( success );
+    result.setNrErrors( success ? 0 : failed );
+  }
+
+  private void rollback( final ServerPublish server, final ModelContent model ) {
+    rollback( server.publisher, server, model.modelName, model.dswFlag, model.databaseMeta );
+  }
+
+  /**
+   * Deletes the analysis catalog, connection and XMI of a model as far as they were published, errors are logged
+   */
+  protected void rollback( final ModelServerPublish publisher, final PublishedArtifacts published,
+                           final String modelName, final String dswFlag, final DatabaseMeta databaseMeta ) {
+    // the catalog first, the server keeps it tied to the connection; the rest is rolled back even if it stays
+    if ( published.analysisPublished ) {
+      try {
+        getDatasourcePublishService().deleteMondrianSchema( publisher, modelName );
+      } catch ( KettleException e ) {
+        logError( e.getMessage(), e );
       }
+    }
+    try {
+      if ( published.dsPublished ) {
+        getDatasourcePublishService().deleteDatabaseMeta( publisher, databaseMeta );
+      }
+      if ( published.metaPublished ) {
+        getDatasourcePublishService().deleteXMI( publisher, modelName, dswFlag );
+      }
+    } catch ( KettleException e ) {
       logError( e.getMessage(), e );
-      result.setResult( false );
-      result.setNrErrors( 1 );
     }
+  }
 
-    return result;
+  private static String getServerUrl( final ServerPublish server ) {
+    return server.publisher.getBiServerConnection().getUrl();
+  }
+
+  /**
+   * @return true unless the publish policy is best effort
+   */
+  private boolean isAllOrNothing() throws KettleException {
+    String policy = environmentSubstitute( dataSourcePublishModel.getPublishPolicy() );
+    if ( StringUtils.isBlank( policy )
+      || DataSourcePublishModel.PUBLISH_POLICY_ALL_OR_NOTHING.equalsIgnoreCase( policy.trim() ) ) {
+      return true;
+    } else if ( DataSourcePublishModel.PUBLISH_POLICY_BEST_EFFORT.equalsIgnoreCase( policy.trim() ) ) {
+      return false;
+    }
+    throw new KettleException( getMsg( "JobEntryDatasourcePublish.Error.InvalidPublishPolicy", policy ) );
+  }
+
+  /**
+   * Resolves and checks the server of the publish model, then each additional server with the same access list. An
+   * additional server without a user is published to with the credentials of the first one, one whose URL is already
+   * in the list is skipped.
+   *
+   * @return set up to publish to each server, the server of the publish model first
+   */
+  protected List<ModelServerPublish> prepareModelServerPublishes() throws KettleException {
+    List<ModelServerPublish> publishes = new ArrayList<>();
+    ModelServerPublish first = prepareModelServerPublish();
+    publishes.add( first );
+
+    // resolved by now
+    BiServerConnection firstServer = dataSourcePublishModel.getBiServerConnection();
+    Set<String> urls = new HashSet<>();
+    urls.add( firstServer.getUrl() );
+    for ( BiServerConnection additional : dataSourcePublishModel.getAdditionalBiServerConnections() ) {
+      BiServerConnection biServerModel = new BiServerConnection();
+      biServerModel.setName( environmentSubstitute( additional.getName() ) );
+      biServerModel.setUrl( resolveUrl( additional.getUrl() ) );
+      if ( StringUtils.isBlank( biServerModel.getUrl() ) || !urls.add( biServerModel.getUrl() ) ) {
+        continue;
+      }
+      if ( StringUtils.isBlank( additional.getUserId() ) ) {
+        biServerModel.setUserId( firstServer.getUserId() );
+        biServerModel.setPassword( firstServer.getPassword() );
+      } else {
+        biServerModel.setUserId( environmentSubstitute( additional.getUserId() ) );
+        biServerModel.setPassword( environmentSubstitute( additional.getPassword() ) );
+      }
+      ModelServerPublish modelServerPublish = connect( biServerModel );
+      modelServerPublish.setAclModel( first.getAclModel() );
+      publishes.add( modelServerPublish );
+    }
+    return publishes;
+  }
+
+  /**
+   * Resolves the server connection and access list of the publish model and checks the server can be published to
+   *
+   * @return set up to publish to the server
+   */
+  protected ModelServerPublish prepareModelServerPublish() throws KettleException {
+    BiServerConnection biServerModel = dataSourcePublishModel.getBiServerConnection();
+
+    // Resolve parametized values before execution
+    biServerModel.setName( environmentSubstitute( biServerModel.getName() ) );
+    biServerModel.setUserId( environmentSubstitute( biServerModel.getUserId() ) );
+    biServerModel.setPassword( environmentSubstitute( biServerModel.getPassword() ) );
+    biServerModel.setUrl( resolveUrl( biServerModel.getUrl() ) );
+
+    ModelServerPublish modelServerPublish = connect( biServerModel );
+
+    DataSourceAclModel datasourceAcl = new DataSourceAclModel();
+    String accessType =
+      Const.isEmpty( dataSourcePublishModel.getAccessType() ) ? DataSourcePublishModel.ACCESS_TYPE_EVERYONE
+        : environmentSubstitute( dataSourcePublishModel.getAccessType() ).toLowerCase();
+    String userOrRole = environmentSubstitute( dataSourcePublishModel.getUserOrRole() );
+    if ( DataSourcePublishModel.ACCESS_TYPE_ROLE.equals( accessType ) ) {
+      if ( StringUtils.isBlank( userOrRole ) ) {
+        throw new KettleException( this.getMsg( "JobEntryDatasourcePublish.Error.MissingRoleMsg" ) );
+      }
+      datasourceAcl.addRole( userOrRole );
+    } else if ( DataSourcePublishModel.ACCESS_TYPE_USER.equals( accessType ) ) {
+      if ( StringUtils.isBlank( userOrRole ) ) {
+        throw new KettleException( this.getMsg( "JobEntryDatasourcePublish.Error.MissingUserMsg" ) );
+      }
+      datasourceAcl.addUser( userOrRole );
+    } else if ( !DataSourcePublishModel.ACCESS_TYPE_EVERYONE.equals( accessType ) ) {
+      throw new KettleException( "Access Type '" + accessType + "' not recognized" );
+    }
+    modelServerPublish.setAclModel( datasourceAcl );
+    return modelServerPublish;
+  }
+
+  /**
+   * Checks a resolved server can be published to
+   *
+   * @return set up to publish to the server, without an access list
+   */
+  private ModelServerPublish connect( final BiServerConnection biServerModel ) throws KettleException {
+    // Fail early if invalid Pentaho BA Server or Unauthenticated user.
+    // Prevent Spoon from displaying user/password prompt.
+    ConnectionValidator validator = getConnectionValidator( biServerModel );
+    validator.validateConnectionInRuntime();
+
+    BiServerConnection connection = new BiServerConnection();
+    connection.setName( biServerModel.getName() );
+    connection.setUrl( biServerModel.getUrl() );
+    connection.setPassword( biServerModel.getPassword() );
+    connection.setUserId( biServerModel.getUserId() );
+    log.logBasic( getMsg( "JobEntryDatasourcePublish.Publish.BAServer", biServerModel.getUrl() ) );
+
+    ModelServerPublish modelServerPublish = getModelServerPublish();
+    modelServerPublish.setBiServerConnection( connection );
+    return modelServerPublish;
+  }
+
+  private String resolveUrl( final String url ) {
+    String resolved = environmentSubstitute( url );
+    if ( resolved != null && resolved.endsWith( "//" ) ) {
+      resolved = resolved.substring( 0, resolved.length() - 1 );
+    }
+    return resolved;
   }
 
   @Override
@@ -246,6 +507,23 @@ public class JobEntryDatasourcePublish extends JobEntryBase implements Cloneable
         xml.append( "      " ).append(
           XMLHandler.addTagValue( Fields.BASERVER_USERID, Const.nullToEmpty( biServerConnection.getUserId() ) ) );
       }
+
+      xml.append( "      " ).append( XMLHandler.addTagValue( Fields.PUBLISH_POLICY, model.getPublishPolicy() ) );
+      xml.append( "      " ).append( XMLHandler.openTag( Fields.ADDITIONAL_BASERVERS ) ).append( Const.CR );
+      for ( BiServerConnection additional : model.getAdditionalBiServerConnections() ) {
+        xml.append( "        " ).append( XMLHandler.openTag( Fields.BASERVER ) ).append( Const.CR );
+        xml.append( "          " ).append(
+          XMLHandler.addTagValue( Fields.BASERVER_NAME, Const.nullToEmpty( additional.getName() ) ) );
+        xml.append( "          " ).append(
+          XMLHandler.addTagValue( Fields.BASERVER_URL, Const.nullToEmpty( additional.getUrl() ) ) );
+        xml.append( "          " ).append(
+          XMLHandler.addTagValue( Fields.BASERVER_USERID, Const.nullToEmpty( additional.getUserId() ) ) );
+        String password = Encr.encryptPasswordIfNotUsingVariables( additional.getPassword() );
+        xml.append( "          " )
+          .append( XMLHandler.addTagValue( Fields.BASERVER_PASSWORD, Const.nullToEmpty( password ) ) );
+        xml.append( "        " ).append( XMLHandler.closeTag( Fields.BASERVER ) ).append( Const.CR );
+      }
+      xml.append( "      " ).append( XMLHandler.closeTag( Fields.ADDITIONAL_BASERVERS ) ).append( Const.CR );
     }
 
     return xml.toString();
@@ -277,6 +555,25 @@ public class JobEntryDatasourcePublish extends JobEntryBase implements Cloneable
 
     model.setModelName( XMLHandler.getTagValue( entrynode, Fields.LOGICAL_MODEL ) );
 
+    String publishPolicy = XMLHandler.getTagValue( entrynode, Fields.PUBLISH_POLICY );
+    if ( !StringUtils.isBlank( publishPolicy ) ) {
+      model.setPublishPolicy( publishPolicy );
+    }
+    Node additionalNode = XMLHandler.getSubNode( entrynode, Fields.ADDITIONAL_BASERVERS );
+    List<BiServerConnection> additional = new ArrayList<>();
+    if ( additionalNode != null ) {
+      for ( Node serverNode : XMLHandler.getNodes( additionalNode, Fields.BASERVER ) ) {
+        BiServerConnection connection = new BiServerConnection();
+        connection.setName( Const.nullToEmpty( XMLHandler.getTagValue( serverNode, Fields.BASERVER_NAME ) ) );
+        connection.setUrl( Const.nullToEmpty( XMLHandler.getTagValue( serverNode, Fields.BASERVER_URL ) ) );
+        connection.setUserId( Const.nullToEmpty( XMLHandler.getTagValue( serverNode, Fields.BASERVER_USERID ) ) );
+        connection.setPassword( Encr.decryptPasswordOptionallyEncrypted(
+          Const.nullToEmpty( XMLHandler.getTagValue( serverNode, Fields.BASERVER_PASSWORD ) ) ) );
+        additional.add( connection );
+      }
+    }
+    model.setAdditionalBiServerConnections( additional );
+
     setDataSourcePublishModel( model );
   }
 
@@ -304,6 +601,26 @@ public class JobEntryDatasourcePublish extends JobEntryBase implements Cloneable
     dsModel.setUserOrRole( rep.getJobEntryAttributeString( id_jobentry, Fields.ACL_USER_OR_ROLE ) );
     dsModel.setBiServerConnection( biServerModel );
 
+    String publishPolicy = rep.getJobEntryAttributeString( id_jobentry, Fields.PUBLISH_POLICY );
+    if ( !StringUtils.isBlank( publishPolicy ) ) {
+      dsModel.setPublishPolicy( publishPolicy );
+    }
+    int nrAdditional = rep.countNrJobEntryAttributes( id_jobentry, Fields.ADDITIONAL_BASERVER_URL );
+    List<BiServerConnection> additional = new ArrayList<>( nrAdditional );
+    for ( int nr = 0; nr < nrAdditional; nr++ ) {
+      BiServerConnection connection = new BiServerConnection();
+      connection.setName( Const.nullToEmpty(
+        rep.getJobEntryAttributeString( id_jobentry, nr, Fields.ADDITIONAL_BASERVER_NAME ) ) );
+      connection.setUrl( Const.nullToEmpty(
+        rep.getJobEntryAttributeString( id_jobentry, nr, Fields.ADDITIONAL_BASERVER_URL ) ) );
+      connection.setUserId( Const.nullToEmpty(
+        rep.getJobEntryAttributeString( id_jobentry, nr, Fields.ADDITIONAL_BASERVER_USERID ) ) );
+      connection.setPassword( Const.nullToEmpty( Encr.decryptPasswordOptionallyEncrypted(
+        rep.getJobEntryAttributeString( id_jobentry, nr, Fields.ADDITIONAL_BASERVER_PASSWORD ) ) ) );
+      additional.add( connection );
+    }
+    dsModel.setAdditionalBiServerConnections( additional );
+
     setDataSourcePublishModel( dsModel );
   }
 
@@ -326,6 +643,20 @@ public class JobEntryDatasourcePublish extends JobEntryBase implements Cloneable
         .saveJobEntryAttribute( id_job, getObjectId(), Fields.ACL_ACCESS_TYPE, dataSourcePublishModel.getAccessType() );
       rep.saveJobEntryAttribute( id_job, getObjectId(), Fields.ACL_USER_OR_ROLE,
         dataSourcePublishModel.getUserOrRole() );
+      rep.saveJobEntryAttribute( id_job, getObjectId(), Fields.PUBLISH_POLICY,
+        dataSourcePublishModel.getPublishPolicy() );
+      List<BiServerConnection> additional = dataSourcePublishModel.getAdditionalBiServerConnections();
+      for ( int nr = 0; nr < additional.size(); nr++ ) {
+        BiServerConnection connection = additional.get( nr );
+        rep.saveJobEntryAttribute( id_job, getObjectId(), nr, Fields.ADDITIONAL_BASERVER_NAME,
+          Const.nullToEmpty( connection.getName() ) );
+        rep.saveJobEntryAttribute( id_job, getObjectId(), nr, Fields.ADDITIONAL_BASERVER_URL,
+          Const.nullToEmpty( connection.getUrl() ) );
+        rep.saveJobEntryAttribute( id_job, getObjectId(), nr, Fields.ADDITIONAL_BASERVER_USERID,
+          Const.nullToEmpty( connection.getUserId() ) );
+        rep.saveJobEntryAttribute( id_job, getObjectId(), nr, Fields.ADDITIONAL_BASERVER_PASSWORD,
+          Const.nullToEmpty( Encr.encryptPasswordIfNotUsingVariables( connection.getPassword() ) ) );
+      }
     }
 
   }
@@ -347,6 +678,89 @@ public class JobEntryDatasourcePublish extends JobEntryBase implements Cloneable
     return validator;
   }
 
+  // Allows dependency injection/mocks
+  protected Executor getExecutor( ModelServerPublish modelServerPublish ) {
+    return modelServerPublish.getExecutor();
+  }
+
+  /**
+   * @return a publisher of its own for a publish running next to others, on the same server, user and access list,
+   * and thus on the same pooled client and session
+   */
+  protected ModelServerPublish copyOf( final ModelServerPublish modelServerPublish ) {
+    ModelServerPublish copy = getModelServerPublish();
+    copy.setBiServerConnection( modelServerPublish.getBiServerConnection() );
+    copy.setAclModel( modelServerPublish.getAclModel() );
+    return copy;
+  }
+
+  /**
+   * A publish run on another thread
+   */
+  protected interface PublishStep {
+    void publish() throws KettleException;
+  }
+
+  /**
+   * @return publishes the metadata XMI of the model, and marks it for rollback once uploaded
+   */
+  private PublishStep metadataXmiStep( final ServerPublish server, final ModelContent model,
+                                      final ModelServerPublish modelServerPublish, final boolean forceOverride ) {
+    return new PublishStep() {
+      @Override public void publish() throws KettleException {
+        server.metaPublished = datasourcePublishService
+          .publishMetadataXmi( model.modelName, model.xmiString, modelServerPublish, forceOverride );
+      }
+    };
+  }
+
+  /**
+   * Runs a publish on the executor, with the caller's context class loader
+   *
+   * @return completes once the step is done, or exceptionally with what it threw
+   */
+  protected static CompletableFuture<Void> publishAsync( final PublishStep step, final Executor executor ) {
+    return BiServerExecutor.callAsync( new Callable<Void>() {
+      @Override public Void call() throws KettleException {
+        step.publish();
+        return null;
+      }
+    }, executor );
+  }
+
+  /**
+   * Waits for an asynchronous publish, if any, and rethrows its failure
+   */
+  protected static void await( final CompletableFuture<Void> published ) throws KettleException {
+    if ( published == null ) {
+      return;
+    }
+    try {
+      published.join();
+    } catch ( CompletionException e ) {
+      if ( e.getCause() instanceof KettleException ) {
+        throw (KettleException) e.getCause();
+      } else if ( e.getCause() instanceof Error ) {
+        throw (Error) e.getCause();
+      }
+      throw new KettleException( e.getCause() );
+    }
+  }
+
+  /**
+   * Waits for an asynchronous publish
+   *
+   * @return true if it succeeded
+   */
+  protected static boolean completesNormally( final CompletableFuture<Void> published ) {
+    try {
+      published.join();
+      return true;
+    } catch ( CompletionException | CancellationException e ) {
+      return false;
+    }
+  }
+
   /**
    * @return Runtime substituted model name. May be parameterized with variables/params.
    */
@@ -432,7 +846,43 @@ public class JobEntryDatasourcePublish extends JobEntryBase implements Cloneable
     return true;
   }
 
-  private String getMsg( String key, String... parameters ) {
+  protected String getMsg( String key, String... parameters ) {
     return BaseMessages.getString( PKG, key, parameters );
   }
+
+  /**
+   * What is published, read once from the job
+   */
+  private static class ModelContent {
+    private String modelName;
+    private DatabaseMeta databaseMeta;
+    private String dswFlag;
+    private boolean dsw;
+    private String xmiString;
+    private String mondrianSchema;
+    private String mondrianDatasource;
+  }
+
+  /**
+   * What of a model was uploaded, and so would need to be rolled back; anything skipped as unchanged was there before
+   */
+  protected static class PublishedArtifacts {
+    volatile boolean dsPublished;
+    volatile boolean metaPublished;
+    volatile boolean analysisPublished;
+  }
+
+  /**
+   * A publish to one server, and what of it would need to be rolled back
+   */
+  private static class ServerPublish extends PublishedArtifacts {
+    private final ModelServerPublish publisher;
+    private boolean rolledBack;
+    private CompletableFuture<Void> future;
+    private KettleException error;
+
+    ServerPublish( final ModelServerPublish publisher ) {
+      this.publisher = publisher;
+    }
+  }
 }
@@ -30,17 +30,20 @@ import org.pentaho.di.core.refinery.publish.agilebi.ModelServerPublish;
  * Created by bmorrise on 8/31/16.
  */
 public interface PublishService {
-  void publishDatabaseMeta( final ModelServerPublish modelServerPublish, final DatabaseMeta databaseMeta,
-                            final boolean forceOverride ) throws KettleException;
+  // each publish returns true if it uploaded, false if there was nothing to publish or it was skipped as unchanged
 
-  void publishMondrianSchema( final String modelName, final String mondrainSchema, final String mondrianDatasource,
+  boolean publishDatabaseMeta( final ModelServerPublish modelServerPublish, final DatabaseMeta databaseMeta,
+                               final boolean forceOverride ) throws KettleException;
+
+  boolean publishMondrianSchema( final String modelName, final String mondrainSchema, final String mondrianDatasource,
+                                 final ModelServerPublish modelServerPublish,
+                                 final boolean forceOverride ) throws KettleException;
+
+  boolean publishMetadataXmi( final String modelName, final String xmiString,
                               final ModelServerPublish modelServerPublish,
                               final boolean forceOverride ) throws KettleException;
 
-  void publishMetadataXmi( final String modelName, final String xmiString, final ModelServerPublish modelServerPublish,
-                           final boolean forceOverride ) throws KettleException;
-
-  void publishDswXmi( final String modelName, final String xmiString, final ModelServerPublish modelServerPublish,
-                      final boolean forceOverride )
+  boolean publishDswXmi( final String modelName, final String xmiString, final ModelServerPublish modelServerPublish,
+                         final boolean forceOverride )
     throws KettleException;
 }
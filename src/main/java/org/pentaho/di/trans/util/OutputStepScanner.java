@@ -0,0 +1,310 @@
+/*! ******************************************************************************
+ *
+ * Pentaho Community Edition Project: data-refinery-pdi-plugin
+ *
+ * Copyright (C) 2002-2026 by Hitachi Vantara : http://www.pentaho.com
+ *
+ * *******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ********************************************************************************/
+
+package org.pentaho.di.trans.util;
+
+import org.apache.commons.lang.StringUtils;
+import org.pentaho.di.core.ObjectLocationSpecificationMethod;
+import org.pentaho.di.core.ProvidesDatabaseConnectionInformation;
+import org.pentaho.di.core.exception.KettleException;
+import org.pentaho.di.repository.ObjectId;
+import org.pentaho.di.repository.Repository;
+import org.pentaho.di.trans.StepWithMappingMeta;
+import org.pentaho.di.trans.TransMeta;
+import org.pentaho.di.trans.step.StepMeta;
+import org.pentaho.di.trans.step.StepMetaInterface;
+import org.pentaho.metastore.api.IMetaStore;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+
+/**
+ * Walks a transformation and every sub-transformation it references (mappings, executors, metadata injection)
+ * looking for steps that provide database connection information.
+ * <p>
+ * A scanner instance memoizes loaded sub-transformations by their resolved file name, repository path or object id,
+ * so a sub-transformation shared by several steps is only fetched once. Sub-transformations already being scanned
+ * higher up the same branch are skipped, which stops reference cycles; a scan cut short that way is not memoized, as
+ * it lacks the steps of the transformation it stopped at.
+ * <p>
+ * Repositories are not safe to use from several threads, so with a repository every sub-transformation is loaded in
+ * turn on the calling thread. Without one, sibling references by file name are loaded in parallel on a small pool of
+ * the scanner's own; the scan of a loaded sub-transformation is chained onto its load rather than waited for, so no
+ * thread blocks on another and the bounded pool cannot deadlock.
+ */
+class OutputStepScanner {
+
+  private static final int MAX_PARALLEL_LOADS = 4;
+
+  private static final ThreadPoolExecutor FILE_LOADS = new ThreadPoolExecutor( MAX_PARALLEL_LOADS,
+    MAX_PARALLEL_LOADS, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+      private final AtomicInteger count = new AtomicInteger();
+
+      @Override public Thread newThread( final Runnable runnable ) {
+        Thread thread = new Thread( runnable, "refinery-trans-scan-" + count.incrementAndGet() );
+        thread.setDaemon( true );
+        return thread;
+      }
+    } );
+
+  static {
+    FILE_LOADS.allowCoreThreadTimeOut( true );
+  }
+
+  private final Repository repository;
+  private final IMetaStore metaStore;
+
+  private final ConcurrentMap<String, CompletableFuture<TransMeta>> loadedTrans = new ConcurrentHashMap<>();
+  private final ConcurrentMap<String, Map<String, ProvidesDatabaseConnectionInformation>> scannedTrans =
+    new ConcurrentHashMap<>();
+
+  OutputStepScanner( final Repository repository, final IMetaStore metaStore ) {
+    this.repository = repository;
+    this.metaStore = metaStore;
+  }
+
+  Map<String, ProvidesDatabaseConnectionInformation> scan( final TransMeta transMeta ) throws KettleException {
+    try {
+      return scanSteps( transMeta, Collections.<String>emptySet() ).join().steps;
+    } catch ( CompletionException e ) {
+      // chained stages wrap the original cause
+      for ( Throwable cause = e; cause != null; cause = cause.getCause() ) {
+        if ( cause instanceof KettleException ) {
+          throw (KettleException) cause;
+        }
+      }
+      throw e.getCause() instanceof RuntimeException ? (RuntimeException) e.getCause() : e;
+    }
+  }
+
+  private CompletableFuture<Scan> scanSteps( final TransMeta transMeta, final Set<String> ancestors ) {
+    final String transKey = transKey( transMeta );
+    if ( ancestors.contains( transKey ) ) {
+      // cycle, this transformation is already being scanned further up
+      return CompletableFuture.completedFuture( new Scan(
+        Collections.<String, ProvidesDatabaseConnectionInformation>emptyMap(), Collections.singleton( transKey ) ) );
+    }
+    Map<String, ProvidesDatabaseConnectionInformation> cached = scannedTrans.get( transKey );
+    if ( cached != null ) {
+      return CompletableFuture.completedFuture( new Scan( cached, Collections.<String>emptySet() ) );
+    }
+
+    Set<String> path = new HashSet<>( ancestors );
+    path.add( transKey );
+
+    final List<StepMeta> steps = transMeta.getSteps();
+    final List<CompletableFuture<Scan>> stepScans = new ArrayList<>( steps.size() );
+    List<CompletableFuture<Scan>> subScans = new ArrayList<>();
+    for ( StepMeta stepMeta : steps ) {
+      CompletableFuture<Scan> subScan = null;
+      if ( stepMeta != null && stepMeta.getStepMetaInterface() != null
+        && TransUtil.getDatabaseConnectionInformation( stepMeta.getStepMetaInterface() ) == null ) {
+        subScan = scanSubTrans( stepMeta.getStepMetaInterface(), transMeta, path );
+        subScans.add( subScan );
+      }
+      stepScans.add( subScan );
+    }
+
+    return CompletableFuture.allOf( subScans.toArray( new CompletableFuture<?>[ subScans.size() ] ) )
+      .thenApply( new Function<Void, Scan>() {
+        @Override public Scan apply( final Void done ) {
+          // merge in step order so later steps win, same as a sequential walk
+          Map<String, ProvidesDatabaseConnectionInformation> stepMap = new HashMap<>();
+          Set<String> cutAt = new HashSet<>();
+          for ( int i = 0; i < steps.size(); i++ ) {
+            CompletableFuture<Scan> subScan = stepScans.get( i );
+            if ( subScan != null ) {
+              Scan scan = subScan.join();
+              stepMap.putAll( scan.steps );
+              cutAt.addAll( scan.cutAt );
+            } else if ( steps.get( i ) != null ) {
+              StepMeta stepMeta = steps.get( i );
+              ProvidesDatabaseConnectionInformation info =
+                TransUtil.getDatabaseConnectionInformation( stepMeta.getStepMetaInterface() );
+              if ( info != null ) {
+                stepMap.put( StringUtils.trimToEmpty( stepMeta.getName() ), info );
+              }
+            }
+          }
+          // a scan cut short at this transformation is still whole from here; cut at an ancestor it misses that
+          // ancestor's steps, which a scan started from elsewhere would include, so only whole scans are memoized
+          cutAt.remove( transKey );
+          if ( cutAt.isEmpty() ) {
+            scannedTrans.putIfAbsent( transKey, stepMap );
+          }
+          return new Scan( stepMap, cutAt );
+        }
+      } );
+  }
+
+  private CompletableFuture<Scan> scanSubTrans( final StepMetaInterface stepMetaInterface, final TransMeta parent,
+                                                final Set<String> ancestors ) {
+    return fetchTransMeta( stepMetaInterface, parent ).thenCompose( new Function<TransMeta, CompletionStage<Scan>>() {
+      @Override public CompletionStage<Scan> apply( final TransMeta relatedTransMeta ) {
+        if ( relatedTransMeta == null ) {
+          return CompletableFuture.completedFuture( new Scan(
+            new HashMap<String, ProvidesDatabaseConnectionInformation>(), Collections.<String>emptySet() ) );
+        }
+        return scanSteps( relatedTransMeta, ancestors );
+      }
+    } );
+  }
+
+  private CompletableFuture<TransMeta> fetchTransMeta( final StepMetaInterface stepMetaInterface,
+                                                       final TransMeta parent ) {
+    Callable<TransMeta> load = new Callable<TransMeta>() {
+      @Override public TransMeta call() throws KettleException {
+        return stepMetaInterface.fetchTransMeta( stepMetaInterface, repository, metaStore, parent );
+      }
+    };
+    String referenceKey = referenceKey( stepMetaInterface, parent );
+    boolean parallel = repository == null && referenceKey != null && referenceKey.startsWith( "file:" );
+    if ( referenceKey == null ) {
+      return load( load, parallel );
+    }
+    final CompletableFuture<TransMeta> loading = new CompletableFuture<>();
+    CompletableFuture<TransMeta> existing = loadedTrans.putIfAbsent( referenceKey, loading );
+    if ( existing != null ) {
+      return existing;
+    }
+    load( load, parallel ).whenComplete(
+      new BiConsumer<TransMeta, Throwable>() {
+        @Override public void accept( final TransMeta transMeta, final Throwable e ) {
+          if ( e != null ) {
+            loading.completeExceptionally( e );
+          } else {
+            loading.complete( transMeta );
+          }
+        }
+      } );
+    return loading;
+  }
+
+  /**
+   * Loads a sub-transformation on the pool with the caller's context class loader, or right away on this thread. Stages
+   * chained onto a load run inside the completing call, so nested loads see the same class loader.
+   */
+  private static CompletableFuture<TransMeta> load( final Callable<TransMeta> load, final boolean parallel ) {
+    final CompletableFuture<TransMeta> loaded = new CompletableFuture<>();
+    if ( !parallel ) {
+      try {
+        loaded.complete( load.call() );
+      } catch ( Exception e ) {
+        loaded.completeExceptionally( e );
+      }
+      return loaded;
+    }
+    final ClassLoader contextClassLoader = Thread.currentThread().getContextClassLoader();
+    try {
+      FILE_LOADS.execute( new Runnable() {
+        @Override public void run() {
+          ClassLoader orig = Thread.currentThread().getContextClassLoader();
+          Thread.currentThread().setContextClassLoader( contextClassLoader );
+          try {
+            loaded.complete( load.call() );
+          } catch ( Throwable e ) {
+            loaded.completeExceptionally( e );
+          } finally {
+            Thread.currentThread().setContextClassLoader( orig );
+          }
+        }
+      } );
+    } catch ( RejectedExecutionException e ) {
+      loaded.completeExceptionally( e );
+    }
+    return loaded;
+  }
+
+  /**
+   * Identifies the sub-transformation a step points at before it is loaded, or null if the step type does not tell.
+   */
+  static String referenceKey( final StepMetaInterface stepMetaInterface, final TransMeta parent ) {
+    if ( !( stepMetaInterface instanceof StepWithMappingMeta ) ) {
+      return null;
+    }
+    StepWithMappingMeta meta = (StepWithMappingMeta) stepMetaInterface;
+    ObjectLocationSpecificationMethod method = meta.getSpecificationMethod();
+    if ( method == null ) {
+      return null;
+    }
+    switch ( method ) {
+      case FILENAME:
+        return StringUtils.isBlank( meta.getFileName() ) ? null
+          : "file:" + parent.environmentSubstitute( meta.getFileName() );
+      case REPOSITORY_BY_NAME:
+        return StringUtils.isBlank( meta.getTransName() ) ? null
+          : "repo:" + parent.environmentSubstitute( StringUtils.defaultString( meta.getDirectoryPath() ) ) + "/"
+            + parent.environmentSubstitute( meta.getTransName() );
+      case REPOSITORY_BY_REFERENCE:
+        ObjectId objectId = meta.getTransObjectId();
+        return objectId == null ? null : "id:" + objectId.getId();
+      default:
+        return null;
+    }
+  }
+
+  /**
+   * Identifies a loaded transformation, falling back to object identity when it has neither id nor file name.
+   */
+  static String transKey( final TransMeta transMeta ) {
+    ObjectId objectId = transMeta.getObjectId();
+    if ( objectId != null && objectId.getId() != null ) {
+      return "id:" + objectId.getId();
+    }
+    if ( StringUtils.isNotBlank( transMeta.getFilename() ) ) {
+      return "file:" + transMeta.getFilename();
+    }
+    return "meta@" + System.identityHashCode( transMeta );
+  }
+
+  /**
+   * Steps found by one scan, and the transformations it stopped at because they were already on the branch.
+   */
+  private static class Scan {
+    private final Map<String, ProvidesDatabaseConnectionInformation> steps;
+    private final Set<String> cutAt;
+
+    Scan( final Map<String, ProvidesDatabaseConnectionInformation> steps, final Set<String> cutAt ) {
+      this.steps = steps;
+      this.cutAt = cutAt;
+    }
+  }
+}
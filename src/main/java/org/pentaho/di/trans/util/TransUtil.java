@@ -2,7 +2,7 @@
  *
  * Pentaho Community Edition Project: data-refinery-pdi-plugin
  *
- * Copyright (C) 2002-2018 by Hitachi Vantara : http://www.pentaho.com
+ * Copyright (C) 2002-2026 by Hitachi Vantara : http://www.pentaho.com
  *
  * *******************************************************************************
  *
@@ -22,7 +22,6 @@
 
 package org.pentaho.di.trans.util;
 
-import org.apache.commons.lang.StringUtils;
 import org.pentaho.di.base.AbstractMeta;
 import org.pentaho.di.core.ProvidesDatabaseConnectionInformation;
 import org.pentaho.di.core.exception.KettleException;
@@ -30,37 +29,23 @@ import org.pentaho.di.core.logging.LogChannelInterface;
 import org.pentaho.di.core.parameters.UnknownParamException;
 import org.pentaho.di.repository.Repository;
 import org.pentaho.di.trans.TransMeta;
-import org.pentaho.di.trans.step.StepMeta;
 import org.pentaho.metastore.api.IMetaStore;
 
-import java.util.HashMap;
 import java.util.Map;
 
 public class TransUtil {
+  /**
+   * Collects the steps providing database connection information in a transformation and in every sub-transformation
+   * it references. Shared sub-transformations are loaded once, reference cycles are skipped and independent
+   * sub-transformations are loaded in parallel.
+   */
   public static Map<String, ProvidesDatabaseConnectionInformation> collectOutputStepInTrans(
       final TransMeta transMeta, final Repository repository, final IMetaStore metastore )
     throws KettleException {
-    HashMap<String, ProvidesDatabaseConnectionInformation> stepMap =
-        new HashMap<String, ProvidesDatabaseConnectionInformation>();
-    for ( StepMeta stepMeta : transMeta.getSteps() ) {
-      ProvidesDatabaseConnectionInformation info = getDatabaseConnectionInformation( stepMeta.getStepMetaInterface() );
-
-      if ( info != null ) {
-        stepMap.put( StringUtils.trimToEmpty( stepMeta.getName() ), info );
-      } else if ( stepMeta != null && stepMeta.getStepMetaInterface() != null ) {
-
-        TransMeta relatedTransMeta = stepMeta.getStepMetaInterface().fetchTransMeta( stepMeta.getStepMetaInterface(),
-            repository, metastore, transMeta );
-
-        if ( relatedTransMeta != null ) {
-          stepMap.putAll( collectOutputStepInTrans( relatedTransMeta, repository, metastore ) );
-        }
-      }
-    }
-    return stepMap;
+    return new OutputStepScanner( repository, metastore ).scan( transMeta );
   }
 
-  private static ProvidesDatabaseConnectionInformation getDatabaseConnectionInformation( Object o ) {
+  static ProvidesDatabaseConnectionInformation getDatabaseConnectionInformation( Object o ) {
     if ( o != null && ProvidesDatabaseConnectionInformation.class.isAssignableFrom( o.getClass() ) ) {
       return ProvidesDatabaseConnectionInformation.class.cast( o );
     }
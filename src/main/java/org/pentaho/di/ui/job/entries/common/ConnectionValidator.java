@@ -27,10 +27,16 @@ import org.pentaho.di.core.exception.KettleException;
 import org.pentaho.di.core.gui.SpoonFactory;
 import org.pentaho.di.core.gui.SpoonInterface;
 import org.pentaho.di.core.refinery.publish.agilebi.BiServerConnection;
+import org.pentaho.di.core.refinery.publish.model.ResponseStatus;
+import org.pentaho.di.core.refinery.publish.util.BiServerExecutor;
+import org.pentaho.di.core.refinery.publish.util.ConnectionValidationCache;
 import org.pentaho.di.core.refinery.publish.util.PublishRestUtil;
 import org.pentaho.di.i18n.BaseMessages;
 import org.pentaho.di.job.entries.publish.JobEntryDatasourcePublish;
 
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 import java.util.logging.Logger;
 
 /**
@@ -49,8 +55,18 @@ public class ConnectionValidator {
     this.publishRestUtil = new PublishRestUtil(); // default
   }
 
+  /**
+   * Validates the connection unless it passed within the time to live of the {@link ConnectionValidationCache}. Once
+   * the server is known to be a Pentaho server, the login and permission checks are independent of each other and are
+   * sent at once; failures are still reported in that order.
+   */
   public void validateConnectionInRuntime() throws KettleException {
-    // check server
+    ConnectionValidationCache cache = getValidationCache();
+    if ( cache.isValid( this.connection ) ) {
+      return;
+    }
+
+    // check server, before any credentials are sent to it
     if ( !this.isPentahoServer() ) {
       throw new KettleException( this.getMsg( "JobEntryDatasourcePublish.Test.InvalidPentahoServerMsgRuntime" ) );
     }
@@ -60,19 +76,30 @@ public class ConnectionValidator {
       throw new KettleException( this.getMsg( "JobEntryDatasourcePublish.Test.MissingUserMsg" ) );
     }
 
-    boolean isAuthenticated = !publishRestUtil.isUnauthenticatedUser( this.connection );
-    if ( !isAuthenticated ) {
-      throw new KettleException( this.getMsg( "JobEntryDatasourcePublish.Test.UsernamePasswordFailMsg" ) );
-    }
+    Future<Boolean> authenticated = submit( new Callable<Boolean>() {
+      @Override public Boolean call() {
+        return !publishRestUtil.isUnauthenticatedUser( connection );
+      }
+    } );
+    try {
+      // test permissions
+      ResponseStatus denied = checkPermissions();
 
-    // test permissions
-    if ( !this.canConnect() ) {
-      if ( publishRestUtil.getLastHTTPStatus() == 404 ) {
-        throw new KettleException( this.getMsg( "JobEntryDatasourcePublish.Test.BadURLMsg" ) );
-      } else {
-        throw new KettleException( this.getMsg( "JobEntryDatasourcePublish.Test.PermissionsErrorMsg" ) );
+      if ( !get( authenticated ) ) {
+        throw new KettleException( this.getMsg( "JobEntryDatasourcePublish.Test.UsernamePasswordFailMsg" ) );
+      }
+
+      if ( denied != null ) {
+        if ( denied.getStatus() == 404 ) {
+          throw new KettleException( this.getMsg( "JobEntryDatasourcePublish.Test.BadURLMsg" ) );
+        } else {
+          throw new KettleException( this.getMsg( "JobEntryDatasourcePublish.Test.PermissionsErrorMsg" ) );
+        }
       }
+    } finally {
+      authenticated.cancel( true );
     }
+    cache.validated( this.connection );
   }
 
   public boolean validateConnectionInDesignTime() {
@@ -165,6 +192,32 @@ public class ConnectionValidator {
     return true;
   }
 
+  /**
+   * Checks the publish and datasource management permissions concurrently, each with its own response
+   *
+   * @return the response of the first check that was denied, null if both passed
+   */
+  protected ResponseStatus checkPermissions() {
+    Future<ResponseStatus> canManageDatasources = submit( new Callable<ResponseStatus>() {
+      @Override public ResponseStatus call() {
+        return publishRestUtil.checkCanManageDatasources( connection );
+      }
+    } );
+    try {
+      ResponseStatus canPublish = publishRestUtil.checkCanPublish( this.connection );
+      if ( !PublishRestUtil.isAuthorized( canPublish ) ) {
+        return denied( canPublish );
+      }
+      ResponseStatus canManage = get( canManageDatasources );
+      return PublishRestUtil.isAuthorized( canManage ) ? null : denied( canManage );
+    } catch ( KettleException e ) {
+      logger.warning( e.getLocalizedMessage() );
+      return denied( null );
+    } finally {
+      canManageDatasources.cancel( true );
+    }
+  }
+
   public void showInfo( String title, String message ) {
     SpoonInterface spoon = getSpoon();
     spoon.messageBox( message, title, false, Const.INFO );
@@ -187,6 +240,10 @@ public class ConnectionValidator {
     this.publishRestUtil = publishRestUtil;
   }
 
+  protected ConnectionValidationCache getValidationCache() {
+    return ConnectionValidationCache.getInstance();
+  }
+
   protected SpoonInterface getSpoon() {
     return SpoonFactory.getInstance();
   }
@@ -194,4 +251,32 @@ public class ConnectionValidator {
   protected String getMsg( String messageKey ) {
     return BaseMessages.getString( PKG, messageKey );
   }
+
+  private static <T> Future<T> submit( final Callable<T> probe ) {
+    return BiServerExecutor.callAsync( probe, BiServerExecutor.getDefault() );
+  }
+
+  private static ResponseStatus denied( final ResponseStatus response ) {
+    if ( response != null ) {
+      return response;
+    }
+    ResponseStatus unanswered = new ResponseStatus();
+    unanswered.setStatus( -1 );
+    return unanswered;
+  }
+
+  private static <T> T get( final Future<T> probe ) throws KettleException {
+    try {
+      return probe.get();
+    } catch ( InterruptedException e ) {
+      Thread.currentThread().interrupt();
+      throw new KettleException( e );
+    } catch ( ExecutionException e ) {
+      Throwable cause = e.getCause();
+      if ( cause instanceof RuntimeException ) {
+        throw (RuntimeException) cause;
+      }
+      throw new KettleException( cause );
+    }
+  }
 }
@@ -0,0 +1,152 @@
+/*! ******************************************************************************
+ *
+ * Pentaho Community Edition Project: data-refinery-pdi-plugin
+ *
+ * Copyright (C) 2002-2026 by Hitachi Vantara : http://www.pentaho.com
+ *
+ * *******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ********************************************************************************/
+
+package org.pentaho.di.ui.job.entries.publish;
+
+import org.eclipse.swt.SWT;
+import org.eclipse.swt.events.ModifyEvent;
+import org.eclipse.swt.events.ModifyListener;
+import org.eclipse.swt.layout.FormData;
+import org.eclipse.swt.widgets.Composite;
+import org.eclipse.swt.widgets.Group;
+import org.eclipse.swt.widgets.Label;
+import org.eclipse.swt.widgets.Shell;
+import org.pentaho.di.core.Const;
+import org.pentaho.di.core.exception.KettleException;
+import org.pentaho.di.job.JobMeta;
+import org.pentaho.di.job.entries.publish.JobEntryBulkDatasourcePublish;
+import org.pentaho.di.job.entries.publish.JobEntryDatasourcePublish;
+import org.pentaho.di.job.entry.JobEntryInterface;
+import org.pentaho.di.repository.Repository;
+import org.pentaho.di.ui.core.widget.TextVar;
+
+import static org.pentaho.di.core.refinery.UIBuilder.DEFAULT_CONTROLS_TOP_MARGIN;
+import static org.pentaho.di.core.refinery.UIBuilder.DEFAULT_TEXT_SIZE_REGULAR;
+import static org.pentaho.di.core.refinery.UIBuilder.DEFAULT_TEXT_SIZE_SHORT;
+import static org.pentaho.di.core.refinery.UIBuilder.LEFT_MARGIN_OFFSET;
+import static org.pentaho.di.core.refinery.UIBuilder.positionLabelInputPairBelow;
+
+/**
+ * Publish model dialog with the models to publish and how many to publish at a time
+ */
+public class JobEntryBulkDatasourcePublishDialog extends JobEntryDatasourcePublishDialog {
+
+  private static final int MODEL_NAMES_HEIGHT = 80;
+
+  private TextVar wModelNames;
+  private TextVar wModelPattern;
+  private TextVar wParallelism;
+
+  public JobEntryBulkDatasourcePublishDialog( Shell parent, JobEntryInterface jobEntry,
+      Repository rep, JobMeta jobMeta ) throws KettleException {
+    super( parent, jobEntry, rep, jobMeta );
+  }
+
+  @Override
+  protected Composite createModelComposite( Composite main ) {
+
+    // Overwrite Flag
+    Composite composite = super.createModelComposite( main );
+
+    ModifyListener changed = new ModifyListener() {
+      public void modifyText( ModifyEvent e ) {
+        jobEntry.setChanged();
+      }
+    };
+
+    // Model Names
+    Label wlModelNames = new Label( composite, SWT.LEFT );
+    wlModelNames.setText( getMsg( "JobEntryBulkDatasourcePublish.ModelNames.Label" ) );
+    wlModelNames.setToolTipText( getMsg( "JobEntryBulkDatasourcePublish.ModelNames.Tooltip" ) );
+    wModelNames = new TextVar( jobMeta, composite, SWT.MULTI | SWT.BORDER | SWT.V_SCROLL );
+    wModelNames.setToolTipText( getMsg( "JobEntryBulkDatasourcePublish.ModelNames.Tooltip" ) );
+    wModelNames.addModifyListener( changed );
+    props.setLook( wlModelNames );
+    props.setLook( wModelNames );
+
+    // Model Pattern
+    Label wlModelPattern = new Label( composite, SWT.LEFT );
+    wlModelPattern.setText( getMsg( "JobEntryBulkDatasourcePublish.ModelPattern.Label" ) );
+    wlModelPattern.setToolTipText( getMsg( "JobEntryBulkDatasourcePublish.ModelPattern.Tooltip" ) );
+    wModelPattern = new TextVar( jobMeta, composite, SWT.BORDER );
+    wModelPattern.setToolTipText( getMsg( "JobEntryBulkDatasourcePublish.ModelPattern.Tooltip" ) );
+    wModelPattern.addModifyListener( changed );
+    props.setLook( wlModelPattern );
+    props.setLook( wModelPattern );
+
+    // Parallelism
+    Label wlParallelism = new Label( composite, SWT.LEFT );
+    wlParallelism.setText( getMsg( "JobEntryBulkDatasourcePublish.Parallelism.Label" ) );
+    wlParallelism.setToolTipText( getMsg( "JobEntryBulkDatasourcePublish.Parallelism.Tooltip" ) );
+    wParallelism = new TextVar( jobMeta, composite, SWT.BORDER );
+    wParallelism.setToolTipText( getMsg( "JobEntryBulkDatasourcePublish.Parallelism.Tooltip" ) );
+    wParallelism.addModifyListener( changed );
+    props.setLook( wlParallelism );
+    props.setLook( wParallelism );
+
+    positionLabelInputPairBelow( wlModelNames, wModelNames, bForceOverwrite, DEFAULT_CONTROLS_TOP_MARGIN,
+        LEFT_MARGIN_OFFSET );
+    ( (FormData) wModelNames.getLayoutData() ).width = DEFAULT_TEXT_SIZE_REGULAR;
+    ( (FormData) wModelNames.getLayoutData() ).height = MODEL_NAMES_HEIGHT;
+
+    positionLabelInputPairBelow( wlModelPattern, wModelPattern, wModelNames, DEFAULT_CONTROLS_TOP_MARGIN,
+        LEFT_MARGIN_OFFSET );
+    ( (FormData) wModelPattern.getLayoutData() ).width = DEFAULT_TEXT_SIZE_REGULAR;
+
+    positionLabelInputPairBelow( wlParallelism, wParallelism, wModelPattern, DEFAULT_CONTROLS_TOP_MARGIN,
+        LEFT_MARGIN_OFFSET );
+    ( (FormData) wParallelism.getLayoutData() ).width = DEFAULT_TEXT_SIZE_SHORT;
+
+    return composite;
+  }
+
+  /**
+   * Models are published to one server
+   */
+  @Override
+  protected Group createAdditionalServersGroup( final Composite main ) {
+    return null;
+  }
+
+  @Override protected String getTitle() {
+    return getMsg( "JobEntryBulkDatasourcePublish.JobName" );
+  }
+
+  @Override
+  protected void loadData( JobEntryDatasourcePublish jobEntry ) {
+    super.loadData( jobEntry );
+    JobEntryBulkDatasourcePublish bulkJobEntry = (JobEntryBulkDatasourcePublish) jobEntry;
+    wModelNames.setText( Const.NVL( bulkJobEntry.getModelNames(), "" ) );
+    wModelPattern.setText( Const.NVL( bulkJobEntry.getModelPattern(), "" ) );
+    wParallelism.setText( Const.NVL( bulkJobEntry.getParallelism(),
+        String.valueOf( JobEntryBulkDatasourcePublish.DEFAULT_PARALLELISM ) ) );
+  }
+
+  @Override
+  protected void saveData( JobEntryDatasourcePublish jobEntry ) {
+    super.saveData( jobEntry );
+    JobEntryBulkDatasourcePublish bulkJobEntry = (JobEntryBulkDatasourcePublish) jobEntry;
+    bulkJobEntry.setModelNames( wModelNames.getText() );
+    bulkJobEntry.setModelPattern( wModelPattern.getText() );
+    bulkJobEntry.setParallelism( wParallelism.getText() );
+  }
+}
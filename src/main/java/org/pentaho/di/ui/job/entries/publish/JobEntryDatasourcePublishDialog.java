@@ -35,6 +35,7 @@ import org.eclipse.swt.widgets.Group;
 import org.eclipse.swt.widgets.Label;
 import org.eclipse.swt.widgets.Listener;
 import org.eclipse.swt.widgets.Shell;
+import org.pentaho.di.core.Const;
 import org.pentaho.di.core.exception.KettleException;
 import static org.pentaho.di.core.refinery.UIBuilder.DEFAULT_COMBO_SIZE;
 import static org.pentaho.di.core.refinery.UIBuilder.DEFAULT_COMPOSITE_TOP_MARGIN;
@@ -61,6 +62,9 @@ import org.pentaho.di.ui.core.widget.TextVar;
 import org.pentaho.di.ui.job.entries.common.ConnectionValidator;
 import org.pentaho.di.ui.job.entries.common.ServerConnectionGroupWrapper;
 
+import java.util.ArrayList;
+import java.util.List;
+
 /**
  * @author Rowell Belen
  */
@@ -68,14 +72,17 @@ public class JobEntryDatasourcePublishDialog extends JobEntryDialogBoilerplate<J
     implements JobEntryDialogInterface {
 
   private final int SHELL_MIN_WIDTH = 435;
+  private static final int ADDITIONAL_URLS_HEIGHT = 60;
   // private final int SHELL_MIN_HEIGHT = 600;
-  private JobMeta jobMeta;
+  protected JobMeta jobMeta;
   private JobEntryDatasourcePublish jobEntry;
   private DataSourcePublishModel model;
-  private Button bForceOverwrite;
+  protected Button bForceOverwrite;
   private ServerConnectionGroupWrapper serverConnectionGroupWrapper;
   private ComboVar wAccessType;
   private TextVar wUserOrRoleAcl;
+  private TextVar wAdditionalUrls;
+  private ComboVar wPublishPolicy;
 
   public JobEntryDatasourcePublishDialog( Shell parent, JobEntryInterface jobEntry,
       Repository rep, JobMeta jobMeta ) throws KettleException {
@@ -182,6 +189,54 @@ public class JobEntryDatasourcePublishDialog extends JobEntryDialogBoilerplate<J
     return group;
   }
 
+  /**
+   * @return group with the further servers to publish to and the publish policy, null to leave it out
+   */
+  protected Group createAdditionalServersGroup( final Composite main ) {
+
+    Group group = createFormGroup( main );
+    group.setText( getMsg( "AdditionalServers.Group.Label" ) );
+    props.setLook( group );
+
+    ModifyListener changed = new ModifyListener() {
+      public void modifyText( ModifyEvent e ) {
+        jobEntry.setChanged();
+      }
+    };
+
+    // Server URLs, one per line
+    Label wlAdditionalUrls = new Label( group, SWT.LEFT );
+    wlAdditionalUrls.setText( getMsg( "AdditionalServers.Urls.Label" ) );
+    wlAdditionalUrls.setToolTipText( getMsg( "AdditionalServers.Urls.Tooltip" ) );
+    wAdditionalUrls = new TextVar( jobMeta, group, SWT.MULTI | SWT.BORDER | SWT.V_SCROLL );
+    wAdditionalUrls.setToolTipText( getMsg( "AdditionalServers.Urls.Tooltip" ) );
+    wAdditionalUrls.addModifyListener( changed );
+    props.setLook( wlAdditionalUrls );
+    props.setLook( wAdditionalUrls );
+
+    // Publish policy drop down
+    Label wlPublishPolicy = new Label( group, SWT.LEFT );
+    wlPublishPolicy.setText( getMsg( "AdditionalServers.Policy.Label" ) );
+    wlPublishPolicy.setToolTipText( getMsg( "AdditionalServers.Policy.Tooltip" ) );
+    wPublishPolicy = new ComboVar( jobMeta, group, SWT.BORDER );
+    wPublishPolicy.setToolTipText( getMsg( "AdditionalServers.Policy.Tooltip" ) );
+    wPublishPolicy.add( getMsg( "AdditionalServers.Policy.AllOrNothing" ) );
+    wPublishPolicy.add( getMsg( "AdditionalServers.Policy.BestEffort" ) );
+    wPublishPolicy.addModifyListener( changed );
+    props.setLook( wlPublishPolicy );
+    props.setLook( wPublishPolicy );
+
+    positionLabelInputPairBelow( wlAdditionalUrls, wAdditionalUrls, null, DEFAULT_NO_MARGIN, LEFT_MARGIN_OFFSET );
+    ( (FormData) wAdditionalUrls.getLayoutData() ).width = DEFAULT_TEXT_SIZE_REGULAR;
+    ( (FormData) wAdditionalUrls.getLayoutData() ).height = ADDITIONAL_URLS_HEIGHT;
+
+    positionLabelInputPairBelow( wlPublishPolicy, wPublishPolicy, wAdditionalUrls, DEFAULT_CONTROLS_TOP_MARGIN,
+        LEFT_MARGIN_OFFSET );
+    ( (FormData) wPublishPolicy.getLayoutData() ).width = DEFAULT_TEXT_SIZE_REGULAR;
+
+    return group;
+  }
+
   @Override
   protected void createControls( final Shell shell, Control topControl, Control bottomControl, final Composite main ) {
 
@@ -191,8 +246,15 @@ public class JobEntryDatasourcePublishDialog extends JobEntryDialogBoilerplate<J
     final Control serverGroup = createServerConnectionGroup( main );
     positionControlBelow( serverGroup, modelComposite, DEFAULT_COMPOSITE_TOP_MARGIN );
 
+    Control aboveAcl = serverGroup;
+    final Control additionalServersGroup = createAdditionalServersGroup( main );
+    if ( additionalServersGroup != null ) {
+      positionControlBelow( additionalServersGroup, serverGroup, DEFAULT_COMPOSITE_TOP_MARGIN );
+      aboveAcl = additionalServersGroup;
+    }
+
     final Control aclGroup = createAclDefinitionGroup( main );
-    positionControlBelow( aclGroup, serverGroup, DEFAULT_COMPOSITE_TOP_MARGIN );
+    positionControlBelow( aclGroup, aboveAcl, DEFAULT_COMPOSITE_TOP_MARGIN );
 
     // set min size of dialog
     final int minHeight = getMinHeight( shell );
@@ -234,6 +296,22 @@ public class JobEntryDatasourcePublishDialog extends JobEntryDialogBoilerplate<J
       BiServerConnection biServerModel = this.model.getBiServerConnection();
       this.serverConnectionGroupWrapper.setBiServerConnection( biServerModel );
     }
+
+    if ( wAdditionalUrls != null ) {
+      StringBuilder urls = new StringBuilder();
+      for ( BiServerConnection additional : this.model.getAdditionalBiServerConnections() ) {
+        urls.append( Const.NVL( additional.getUrl(), "" ) ).append( Const.CR );
+      }
+      wAdditionalUrls.setText( urls.toString().trim() );
+      if ( DataSourcePublishModel.PUBLISH_POLICY_BEST_EFFORT.equals( this.model.getPublishPolicy() ) ) {
+        wPublishPolicy.select( 1 );
+      } else if ( StringUtils.isBlank( this.model.getPublishPolicy() )
+          || DataSourcePublishModel.PUBLISH_POLICY_ALL_OR_NOTHING.equals( this.model.getPublishPolicy() ) ) {
+        wPublishPolicy.select( 0 );
+      } else {
+        wPublishPolicy.setText( this.model.getPublishPolicy() );
+      }
+    }
   }
 
   @Override
@@ -267,9 +345,57 @@ public class JobEntryDatasourcePublishDialog extends JobEntryDialogBoilerplate<J
     BiServerConnection biServerModel = serverConnectionGroupWrapper.getBiServerConnection( resolveVariables );
     dataSourcePublishModel.setBiServerConnection( biServerModel );
 
+    if ( wAdditionalUrls != null ) {
+      dataSourcePublishModel.setAdditionalBiServerConnections( getAdditionalBiServerConnections( resolveVariables ) );
+      String policy = getPublishPolicyCodeFromDescription( wPublishPolicy.getText() );
+      dataSourcePublishModel
+          .setPublishPolicy( resolveVariables ? this.jobMeta.environmentSubstitute( policy ) : policy );
+    }
+
     return dataSourcePublishModel;
   }
 
+  /**
+   * A server already configured keeps its name and credentials, a new one uses the credentials of the main server
+   */
+  private List<BiServerConnection> getAdditionalBiServerConnections( boolean resolveVariables ) {
+    List<BiServerConnection> connections = new ArrayList<>();
+    for ( String line : wAdditionalUrls.getText().split( "\\r?\\n" ) ) {
+      String url = line.trim();
+      if ( url.isEmpty() ) {
+        continue;
+      }
+      BiServerConnection connection = new BiServerConnection();
+      connection.setUrl( url );
+      for ( BiServerConnection existing : this.model.getAdditionalBiServerConnections() ) {
+        if ( url.equals( existing.getUrl() ) ) {
+          connection.setName( existing.getName() );
+          connection.setUserId( existing.getUserId() );
+          connection.setPassword( existing.getPassword() );
+          break;
+        }
+      }
+      if ( resolveVariables ) {
+        connection.setName( this.jobMeta.environmentSubstitute( connection.getName() ) );
+        connection.setUrl( this.jobMeta.environmentSubstitute( connection.getUrl() ) );
+        connection.setUserId( this.jobMeta.environmentSubstitute( connection.getUserId() ) );
+        connection.setPassword( this.jobMeta.environmentSubstitute( connection.getPassword() ) );
+      }
+      connections.add( connection );
+    }
+    return connections;
+  }
+
+  private String getPublishPolicyCodeFromDescription( String policyDescription ) {
+    if ( getMsg( "AdditionalServers.Policy.AllOrNothing" ).equals( policyDescription ) ) {
+      return DataSourcePublishModel.PUBLISH_POLICY_ALL_OR_NOTHING;
+    }
+    if ( getMsg( "AdditionalServers.Policy.BestEffort" ).equals( policyDescription ) ) {
+      return DataSourcePublishModel.PUBLISH_POLICY_BEST_EFFORT;
+    }
+    return policyDescription;
+  }
+
 
   private String getAccessTypeCodeFromDescription( String accessTypeDescription ) {
     if ( getMsg( "AclDefinition.AccessType.Everyone" ).equals( accessTypeDescription ) ) {
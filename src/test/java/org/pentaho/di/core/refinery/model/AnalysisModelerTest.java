@@ -2,7 +2,7 @@
  *
  * Pentaho Community Edition Project: data-refinery-pdi-plugin
  *
- * Copyright (C) 2002-2017 by Hitachi Vantara : http://www.pentaho.com
+ * Copyright (C) 2002-2026 by Hitachi Vantara : http://www.pentaho.com
  *
  * *******************************************************************************
  *
@@ -29,11 +29,14 @@ import org.junit.Test;
 import org.pentaho.di.core.ProvidesDatabaseConnectionInformation;
 import org.pentaho.di.core.exception.KettleDatabaseException;
 import org.pentaho.di.core.exception.KettleException;
+import org.pentaho.di.core.row.RowMeta;
 import org.pentaho.di.core.row.ValueMetaInterface;
 import org.pentaho.di.core.row.value.ValueMetaBase;
 import org.pentaho.di.job.entries.build.JobEntryBuildModel;
 import org.pentaho.di.job.entry.JobEntryBase;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.util.Arrays;
 import java.util.List;
 
@@ -121,6 +124,70 @@ public class AnalysisModelerTest {
     }
   }
 
+  @Test
+  public void testNamesAreEscapedAndMarkupKept() throws Exception {
+    String schema = "<Schema name=\"old\"><!-- keep -->\n"
+        + "  <Cube name=\"old\"><Table name=\"SALES_DATA\"></Table>\n"
+        + "    <Measure name=\"Sales &amp; Tax\" column=\"SALES\"/>\n"
+        + "    <Level name=\"Expr\"><KeyExpression><SQL><![CDATA[a < b]]></SQL></KeyExpression></Level>\n"
+        + "  </Cube>\n"
+        + "</Schema>\n";
+    String newSchema = getAnalysisModeler().replaceTableAndSchemaNames( schema, "Tom & \"Jerry\" <1>" );
+    assertEquals( "<?xml version=\"1.0\" encoding=\"UTF-8\"?>"
+        + "<Schema name=\"Tom &amp; &quot;Jerry&quot; &lt;1&gt;\"><!-- keep -->\n"
+        + "  <Cube name=\"Tom &amp; &quot;Jerry&quot; &lt;1&gt;\"><Table name=\"newTable\"/>\n"
+        + "    <Measure name=\"Sales &amp; Tax\" column=\"SALES\"/>\n"
+        + "    <Level name=\"Expr\"><KeyExpression><SQL>a &lt; b</SQL></KeyExpression></Level>\n"
+        + "  </Cube>\n"
+        + "</Schema>", newSchema );
+  }
+
+  @Test
+  public void testStreamingRewriteMatchesStringRewrite() throws Exception {
+    String schema = IOUtils.toString( getClass().getResourceAsStream( "resources/testAnalysisSchema.xml" ) );
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    getAnalysisModeler().replaceTableAndSchemaNames(
+        new ByteArrayInputStream( schema.getBytes( "UTF-8" ) ), out, "newModel" );
+    assertEquals( getAnalysisModeler().replaceTableAndSchemaNames( schema, "newModel" ), out.toString( "UTF-8" ) );
+  }
+
+  @Test
+  public void testCapturedFieldsAvoidDatabase() throws Exception {
+    String schema = IOUtils.toString( getClass().getResourceAsStream( "resources/testAnalysisSchema.xml" ) );
+    String expectedSchema = IOUtils.toString( getClass().getResourceAsStream( "resources/newTableAnalysisSchema.xml" ) );
+    AnalysisModeler modeler = new AnalysisModeler( new JobEntryBase(), connectionInfo, capturedFields() ) {
+      @Override List<ValueMetaInterface> getFieldsInDatabase() throws KettleDatabaseException {
+        throw new KettleDatabaseException( "no connection expected" );
+      }
+    };
+    String newSchema = modeler.replaceTableAndSchemaNames( schema, "newModel" );
+    assertEquals( expectedSchema.replaceAll( "\r", "" ), newSchema.replaceAll( "\r", "" ) );
+  }
+
+  @Test
+  public void testDatabaseConfirmsColumnsMissingFromCapturedFields() throws Exception {
+    String schema = IOUtils.toString( getClass().getResourceAsStream( "resources/testAnalysisSchema.xml" ) );
+    RowMeta captured = capturedFields();
+    captured.removeValueMeta( "SALES" );
+    final int[] databaseReads = { 0 };
+    AnalysisModeler modeler = new AnalysisModeler( new JobEntryBase(), connectionInfo, captured ) {
+      @Override List<ValueMetaInterface> getFieldsInDatabase() throws KettleDatabaseException {
+        databaseReads[ 0 ]++;
+        return getAnalysisModeler().getFieldsInDatabase();
+      }
+    };
+    modeler.replaceTableAndSchemaNames( schema, "newModel" );
+    assertEquals( 1, databaseReads[ 0 ] );
+  }
+
+  private RowMeta capturedFields() throws KettleDatabaseException {
+    RowMeta rowMeta = new RowMeta();
+    for ( ValueMetaInterface valueMeta : getAnalysisModeler().getFieldsInDatabase() ) {
+      rowMeta.addValueMeta( valueMeta );
+    }
+    return rowMeta;
+  }
+
   private AnalysisModeler getAnalysisModeler() {
     return new AnalysisModeler( new JobEntryBase( ), connectionInfo ) {
       @Override List<ValueMetaInterface> getFieldsInDatabase()
@@ -0,0 +1,88 @@
+/*! ******************************************************************************
+ *
+ * Pentaho Community Edition Project: data-refinery-pdi-plugin
+ *
+ * Copyright (C) 2002-2026 by Hitachi Vantara : http://www.pentaho.com
+ *
+ * *******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ********************************************************************************/
+
+package org.pentaho.di.core.refinery.model;
+
+import org.junit.Test;
+import org.pentaho.agilebi.modeler.models.annotations.CreateAttribute;
+import org.pentaho.agilebi.modeler.models.annotations.CreateMeasure;
+import org.pentaho.agilebi.modeler.models.annotations.ModelAnnotation;
+
+import java.util.List;
+
+import static java.util.Arrays.asList;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class AnnotationDependenciesTest {
+
+  @Test
+  public void testParentsFirst() throws Exception {
+    ModelAnnotation city = attribute( "Geo", "City", "State" );
+    ModelAnnotation measure = measure( "Sales" );
+    ModelAnnotation state = attribute( "Geo", "State", "Country" );
+    ModelAnnotation year = attribute( "Time", "Year", null );
+    ModelAnnotation country = attribute( "Geo", "Country", null );
+    List<ModelAnnotation> annotations = asList( city, measure, state, year, country );
+
+    List<ModelAnnotation> ordered = new AnnotationDependencies( annotations ).parentsFirst( annotations );
+
+    assertEquals( asList( measure, year, country, state, city ), ordered );
+  }
+
+  @Test
+  public void testParentInOtherDimensionIsNoDependency() throws Exception {
+    ModelAnnotation city = attribute( "Customer", "City", "State" );
+    ModelAnnotation state = attribute( "Geo", "State", null );
+    List<ModelAnnotation> annotations = asList( city, state );
+
+    assertEquals( annotations, new AnnotationDependencies( annotations ).parentsFirst( annotations ) );
+  }
+
+  @Test
+  public void testCyclesKeepAllAnnotations() throws Exception {
+    ModelAnnotation a = attribute( "Dim", "A", "B" );
+    ModelAnnotation b = attribute( "Dim", "B", "A" );
+    List<ModelAnnotation> annotations = asList( a, b );
+
+    List<ModelAnnotation> ordered = new AnnotationDependencies( annotations ).parentsFirst( annotations );
+
+    assertEquals( 2, ordered.size() );
+    assertTrue( ordered.containsAll( annotations ) );
+  }
+
+  private ModelAnnotation attribute( final String dimension, final String name, final String parent ) {
+    CreateAttribute attribute = new CreateAttribute();
+    attribute.setDimension( dimension );
+    attribute.setName( name );
+    attribute.setField( name );
+    attribute.setParentAttribute( parent );
+    return new ModelAnnotation<>( attribute );
+  }
+
+  private ModelAnnotation measure( final String name ) {
+    CreateMeasure measure = new CreateMeasure();
+    measure.setName( name );
+    measure.setField( name );
+    return new ModelAnnotation<>( measure );
+  }
+}
@@ -2,7 +2,7 @@
  *
  * Pentaho Community Edition Project: data-refinery-pdi-plugin
  *
- * Copyright (C) 2002-2024 by Hitachi Vantara : http://www.pentaho.com
+ * Copyright (C) 2002-2026 by Hitachi Vantara : http://www.pentaho.com
  *
  * *******************************************************************************
  *
@@ -26,6 +26,8 @@ import org.apache.commons.io.IOUtils;
 import org.junit.Before;
 import org.junit.BeforeClass;
 import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
 import org.pentaho.agilebi.modeler.ModelerException;
 import org.pentaho.agilebi.modeler.ModelerWorkspace;
 import org.pentaho.agilebi.modeler.geo.GeoContextPropertiesProvider;
@@ -72,7 +74,9 @@ import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Properties;
+import java.util.concurrent.atomic.AtomicBoolean;
 
+import static java.util.Arrays.asList;
 import static org.junit.Assert.*;
 import static org.mockito.Mockito.any;
 import static org.mockito.Mockito.*;
@@ -232,6 +236,63 @@ public class DswModelerTest {
     verify( log ).logDebug( "Ignoring a null annotation" );
   }
 
+  @Test
+  public void testCreateModelRecordsPhaseTimings() throws Exception {
+    DatabaseMeta dbMeta = createOrderfactDB();
+    TableModelerSource source = new TableModelerSource( dbMeta, "orderfact", "" );
+    DswModeler modeler = new DswModeler( mock( LogChannelInterface.class ) );
+    ModelAnnotationGroup modelAnnotations = new ModelAnnotationGroup( whenApply( "summary 1" ) );
+    BuildModelTimings timings = new BuildModelTimings();
+
+    modeler.createModel( "FromScratch", source, dbMeta, getImportStrategy(), modelAnnotations, metaStore, timings );
+
+    assertEquals( asList( BuildModelTimings.GENERATE_DOMAIN, BuildModelTimings.AUTO_MODEL,
+        BuildModelTimings.POPULATE_DOMAIN, BuildModelTimings.APPLY_ANNOTATIONS + ".OTHER" ),
+        new ArrayList<>( timings.getMillis().keySet() ) );
+  }
+
+  @Test
+  public void testAnnotationsTimedPerTypeAndRetriedAcrossTypes() throws Exception {
+    DatabaseMeta dbMeta = createOrderfactDB();
+    TableModelerSource source = new TableModelerSource( dbMeta, "orderfact", "" );
+    LogChannelInterface log = mock( LogChannelInterface.class );
+    when( log.isBasic() ).thenReturn( true );
+    DswModeler modeler = new DswModeler( log );
+    final AtomicBoolean attributeApplied = new AtomicBoolean();
+    // the measure needs the attribute, which comes after it
+    ModelAnnotation measure = mock( ModelAnnotation.class );
+    whenSummary( measure, "measure" );
+    when( measure.getType() ).thenReturn( ModelAnnotation.Type.CREATE_MEASURE );
+    when( measure.apply( any( ModelerWorkspace.class ), same( metaStore ) ) ).thenAnswer( new Answer<Boolean>() {
+      @Override public Boolean answer( final InvocationOnMock invocation ) {
+        return attributeApplied.get();
+      }
+    } );
+    ModelAnnotation attribute = mock( ModelAnnotation.class );
+    whenSummary( attribute, "attribute" );
+    when( attribute.getType() ).thenReturn( ModelAnnotation.Type.CREATE_ATTRIBUTE );
+    when( attribute.apply( any( ModelerWorkspace.class ), same( metaStore ) ) ).thenAnswer( new Answer<Boolean>() {
+      @Override public Boolean answer( final InvocationOnMock invocation ) {
+        attributeApplied.set( true );
+        return true;
+      }
+    } );
+    BuildModelTimings timings = new BuildModelTimings();
+
+    modeler.createModel( "FromScratch", source, dbMeta, getImportStrategy(), new ModelAnnotationGroup( measure,
+        attribute ), metaStore, timings );
+
+    verify( measure, times( 2 ) ).apply( any( ModelerWorkspace.class ), same( metaStore ) );
+    verify( attribute ).apply( any( ModelerWorkspace.class ), same( metaStore ) );
+    verify( log ).logBasic( "Successfully applied annotation: measure" );
+    verify( log ).logBasic( "Successfully applied annotation: attribute" );
+    verify( log, never() ).logBasic( startsWith( "Unable to apply annotation" ) );
+    assertEquals( asList( BuildModelTimings.GENERATE_DOMAIN, BuildModelTimings.AUTO_MODEL,
+        BuildModelTimings.POPULATE_DOMAIN, BuildModelTimings.APPLY_ANNOTATIONS + ".CREATE_MEASURE",
+        BuildModelTimings.APPLY_ANNOTATIONS + ".CREATE_ATTRIBUTE" ),
+        new ArrayList<>( timings.getMillis().keySet() ) );
+  }
+
   private ModelAnnotation whenApply( final String summary ) throws org.pentaho.agilebi.modeler.ModelerException {
     ModelAnnotation annotation = mock( ModelAnnotation.class );
     when( annotation.apply( any( ModelerWorkspace.class ), same( metaStore ) ) ).thenReturn( true );
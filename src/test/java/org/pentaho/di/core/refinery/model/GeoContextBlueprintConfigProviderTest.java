@@ -1,7 +1,7 @@
 /*
  * ******************************************************************************
  *
- * Copyright (C) 2002-2024 by Hitachi Vantara : http://www.pentaho.com
+ * Copyright (C) 2002-2026 by Hitachi Vantara : http://www.pentaho.com
  *
  * ******************************************************************************
  *
@@ -29,15 +29,22 @@ import org.osgi.framework.BundleContext;
 import org.osgi.framework.ServiceReference;
 import org.osgi.service.cm.Configuration;
 import org.osgi.service.cm.ConfigurationAdmin;
+import org.osgi.service.cm.ConfigurationEvent;
 import org.pentaho.agilebi.modeler.ModelerException;
+import org.pentaho.agilebi.modeler.geo.GeoContext;
 
 import java.io.IOException;
+import java.io.InputStream;
 import java.util.Dictionary;
 import java.util.Hashtable;
+import java.util.Properties;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
 import static org.junit.Assert.assertNull;
 import static org.mockito.Mockito.anyString;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
@@ -138,4 +145,95 @@ public class GeoContextBlueprintConfigProviderTest {
 
   }
 
-}
\ No newline at end of file
+
+  @Test
+  public void testConfigurationReadOncePerConfigVersion() throws Exception {
+    GeoRolesConfigurationListener listener = new GeoRolesConfigurationListener();
+    Dictionary<String, Object> testProps = loadGeoRoles();
+    when( bundleContext.getServiceReference( anyString() ) ).thenReturn( serviceRef );
+    when( bundleContext.getService( serviceRef ) ).thenReturn( configAdmin );
+    when( configAdmin.getConfiguration( "pentaho.geo.roles" ) ).thenReturn( configuration );
+    when( configuration.getProperties() ).thenReturn( testProps );
+    geoContextProvider.setBundleContext( bundleContext );
+    listener.configurationEvent( configEvent( ConfigurationEvent.CM_UPDATED, "pentaho.geo.roles" ) );
+
+    GeoContext geoContext = geoContextProvider.getGeoContext();
+    assertEquals( "Geography", geoContext.getDimensionName() );
+    // a new context every time, runs must not share one
+    assertNotSame( geoContext, geoContextProvider.getGeoContext() );
+    GeoContextBlueprintConfigProvider other = new GeoContextBlueprintConfigProvider();
+    other.setBundleContext( bundleContext );
+    assertEquals( "Geography", other.getGeoContext().getDimensionName() );
+
+    listener.configurationEvent( configEvent( ConfigurationEvent.CM_UPDATED, "some.other.pid" ) );
+    geoContextProvider.getGeoContext();
+    verify( configAdmin, times( 2 ) ).getConfiguration( "pentaho.geo.roles" );
+
+    testProps.put( "geo.dimension.name", "Location" );
+    listener.configurationEvent( configEvent( ConfigurationEvent.CM_UPDATED, "pentaho.geo.roles" ) );
+    assertEquals( "Location", geoContextProvider.getGeoContext().getDimensionName() );
+    assertEquals( "Location", other.getGeoContext().getDimensionName() );
+    verify( configAdmin, times( 3 ) ).getConfiguration( "pentaho.geo.roles" );
+  }
+
+  @Test
+  public void testGeoContextBuiltOncePerConfigVersion() throws Exception {
+    when( bundleContext.getServiceReference( anyString() ) ).thenReturn( serviceRef );
+    when( bundleContext.getService( serviceRef ) ).thenReturn( configAdmin );
+    when( configAdmin.getConfiguration( "pentaho.geo.roles" ) ).thenReturn( configuration );
+    when( configuration.getProperties() ).thenReturn( loadGeoRoles() );
+    GeoContextBlueprintConfigProvider provider = spy( new GeoContextBlueprintConfigProvider() );
+    provider.setBundleContext( bundleContext );
+
+    GeoContext geoContext = provider.getGeoContext();
+    GeoContext again = provider.getGeoContext();
+    verify( provider, times( 1 ) ).getRoles();
+    // callers get copies, they may change them
+    assertNotSame( geoContext, again );
+    assertEquals( geoContext.getDimensionName(), again.getDimensionName() );
+
+    GeoContextBlueprintConfigProvider.configurationChanged();
+    provider.getGeoContext();
+    verify( provider, times( 2 ) ).getRoles();
+  }
+
+  @Test
+  public void testProvidersDoNotShareProperties() throws Exception {
+    when( bundleContext.getServiceReference( anyString() ) ).thenReturn( serviceRef );
+    when( bundleContext.getService( serviceRef ) ).thenReturn( configAdmin );
+    when( configAdmin.getConfiguration( "pentaho.geo.roles" ) ).thenReturn( configuration );
+    when( configuration.getProperties() ).thenReturn( loadGeoRoles() );
+    geoContextProvider.setBundleContext( bundleContext );
+    GeoContextBlueprintConfigProvider other = new GeoContextBlueprintConfigProvider();
+    other.setBundleContext( bundleContext );
+
+    other.props.put( "geo.dimension.name", "Changed" );
+    assertEquals( "Geography", geoContextProvider.getDimensionName() );
+  }
+
+  @Test
+  public void testGeoContextNotCachedWithoutBundleContext() throws Exception {
+    geoContextProvider.props = loadGeoRoles();
+
+    GeoContext geoContext = geoContextProvider.getGeoContext();
+    assertEquals( "Geography", geoContext.getDimensionName() );
+    assertNotSame( geoContext, geoContextProvider.getGeoContext() );
+  }
+
+  @SuppressWarnings( "unchecked" )
+  private ConfigurationEvent configEvent( final int type, final String pid ) {
+    return new ConfigurationEvent( serviceRef, type, null, pid );
+  }
+
+  private Dictionary<String, Object> loadGeoRoles() throws IOException {
+    Properties geoRoles = new Properties();
+    try ( InputStream in = getClass().getResourceAsStream( "/geoRoles.properties" ) ) {
+      geoRoles.load( in );
+    }
+    Dictionary<String, Object> dictionary = new Hashtable<>();
+    for ( String name : geoRoles.stringPropertyNames() ) {
+      dictionary.put( name, geoRoles.getProperty( name ) );
+    }
+    return dictionary;
+  }
+}
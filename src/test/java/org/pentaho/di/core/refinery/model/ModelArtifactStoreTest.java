@@ -0,0 +1,225 @@
+/*! ******************************************************************************
+ *
+ * Pentaho Community Edition Project: data-refinery-pdi-plugin
+ *
+ * Copyright (C) 2002-2026 by Hitachi Vantara : http://www.pentaho.com
+ *
+ * *******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ********************************************************************************/
+
+package org.pentaho.di.core.refinery.model;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.pentaho.di.core.exception.KettleException;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.junit.Assume.assumeTrue;
+
+public class ModelArtifactStoreTest {
+
+  @Rule public TemporaryFolder folder = new TemporaryFolder();
+
+  private File directory;
+  private ModelArtifactStore store;
+
+  @Before
+  public void setUp() throws Exception {
+    directory = folder.newFolder( "artifacts" );
+    store = new ModelArtifactStore( directory, false );
+  }
+
+  @Test
+  public void testStoreAndResolve() throws Exception {
+    String xmi = "<xmi>été</xmi>";
+    String handle = store.store( xmi );
+
+    assertTrue( ModelArtifactStore.isHandle( handle ) );
+    assertEquals( 64, ModelArtifactStore.getDigest( handle ).length() );
+    assertEquals( xmi.getBytes( "UTF-8" ).length, ModelArtifactStore.getSize( handle ) );
+    assertEquals( xmi, store.resolve( handle ) );
+    try ( InputStream in = store.open( handle ) ) {
+      assertEquals( xmi, IOUtils.toString( in, "UTF-8" ) );
+    }
+  }
+
+  @Test
+  public void testSameContentStoredOnce() throws Exception {
+    String first = store.store( "<schema/>" );
+    String second = store.store( "<schema/>" );
+
+    assertEquals( first, second );
+    assertEquals( 1, directory.listFiles().length );
+  }
+
+  @Test
+  public void testPlainValuesPassThrough() throws Exception {
+    assertNull( store.store( null ) );
+    assertNull( store.open( null ) );
+    assertEquals( "<xmi/>", store.resolve( "<xmi/>" ) );
+    try ( InputStream in = store.open( "<xmi/>" ) ) {
+      assertEquals( "<xmi/>", IOUtils.toString( in, "UTF-8" ) );
+    }
+    assertFalse( ModelArtifactStore.isHandle( "<xmi/>" ) );
+  }
+
+  @Test
+  public void testSourceOpensEveryTime() throws Exception {
+    assertNull( store.source( null ) );
+    for ( String value : new String[] { "<xmi>été</xmi>", store.store( "<xmi>été</xmi>" ) } ) {
+      ModelSource source = store.source( value );
+      for ( int i = 0; i < 2; i++ ) {
+        try ( InputStream in = source.open() ) {
+          assertEquals( "<xmi>été</xmi>", IOUtils.toString( in, "UTF-8" ) );
+        }
+      }
+    }
+  }
+
+  @Test
+  public void testDigestSameForHandleAndContent() throws Exception {
+    String handle = store.store( "<xmi>été</xmi>" );
+
+    assertEquals( ModelArtifactStore.getDigest( handle ), ModelArtifactStore.digestOf( "<xmi>été</xmi>" ) );
+    assertEquals( ModelArtifactStore.getDigest( handle ), ModelArtifactStore.digestOf( handle ) );
+    assertEquals( ModelArtifactStore.getDigest( handle ), ModelArtifactStore.digestFrom( store.source( handle ) ) );
+    assertEquals( ModelArtifactStore.getDigest( handle ),
+        ModelArtifactStore.digestFrom( store.source( "<xmi>été</xmi>" ) ) );
+    assertNull( ModelArtifactStore.digestOf( null ) );
+    assertNull( ModelArtifactStore.digestFrom( null ) );
+  }
+
+  @Test
+  public void testInlineStoreKeepsContent() throws Exception {
+    ModelArtifactStore inline = new ModelArtifactStore( directory, true );
+    assertEquals( "<xmi/>", inline.store( "<xmi/>" ) );
+    assertEquals( 0, directory.listFiles().length );
+  }
+
+  @Test
+  public void testStreamedContentMatchesStoredString() throws Exception {
+    String handle = store.storeFrom( writer( "<schema>été</schema>" ) );
+
+    assertEquals( store.store( "<schema>été</schema>" ), handle );
+    assertEquals( "<schema>été</schema>", store.resolve( handle ) );
+    assertEquals( handle, store.store( handle ) );
+    assertEquals( 1, directory.listFiles().length );
+    assertEquals( "<xmi/>", new ModelArtifactStore( directory, true ).storeFrom( writer( "<xmi/>" ) ) );
+  }
+
+  @Test
+  public void testFailedWriterLeavesNothingBehind() throws Exception {
+    try {
+      store.storeFrom( new ModelArtifactStore.ArtifactWriter() {
+        @Override public void writeTo( final OutputStream out ) throws IOException, KettleException {
+          out.write( "<Schema>".getBytes( "UTF-8" ) );
+          throw new KettleException( "invalid schema" );
+        }
+      } );
+      fail( "writer failure must propagate" );
+    } catch ( KettleException e ) {
+      assertEquals( 0, directory.listFiles().length );
+    }
+  }
+
+  @Test
+  public void testExpiredArtifactsPurgedOnStore() throws Exception {
+    File expired = new File( directory, "old.xml" );
+    assertTrue( expired.createNewFile() );
+    assertTrue( expired.setLastModified( System.currentTimeMillis() - TimeUnit.DAYS.toMillis( 2 ) ) );
+
+    String handle = store.store( "<schema/>" );
+    assertFalse( expired.exists() );
+    assertEquals( "<schema/>", store.resolve( handle ) );
+  }
+
+  @Test
+  public void testRetainedArtifactsNotPurged() throws Exception {
+    String handle = store.store( "<schema/>" );
+    File artifact = store.getArtifactFile( handle );
+    long expired = System.currentTimeMillis() - TimeUnit.DAYS.toMillis( 2 );
+    store.retain( handle );
+    store.retain( handle );
+    assertTrue( artifact.setLastModified( expired ) );
+
+    store.purgeExpired();
+    store.release( handle );
+    assertTrue( artifact.setLastModified( expired ) );
+    store.purgeExpired();
+    assertEquals( "<schema/>", store.resolve( handle ) );
+
+    // the last release restarts the retention period
+    store.release( handle );
+    store.purgeExpired();
+    assertTrue( artifact.exists() );
+    assertTrue( artifact.setLastModified( expired ) );
+    store.purgeExpired();
+    assertFalse( artifact.exists() );
+  }
+
+  @Test
+  public void testOpenRestartsRetention() throws Exception {
+    String handle = store.store( "<schema/>" );
+    File artifact = store.getArtifactFile( handle );
+    assertTrue( artifact.setLastModified( System.currentTimeMillis() - TimeUnit.DAYS.toMillis( 2 ) ) );
+
+    store.open( handle ).close();
+    store.purgeExpired();
+    assertEquals( "<schema/>", store.resolve( handle ) );
+  }
+
+  @Test
+  public void testCreatedDirectoryIsOwnerOnly() throws Exception {
+    Path path = new File( directory, "nested" ).toPath();
+    assumeTrue( path.getFileSystem().supportedFileAttributeViews().contains( "posix" ) );
+    new ModelArtifactStore( path.toFile(), false ).store( "<schema/>" );
+
+    assertEquals( PosixFilePermissions.fromString( "rwx------" ), Files.getPosixFilePermissions( path ) );
+  }
+
+  @Test( expected = KettleException.class )
+  public void testMissingArtifact() throws Exception {
+    String handle = store.store( "<xmi/>" );
+    for ( File file : directory.listFiles() ) {
+      file.delete();
+    }
+    store.open( handle );
+  }
+
+  private static ModelArtifactStore.ArtifactWriter writer( final String content ) {
+    return new ModelArtifactStore.ArtifactWriter() {
+      @Override public void writeTo( final OutputStream out ) throws IOException {
+        out.write( content.getBytes( "UTF-8" ) );
+      }
+    };
+  }
+}
@@ -0,0 +1,203 @@
+/*! ******************************************************************************
+ *
+ * Pentaho Community Edition Project: data-refinery-pdi-plugin
+ *
+ * Copyright (C) 2002-2026 by Hitachi Vantara : http://www.pentaho.com
+ *
+ * *******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ********************************************************************************/
+
+package org.pentaho.di.core.refinery.model;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import javax.ws.rs.core.EntityTag;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.Date;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.junit.Assume.assumeTrue;
+
+public class ModelDownloadCacheTest {
+
+  @Rule public TemporaryFolder folder = new TemporaryFolder();
+
+  private File directory;
+  private ModelDownloadCache cache;
+
+  @Before
+  public void setUp() throws Exception {
+    directory = folder.newFolder( "downloads" );
+    cache = new ModelDownloadCache( directory, 10 );
+  }
+
+  @Test
+  public void testStoreAndServeNotModified() throws Exception {
+    assertEquals( "abc", read( cache.put( "a", new EntityTag( "v1", true ), null, "application/zip", body( "abc" ) ) ) );
+
+    ModelDownloadCache.Entry entry = cache.get( "a" );
+    assertEquals( new EntityTag( "v1", true ), entry.getEntityTag() );
+    assertEquals( "application/zip", entry.getContentType() );
+    assertEquals( "abc", read( cache.openNotModified( entry ) ) );
+    assertEquals( 1, cache.getHits() );
+    assertEquals( 1, cache.getMisses() );
+    assertEquals( 3, cache.getSize() );
+  }
+
+  @Test
+  public void testResponseWithoutValidatorIsNotKept() throws Exception {
+    read( cache.put( "a", new EntityTag( "v1" ), null, null, body( "abc" ) ) );
+    assertEquals( "def", read( cache.put( "a", null, null, null, body( "def" ) ) ) );
+    assertNull( cache.get( "a" ) );
+    assertEquals( 0, directory.listFiles().length );
+  }
+
+  @Test
+  public void testLeastRecentlyUsedEvicted() throws Exception {
+    read( cache.put( "a", new EntityTag( "a" ), null, null, body( "aaaa" ) ) );
+    read( cache.put( "b", null, new Date( 1000L ), null, body( "bbbb" ) ) );
+    assertNotNull( cache.get( "a" ) );
+    read( cache.put( "c", new EntityTag( "c" ), null, null, body( "cccc" ) ) );
+
+    assertNotNull( cache.get( "a" ) );
+    assertNull( cache.get( "b" ) );
+    assertNotNull( cache.get( "c" ) );
+    assertEquals( 1, cache.getEvictions() );
+    assertEquals( 8, cache.getSize() );
+  }
+
+  @Test
+  public void testOversizedResponseServedButNotKept() throws Exception {
+    assertEquals( "0123456789ab", read( cache.put( "a", new EntityTag( "a" ), null, null, body( "0123456789ab" ) ) ) );
+    assertNull( cache.get( "a" ) );
+    assertEquals( 0, directory.listFiles().length );
+  }
+
+  @Test
+  public void testAnnouncedOversizedResponseNotCopied() throws Exception {
+    InputStream body = body( "0123456789ab" );
+    assertSame( body, cache.put( "a", new EntityTag( "a" ), null, null, 12, body ) );
+    assertEquals( 0, directory.listFiles().length );
+  }
+
+  @Test
+  public void testBodyKeptOnceReadToTheEnd() throws Exception {
+    InputStream body = cache.put( "a", new EntityTag( "a" ), null, null, body( "abc" ) );
+    assertEquals( 'a', body.read() );
+    assertNull( cache.get( "a" ) );
+
+    assertEquals( "bc", read( body ) );
+    assertEquals( 3, cache.get( "a" ).getSize() );
+    assertEquals( "abc", read( cache.openNotModified( cache.get( "a" ) ) ) );
+  }
+
+  @Test
+  public void testUnreadRestCopiedOnClose() throws Exception {
+    InputStream body = cache.put( "a", new EntityTag( "a" ), null, null, body( "abc" ) );
+    assertEquals( 'a', body.read() );
+    body.close();
+    assertEquals( "abc", read( cache.openNotModified( cache.get( "a" ) ) ) );
+  }
+
+  @Test
+  public void testBrokenBodyNotKept() throws Exception {
+    read( cache.put( "a", new EntityTag( "v1" ), null, null, body( "abc" ) ) );
+    InputStream broken = new SequenceInputStream( body( "de" ), new InputStream() {
+      @Override public int read() throws IOException {
+        throw new IOException( "connection reset" );
+      }
+    } );
+    InputStream body = cache.put( "a", new EntityTag( "v2" ), null, null, broken );
+    try {
+      read( body );
+      fail();
+    } catch ( IOException e ) {
+      assertEquals( "connection reset", e.getMessage() );
+    }
+    assertNull( cache.get( "a" ) );
+    assertEquals( 0, directory.listFiles().length );
+  }
+
+  @Test
+  public void testDirectoryReadableByOwnerOnly() throws Exception {
+    Path path = new File( directory, "user" ).toPath();
+    assumeTrue( path.getFileSystem().supportedFileAttributeViews().contains( "posix" ) );
+    ModelDownloadCache userCache = new ModelDownloadCache( path.toFile(), 10 );
+    read( userCache.put( "a", new EntityTag( "a" ), null, null, body( "abc" ) ) );
+    assertEquals( PosixFilePermissions.fromString( "rwx------" ), Files.getPosixFilePermissions( path ) );
+  }
+
+  @Test
+  public void testEntriesSurviveRestart() throws Exception {
+    Date lastModified = new Date( 1234000L );
+    read( cache.put( "a", null, lastModified, "application/xml", body( "abc" ) ) );
+
+    ModelDownloadCache reopened = new ModelDownloadCache( directory, 10 );
+    ModelDownloadCache.Entry entry = reopened.get( "a" );
+    assertEquals( lastModified, entry.getLastModified() );
+    assertNull( entry.getEntityTag() );
+    assertEquals( "abc", read( reopened.openNotModified( entry ) ) );
+
+    reopened.invalidate( "a" );
+    assertNull( new ModelDownloadCache( directory, 10 ).get( "a" ) );
+  }
+
+  @Test
+  public void testMissingBodyDropsEntry() throws Exception {
+    read( cache.put( "a", new EntityTag( "a" ), null, null, body( "abc" ) ) );
+    for ( File file : directory.listFiles() ) {
+      if ( file.getName().endsWith( ".body" ) ) {
+        assertTrue( file.delete() );
+      }
+    }
+    assertNull( cache.openNotModified( cache.get( "a" ) ) );
+    assertNull( cache.get( "a" ) );
+  }
+
+  @Test
+  public void testDisabledCacheCountsNoMisses() throws Exception {
+    ModelDownloadCache disabled = new ModelDownloadCache( directory, 0 );
+    assertEquals( "abc", read( disabled.put( "a", new EntityTag( "a" ), null, null, body( "abc" ) ) ) );
+    assertEquals( 0, disabled.getMisses() );
+  }
+
+  private static InputStream body( final String content ) throws Exception {
+    return IOUtils.toInputStream( content, "UTF-8" );
+  }
+
+  private static String read( final InputStream in ) throws Exception {
+    try {
+      return IOUtils.toString( in, "UTF-8" );
+    } finally {
+      in.close();
+    }
+  }
+}
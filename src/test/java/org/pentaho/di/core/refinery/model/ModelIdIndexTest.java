@@ -0,0 +1,103 @@
+/*! ******************************************************************************
+ *
+ * Pentaho Community Edition Project: data-refinery-pdi-plugin
+ *
+ * Copyright (C) 2002-2026 by Hitachi Vantara : http://www.pentaho.com
+ *
+ * *******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ********************************************************************************/
+
+package org.pentaho.di.core.refinery.model;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.pentaho.di.core.refinery.model.ModelServerFetcher.AuthorizationException;
+import org.pentaho.di.core.refinery.publish.agilebi.BiServerConnection;
+
+import static java.util.Arrays.asList;
+import static java.util.Collections.singletonList;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class ModelIdIndexTest {
+
+  private ModelServerFetcher fetcher;
+  private BiServerConnection connection;
+  private ModelIdIndex index;
+
+  @Before
+  public void setUp() throws Exception {
+    connection = new BiServerConnection();
+    connection.setUrl( "http://localhost:8080/pentaho/" );
+    connection.setUserId( "admin" );
+    fetcher = mock( ModelServerFetcher.class );
+    when( fetcher.getBiServerConnection() ).thenReturn( connection );
+    when( fetcher.fetchDswList() ).thenReturn( singletonList( "Sales.xmi" ) );
+    when( fetcher.fetchAnalysisList() ).thenReturn( asList( "SteelWheels", "Sales" ) );
+    index = new ModelIdIndex( 60000 );
+  }
+
+  @Test
+  public void testHitsAreServedFromIndex() throws Exception {
+    assertTrue( index.contains( fetcher, "Sales.xmi" ) );
+    assertTrue( index.contains( fetcher, "SteelWheels" ) );
+    assertTrue( index.contains( fetcher, "Sales" ) );
+
+    verify( fetcher, times( 1 ) ).fetchDswList();
+    verify( fetcher, times( 1 ) ).fetchAnalysisList();
+  }
+
+  @Test
+  public void testMissIsCheckedAgainstFreshLists() throws Exception {
+    assertTrue( index.contains( fetcher, "Sales.xmi" ) );
+    when( fetcher.fetchDswList() ).thenReturn( asList( "Sales.xmi", "New.xmi" ) );
+
+    assertTrue( index.contains( fetcher, "New.xmi" ) );
+    assertFalse( index.contains( fetcher, "Missing.xmi" ) );
+
+    verify( fetcher, times( 3 ) ).fetchDswList();
+  }
+
+  @Test
+  public void testInvalidate() throws Exception {
+    assertTrue( index.contains( fetcher, "Sales" ) );
+    when( fetcher.fetchAnalysisList() ).thenReturn( singletonList( "SteelWheels" ) );
+    index.invalidate( connection );
+
+    assertFalse( index.contains( fetcher, "Sales" ) );
+  }
+
+  @Test
+  public void testNoCachingWithoutConnection() throws Exception {
+    when( fetcher.getBiServerConnection() ).thenReturn( null );
+
+    assertTrue( index.contains( fetcher, "Sales" ) );
+    assertTrue( index.contains( fetcher, "Sales" ) );
+
+    verify( fetcher, times( 2 ) ).fetchAnalysisList();
+  }
+
+  @Test( expected = AuthorizationException.class )
+  public void testConcurrentFetchFailurePropagates() throws Exception {
+    when( fetcher.fetchAnalysisList() ).thenThrow( new AuthorizationException() );
+
+    index.contains( fetcher, "Sales" );
+  }
+}
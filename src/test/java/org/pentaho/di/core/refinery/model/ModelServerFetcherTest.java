@@ -2,7 +2,7 @@
  *
  * Pentaho Community Edition Project: data-refinery-pdi-plugin
  *
- * Copyright (C) 2002-2017 by Hitachi Vantara : http://www.pentaho.com
+ * Copyright (C) 2002-2026 by Hitachi Vantara : http://www.pentaho.com
  *
  * *******************************************************************************
  *
@@ -22,16 +22,29 @@
 
 package org.pentaho.di.core.refinery.model;
 
+import static java.util.Arrays.asList;
 import static org.junit.Assert.*;
 
+import java.io.ByteArrayInputStream;
+import java.io.File;
 import java.io.InputStream;
+import java.util.Collections;
+import java.util.Date;
 import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
+import javax.ws.rs.core.EntityTag;
+import javax.ws.rs.core.HttpHeaders;
 import javax.ws.rs.core.MediaType;
+import javax.xml.stream.XMLStreamException;
 
 import org.apache.commons.io.IOUtils;
 import org.junit.Before;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 import org.mockito.invocation.InvocationOnMock;
 import org.mockito.stubbing.Answer;
 import org.pentaho.di.core.refinery.model.ModelServerFetcher.AuthorizationException;
@@ -50,6 +63,10 @@ public class ModelServerFetcherTest {
   Client client;
   WebResource webResource;
   WebResource.Builder builder;
+  TemplateDomainCache templateCache = new TemplateDomainCache( 4 );
+  ModelDownloadCache downloadCache = new ModelDownloadCache( new File( "unused" ), 0 );
+
+  @Rule public TemporaryFolder folder = new TemporaryFolder();
 
 
   @Before
@@ -92,6 +109,60 @@ public class ModelServerFetcherTest {
     assertEquals( 0, dswList.size() );
   }
 
+  @Test
+  public void testParseDatasourceIdsKeepsOnlyItemText() throws Exception {
+    String payload = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>"
+        + "<List><Item/><Item>One<![CDATA[ & Two]]></Item>"
+        + "<Item><Nested>no</Nested>Three</Item><Other>no</Other></List>";
+    assertEquals( asList( "One & Two", "Three" ),
+        ModelServerFetcher.parseDatasourceIds( IOUtils.toInputStream( payload, "UTF-8" ), null ) );
+  }
+
+  @Test
+  public void testFetchDswListWithPrefix() throws Exception {
+    mockResponse( 200, "<List>\n"
+        + "<Item>Sales.xmi</Item>\n"
+        + "<Item>Inventory.xmi</Item>\n"
+        + "<Item>Sales &amp; Returns.xmi</Item>\n"
+        + "</List>" );
+    ModelServerFetcher fetcher = createModelServerFetcher();
+    assertEquals( asList( "Sales.xmi", "Sales & Returns.xmi" ), fetcher.fetchDswList( "Sales" ) );
+    assertEquals( asList( "Sales.xmi", "Inventory.xmi", "Sales & Returns.xmi" ), fetcher.fetchDswList( "" ) );
+  }
+
+  @Test
+  public void testFetchListReportsUnreadableListAsServerError() throws Exception {
+    mockResponse( 200, "<List><Item>Sales.xmi</Item>" );
+    ModelServerFetcher fetcher = createModelServerFetcher();
+    try {
+      fetcher.fetchAnalysisList( "Sales" );
+      fail( "no exception" );
+    } catch ( ServerException e ) {
+      assertTrue( e.getCause() instanceof XMLStreamException );
+    }
+  }
+
+  @Test
+  public void testDownloadAnalysisFileAsync() throws Exception {
+    mockResponse( 200, "<Schema name=\"Sales\"/>" );
+    ModelServerFetcher fetcher = createModelServerFetcher();
+    ExecutorService executor = Executors.newSingleThreadExecutor();
+    try {
+      fetcher.setExecutor( executor );
+      assertEquals( "<Schema name=\"Sales\"/>", fetcher.downloadAnalysisFileAsync( "Sales" ).get() );
+
+      mockResponse( 401, "" );
+      try {
+        fetcher.downloadAnalysisFileAsync( "Sales" ).get();
+        fail( "no exception" );
+      } catch ( ExecutionException e ) {
+        assertTrue( e.getCause() instanceof AuthorizationException );
+      }
+    } finally {
+      executor.shutdown();
+    }
+  }
+
   @Test
   public void testFetchDswListServerError() throws Exception {
     mockResponse( 500, "oops" );
@@ -148,6 +219,23 @@ public class ModelServerFetcherTest {
     }
   }
 
+  @Test
+  public void testOpenZippedAnalysisFile() throws Exception {
+    InputStream in = getClass().getResourceAsStream( "/sample.zip" );
+    InputStream schema = null;
+    try {
+      ModelServerFetcher fetcher = createModelServerFetcher();
+      mockResponse( 200, in, "zip" );
+      schema = fetcher.openAnalysisFile( "Steel Wheels" );
+      verify( client, times( 1 ) ).resource(
+          "http://server:8081/webapp/plugin/data-access/api/datasource/analysis/Steel%20Wheels/download" );
+      assertTrue( IOUtils.toString( schema, "UTF-8" ).contains( "Cube name=\"SteelWheelsSales\"" ) );
+    } finally {
+      IOUtils.closeQuietly( schema );
+      IOUtils.closeQuietly( in );
+    }
+  }
+
   @Test
   public void testDownloadAnalysisFileNoAuth() throws Exception {
     ModelServerFetcher fetcher = createModelServerFetcher();
@@ -176,6 +264,111 @@ public class ModelServerFetcherTest {
     }
   }
 
+  @Test
+  public void testDownloadDswFileRevalidatesCachedTemplate() throws Exception {
+    when( webResource.getRequestBuilder() ).thenReturn( builder );
+    when( builder.header( anyString(), any() ) ).thenReturn( builder );
+    ModelServerFetcher fetcher = createModelServerFetcher();
+    InputStream in = getClass().getResourceAsStream( "/Dsw Test.zip" );
+    try {
+      ClientResponse ok = mockResponse( 200, in, "xml" );
+      when( ok.getEntityTag() ).thenReturn( new EntityTag( "v1" ) );
+      Domain first = fetcher.downloadDswFile( "Dsw Test.xmi" );
+      first.getLogicalModels().get( 1 ).setProperty( "MondrianCatalogRef", "Changed" );
+
+      ClientResponse notModified = mock( ClientResponse.class );
+      when( notModified.getStatus() ).thenReturn( 304 );
+      when( builder.get( ClientResponse.class ) ).thenReturn( notModified );
+      Domain second = fetcher.downloadDswFile( "Dsw Test.xmi" );
+
+      assertNotSame( first, second );
+      assertEquals( "DswTest", second.getLogicalModels().get( 1 ).getProperty( "MondrianCatalogRef" ) );
+      verify( builder ).header( HttpHeaders.IF_NONE_MATCH, new EntityTag( "v1" ) );
+      verify( ok, times( 1 ) ).getEntity( InputStream.class );
+      verify( notModified, never() ).getEntity( InputStream.class );
+    } finally {
+      IOUtils.closeQuietly( in );
+    }
+  }
+
+  @Test
+  public void testDownloadDswFileWithoutValidatorIsNotCached() throws Exception {
+    ModelServerFetcher fetcher = createModelServerFetcher();
+    InputStream in = getClass().getResourceAsStream( "/Dsw Test.zip" );
+    try {
+      mockResponse( 200, in, "xml" );
+      fetcher.downloadDswFile( "Dsw Test.xmi" );
+      assertNull( templateCache.get(
+          "http://server:8081/webapp/plugin/data-access/api/datasource/dsw/Dsw%20Test.xmi/download|" ) );
+      verify( webResource, never() ).getRequestBuilder();
+    } finally {
+      IOUtils.closeQuietly( in );
+    }
+  }
+
+  @Test
+  public void testAnalysisFileServedFromDiskCacheWhenNotModified() throws Exception {
+    downloadCache = new ModelDownloadCache( folder.newFolder( "downloads" ), 1024 * 1024 );
+    when( webResource.getRequestBuilder() ).thenReturn( builder );
+    when( builder.header( anyString(), any() ) ).thenReturn( builder );
+    ModelServerFetcher fetcher = createModelServerFetcher();
+    ClientResponse ok = mockResponse( 200, "<Schema name=\"Sales\"/>" );
+    when( ok.getEntityTag() ).thenReturn( new EntityTag( "v1" ) );
+    assertEquals( "<Schema name=\"Sales\"/>", fetcher.downloadAnalysisFile( "Sales" ) );
+
+    ClientResponse notModified = mock( ClientResponse.class );
+    when( notModified.getStatus() ).thenReturn( 304 );
+    when( builder.get( ClientResponse.class ) ).thenReturn( notModified );
+    assertEquals( "<Schema name=\"Sales\"/>", fetcher.downloadAnalysisFile( "Sales" ) );
+
+    verify( builder ).header( HttpHeaders.IF_NONE_MATCH, new EntityTag( "v1" ) );
+    verify( notModified, never() ).getEntity( InputStream.class );
+    assertEquals( 1, downloadCache.getHits() );
+    assertEquals( 1, downloadCache.getMisses() );
+  }
+
+  @Test
+  public void testDownloadAnalysisFileUsesResponseCharset() throws Exception {
+    String schema = "<Schema name=\"Ventes \u00e9t\u00e9\"/>";
+    ClientResponse resp = mockResponse( 200, new ByteArrayInputStream( schema.getBytes( "ISO-8859-1" ) ), "xml" );
+    when( resp.getType() ).thenReturn(
+        new MediaType( "text", "xml", Collections.singletonMap( "charset", "ISO-8859-1" ) ) );
+
+    assertEquals( schema, createModelServerFetcher().downloadAnalysisFile( "Sales" ) );
+  }
+
+  @Test
+  public void testCharsetOf() throws Exception {
+    assertEquals( "ISO-8859-1", ModelServerFetcher.charsetOf( "text/xml; charset=\"ISO-8859-1\"" ) );
+    assertEquals( "UTF-8", ModelServerFetcher.charsetOf( "text/xml" ) );
+    assertEquals( "UTF-8", ModelServerFetcher.charsetOf( "text/xml;charset=no-such-charset" ) );
+    assertEquals( "UTF-8", ModelServerFetcher.charsetOf( null ) );
+  }
+
+  @Test
+  public void testDswListRevalidatedAndUnauthorizedDropsCopy() throws Exception {
+    downloadCache = new ModelDownloadCache( folder.newFolder( "downloads" ), 1024 * 1024 );
+    when( builder.header( anyString(), any() ) ).thenReturn( builder );
+    ModelServerFetcher fetcher = createModelServerFetcher();
+    Date lastModified = new Date( 1000000L );
+    ClientResponse ok = mockResponse( 200, "<List><Item>Sales.xmi</Item><Item>Stock.xmi</Item></List>" );
+    when( ok.getLastModified() ).thenReturn( lastModified );
+    assertEquals( asList( "Sales.xmi", "Stock.xmi" ), fetcher.fetchDswList() );
+
+    ClientResponse notModified = mock( ClientResponse.class );
+    when( notModified.getStatus() ).thenReturn( 304 );
+    when( builder.get( ClientResponse.class ) ).thenReturn( notModified );
+    assertEquals( asList( "Sales.xmi", "Stock.xmi" ), fetcher.fetchDswList() );
+    verify( builder ).header( HttpHeaders.IF_MODIFIED_SINCE, lastModified );
+
+    mockResponse( 401, "" );
+    try {
+      fetcher.fetchDswList();
+      fail( "no exception" );
+    } catch ( AuthorizationException e ) {
+      assertEquals( 0, downloadCache.getSize() );
+    }
+  }
 
   private ModelServerFetcher createModelServerFetcher() {
     return new MockFriendlyServerFetcher();
@@ -195,6 +388,16 @@ public class ModelServerFetcherTest {
     protected String getUrl( String path ) {
       return BOGUS_SERVER + path;
     }
+
+    @Override
+    protected TemplateDomainCache getTemplateDomainCache() {
+      return templateCache;
+    }
+
+    @Override
+    protected ModelDownloadCache getDownloadCache() {
+      return downloadCache;
+    }
   }
 
   private ClientResponse mockResponse( final int status, final String entity ) throws Exception {
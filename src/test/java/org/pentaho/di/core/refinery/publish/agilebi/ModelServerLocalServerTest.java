@@ -0,0 +1,127 @@
+/*! ******************************************************************************
+ *
+ * Pentaho Community Edition Project: data-refinery-pdi-plugin
+ *
+ * Copyright (C) 2002-2026 by Hitachi Vantara : http://www.pentaho.com
+ *
+ * *******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ********************************************************************************/
+
+package org.pentaho.di.core.refinery.publish.agilebi;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.pentaho.di.core.logging.LogChannelInterface;
+import org.pentaho.di.core.refinery.model.ModelServerFetcher;
+import org.pentaho.di.core.refinery.test.LocalBiServer;
+
+import java.io.InputStream;
+
+import static java.util.Arrays.asList;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+
+/**
+ * Publishes to and fetches from a {@link LocalBiServer} over HTTP, with the real clients and filters
+ */
+public class ModelServerLocalServerTest {
+
+  private static final String SCHEMA = "<Schema name=\"Sales\"><Cube name=\"Sales\"><Table name=\"SALES\"/>"
+      + "<Measure name=\"Quantity\" column=\"QUANTITY\" aggregator=\"sum\"/></Cube></Schema>";
+
+  private LocalBiServer server;
+  private ModelServerPublish publish;
+
+  @Before
+  public void setUp() throws Exception {
+    server = new LocalBiServer().start();
+    publish = new ModelServerPublish( mock( LogChannelInterface.class ) );
+    publish.setBiServerConnection( server.getConnection() );
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    server.stop();
+  }
+
+  @Test
+  public void testPublishAndFetchBack() throws Exception {
+    assertEquals( ModelServerPublish.PUBLISH_SUCCESS, publish.publishDsw( stream( "<xmi/>" ), "Sales.xmi" ) );
+    assertEquals( ModelServerPublish.PUBLISH_SUCCESS,
+        publish.publishMondrianSchema( stream( SCHEMA ), "Sales", "Sales DB", true ) );
+    assertEquals( "<xmi/>", server.getDsw( "Sales.xmi" ) );
+    assertEquals( SCHEMA, server.getAnalysis( "Sales" ) );
+    // one token for the session
+    assertEquals( 1, server.getRequestCount( "api/csrf/token" ) );
+
+    ModelServerFetcher fetcher = new ModelServerFetcher( server.getConnection() );
+    assertEquals( asList( "Sales.xmi" ), fetcher.fetchDswList() );
+    assertEquals( asList( "Sales" ), fetcher.fetchAnalysisList() );
+    assertEquals( SCHEMA, fetcher.downloadAnalysisFile( "Sales" ) );
+  }
+
+  @Test
+  public void testDeleteMondrianSchema() throws Exception {
+    assertEquals( ModelServerPublish.PUBLISH_SUCCESS,
+        publish.publishMondrianSchema( stream( SCHEMA ), "Sales 2026", "Sales DB", true ) );
+
+    assertTrue( publish.deleteMondrianSchema( "Sales 2026" ) );
+    assertNull( server.getAnalysis( "Sales 2026" ) );
+    assertFalse( publish.deleteMondrianSchema( "Sales 2026" ) );
+  }
+
+  @Test
+  public void testConflictAndOverwrite() throws Exception {
+    assertEquals( ModelServerPublish.PUBLISH_SUCCESS, publish.publishDsw( stream( "<xmi/>" ), "Sales.xmi" ) );
+    assertEquals( ModelServerPublish.PUBLISH_CONFLICT, publish.publishDsw( stream( "<xmi2/>" ), "Sales.xmi" ) );
+
+    publish.setForceOverwrite( true );
+    assertEquals( ModelServerPublish.PUBLISH_SUCCESS, publish.publishDsw( stream( "<xmi2/>" ), "Sales.xmi" ) );
+    assertEquals( "<xmi2/>", server.getDsw( "Sales.xmi" ) );
+  }
+
+  @Test
+  public void testExpiredSessionStartsOver() throws Exception {
+    assertEquals( ModelServerPublish.PUBLISH_SUCCESS, publish.publishDsw( stream( "<xmi/>" ), "Sales.xmi" ) );
+    server.expireSessions();
+
+    // rejected with the old token, sent again with a new one
+    assertTrue( publish.deleteDSWXmi( "Sales.xmi" ) );
+    assertNull( server.getDsw( "Sales.xmi" ) );
+    assertEquals( 2, server.getRequestCount( "api/csrf/token" ) );
+    assertEquals( 2, server.getRequestCount( "plugin/data-access/api/datasource/dsw/domain/" ) );
+  }
+
+  @Test
+  public void testInjectedFailure() throws Exception {
+    // the token request goes through, the upload fails
+    publish.deleteConnection( "warm up" );
+    server.failNext( 1, 500 );
+    assertEquals( ModelServerPublish.PUBLISH_FAILED, publish.publishDsw( stream( "<xmi/>" ), "Sales.xmi" ) );
+    assertNull( server.getDsw( "Sales.xmi" ) );
+
+    assertEquals( ModelServerPublish.PUBLISH_SUCCESS, publish.publishDsw( stream( "<xmi/>" ), "Sales.xmi" ) );
+  }
+
+  private static InputStream stream( final String content ) throws Exception {
+    return IOUtils.toInputStream( content, "UTF-8" );
+  }
+}
@@ -47,21 +47,27 @@ import org.pentaho.di.core.refinery.publish.util.JAXBUtils;
 
 import java.io.InputStream;
 import java.net.URLEncoder;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 import static org.mockito.Mockito.argThat;
 import static org.mockito.Mockito.any;
 import static org.mockito.Mockito.anyBoolean;
 import static org.mockito.Mockito.anyString;
 import static org.mockito.Mockito.doCallRealMethod;
 import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.doThrow;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.spy;
 import static org.mockito.Mockito.verify;
@@ -491,4 +497,32 @@ public class ModelServerPublishTest {
     domainId = "Test";
     modelServerPublishSpy.publishDsw( metadataFile, domainId );
   }
+
+  @Test
+  public void testAsyncCallsRunOnExecutor() throws Exception {
+    final List<Runnable> submitted = new ArrayList<>();
+    modelServerPublishSpy.setExecutor( new Executor() {
+      @Override public void execute( final Runnable command ) {
+        submitted.add( command );
+      }
+    } );
+    doReturn( true ).when( modelServerPublishSpy ).deleteConnection( "test" );
+    doThrow( new KettleException( "failed" ) ).when( modelServerPublishSpy ).publishDataSource( true, "id" );
+
+    CompletableFuture<Boolean> deleted = modelServerPublishSpy.deleteConnectionAsync( "test" );
+    CompletableFuture<Boolean> published = modelServerPublishSpy.publishDataSourceAsync( true, "id" );
+    assertFalse( deleted.isDone() );
+    assertEquals( 2, submitted.size() );
+
+    for ( Runnable command : submitted ) {
+      command.run();
+    }
+    assertTrue( deleted.get() );
+    try {
+      published.get();
+      fail( "no exception" );
+    } catch ( ExecutionException e ) {
+      assertTrue( e.getCause() instanceof KettleException );
+    }
+  }
 }
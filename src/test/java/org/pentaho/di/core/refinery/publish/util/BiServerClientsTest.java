@@ -0,0 +1,134 @@
+/*! ******************************************************************************
+ *
+ * Pentaho Community Edition Project: data-refinery-pdi-plugin
+ *
+ * Copyright (C) 2002-2017 by Hitachi Vantara : http://www.pentaho.com
+ *
+ * *******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ********************************************************************************/
+
+package org.pentaho.di.core.refinery.publish.util;
+
+import com.sun.jersey.api.client.Client;
+import com.sun.jersey.api.client.config.ClientConfig;
+import org.junit.Test;
+import org.pentaho.di.core.refinery.publish.agilebi.BiServerConnection;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.anyInt;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.verify;
+
+public class BiServerClientsTest {
+
+  private final BiServerClients clients = new BiServerClients( 4, 60000, 1000 );
+
+  @Test
+  public void testClientSharedPerServerAndUser() throws Exception {
+    final AtomicInteger setups = new AtomicInteger();
+    BiServerClients.ClientSetup setup = new BiServerClients.ClientSetup() {
+      @Override public void setup( final Client client ) {
+        setups.incrementAndGet();
+      }
+    };
+    Client client = clients.getClient( "rest", connection( "admin", "password" ), 2000, setup );
+
+    assertSame( client, clients.getClient( "rest", connection( "admin", "password" ), 2000, setup ) );
+    assertEquals( 1, setups.get() );
+    assertEquals( 2000, client.getProperties().get( ClientConfig.PROPERTY_READ_TIMEOUT ) );
+    assertEquals( 1000, client.getProperties().get( ClientConfig.PROPERTY_CONNECT_TIMEOUT ) );
+
+    assertNotSame( client, clients.getClient( "rest", connection( "admin", "changed" ), 2000, setup ) );
+    assertNotSame( client, clients.getClient( "rest", connection( "suzy", "password" ), 2000, setup ) );
+    assertNotSame( client, clients.getClient( "rest", connection( "admin", "password" ), 5000, setup ) );
+    assertNotSame( client, clients.getClient( "publish", connection( "admin", "password" ), 2000, setup ) );
+    assertNotSame( client, clients.getClient( "rest", null, 2000, null ) );
+    assertEquals( 5, setups.get() );
+  }
+
+  @Test
+  public void testKeyHoldsNoPassword() throws Exception {
+    String key = BiServerClients.key( "rest", connection( "admin", "secret-password" ) );
+
+    assertFalse( key.contains( "secret-password" ) );
+    assertTrue( key.contains( "admin" ) );
+    assertFalse( key.equals( BiServerClients.key( "rest", connection( "admin", "changed" ) ) ) );
+  }
+
+  @Test
+  public void testEvictedClientsStayUsable() throws Exception {
+    BiServerClients small = spy( new BiServerClients( 2, 60000, 1000 ) );
+    Client first = mock( Client.class );
+    Client second = mock( Client.class );
+    Client third = mock( Client.class );
+    doReturn( first, second, third ).when( small ).createClient( anyInt() );
+
+    small.getClient( "a", null, 0, null );
+    small.getClient( "b", null, 0, null );
+    small.getClient( "c", null, 0, null );
+
+    assertEquals( 2, small.size() );
+    small.clear();
+    // an action may still be uploading on any of them
+    verify( first, never() ).destroy();
+    verify( second, never() ).destroy();
+    verify( third, never() ).destroy();
+  }
+
+  @Test
+  public void testHttpClientSharedAndCleared() throws Exception {
+    assertSame( clients.getHttpClient( null, 0 ), clients.getHttpClient( null, 0 ) );
+    assertSame( clients.getHttpClient( connection( "admin", "password" ), 0 ),
+        clients.getHttpClient( connection( "admin", "password" ), 0 ) );
+    assertEquals( 2, clients.size() );
+
+    clients.clear();
+    assertEquals( 0, clients.size() );
+  }
+
+  @Test
+  public void testIdleClientsDropped() throws Exception {
+    BiServerClients idle = spy( new BiServerClients( 4, 0, 1000 ) );
+    Client client = spy( idle.createClient( 0 ) );
+    doReturn( client, mock( Client.class ) ).when( idle ).createClient( anyInt() );
+
+    assertSame( client, idle.getClient( "rest", null, 0, null ) );
+    Thread.sleep( 5 );
+    assertNotSame( client, idle.getClient( "rest", null, 0, null ) );
+    assertEquals( 1, idle.size() );
+
+    // the action holding the swept client keeps using it
+    assertEquals( "/pentaho/", client.resource( "http://localhost:8080/pentaho/" ).getURI().getPath() );
+    verify( client, never() ).destroy();
+  }
+
+  private static BiServerConnection connection( final String user, final String password ) {
+    BiServerConnection connection = new BiServerConnection();
+    connection.setUrl( "http://localhost:8080/pentaho/" );
+    connection.setUserId( user );
+    connection.setPassword( password );
+    return connection;
+  }
+}
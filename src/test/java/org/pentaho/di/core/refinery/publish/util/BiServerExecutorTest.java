@@ -0,0 +1,101 @@
+/*! ******************************************************************************
+ *
+ * Pentaho Community Edition Project: data-refinery-pdi-plugin
+ *
+ * Copyright (C) 2002-2026 by Hitachi Vantara : http://www.pentaho.com
+ *
+ * *******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ********************************************************************************/
+
+package org.pentaho.di.core.refinery.publish.util;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class BiServerExecutorTest {
+
+  @After
+  public void tearDown() {
+    BiServerExecutor.setDefault( null );
+  }
+
+  @Test
+  public void testCallAsyncKeepsContextClassLoader() throws Exception {
+    ClassLoader orig = Thread.currentThread().getContextClassLoader();
+    ClassLoader caller = new URLClassLoader( new URL[0], orig );
+    Thread.currentThread().setContextClassLoader( caller );
+    CompletableFuture<ClassLoader> seen;
+    try {
+      seen = BiServerExecutor.callAsync( new Callable<ClassLoader>() {
+        @Override public ClassLoader call() {
+          return Thread.currentThread().getContextClassLoader();
+        }
+      }, BiServerExecutor.getDefault() );
+    } finally {
+      Thread.currentThread().setContextClassLoader( orig );
+    }
+    assertSame( caller, seen.get() );
+  }
+
+  @Test
+  public void testCallAsyncRejected() throws Exception {
+    CompletableFuture<String> result = BiServerExecutor.callAsync( new Callable<String>() {
+      @Override public String call() {
+        return "never";
+      }
+    }, new Executor() {
+      @Override public void execute( final Runnable command ) {
+        throw new RejectedExecutionException();
+      }
+    } );
+    try {
+      result.get();
+      fail();
+    } catch ( ExecutionException e ) {
+      assertTrue( e.getCause() instanceof RejectedExecutionException );
+    }
+  }
+
+  @Test
+  public void testReplacedBuiltInExecutorShutDown() throws Exception {
+    BiServerExecutor.setDefault( null );
+    ExecutorService builtIn = (ExecutorService) BiServerExecutor.getDefault();
+    assertFalse( builtIn.isShutdown() );
+
+    Executor host = new Executor() {
+      @Override public void execute( final Runnable command ) {
+        command.run();
+      }
+    };
+    BiServerExecutor.setDefault( host );
+    assertTrue( builtIn.isShutdown() );
+    assertSame( host, BiServerExecutor.getDefault() );
+  }
+}
@@ -0,0 +1,177 @@
+/*! ******************************************************************************
+ *
+ * Pentaho Community Edition Project: data-refinery-pdi-plugin
+ *
+ * Copyright (C) 2002-2017 by Hitachi Vantara : http://www.pentaho.com
+ *
+ * *******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ********************************************************************************/
+
+package org.pentaho.di.core.refinery.publish.util;
+
+import com.sun.jersey.api.client.ClientHandlerException;
+import org.junit.Test;
+
+import java.net.ConnectException;
+import java.net.SocketTimeoutException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class BiServerLimiterTest {
+
+  private static final String URL = "http://localhost:8080/pentaho/";
+
+  @Test
+  public void testLimitPerServer() throws Exception {
+    BiServerLimiter limiter = new BiServerLimiter( 10, 4, 2.0 );
+    assertSame( limiter.getLimit( URL ), limiter.getLimit( "http://localhost:8080/pentaho/plugin/data-access/api" ) );
+    assertTrue( limiter.getLimit( URL ) != limiter.getLimit( "http://localhost:9080/pentaho/" ) );
+    assertEquals( 2, limiter.getLimits().size() );
+  }
+
+  @Test
+  public void testDisabled() throws Exception {
+    BiServerLimiter limiter = new BiServerLimiter( 0, 4, 2.0 );
+    for ( int i = 0; i < 100; i++ ) {
+      limiter.acquire( URL );
+    }
+    assertTrue( limiter.getLimits().isEmpty() );
+  }
+
+  @Test
+  public void testWaitingRequestsServedInOrder() throws Exception {
+    final BiServerLimiter limiter = new BiServerLimiter( 1, 1, 2.0 );
+    BiServerLimiter.ServerLimit limit = limiter.getLimit( URL );
+    BiServerLimiter.Permit first = limiter.acquire( URL );
+
+    final List<String> served = new CopyOnWriteArrayList<>();
+    Thread second = waiter( limiter, "second", served );
+    awaitQueued( limit, 1 );
+    Thread third = waiter( limiter, "third", served );
+    awaitQueued( limit, 2 );
+    assertEquals( 1, limit.getInFlight() );
+
+    first.release( 200 );
+    second.join( 5000 );
+    third.join( 5000 );
+    assertEquals( Arrays.asList( "second", "third" ), served );
+    assertEquals( 0, limit.getQueued() );
+    assertEquals( 3, limit.getRequests() );
+    assertTrue( limit.getMaxQueueTimeMillis() >= 0 );
+  }
+
+  @Test
+  public void testInterruptedWaiterLeavesQueue() throws Exception {
+    BiServerLimiter limiter = new BiServerLimiter( 1, 1, 2.0 );
+    BiServerLimiter.ServerLimit limit = limiter.getLimit( URL );
+    BiServerLimiter.Permit first = limiter.acquire( URL );
+    List<String> served = new CopyOnWriteArrayList<>();
+    Thread second = waiter( limiter, "second", served );
+    awaitQueued( limit, 1 );
+    Thread third = waiter( limiter, "third", served );
+    awaitQueued( limit, 2 );
+
+    second.interrupt();
+    second.join( 5000 );
+    awaitQueued( limit, 1 );
+    first.release( 200 );
+    third.join( 5000 );
+    assertEquals( Collections.singletonList( "third" ), served );
+  }
+
+  @Test
+  public void testAdditiveIncreaseMultiplicativeDecrease() throws Exception {
+    BiServerLimiter limiter = new BiServerLimiter( 3, 1, 1000.0 );
+    BiServerLimiter.ServerLimit limit = limiter.getLimit( URL );
+
+    // a response that used the whole limit raises it
+    limiter.acquire( URL ).release( 200 );
+    assertEquals( 2, limit.getLimit() );
+
+    // requests already sent when the limit was cut do not cut it again
+    BiServerLimiter.Permit early = limiter.acquire( URL );
+    BiServerLimiter.Permit overloaded = limiter.acquire( URL );
+    overloaded.release( 503 );
+    assertEquals( 1, limit.getLimit() );
+    early.release( new ClientHandlerException( new SocketTimeoutException() ) );
+    assertEquals( 1, limit.getLimit() );
+    assertEquals( 1, limit.getBackoffs() );
+
+    // failures without a response say nothing about load
+    limiter.acquire( URL ).release( new ClientHandlerException( new ConnectException() ) );
+    assertEquals( 1, limit.getLimit() );
+    assertEquals( 0, limit.getInFlight() );
+  }
+
+  @Test
+  public void testSlowResponseCutsLimit() throws Exception {
+    BiServerLimiter limiter = new BiServerLimiter( 10, 4, 2.0 );
+    BiServerLimiter.ServerLimit limit = limiter.getLimit( URL );
+    limiter.acquire( URL ).release( 200 );
+
+    BiServerLimiter.Permit slow = limiter.acquire( URL );
+    Thread.sleep( 50 );
+    slow.release( 200 );
+    assertEquals( 3, limit.getLimit() );
+  }
+
+  @Test
+  public void testSlowUploadLeavesLimit() throws Exception {
+    BiServerLimiter limiter = new BiServerLimiter( 10, 4, 2.0 );
+    BiServerLimiter.ServerLimit limit = limiter.getLimit( URL );
+    limiter.acquire( URL ).release( 200 );
+
+    BiServerLimiter.Permit upload = limiter.acquire( URL, true );
+    Thread.sleep( 50 );
+    upload.release( 200 );
+    assertEquals( 4, limit.getLimit() );
+    assertEquals( 0, limit.getBackoffs() );
+
+    // an overloaded server still shows in an upload's answer
+    limiter.acquire( URL, true ).release( 503 );
+    assertEquals( 3, limit.getLimit() );
+  }
+
+  private static Thread waiter( final BiServerLimiter limiter, final String name, final List<String> served ) {
+    Thread thread = new Thread( new Runnable() {
+      @Override public void run() {
+        try {
+          BiServerLimiter.Permit permit = limiter.acquire( URL );
+          served.add( name );
+          permit.release( 200 );
+        } catch ( InterruptedException e ) {
+          // left the queue
+        }
+      }
+    } );
+    thread.start();
+    return thread;
+  }
+
+  private static void awaitQueued( final BiServerLimiter.ServerLimit limit, final int queued ) throws Exception {
+    long deadline = System.currentTimeMillis() + 5000;
+    while ( limit.getQueued() != queued && System.currentTimeMillis() < deadline ) {
+      Thread.sleep( 5 );
+    }
+    assertEquals( queued, limit.getQueued() );
+  }
+}
@@ -0,0 +1,91 @@
+/*! ******************************************************************************
+ *
+ * Pentaho Community Edition Project: data-refinery-pdi-plugin
+ *
+ * Copyright (C) 2002-2026 by Hitachi Vantara : http://www.pentaho.com
+ *
+ * *******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ********************************************************************************/
+
+package org.pentaho.di.core.refinery.publish.util;
+
+import org.junit.Test;
+import org.pentaho.di.core.refinery.publish.agilebi.BiServerConnection;
+
+import java.net.HttpCookie;
+import java.net.URI;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class BiServerSessionsTest {
+
+  @Test
+  public void testSessionSharedPerServerAndUser() throws Exception {
+    BiServerSessions sessions = new BiServerSessions( 60000 );
+    BiServerSessions.Session session = sessions.getSession( connection( "admin", "password" ) );
+
+    assertSame( session, sessions.getSession( connection( "admin", "password" ) ) );
+    assertNotSame( session, sessions.getSession( connection( "admin", "changed" ) ) );
+    assertNotSame( session, sessions.getSession( connection( "suzy", "password" ) ) );
+  }
+
+  @Test
+  public void testResetOncePerGeneration() throws Exception {
+    BiServerSessions.Session session = new BiServerSessions( 60000 ).getSession( connection( "admin", "password" ) );
+    long generation = session.use();
+    session.setCsrfToken( generation, "X-CSRF-TOKEN", "token" );
+    session.getCookieManager().getCookieStore().add( URI.create( "http://localhost:8080/pentaho/" ),
+        new HttpCookie( "JSESSIONID", "1" ) );
+    assertArrayEquals( new String[] { "X-CSRF-TOKEN", "token" }, session.getCsrfToken() );
+
+    session.reset( generation );
+    // a second request that failed on the same session does not drop the new one
+    session.setCsrfToken( session.use(), "X-CSRF-TOKEN", "new" );
+    session.reset( generation );
+
+    assertEquals( generation + 1, session.getGeneration() );
+    assertArrayEquals( new String[] { "X-CSRF-TOKEN", "new" }, session.getCsrfToken() );
+    assertTrue( session.getCookieManager().getCookieStore().getCookies().isEmpty() );
+
+    // a token fetched on the old session is not kept
+    session.setCsrfToken( generation, "X-CSRF-TOKEN", "stale" );
+    assertArrayEquals( new String[] { "X-CSRF-TOKEN", "new" }, session.getCsrfToken() );
+  }
+
+  @Test
+  public void testIdleSessionStartsOver() throws Exception {
+    BiServerSessions.Session session = new BiServerSessions( 1 ).getSession( connection( "admin", "password" ) );
+    long generation = session.use();
+    session.setCsrfToken( generation, "X-CSRF-TOKEN", "token" );
+    Thread.sleep( 5 );
+
+    assertEquals( generation + 1, session.use() );
+    assertNull( session.getCsrfToken() );
+  }
+
+  private static BiServerConnection connection( final String user, final String password ) {
+    BiServerConnection connection = new BiServerConnection();
+    connection.setUrl( "http://localhost:8080/pentaho/" );
+    connection.setUserId( user );
+    connection.setPassword( password );
+    return connection;
+  }
+}
@@ -0,0 +1,67 @@
+/*! ******************************************************************************
+ *
+ * Pentaho Community Edition Project: data-refinery-pdi-plugin
+ *
+ * Copyright (C) 2002-2017 by Hitachi Vantara : http://www.pentaho.com
+ *
+ * *******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ********************************************************************************/
+
+package org.pentaho.di.core.refinery.publish.util;
+
+import org.junit.Test;
+import org.pentaho.di.core.refinery.publish.agilebi.BiServerConnection;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ConnectionValidationCacheTest {
+
+  @Test
+  public void testValidatedPerServerUserAndPassword() throws Exception {
+    ConnectionValidationCache cache = new ConnectionValidationCache( 60000 );
+    cache.validated( connection( "http://localhost:8080/pentaho/", "admin", "password" ) );
+
+    assertTrue( cache.isValid( connection( "http://localhost:8080/pentaho/", "admin", "password" ) ) );
+    assertFalse( cache.isValid( connection( "http://localhost:8080/pentaho/", "admin", "changed" ) ) );
+    assertFalse( cache.isValid( connection( "http://localhost:8080/pentaho/", "suzy", "password" ) ) );
+    assertFalse( cache.isValid( connection( "http://other:8080/pentaho/", "admin", "password" ) ) );
+
+    cache.invalidate( connection( "http://localhost:8080/pentaho/", "admin", "password" ) );
+    assertFalse( cache.isValid( connection( "http://localhost:8080/pentaho/", "admin", "password" ) ) );
+  }
+
+  @Test
+  public void testExpiredAndDisabled() throws Exception {
+    ConnectionValidationCache expiring = new ConnectionValidationCache( 1 );
+    expiring.validated( connection( "http://localhost:8080/pentaho/", "admin", "password" ) );
+    Thread.sleep( 5 );
+    assertFalse( expiring.isValid( connection( "http://localhost:8080/pentaho/", "admin", "password" ) ) );
+
+    ConnectionValidationCache disabled = new ConnectionValidationCache( 0 );
+    disabled.validated( connection( "http://localhost:8080/pentaho/", "admin", "password" ) );
+    assertFalse( disabled.isValid( connection( "http://localhost:8080/pentaho/", "admin", "password" ) ) );
+    assertFalse( disabled.isValid( null ) );
+  }
+
+  private static BiServerConnection connection( final String url, final String user, final String password ) {
+    BiServerConnection connection = new BiServerConnection();
+    connection.setUrl( url );
+    connection.setUserId( user );
+    connection.setPassword( password );
+    return connection;
+  }
+}
@@ -0,0 +1,127 @@
+/*! ******************************************************************************
+ *
+ * Pentaho Community Edition Project: data-refinery-pdi-plugin
+ *
+ * Copyright (C) 2002-2026 by Hitachi Vantara : http://www.pentaho.com
+ *
+ * *******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ********************************************************************************/
+
+
+package org.pentaho.di.core.refinery.publish.util;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.pentaho.di.core.refinery.publish.agilebi.BiServerConnection;
+
+import java.io.File;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class PublishLedgerTest {
+
+  @Rule public TemporaryFolder folder = new TemporaryFolder();
+
+  private File file;
+  private PublishLedger ledger;
+
+  @Before
+  public void setUp() throws Exception {
+    file = new File( folder.getRoot(), "ledger/publish.properties" );
+    ledger = new PublishLedger( file, true );
+  }
+
+  @Test
+  public void testPublishedPerServerUserAndArtifact() throws Exception {
+    ledger.published( server( "http://localhost:8080/pentaho/", "admin" ), "analysis/Sales", "abc" );
+
+    assertTrue( ledger.isPublished( server( "http://localhost:8080/pentaho/", "admin" ), "analysis/Sales", "abc" ) );
+    assertFalse( ledger.isPublished( server( "http://localhost:8080/pentaho/", "admin" ), "analysis/Sales", "def" ) );
+    assertFalse( ledger.isPublished( server( "http://localhost:8080/pentaho/", "admin" ), "dsw/Sales", "abc" ) );
+    assertFalse( ledger.isPublished( server( "http://localhost:8080/pentaho/", "suzy" ), "analysis/Sales", "abc" ) );
+    assertFalse( ledger.isPublished( server( "http://other:8080/pentaho/", "admin" ), "analysis/Sales", "abc" ) );
+    assertFalse( ledger.isPublished( server( "http://localhost:8080/pentaho/", "admin" ), "analysis/Sales", null ) );
+  }
+
+  @Test
+  public void testEntriesSurviveRestart() throws Exception {
+    ledger.published( server( "http://localhost:8080/pentaho/", "admin" ), "connection/Sales DB", "abc" );
+    ledger.published( server( "http://localhost:8080/pentaho/", "admin" ), "metadata/Sales", "def" );
+    assertTrue( file.isFile() );
+
+    PublishLedger reopened = new PublishLedger( file, true );
+    assertTrue( reopened.isPublished( server( "http://localhost:8080/pentaho/", "admin" ), "connection/Sales DB",
+        "abc" ) );
+    reopened.forget( server( "http://localhost:8080/pentaho/", "admin" ), "metadata/Sales" );
+
+    PublishLedger again = new PublishLedger( file, true );
+    assertFalse( again.isPublished( server( "http://localhost:8080/pentaho/", "admin" ), "metadata/Sales", "def" ) );
+    assertTrue( again.isPublished( server( "http://localhost:8080/pentaho/", "admin" ), "connection/Sales DB",
+        "abc" ) );
+    assertEquals( 1, file.getParentFile().listFiles().length );
+  }
+
+  @Test
+  public void testSharedWithOtherProcesses() throws Exception {
+    PublishLedger other = new PublishLedger( file, true );
+    assertFalse( ledger.isPublished( server( "http://localhost:8080/pentaho/", "admin" ), "metadata/Sales", "abc" ) );
+
+    // recorded elsewhere after this ledger read the file
+    other.published( server( "http://localhost:8080/pentaho/", "admin" ), "metadata/Sales", "abc" );
+    assertTrue( ledger.isPublished( server( "http://localhost:8080/pentaho/", "admin" ), "metadata/Sales", "abc" ) );
+
+    // changes merge instead of overwriting each other
+    ledger.published( server( "http://localhost:8080/pentaho/", "admin" ), "analysis/Sales", "def" );
+    other.published( server( "http://localhost:8080/pentaho/", "admin" ), "connection/Sales DB", "ghi" );
+    PublishLedger reopened = new PublishLedger( file, true );
+    assertTrue( reopened.isPublished( server( "http://localhost:8080/pentaho/", "admin" ), "metadata/Sales", "abc" ) );
+    assertTrue( reopened.isPublished( server( "http://localhost:8080/pentaho/", "admin" ), "analysis/Sales", "def" ) );
+    assertTrue( reopened.isPublished( server( "http://localhost:8080/pentaho/", "admin" ), "connection/Sales DB",
+        "ghi" ) );
+
+    other.forget( server( "http://localhost:8080/pentaho/", "admin" ), "analysis/Sales" );
+    assertFalse( ledger.isPublished( server( "http://localhost:8080/pentaho/", "admin" ), "analysis/Sales", "def" ) );
+  }
+
+  @Test
+  public void testDisabled() throws Exception {
+    PublishLedger disabled = new PublishLedger( file, false );
+    disabled.published( server( "http://localhost:8080/pentaho/", "admin" ), "analysis/Sales", "abc" );
+
+    assertFalse( disabled.isEnabled() );
+    assertFalse( disabled.isPublished( server( "http://localhost:8080/pentaho/", "admin" ), "analysis/Sales", "abc" ) );
+    assertFalse( file.exists() );
+  }
+
+  @Test
+  public void testFingerprintSeparatesParts() throws Exception {
+    assertEquals( 64, PublishLedger.fingerprint( "abc", null ).length() );
+    assertEquals( PublishLedger.fingerprint( "abc", null ), PublishLedger.fingerprint( "abc", "" ) );
+    assertFalse( PublishLedger.fingerprint( "ab", "c" ).equals( PublishLedger.fingerprint( "a", "bc" ) ) );
+    assertFalse( PublishLedger.fingerprint( "abc", "<acl/>" ).equals( PublishLedger.fingerprint( "abc", null ) ) );
+  }
+
+  private static BiServerConnection server( final String url, final String user ) {
+    BiServerConnection connection = new BiServerConnection();
+    connection.setUrl( url );
+    connection.setUserId( user );
+    return connection;
+  }
+}
@@ -247,6 +247,25 @@ public class PublishRestUtilTest {
     assertFalse( publishRestUtil.canPublish( connection ) );
   }
 
+  @Test
+  public void testCheckCanPublishReturnsItsOwnStatus() {
+
+    BiServerConnection connection = getMockConnection();
+    ClientResponse response = mock( ClientResponse.class );
+    when( response.getStatus() ).thenReturn( 404 );
+    when( response.getEntity( String.class ) ).thenReturn( "false" );
+    doReturn( response, (ClientResponse) null ).when( publishRestUtil )
+        .httpGet( connection, PublishRestUtil.CAN_PUBLISH_PATH, true );
+
+    ResponseStatus status = publishRestUtil.checkCanPublish( connection );
+    assertEquals( 404, status.getStatus() );
+    assertFalse( PublishRestUtil.isAuthorized( status ) );
+    assertEquals( 0, publishRestUtil.getLastHTTPStatus() );
+
+    assertEquals( -1, publishRestUtil.checkCanPublish( connection ).getStatus() );
+    assertFalse( PublishRestUtil.isAuthorized( null ) );
+  }
+
   @Test
   public void testCanManageDatasources() {
 
@@ -0,0 +1,193 @@
+/*! ******************************************************************************
+ *
+ * Pentaho Community Edition Project: data-refinery-pdi-plugin
+ *
+ * Copyright (C) 2002-2026 by Hitachi Vantara : http://www.pentaho.com
+ *
+ * *******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ********************************************************************************/
+
+package org.pentaho.di.core.refinery.publish.util;
+
+import com.sun.jersey.api.client.Client;
+import com.sun.jersey.api.client.ClientHandler;
+import com.sun.jersey.api.client.ClientRequest;
+import com.sun.jersey.api.client.ClientResponse;
+import com.sun.jersey.core.util.MultivaluedMapImpl;
+import com.sun.jersey.multipart.FormDataMultiPart;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.pentaho.di.core.refinery.model.ModelSource;
+import org.pentaho.di.core.refinery.model.ModelSourceStream;
+import org.pentaho.di.core.refinery.publish.agilebi.BiServerConnection;
+
+import javax.ws.rs.core.MediaType;
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
+
+import static java.util.Arrays.asList;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class SessionCsrfTokenFilterTest {
+
+  private static final String SERVER = "http://localhost:8080/pentaho/";
+
+  private BiServerSessions.Session session;
+  private Client client;
+  // what the server saw, e.g. "POST plugin/data-access/api/connection/add token-1"
+  private final List<String> requests = new ArrayList<>();
+  private final List<Integer> statuses = new ArrayList<>();
+  private final List<String> bodies = new ArrayList<>();
+  private int tokens;
+
+  @Before
+  public void setUp() throws Exception {
+    BiServerConnection connection = new BiServerConnection();
+    connection.setUrl( SERVER );
+    connection.setUserId( "admin" );
+    connection.setPassword( "password" );
+    session = new BiServerSessions( 60000 ).getSession( connection );
+
+    ClientHandler server = mock( ClientHandler.class );
+    when( server.handle( any( ClientRequest.class ) ) ).thenAnswer( new Answer<ClientResponse>() {
+      @Override public ClientResponse answer( final InvocationOnMock invocation ) {
+        ClientRequest request = (ClientRequest) invocation.getArguments()[ 0 ];
+        String path = request.getURI().getPath().substring( "/pentaho/".length() );
+        if ( path.equals( "api/csrf/token" ) ) {
+          tokens++;
+          return response( 200, "token-" + tokens, null );
+        }
+        requests.add( request.getMethod() + " " + path + " " + request.getHeaders().getFirst( "X-CSRF-TOKEN" ) );
+        return response( statuses.isEmpty() ? 200 : statuses.remove( 0 ), null,
+            bodies.isEmpty() ? null : bodies.remove( 0 ) );
+      }
+    } );
+    client = new Client( server );
+    client.addFilter( new SessionCsrfTokenFilter( URI.create( SERVER + "api/csrf/token" ), session ) );
+  }
+
+  @Test
+  public void testTokenFetchedOnceForStateChangingRequests() throws Exception {
+    client.resource( SERVER + "plugin/data-access/api/connection/list" ).get( ClientResponse.class );
+    client.resource( SERVER + "plugin/data-access/api/connection/add" ).post( ClientResponse.class, "{}" );
+    client.resource( SERVER + "plugin/data-access/api/connection/add" ).post( ClientResponse.class, "{}" );
+
+    assertEquals( asList( "GET plugin/data-access/api/connection/list null",
+        "POST plugin/data-access/api/connection/add token-1",
+        "POST plugin/data-access/api/connection/add token-1" ), requests );
+    assertEquals( 1, tokens );
+  }
+
+  @Test
+  public void testRejectedSessionStartsOverAndRequestIsResent() throws Exception {
+    client.resource( SERVER + "plugin/data-access/api/connection/add" ).post( ClientResponse.class, "{}" );
+    long generation = session.getGeneration();
+
+    statuses.add( 403 );
+    bodies.add( "Invalid CSRF Token 'token-1' was found on the request header 'X-CSRF-TOKEN'." );
+    ClientResponse response =
+        client.resource( SERVER + "plugin/data-access/api/connection/add" ).post( ClientResponse.class, "{}" );
+
+    assertEquals( 200, response.getStatus() );
+    assertEquals( generation + 1, session.getGeneration() );
+    assertEquals( asList( "POST plugin/data-access/api/connection/add token-1",
+        "POST plugin/data-access/api/connection/add token-1",
+        "POST plugin/data-access/api/connection/add token-2" ), requests );
+  }
+
+  @Test
+  public void testPermissionDeniedKeepsSession() throws Exception {
+    client.resource( SERVER + "plugin/data-access/api/connection/add" ).post( ClientResponse.class, "{}" );
+    long generation = session.getGeneration();
+
+    statuses.add( 403 );
+    bodies.add( "Access is denied" );
+    ClientResponse denied =
+        client.resource( SERVER + "plugin/data-access/api/connection/add" ).post( ClientResponse.class, "{}" );
+    statuses.add( 403 );
+    bodies.add( "Invalid CSRF Token" );
+    ClientResponse read =
+        client.resource( SERVER + "plugin/data-access/api/connection/list" ).get( ClientResponse.class );
+
+    assertEquals( 403, denied.getStatus() );
+    assertEquals( 403, read.getStatus() );
+    assertEquals( generation, session.getGeneration() );
+    assertEquals( 3, requests.size() );
+    assertEquals( 1, tokens );
+  }
+
+  @Test
+  public void testModelSourceUploadResent() throws Exception {
+    final List<String> opened = new ArrayList<>();
+    ModelSourceStream stream = ModelSourceStream.open( new ModelSource() {
+      @Override public InputStream open() {
+        opened.add( "open" );
+        return new ByteArrayInputStream( new byte[ 0 ] );
+      }
+    } );
+    FormDataMultiPart part = new FormDataMultiPart();
+    part.field( "metadataFile", stream, MediaType.MULTIPART_FORM_DATA_TYPE );
+    ClientRequest upload = ClientRequest.create().entity( part ).build( URI.create( SERVER ), "PUT" );
+    assertTrue( SessionCsrfTokenFilter.canResend( upload ) );
+
+    statuses.add( 401 );
+    ClientResponse response = client.resource( SERVER + "plugin/data-access/api/metadata/import" )
+        .type( MediaType.MULTIPART_FORM_DATA_TYPE ).put( ClientResponse.class, part );
+
+    assertEquals( 200, response.getStatus() );
+    assertEquals( 2, opened.size() );
+    assertTrue( part.getField( "metadataFile" ).getEntity() != stream );
+  }
+
+  @Test
+  public void testStreamedUploadNotResent() throws Exception {
+    FormDataMultiPart part = new FormDataMultiPart();
+    part.field( "metadataFile", new ByteArrayInputStream( new byte[ 0 ] ), MediaType.MULTIPART_FORM_DATA_TYPE );
+    ClientRequest upload = ClientRequest.create().entity( part ).build( URI.create( SERVER ), "PUT" );
+    assertFalse( SessionCsrfTokenFilter.canResend( upload ) );
+    assertTrue( SessionCsrfTokenFilter.canResend( ClientRequest.create().entity( "{}" ).build(
+        URI.create( SERVER ), "POST" ) ) );
+
+    session.reset( session.use() );
+    assertNull( session.getCsrfToken() );
+  }
+
+  private static ClientResponse response( final int status, final String token, final String body ) {
+    ClientResponse response = mock( ClientResponse.class );
+    when( response.getStatus() ).thenReturn( status );
+    if ( body != null ) {
+      when( response.getEntityInputStream() ).thenReturn( new ByteArrayInputStream( body.getBytes() ) );
+    }
+    MultivaluedMapImpl headers = new MultivaluedMapImpl();
+    if ( token != null ) {
+      headers.putSingle( "X-CSRF-HEADER", "X-CSRF-TOKEN" );
+      headers.putSingle( "X-CSRF-TOKEN", token );
+    }
+    when( response.getHeaders() ).thenReturn( headers );
+    return response;
+  }
+}
@@ -0,0 +1,119 @@
+/*! ******************************************************************************
+ *
+ * Pentaho Community Edition Project: data-refinery-pdi-plugin
+ *
+ * Copyright (C) 2002-2026 by Hitachi Vantara : http://www.pentaho.com
+ *
+ * *******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ********************************************************************************/
+
+package org.pentaho.di.core.refinery.publish.util;
+
+import com.sun.jersey.api.client.Client;
+import com.sun.jersey.api.client.ClientHandler;
+import com.sun.jersey.api.client.ClientRequest;
+import com.sun.jersey.api.client.ClientResponse;
+import com.sun.jersey.api.client.config.ClientConfig;
+import com.sun.jersey.multipart.FormDataMultiPart;
+import org.apache.commons.io.IOUtils;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.MediaType;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.net.URI;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.mockito.Mockito.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class UploadEncodingFilterTest {
+
+  private static final URI TARGET =
+      URI.create( "http://localhost:8080/pentaho/plugin/data-access/api/metadata/import" );
+
+  private ClientHandler server;
+  private ClientRequest sent;
+
+  @Before
+  public void setUp() throws Exception {
+    server = mock( ClientHandler.class );
+    when( server.handle( any( ClientRequest.class ) ) ).thenAnswer( new Answer<ClientResponse>() {
+      @Override public ClientResponse answer( final InvocationOnMock invocation ) {
+        sent = (ClientRequest) invocation.getArguments()[ 0 ];
+        return mock( ClientResponse.class );
+      }
+    } );
+  }
+
+  @Test
+  public void testUploadSentInChunks() throws Exception {
+    send( new UploadEncodingFilter( 8192, false ), upload() );
+
+    assertEquals( 8192, sent.getProperties().get( ClientConfig.PROPERTY_CHUNKED_ENCODING_SIZE ) );
+    assertFalse( sent.getHeaders().containsKey( HttpHeaders.CONTENT_ENCODING ) );
+  }
+
+  @Test
+  public void testSmallBodySentAsIs() throws Exception {
+    send( new UploadEncodingFilter( 8192, true ), "{\"name\":\"connection\"}" );
+
+    assertNull( sent.getProperties().get( ClientConfig.PROPERTY_CHUNKED_ENCODING_SIZE ) );
+    assertFalse( sent.getHeaders().containsKey( HttpHeaders.CONTENT_ENCODING ) );
+  }
+
+  @Test
+  public void testNoChunksWhenDisabled() throws Exception {
+    send( new UploadEncodingFilter( 0, false ), upload() );
+
+    assertNull( sent.getProperties().get( ClientConfig.PROPERTY_CHUNKED_ENCODING_SIZE ) );
+  }
+
+  @Test
+  public void testUploadCompressed() throws Exception {
+    send( new UploadEncodingFilter( 8192, true ), upload() );
+
+    assertEquals( UploadEncodingFilter.GZIP, sent.getHeaders().getFirst( HttpHeaders.CONTENT_ENCODING ) );
+    ByteArrayOutputStream body = new ByteArrayOutputStream();
+    OutputStream out = sent.getAdapter().adapt( sent, body );
+    out.write( "<Domain/>".getBytes( "UTF-8" ) );
+    out.close();
+    assertEquals( "<Domain/>",
+        IOUtils.toString( new GZIPInputStream( new ByteArrayInputStream( body.toByteArray() ) ), "UTF-8" ) );
+  }
+
+  private void send( final UploadEncodingFilter filter, final Object entity ) {
+    Client client = new Client( server );
+    client.addFilter( filter );
+    client.handle( ClientRequest.create().entity( entity ).build( TARGET, "PUT" ) );
+  }
+
+  private static FormDataMultiPart upload() {
+    FormDataMultiPart part = new FormDataMultiPart();
+    part.field( "domainId", "model.xmi", MediaType.MULTIPART_FORM_DATA_TYPE )
+        .field( "metadataFile", new ByteArrayInputStream( new byte[ 1024 ] ), MediaType.MULTIPART_FORM_DATA_TYPE );
+    return part;
+  }
+}
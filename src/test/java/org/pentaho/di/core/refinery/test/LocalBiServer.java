@@ -0,0 +1,686 @@
+/*! ******************************************************************************
+ *
+ * Pentaho Community Edition Project: data-refinery-pdi-plugin
+ *
+ * Copyright (C) 2002-2026 by Hitachi Vantara : http://www.pentaho.com
+ *
+ * *******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ********************************************************************************/
+
+package org.pentaho.di.core.refinery.test;
+
+import com.sun.net.httpserver.Headers;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import org.apache.commons.io.IOUtils;
+import org.json.simple.JSONObject;
+import org.json.simple.parser.JSONParser;
+import org.pentaho.di.core.refinery.publish.agilebi.BiServerConnection;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Stand-in for the BA server REST endpoints this plugin calls, for tests and benchmarks that should not need a real
+ * server: the web context and authorization checks, CSRF tokens, data-access connections, metadata, DSW and Mondrian
+ * imports, and the data source lists and downloads. Listens on a free local port under <code>/pentaho/</code>.
+ * <p>
+ * Requests take {@link #setLatency(long) latency} plus their size over the {@link #setBytesPerSecond(long) bandwidth},
+ * at most {@link #setMaxConcurrentRequests(int) a number of them} are served at once and the others wait, and
+ * failures can be injected {@link #setFailureRate(double, int) at random} or {@link #failNext(int, int) in a row}.
+ * Every request is counted by its path.
+ */
+public class LocalBiServer {
+
+  public static final String CONTEXT = "/pentaho/";
+
+  static final String CSRF_HEADER = "X-CSRF-HEADER";
+  static final String CSRF_TOKEN = "X-CSRF-TOKEN";
+  private static final String SESSION_COOKIE = "JSESSIONID";
+  private static final String DATASOURCE = "plugin/data-access/api/datasource/";
+  private static final Pattern DOWNLOAD = Pattern.compile( DATASOURCE + "(analysis|dsw)/(.+)/download" );
+  private static final Pattern DOMAIN = Pattern.compile( DATASOURCE + "(metadata|dsw)/domain/(.+)" );
+  private static final Pattern CATALOG = Pattern.compile( DATASOURCE + "analysis/catalog/(.+)" );
+
+  private final String user;
+  private final String password;
+  private HttpServer server;
+  private ExecutorService executor;
+
+  private volatile long latency;
+  private volatile long bytesPerSecond;
+  private volatile double failureRate;
+  private volatile int failureStatus = 500;
+  private volatile boolean authorized = true;
+  private volatile boolean csrfProtection = true;
+  private volatile Semaphore workers = new Semaphore( Integer.MAX_VALUE, true );
+  private final AtomicInteger failNext = new AtomicInteger();
+  private volatile int failNextStatus;
+  private final Random random = new Random();
+
+  private final Map<String, String> sessions = new ConcurrentHashMap<>();
+  private final Map<String, String> connections = new ConcurrentHashMap<>();
+  private final Map<String, byte[]> metadata = new ConcurrentHashMap<>();
+  private final Map<String, byte[]> dsws = new ConcurrentHashMap<>();
+  private final Map<String, byte[]> analyses = new ConcurrentHashMap<>();
+
+  private final Map<String, AtomicInteger> requests = new ConcurrentHashMap<>();
+  private final AtomicInteger inFlight = new AtomicInteger();
+  private final AtomicInteger maxInFlight = new AtomicInteger();
+  private final AtomicLong bytesReceived = new AtomicLong();
+
+  public LocalBiServer() {
+    this( "admin", "password" );
+  }
+
+  public LocalBiServer( final String user, final String password ) {
+    this.user = user;
+    this.password = password;
+  }
+
+  public LocalBiServer start() throws IOException {
+    server = HttpServer.create( new InetSocketAddress( InetAddress.getLoopbackAddress(), 0 ), 0 );
+    executor = Executors.newCachedThreadPool( new ThreadFactory() {
+      private final AtomicInteger count = new AtomicInteger();
+
+      @Override public Thread newThread( final Runnable r ) {
+        Thread thread = new Thread( r, "local-bi-server-" + count.incrementAndGet() );
+        thread.setDaemon( true );
+        return thread;
+      }
+    } );
+    server.setExecutor( executor );
+    server.createContext( CONTEXT, new HttpHandler() {
+      @Override public void handle( final HttpExchange exchange ) throws IOException {
+        serve( exchange );
+      }
+    } );
+    server.start();
+    return this;
+  }
+
+  public void stop() {
+    if ( server != null ) {
+      server.stop( 0 );
+      executor.shutdownNow();
+      server = null;
+    }
+  }
+
+  /**
+   * @return the server URL with a trailing slash, as {@link BiServerConnection} keeps it
+   */
+  public String getUrl() {
+    return "http://" + server.getAddress().getHostString() + ":" + server.getAddress().getPort() + CONTEXT;
+  }
+
+  /**
+   * @return a connection to this server as its user
+   */
+  public BiServerConnection getConnection() {
+    BiServerConnection connection = new BiServerConnection();
+    connection.setName( "local" );
+    connection.setUrl( getUrl() );
+    connection.setUserId( user );
+    connection.setPassword( password );
+    return connection;
+  }
+
+  /**
+   * @param latency milliseconds every request takes at least
+   */
+  public void setLatency( final long latency ) {
+    this.latency = latency;
+  }
+
+  /**
+   * @param bytesPerSecond rate request and response bodies are transferred at, 0 for no limit
+   */
+  public void setBytesPerSecond( final long bytesPerSecond ) {
+    this.bytesPerSecond = bytesPerSecond;
+  }
+
+  /**
+   * @param max requests served at once, the others wait as in a server's bounded worker pool
+   */
+  public void setMaxConcurrentRequests( final int max ) {
+    workers = new Semaphore( max, true );
+  }
+
+  /**
+   * @param rate share of requests, 0 to 1, answered with the status instead of being served
+   */
+  public void setFailureRate( final double rate, final int status ) {
+    failureRate = rate;
+    failureStatus = status;
+  }
+
+  /**
+   * Answers the next requests with the status instead of serving them
+   */
+  public void failNext( final int count, final int status ) {
+    failNextStatus = status;
+    failNext.set( count );
+  }
+
+  /**
+   * @param authorized what the authorization checks answer, the user can always log in
+   */
+  public void setAuthorized( final boolean authorized ) {
+    this.authorized = authorized;
+  }
+
+  /**
+   * @param csrfProtection false to accept state changing requests without a CSRF token
+   */
+  public void setCsrfProtection( final boolean csrfProtection ) {
+    this.csrfProtection = csrfProtection;
+  }
+
+  /**
+   * Ends all sessions, as a server restart or session timeout does; their CSRF tokens are no longer accepted
+   */
+  public void expireSessions() {
+    sessions.clear();
+  }
+
+  public void putAnalysis( final String id, final String schema ) {
+    analyses.put( id, bytes( schema ) );
+  }
+
+  public void putDsw( final String id, final String xmi ) {
+    dsws.put( id, bytes( xmi ) );
+  }
+
+  /**
+   * @return the published Mondrian schema, null if none
+   */
+  public String getAnalysis( final String catalogName ) {
+    return string( analyses.get( catalogName ) );
+  }
+
+  /**
+   * @return the published DSW model, null if none
+   */
+  public String getDsw( final String domainId ) {
+    return string( dsws.get( domainId ) );
+  }
+
+  /**
+   * @return the published metadata model, null if none
+   */
+  public String getMetadata( final String domainId ) {
+    return string( metadata.get( domainId ) );
+  }
+
+  /**
+   * @return the published database connection as JSON, null if none
+   */
+  public String getDatabaseConnection( final String name ) {
+    return connections.get( name );
+  }
+
+  /**
+   * @param pathPrefix path relative to {@link #CONTEXT}, without the query
+   * @return number of requests to paths starting with the prefix, including failed ones
+   */
+  public int getRequestCount( final String pathPrefix ) {
+    int count = 0;
+    for ( Map.Entry<String, AtomicInteger> entry : requests.entrySet() ) {
+      if ( entry.getKey().startsWith( pathPrefix ) ) {
+        count += entry.getValue().get();
+      }
+    }
+    return count;
+  }
+
+  /**
+   * @return requests per path, sorted by path
+   */
+  public Map<String, Integer> getRequestCounts() {
+    Map<String, Integer> counts = new TreeMap<>();
+    for ( Map.Entry<String, AtomicInteger> entry : requests.entrySet() ) {
+      counts.put( entry.getKey(), entry.getValue().get() );
+    }
+    return counts;
+  }
+
+  /**
+   * @return the most requests that were served at the same time
+   */
+  public int getMaxConcurrentRequests() {
+    return maxInFlight.get();
+  }
+
+  /**
+   * @return request body bytes received, as sent
+   */
+  public long getBytesReceived() {
+    return bytesReceived.get();
+  }
+
+  private void serve( final HttpExchange exchange ) throws IOException {
+    String path = exchange.getRequestURI().getPath().substring( CONTEXT.length() );
+    count( path );
+    Semaphore workers = this.workers;
+    try {
+      workers.acquire();
+    } catch ( InterruptedException e ) {
+      Thread.currentThread().interrupt();
+      exchange.close();
+      return;
+    }
+    int current = inFlight.incrementAndGet();
+    int max;
+    while ( current > ( max = maxInFlight.get() ) && !maxInFlight.compareAndSet( max, current ) ) {
+      // raced with another request
+    }
+    try {
+      byte[] body = readBody( exchange );
+      pause( latency + transferTime( body.length ) );
+      int failure = nextFailure();
+      if ( failure > 0 ) {
+        respond( exchange, failure, "text/plain", bytes( "Injected failure" ) );
+      } else if ( !isAuthenticated( exchange ) ) {
+        // clients that do not authenticate up front need the challenge
+        exchange.getResponseHeaders().add( "WWW-Authenticate", "Basic realm=\"Pentaho Realm\"" );
+        respond( exchange, 401, "text/plain", bytes( "Unauthorized" ) );
+      } else if ( csrfProtection && isStateChanging( exchange.getRequestMethod() ) && !hasCsrfToken( exchange ) ) {
+        respond( exchange, 403, "text/plain", bytes( "Missing or invalid CSRF token" ) );
+      } else {
+        route( exchange, path, body );
+      }
+    } catch ( IllegalArgumentException e ) {
+      respond( exchange, 400, "text/plain", bytes( e.getMessage() ) );
+    } catch ( RuntimeException e ) {
+      respond( exchange, 500, "text/plain", bytes( String.valueOf( e ) ) );
+    } finally {
+      inFlight.decrementAndGet();
+      workers.release();
+      exchange.close();
+    }
+  }
+
+  private void route( final HttpExchange exchange, final String path, final byte[] body ) throws IOException {
+    String method = exchange.getRequestMethod();
+    Matcher matcher;
+    if ( path.equals( "webcontext.js" ) ) {
+      respond( exchange, 200, "text/javascript", bytes(
+          "/** webcontext.js is created by a PentahoWebContextFilter. */\nvar CONTEXT_PATH = '" + CONTEXT + "';\n" ) );
+    } else if ( path.equals( "api/authorization/action/isauthorized" ) ) {
+      respond( exchange, 200, "text/plain", bytes( String.valueOf( authorized ) ) );
+    } else if ( path.equals( "api/csrf/token" ) ) {
+      String session = getSession( exchange );
+      if ( session == null || !sessions.containsKey( session ) ) {
+        session = UUID.randomUUID().toString();
+        sessions.put( session, UUID.randomUUID().toString() );
+        exchange.getResponseHeaders().add( "Set-Cookie", SESSION_COOKIE + "=" + session + "; Path=" + CONTEXT );
+      }
+      exchange.getResponseHeaders().add( CSRF_HEADER, CSRF_TOKEN );
+      exchange.getResponseHeaders().add( CSRF_TOKEN, sessions.get( session ) );
+      respond( exchange, 204, null, null );
+    } else if ( path.startsWith( "plugin/data-access/api/connection/" ) ) {
+      connection( exchange, path.substring( "plugin/data-access/api/connection/".length() ), body );
+    } else if ( path.equals( "plugin/data-access/api/metadata/import" ) && method.equals( "PUT" ) ) {
+      Map<String, byte[]> form = parseForm( exchange, body );
+      String domainId = string( required( form, "domainId" ) );
+      if ( metadata.containsKey( domainId ) && !"true".equals( string( form.get( "overwrite" ) ) ) ) {
+        respond( exchange, 409, "text/plain", bytes( "Domain exists" ) );
+      } else {
+        metadata.put( domainId, required( form, "metadataFile" ) );
+        respond( exchange, 200, "text/plain", bytes( "3" ) );
+      }
+    } else if ( path.equals( DATASOURCE + "dsw/import" ) && method.equals( "PUT" ) ) {
+      Map<String, byte[]> form = parseForm( exchange, body );
+      String domainId = string( required( form, "domainId" ) );
+      boolean exists = dsws.containsKey( domainId );
+      if ( exists && !"true".equals( string( form.get( "overwrite" ) ) ) ) {
+        respond( exchange, 409, "text/plain", bytes( "Domain exists" ) );
+      } else {
+        dsws.put( domainId, required( form, "metadataFile" ) );
+        respond( exchange, exists ? 200 : 201, null, null );
+      }
+    } else if ( path.equals( "plugin/data-access/api/mondrian/postAnalysis" ) && method.equals( "POST" ) ) {
+      Map<String, byte[]> form = parseForm( exchange, body );
+      String catalogName = string( required( form, "catalogName" ) );
+      if ( analyses.containsKey( catalogName ) && !"true".equals( string( form.get( "overwrite" ) ) ) ) {
+        respond( exchange, 200, "text/plain", bytes( "8" ) );
+      } else {
+        analyses.put( catalogName, required( form, "uploadAnalysis" ) );
+        respond( exchange, 200, "text/plain", bytes( "3" ) );
+      }
+    } else if ( path.equals( DATASOURCE + "analysis/ids" ) ) {
+      respond( exchange, 200, "application/xml", idList( analyses ) );
+    } else if ( path.equals( DATASOURCE + "dsw/ids" ) ) {
+      respond( exchange, 200, "application/xml", idList( dsws ) );
+    } else if ( path.equals( DATASOURCE + "metadata/ids" ) ) {
+      respond( exchange, 200, "application/xml", idList( metadata ) );
+    } else if ( ( matcher = DOWNLOAD.matcher( path ) ).matches() ) {
+      boolean analysis = matcher.group( 1 ).equals( "analysis" );
+      String id = matcher.group( 2 );
+      byte[] content = ( analysis ? analyses : dsws ).get( id );
+      if ( content == null ) {
+        respond( exchange, 404, null, null );
+        return;
+      }
+      String entityTag = "\"" + Integer.toHexString( Arrays.hashCode( content ) ) + "\"";
+      exchange.getResponseHeaders().add( "ETag", entityTag );
+      if ( entityTag.equals( exchange.getRequestHeaders().getFirst( "If-None-Match" ) ) ) {
+        respond( exchange, 304, null, null );
+      } else {
+        respond( exchange, 200, "application/zip", zip( analysis ? "schema.xml" : id, content ) );
+      }
+    } else if ( ( matcher = DOMAIN.matcher( path ) ).matches() && method.equals( "DELETE" ) ) {
+      Map<String, byte[]> domains = matcher.group( 1 ).equals( "dsw" ) ? dsws : metadata;
+      respond( exchange, domains.remove( matcher.group( 2 ) ) == null ? 404 : 200, null, null );
+    } else if ( ( matcher = CATALOG.matcher( path ) ).matches() && method.equals( "DELETE" ) ) {
+      respond( exchange, analyses.remove( matcher.group( 1 ) ) == null ? 404 : 200, null, null );
+    } else {
+      respond( exchange, 404, "text/plain", bytes( "No stand-in for " + method + " " + path ) );
+    }
+  }
+
+  private void connection( final HttpExchange exchange, final String action, final byte[] body ) throws IOException {
+    if ( action.equals( "add" ) || action.equals( "update" ) ) {
+      String json = string( body );
+      String name;
+      try {
+        name = (String) ( (JSONObject) new JSONParser().parse( json ) ).get( "name" );
+      } catch ( Exception e ) {
+        respond( exchange, 400, "text/plain", bytes( String.valueOf( e ) ) );
+        return;
+      }
+      if ( action.equals( "add" ) && connections.putIfAbsent( name, json ) != null ) {
+        respond( exchange, 409, null, null );
+        return;
+      }
+      connections.put( name, json );
+      respond( exchange, 200, null, null );
+    } else if ( action.equals( "getresponse" ) ) {
+      String json = connections.get( getQueryParameter( exchange, "name" ) );
+      respond( exchange, json == null ? 404 : 200, "application/json", json == null ? null : bytes( json ) );
+    } else if ( action.equals( "deletebyname" ) ) {
+      respond( exchange, connections.remove( getQueryParameter( exchange, "name" ) ) == null ? 404 : 200, null, null );
+    } else {
+      respond( exchange, 404, null, null );
+    }
+  }
+
+  private void count( final String path ) {
+    AtomicInteger count = requests.get( path );
+    if ( count == null ) {
+      requests.putIfAbsent( path, new AtomicInteger() );
+      count = requests.get( path );
+    }
+    count.incrementAndGet();
+  }
+
+  private int nextFailure() {
+    if ( failNext.get() > 0 && failNext.getAndDecrement() > 0 ) {
+      return failNextStatus;
+    }
+    double rate = failureRate;
+    synchronized ( random ) {
+      return rate > 0 && random.nextDouble() < rate ? failureStatus : 0;
+    }
+  }
+
+  private boolean isAuthenticated( final HttpExchange exchange ) {
+    String authorization = exchange.getRequestHeaders().getFirst( "Authorization" );
+    if ( authorization == null || !authorization.startsWith( "Basic " ) ) {
+      return false;
+    }
+    String credentials = string( Base64.getDecoder().decode( authorization.substring( 6 ).trim() ) );
+    return credentials.equals( user + ":" + password );
+  }
+
+  private boolean hasCsrfToken( final HttpExchange exchange ) {
+    String session = getSession( exchange );
+    String token = session == null ? null : sessions.get( session );
+    return token != null && token.equals( exchange.getRequestHeaders().getFirst( CSRF_TOKEN ) );
+  }
+
+  private static boolean isStateChanging( final String method ) {
+    return !( method.equals( "GET" ) || method.equals( "HEAD" ) || method.equals( "OPTIONS" ) );
+  }
+
+  private static String getSession( final HttpExchange exchange ) {
+    List<String> cookies = exchange.getRequestHeaders().get( "Cookie" );
+    if ( cookies == null ) {
+      return null;
+    }
+    for ( String header : cookies ) {
+      for ( String cookie : header.split( ";" ) ) {
+        String[] pair = cookie.trim().split( "=", 2 );
+        if ( pair.length == 2 && pair[ 0 ].equals( SESSION_COOKIE ) ) {
+          return pair[ 1 ].replace( "\"", "" );
+        }
+      }
+    }
+    return null;
+  }
+
+  private static String getQueryParameter( final HttpExchange exchange, final String name )
+    throws UnsupportedEncodingException {
+    String query = exchange.getRequestURI().getRawQuery();
+    if ( query == null ) {
+      return null;
+    }
+    for ( String parameter : query.split( "&" ) ) {
+      String[] pair = parameter.split( "=", 2 );
+      if ( pair[ 0 ].equals( name ) ) {
+        return pair.length == 2 ? URLDecoder.decode( pair[ 1 ], "UTF-8" ) : "";
+      }
+    }
+    return null;
+  }
+
+  private byte[] readBody( final HttpExchange exchange ) throws IOException {
+    InputStream in = exchange.getRequestBody();
+    CountingInputStream counting = new CountingInputStream( in );
+    if ( "gzip".equalsIgnoreCase( exchange.getRequestHeaders().getFirst( "Content-Encoding" ) ) ) {
+      in = new GZIPInputStream( counting );
+    } else {
+      in = counting;
+    }
+    byte[] body = IOUtils.toByteArray( in );
+    bytesReceived.addAndGet( counting.count );
+    return body;
+  }
+
+  private void respond( final HttpExchange exchange, final int status, final String contentType, final byte[] body )
+    throws IOException {
+    if ( contentType != null ) {
+      exchange.getResponseHeaders().add( "Content-Type", contentType );
+    }
+    boolean empty = body == null || body.length == 0 || status == 204 || status == 304;
+    if ( !empty ) {
+      pause( transferTime( body.length ) );
+    }
+    exchange.sendResponseHeaders( status, empty ? -1 : body.length );
+    if ( !empty ) {
+      OutputStream out = exchange.getResponseBody();
+      out.write( body );
+      out.close();
+    }
+  }
+
+  private long transferTime( final long bytes ) {
+    long rate = bytesPerSecond;
+    return rate > 0 ? bytes * 1000 / rate : 0;
+  }
+
+  private static void pause( final long millis ) {
+    if ( millis <= 0 ) {
+      return;
+    }
+    try {
+      Thread.sleep( millis );
+    } catch ( InterruptedException e ) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  /**
+   * Splits a multipart form body into its fields
+   */
+  static Map<String, byte[]> parseForm( final HttpExchange exchange, final byte[] body ) {
+    Headers headers = exchange.getRequestHeaders();
+    Matcher boundary = Pattern.compile( "boundary=\"?([^\";]+)\"?" ).matcher( headers.getFirst( "Content-Type" ) );
+    if ( !boundary.find() ) {
+      throw new IllegalArgumentException( "Not a multipart body" );
+    }
+    byte[] delimiter = bytes( "--" + boundary.group( 1 ) );
+    Map<String, byte[]> fields = new HashMap<>();
+    int start = indexOf( body, delimiter, 0 );
+    while ( start >= 0 ) {
+      int headersStart = start + delimiter.length;
+      if ( body.length >= headersStart + 2 && body[ headersStart ] == '-' && body[ headersStart + 1 ] == '-' ) {
+        // closing delimiter
+        break;
+      }
+      int headersEnd = indexOf( body, bytes( "\r\n\r\n" ), headersStart );
+      int next = indexOf( body, delimiter, headersEnd );
+      if ( headersEnd < 0 || next < 0 ) {
+        throw new IllegalArgumentException( "Truncated multipart body" );
+      }
+      String partHeaders = string( Arrays.copyOfRange( body, headersStart, headersEnd ) );
+      Matcher name = Pattern.compile( "[;\\s]name=\"([^\"]*)\"" ).matcher( partHeaders );
+      if ( name.find() ) {
+        // content ends with the line break before the next delimiter
+        fields.put( name.group( 1 ), Arrays.copyOfRange( body, headersEnd + 4, next - 2 ) );
+      }
+      start = next;
+    }
+    return fields;
+  }
+
+  private static byte[] required( final Map<String, byte[]> form, final String field ) {
+    byte[] value = form.get( field );
+    if ( value == null ) {
+      throw new IllegalArgumentException( "Missing form field " + field );
+    }
+    return value;
+  }
+
+  private static int indexOf( final byte[] data, final byte[] pattern, final int from ) {
+    if ( from < 0 ) {
+      return -1;
+    }
+    outer:
+    for ( int i = from; i <= data.length - pattern.length; i++ ) {
+      for ( int j = 0; j < pattern.length; j++ ) {
+        if ( data[ i + j ] != pattern[ j ] ) {
+          continue outer;
+        }
+      }
+      return i;
+    }
+    return -1;
+  }
+
+  private static byte[] idList( final Map<String, byte[]> datasources ) {
+    List<String> ids = new ArrayList<>( datasources.keySet() );
+    Collections.sort( ids );
+    StringBuilder xml = new StringBuilder( "<?xml version=\"1.0\" encoding=\"UTF-8\"?><List>" );
+    for ( String id : ids ) {
+      xml.append( "<Item xmlns:xsi=\"http://www.w3.org/2001/XMLSchema-instance\" "
+          + "xmlns:xs=\"http://www.w3.org/2001/XMLSchema\" xsi:type=\"xs:string\">" )
+          .append( id.replace( "&", "&amp;" ).replace( "<", "&lt;" ) ).append( "</Item>" );
+    }
+    return bytes( xml.append( "</List>" ).toString() );
+  }
+
+  private static byte[] zip( final String entry, final byte[] content ) throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    ZipOutputStream zip = new ZipOutputStream( out );
+    zip.putNextEntry( new ZipEntry( entry ) );
+    zip.write( content );
+    zip.closeEntry();
+    zip.close();
+    return out.toByteArray();
+  }
+
+  private static byte[] bytes( final String value ) {
+    try {
+      return value.getBytes( "UTF-8" );
+    } catch ( UnsupportedEncodingException e ) {
+      throw new IllegalStateException( e );
+    }
+  }
+
+  private static String string( final byte[] value ) {
+    try {
+      return value == null ? null : new String( value, "UTF-8" );
+    } catch ( UnsupportedEncodingException e ) {
+      throw new IllegalStateException( e );
+    }
+  }
+
+  private static class CountingInputStream extends FilterInputStream {
+    private long count;
+
+    CountingInputStream( final InputStream in ) {
+      super( in );
+    }
+
+    @Override public int read() throws IOException {
+      int b = super.read();
+      if ( b >= 0 ) {
+        count++;
+      }
+      return b;
+    }
+
+    @Override public int read( final byte[] b, final int off, final int len ) throws IOException {
+      int n = super.read( b, off, len );
+      if ( n > 0 ) {
+        count += n;
+      }
+      return n;
+    }
+  }
+}
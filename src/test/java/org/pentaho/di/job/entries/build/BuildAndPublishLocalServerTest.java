@@ -0,0 +1,207 @@
+/*! ******************************************************************************
+ *
+ * Pentaho Community Edition Project: data-refinery-pdi-plugin
+ *
+ * Copyright (C) 2002-2026 by Hitachi Vantara : http://www.pentaho.com
+ *
+ * *******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ********************************************************************************/
+
+package org.pentaho.di.job.entries.build;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.pentaho.di.core.KettleClientEnvironment;
+import org.pentaho.di.core.Props;
+import org.pentaho.di.core.ProvidesDatabaseConnectionInformation;
+import org.pentaho.di.core.Result;
+import org.pentaho.di.core.database.DatabaseMeta;
+import org.pentaho.di.core.logging.LogChannelInterface;
+import org.pentaho.di.core.plugins.PluginRegistry;
+import org.pentaho.di.core.plugins.StepPluginType;
+import org.pentaho.di.core.refinery.publish.model.DataSourcePublishModel;
+import org.pentaho.di.core.refinery.test.LocalBiServer;
+import org.pentaho.di.core.row.RowMeta;
+import org.pentaho.di.core.row.value.ValueMetaBigNumber;
+import org.pentaho.di.core.row.value.ValueMetaString;
+import org.pentaho.di.job.Job;
+import org.pentaho.di.job.JobHopMeta;
+import org.pentaho.di.job.JobMeta;
+import org.pentaho.di.job.entries.publish.DatasourcePublishService;
+import org.pentaho.di.job.entries.publish.JobEntryDatasourcePublish;
+import org.pentaho.di.job.entry.JobEntryCopy;
+import org.pentaho.di.trans.step.StepMetaDataCombi;
+import org.pentaho.di.trans.steps.tableoutput.TableOutputData;
+import org.pentaho.di.trans.steps.tableoutput.TableOutputMeta;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Runs Build Model, on an analysis template fetched from the server, followed by Publish Model against a
+ * {@link LocalBiServer}, for one model and for several models at once
+ */
+public class BuildAndPublishLocalServerTest {
+
+  private static final String TEMPLATE = "Template";
+  private static final int COLUMNS = 20;
+
+  private LocalBiServer server;
+  private RowMeta fields;
+
+  @BeforeClass
+  public static void setUpBeforeClass() throws Exception {
+    if ( !KettleClientEnvironment.isInitialized() ) {
+      KettleClientEnvironment.init();
+    }
+    PluginRegistry.addPluginType( StepPluginType.getInstance() );
+    PluginRegistry.init();
+    if ( !Props.isInitialized() ) {
+      Props.init( 0 );
+    }
+  }
+
+  @Before
+  public void setUp() throws Exception {
+    server = new LocalBiServer().start();
+    server.putAnalysis( TEMPLATE, schema() );
+    fields = new RowMeta();
+    for ( int i = 0; i < COLUMNS; i++ ) {
+      fields.addValueMeta(
+          i < COLUMNS / 2 ? new ValueMetaString( column( i ) ) : new ValueMetaBigNumber( column( i ) ) );
+    }
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    if ( server != null ) {
+      server.stop();
+    }
+  }
+
+  @Test
+  public void testBuildOnTemplateAndPublish() throws Exception {
+    assertTrue( buildAndPublish( "Sales" ) );
+    assertNotNull( server.getAnalysis( "Sales" ) );
+    assertNotNull( server.getDatabaseConnection( "Sales DB" ) );
+  }
+
+  @Test
+  public void testConcurrentBuildsAndPublishes() throws Exception {
+    ExecutorService executor = Executors.newFixedThreadPool( 4 );
+    List<Future<Boolean>> results = new ArrayList<>();
+    try {
+      for ( int i = 0; i < 8; i++ ) {
+        final String modelName = "Sales" + i;
+        results.add( executor.submit( new Callable<Boolean>() {
+          @Override public Boolean call() throws Exception {
+            return buildAndPublish( modelName );
+          }
+        } ) );
+      }
+      for ( int i = 0; i < results.size(); i++ ) {
+        assertTrue( results.get( i ).get() );
+        assertNotNull( server.getAnalysis( "Sales" + i ) );
+      }
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  /**
+   * @return true if both job entries succeeded
+   */
+  private boolean buildAndPublish( final String modelName ) throws Exception {
+    Job job = new Job( null, new JobMeta() );
+    final ProvidesDatabaseConnectionInformation connectionInfo = mock( ProvidesDatabaseConnectionInformation.class );
+    // own connection per model, so concurrent publishes do not race to add the same one
+    DatabaseMeta databaseMeta =
+        new DatabaseMeta( modelName + " DB", "H2", "Native", null, "./target/test-db/" + modelName, null, "sa", null );
+    when( connectionInfo.getDatabaseMeta() ).thenReturn( databaseMeta );
+    when( connectionInfo.getSchemaName() ).thenReturn( "" );
+    when( connectionInfo.getTableName() ).thenReturn( "SALES" );
+
+    JobEntryBuildModel build = new JobEntryBuildModel( "Build Model", "" ) {
+      @Override public ProvidesDatabaseConnectionInformation getConnectionInfo() {
+        return connectionInfo;
+      }
+    };
+    build.setModelName( modelName );
+    build.setUseExistingModel( true );
+    build.setSelectedModel( TEMPLATE );
+    build.setBiServerConnection( server.getConnection() );
+    build.setParentJob( job );
+    JobEntryCopy buildCopy = new JobEntryCopy( build );
+    job.getJobMeta().addJobEntry( buildCopy );
+
+    StepMetaDataCombi outputStep = new StepMetaDataCombi();
+    TableOutputData outputData = new TableOutputData();
+    outputData.insertRowMeta = fields;
+    outputStep.data = outputData;
+    outputStep.meta = new TableOutputMeta();
+    job.getExtensionDataMap().put( JobEntryBuildModel.KEY_OUTPUT_STEP_PREFIX + build.getName(), outputStep );
+
+    DataSourcePublishModel publishModel = new DataSourcePublishModel();
+    publishModel.setBiServerConnection( server.getConnection() );
+    publishModel.setModelName( modelName );
+    publishModel.setOverride( true );
+    JobEntryDatasourcePublish publish =
+        new JobEntryDatasourcePublish( new DatasourcePublishService( mock( LogChannelInterface.class ) ) );
+    publish.setDataSourcePublishModel( publishModel );
+    publish.setParentJob( job );
+    JobEntryCopy publishCopy = new JobEntryCopy( publish );
+    job.getJobMeta().addJobEntry( publishCopy );
+    job.getJobMeta().addJobHop( new JobHopMeta( buildCopy, publishCopy ) );
+
+    Result result = build.execute( new Result(), 0 );
+    if ( result.getResult() ) {
+      result = publish.execute( new Result(), 0 );
+    }
+    return result.getResult();
+  }
+
+  private static String schema() {
+    StringBuilder schema = new StringBuilder( "<Schema name=\"" + TEMPLATE + "\">\n" );
+    schema.append( "  <Cube name=\"" + TEMPLATE + "\">\n    <Table name=\"TEMPLATE\"/>\n" );
+    schema.append( "    <Dimension name=\"Dimension\">\n      <Hierarchy hasAll=\"true\">\n" )
+        .append( "        <Table name=\"TEMPLATE\"/>\n" );
+    for ( int i = 0; i < COLUMNS / 2; i++ ) {
+      schema.append( "        <Level name=\"Level " ).append( i ).append( "\" column=\"" ).append( column( i ) )
+          .append( "\" type=\"String\" uniqueMembers=\"false\"/>\n" );
+    }
+    schema.append( "      </Hierarchy>\n    </Dimension>\n" );
+    for ( int i = COLUMNS / 2; i < COLUMNS; i++ ) {
+      schema.append( "    <Measure name=\"Measure " ).append( i ).append( "\" column=\"" ).append( column( i ) )
+          .append( "\" aggregator=\"sum\" formatString=\"#\"/>\n" );
+    }
+    return schema.append( "  </Cube>\n</Schema>\n" ).toString();
+  }
+
+  private static String column( final int i ) {
+    return "COLUMN_" + i;
+  }
+}
@@ -2,7 +2,7 @@
  *
  * Pentaho Community Edition Project: data-refinery-pdi-plugin
  *
- * Copyright (C) 2002-2024 by Hitachi Vantara : http://www.pentaho.com
+ * Copyright (C) 2002-2026 by Hitachi Vantara : http://www.pentaho.com
  *
  * *******************************************************************************
  *
@@ -27,6 +27,9 @@ import org.junit.After;
 import org.junit.Before;
 import org.junit.BeforeClass;
 import org.junit.Test;
+import org.mockito.InOrder;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
 import org.pentaho.agilebi.modeler.ModelerException;
 import org.pentaho.agilebi.modeler.models.annotations.CreateMeasure;
 import org.pentaho.agilebi.modeler.models.annotations.ModelAnnotation;
@@ -43,7 +46,9 @@ import org.pentaho.di.core.logging.LogChannelInterface;
 import org.pentaho.di.core.plugins.PluginRegistry;
 import org.pentaho.di.core.plugins.StepPluginType;
 import org.pentaho.di.core.refinery.model.AnalysisModeler;
+import org.pentaho.di.core.refinery.model.BuildModelTimings;
 import org.pentaho.di.core.refinery.model.DswModeler;
+import org.pentaho.di.core.refinery.model.ModelArtifactStore;
 import org.pentaho.di.core.refinery.model.ModelServerFetcher;
 import org.pentaho.di.core.refinery.publish.agilebi.BiServerConnection;
 import org.pentaho.di.core.row.RowMeta;
@@ -81,6 +86,7 @@ import org.w3c.dom.Node;
 import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.util.List;
 
 import static java.util.Arrays.asList;
@@ -89,8 +95,10 @@ import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 import static org.mockito.Mockito.any;
+import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.anyString;
 import static org.mockito.Mockito.eq;
+import static org.mockito.Mockito.inOrder;
 import static org.mockito.Mockito.doNothing;
 import static org.mockito.Mockito.doReturn;
 import static org.mockito.Mockito.mock;
@@ -273,6 +281,22 @@ public class JobEntryBuildModelTest {
     assertEquals( 1, job.getResult().getNrErrors() );
   }
 
+  @Test
+  public void testStoredModelRetainedUntilJobFinishes() throws Exception {
+    ModelArtifactStore store = spy( ModelArtifactStore.getInstance() );
+    doReturn( store ).when( buildJobEntry ).getArtifactStore();
+    buildJobEntry.setOutputStep( "Sales Fact" );
+    buildJobEntry.setModelName( "Car Sales Analysis" );
+    job.run();
+
+    assertTrue( job.getResult().getResult() );
+    String handle = job.getVariable( "JobEntryBuildModel.XMI.Car Sales Analysis" );
+    assertTrue( ModelArtifactStore.isHandle( handle ) );
+    InOrder order = inOrder( store );
+    order.verify( store ).retain( handle );
+    order.verify( store ).release( handle );
+  }
+
   /**
    * Verifies that we can auto-model during runtime and generate a valid Metadata and Mondrian model.
    *
@@ -289,7 +313,8 @@ public class JobEntryBuildModelTest {
 
     assertTrue( job.getResult().getResult() );
 
-    String xmi = job.getVariable( "JobEntryBuildModel.XMI.Car Sales Analysis" );
+    String xmi =
+        ModelArtifactStore.getInstance().resolve( job.getVariable( "JobEntryBuildModel.XMI.Car Sales Analysis" ) );
     assertTrue( xmi, xmi.contains( "<CWM:Description body=\"SALES_TEST\" name=\"target_table\"" ) );
     assertTrue( xmi, xmi.contains( "<CWMOLAP:Schema name=\"MODEL_1_OLAP\"" ) );
 
@@ -332,7 +357,8 @@ public class JobEntryBuildModelTest {
 
     assertTrue( job.getResult().getResult() );
 
-    String xmi = job.getVariable( "JobEntryBuildModel.XMI.Car Sales Analysis" );
+    String xmi =
+        ModelArtifactStore.getInstance().resolve( job.getVariable( "JobEntryBuildModel.XMI.Car Sales Analysis" ) );
     assertTrue( xmi, xmi.contains( "<CWM:Description body=\"sales_test\" name=\"target_table\"" ) );
     assertTrue( xmi, xmi.contains( "<CWMOLAP:Schema name=\"MODEL_1_OLAP\"" ) );
 
@@ -367,22 +393,24 @@ public class JobEntryBuildModelTest {
     buildJobEntry.setExistingModel( existingModelName );
     buildJobEntry.setSelectedModel( existingModelName );
     buildJobEntry.setUseExistingModel( true );
-    String existingSchema = IOUtils
+    final String existingSchema = IOUtils
         .toString( getClass().getResourceAsStream( "/org/pentaho/di/core/refinery/model/resources/testAnalysisSchema.xml" ) );
-    when( modelServerFetcher.downloadAnalysisFile( someModelName ) )
-        .thenReturn( existingSchema );
-    String expectedSchema = IOUtils.toString(
+    final String expectedSchema = IOUtils.toString(
         getClass().getResourceAsStream( "/org/pentaho/di/core/refinery/model/resources/salesTestAnalysisSchema.xml" ) );
-    when( modelServerFetcher.downloadAnalysisFile( someModelName ) )
-        .thenReturn( IOUtils
-            .toString(
-                getClass().getResourceAsStream( "/org/pentaho/di/core/refinery/model/resources/testAnalysisSchema.xml" ) ) );
+    when( modelServerFetcher.openAnalysisFile( someModelName ) )
+        .thenReturn( IOUtils.toInputStream( existingSchema, "UTF-8" ) );
 
     when( modelServerFetcher.fetchAnalysisList() ).thenReturn( asList( "someModelName" ) );
 
-    when( analysisModeler.replaceTableAndSchemaNames(
-        eq( existingSchema ), eq( "Car Sales Analysis" ) ) )
-        .thenReturn( expectedSchema );
+    doAnswer( new Answer<Void>() {
+      @Override public Void answer( final InvocationOnMock invocation ) throws Throwable {
+        // the downloaded schema is handed over as a stream and the rewrite goes straight to the store
+        assertEquals( existingSchema, IOUtils.toString( (InputStream) invocation.getArguments()[ 0 ], "UTF-8" ) );
+        ( (OutputStream) invocation.getArguments()[ 1 ] ).write( expectedSchema.getBytes( "UTF-8" ) );
+        return null;
+      }
+    } ).when( analysisModeler ).replaceTableAndSchemaNames(
+        any( InputStream.class ), any( OutputStream.class ), eq( "Car Sales Analysis" ) );
     doNothing().when( connectionValidator ).validateConnectionInRuntime();
     job.run();
 
@@ -391,11 +419,12 @@ public class JobEntryBuildModelTest {
     String xmi = job.getVariable( "JobEntryBuildModel.XMI.Car Sales Analysis" );
     assertNull( xmi );
 
-    assertEquals( expectedSchema,
-        job.getVariable( "JobEntryBuildModel.Mondrian.Schema.Car Sales Analysis" ) );
+    String schemaHandle = job.getVariable( "JobEntryBuildModel.Mondrian.Schema.Car Sales Analysis" );
+    assertTrue( ModelArtifactStore.isHandle( schemaHandle ) );
+    assertEquals( expectedSchema, ModelArtifactStore.getInstance().resolve( schemaHandle ) );
     assertEquals( IOUtils.toString(
             getClass().getResourceAsStream( "/org/pentaho/di/core/refinery/model/resources/salesTestAnalysisSchema.xml" ) ),
-        job.getVariable( "JobEntryBuildModel.Mondrian.Schema.Car Sales Analysis" ) );
+        ModelArtifactStore.getInstance().resolve( schemaHandle ) );
 
     assertEquals( "myh2", job.getVariable( "JobEntryBuildModel.Mondrian.Datasource.Car Sales Analysis" ) );
   }
@@ -573,6 +602,33 @@ public class JobEntryBuildModelTest {
         .setVarAndLogBasic( "JobEntryBuildModel.Mondrian.Datasource.Car Sales Analysis", "myh2" );
   }
 
+  @Test
+  public void testExecutePublishesPhaseTimings() throws Exception {
+    buildJobEntry.setOutputStep( "Sales Fact" );
+    buildJobEntry.setModelName( "Car Sales Analysis" );
+
+    Result result = buildJobEntry.execute( new Result(), 0 );
+
+    assertTrue( result.getResult() );
+    String prefix = JobEntryBuildModel.TIMING_VARIABLE_PREFIX + "Car Sales Analysis.";
+    for ( String phase : asList( BuildModelTimings.CONNECTION, BuildModelTimings.GENERATE_DOMAIN,
+        BuildModelTimings.AUTO_MODEL, BuildModelTimings.POPULATE_DOMAIN,
+        BuildModelTimings.APPLY_ANNOTATIONS + ".CREATE_MEASURE", BuildModelTimings.GENERATE_XMI ) ) {
+      assertTrue( phase, Const.toLong( job.getVariable( prefix + phase ), -1 ) >= 0 );
+    }
+    assertEquals( buildJobEntry.getTimings().getMillis().keySet().size(), countVariables( prefix ) );
+  }
+
+  private int countVariables( final String prefix ) {
+    int count = 0;
+    for ( String name : job.listVariables() ) {
+      if ( name.startsWith( prefix ) ) {
+        count++;
+      }
+    }
+    return count;
+  }
+
   @Test
   public void testCanUseDataServiceForConnection() throws Exception {
     JobEntryTrans trans = new JobEntryTrans( "trans" ) {
@@ -671,4 +727,20 @@ public class JobEntryBuildModelTest {
     job.run();
     assertEquals( 1, job.getResult().getNrErrors() );
   }
+
+  @Test
+  public void testCapturedRowMetaFromOutputStep() throws Exception {
+    assertEquals( 4, buildJobEntry.getCapturedRowMeta().size() );
+    assertEquals( "QUANTITY", buildJobEntry.getCapturedRowMeta().getValueMeta( 0 ).getName() );
+
+    job.getExtensionDataMap().remove( JobEntryBuildModel.KEY_OUTPUT_STEP_PREFIX + "Build Model" );
+    assertNull( buildJobEntry.getCapturedRowMeta() );
+  }
+
+  @Test
+  public void testNoCapturedRowMetaWithFieldMapping() throws Exception {
+    ( (TableOutputMeta) buildJobEntry.getStepMetaDataCombi().meta ).setSpecifyFields( true );
+
+    assertNull( buildJobEntry.getCapturedRowMeta() );
+  }
 }
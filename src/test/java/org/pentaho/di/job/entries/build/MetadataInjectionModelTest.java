@@ -48,6 +48,7 @@ import org.pentaho.di.core.plugins.PluginRegistry;
 import org.pentaho.di.core.plugins.StepPluginType;
 import org.pentaho.di.core.refinery.extension.DataRefineryTransFinishListener;
 import org.pentaho.di.core.refinery.model.DswModeler;
+import org.pentaho.di.core.refinery.model.ModelArtifactStore;
 import org.pentaho.di.job.Job;
 import org.pentaho.di.job.JobHopMeta;
 import org.pentaho.di.job.JobMeta;
@@ -169,7 +170,8 @@ public class MetadataInjectionModelTest {
 
     assertTrue( job.getResult().getResult() );
 
-    String xmi = job.getVariable( "JobEntryBuildModel.XMI.Territory-Sales Model" );
+    String xmi =
+        ModelArtifactStore.getInstance().resolve( job.getVariable( "JobEntryBuildModel.XMI.Territory-Sales Model" ) );
     assertTrue( xmi, xmi.contains( "<CWM:Description body=\"STEEL\" name=\"target_table\"" ) );
     assertTrue( xmi, xmi.contains( "<CWMOLAP:Schema name=\"MODEL_1_OLAP\"" ) );
 
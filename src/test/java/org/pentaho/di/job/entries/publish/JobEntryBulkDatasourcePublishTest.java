@@ -0,0 +1,301 @@
+/*! ******************************************************************************
+ *
+ * Pentaho Community Edition Project: data-refinery-pdi-plugin
+ *
+ * Copyright (C) 2002-2026 by Hitachi Vantara : http://www.pentaho.com
+ *
+ * *******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ********************************************************************************/
+
+package org.pentaho.di.job.entries.publish;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.pentaho.database.model.DatabaseConnection;
+import org.pentaho.di.core.KettleClientEnvironment;
+import org.pentaho.di.core.Result;
+import org.pentaho.di.core.RowMetaAndData;
+import org.pentaho.di.core.database.DatabaseMeta;
+import org.pentaho.di.core.exception.KettleException;
+import org.pentaho.di.core.logging.LogChannelInterface;
+import org.pentaho.di.core.refinery.publish.agilebi.BiServerConnection;
+import org.pentaho.di.core.refinery.publish.agilebi.ModelServerPublish;
+import org.pentaho.di.core.refinery.publish.model.DataSourcePublishModel;
+import org.pentaho.di.core.refinery.publish.util.BiServerExecutor;
+import org.pentaho.di.job.Job;
+import org.pentaho.di.job.JobMeta;
+import org.pentaho.di.ui.job.entries.common.ConnectionValidator;
+import org.w3c.dom.Node;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.any;
+import static org.mockito.Mockito.anyBoolean;
+import static org.mockito.Mockito.anyString;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doNothing;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class JobEntryBulkDatasourcePublishTest {
+
+  private Job parentJob;
+  private JobMeta jobMeta;
+  private DatabaseMeta databaseMeta;
+  private ModelServerPublish modelServerPublish;
+  private DatasourcePublishService publishService;
+  private JobEntryBulkDatasourcePublish jobEntry;
+
+  @Before
+  public void setUp() throws Exception {
+    KettleClientEnvironment.init();
+    parentJob = mock( Job.class );
+    jobMeta = mock( JobMeta.class );
+    databaseMeta = mock( DatabaseMeta.class );
+    modelServerPublish = mock( ModelServerPublish.class );
+    when( modelServerPublish.getExecutor() ).thenReturn( BiServerExecutor.getDefault() );
+    when( parentJob.getJobMeta() ).thenReturn( jobMeta );
+    when( databaseMeta.getName() ).thenReturn( "sales" );
+    when( jobMeta.findDatabase( "sales" ) ).thenReturn( databaseMeta );
+
+    publishService = spy( new DatasourcePublishService( mock( LogChannelInterface.class ) ) );
+    doReturn( true ).when( publishService ).publishDatabaseMeta( any( ModelServerPublish.class ),
+      any( DatabaseMeta.class ), any(), anyBoolean() );
+    doReturn( true ).when( publishService ).publishMetadataXmi( anyString(), any(), any( ModelServerPublish.class ),
+      anyBoolean() );
+    doReturn( true ).when( publishService ).publishMondrianSchema( anyString(), any(), any(),
+      any( ModelServerPublish.class ), anyBoolean() );
+    doNothing().when( publishService ).deleteDatabaseMeta( any( ModelServerPublish.class ),
+      any( DatabaseMeta.class ) );
+    doNothing().when( publishService ).deleteXMI( any( ModelServerPublish.class ), anyString(), any() );
+
+    jobEntry = spy( new JobEntryBulkDatasourcePublish( publishService ) );
+    when( jobEntry.getParentJob() ).thenReturn( parentJob );
+    doNothing().when( jobEntry ).logBasic( anyString() );
+    when( jobEntry.getModelServerPublish() ).thenReturn( modelServerPublish );
+    when( jobEntry.getConnectionValidator( any( BiServerConnection.class ) ) )
+      .thenReturn( mock( ConnectionValidator.class ) );
+
+    DataSourcePublishModel model = new DataSourcePublishModel();
+    model.setBiServerConnection( new BiServerConnection() );
+    model.setOverride( true );
+    jobEntry.setDataSourcePublishModel( model );
+  }
+
+  @Test
+  public void testModelsNamedAndMatched() throws Exception {
+    when( parentJob.listVariables() ).thenReturn( new String[] {
+      "JobEntryBuildModel.XMI.sales_us", "JobEntryBuildModel.XMI.DSW.sales_us", "JobEntryBuildModel.XMI.hr",
+      "JobEntryBuildModel.Mondrian.Schema.sales_eu", "JobEntryBuildModel.Mondrian.Datasource.sales_eu", "other" } );
+    jobEntry.setModelNames( "orders, sales_us\ncustomers;" );
+    jobEntry.setModelPattern( "sales_.*" );
+
+    assertEquals( Arrays.asList( "orders", "sales_us", "customers", "sales_eu" ),
+      Arrays.asList( jobEntry.getModels().toArray() ) );
+  }
+
+  @Test( expected = KettleException.class )
+  public void testInvalidPattern() throws Exception {
+    jobEntry.setModelPattern( "sales_(" );
+    jobEntry.getModels();
+  }
+
+  @Test
+  public void testBuiltModelName() {
+    assertEquals( "sales", JobEntryBulkDatasourcePublish.getBuiltModelName( "JobEntryBuildModel.XMI.sales" ) );
+    assertEquals( "sales",
+      JobEntryBulkDatasourcePublish.getBuiltModelName( "JobEntryBuildModel.Mondrian.Schema.sales" ) );
+    assertNull( JobEntryBulkDatasourcePublish.getBuiltModelName( "JobEntryBuildModel.XMI.DSW.sales" ) );
+    assertNull( JobEntryBulkDatasourcePublish.getBuiltModelName( "JobEntryBuildModel.Mondrian.Datasource.sales" ) );
+  }
+
+  @Test
+  public void testSharedConnectionPublishedOnceAndFailedModelRolledBack() throws Exception {
+    built( "a", "b", "c" );
+    when( parentJob.getVariable( "JobEntryBuildModel.Mondrian.Schema.b" ) ).thenReturn( "<Schema/>" );
+    doThrow( new KettleException( "no catalog" ) ).when( publishService ).publishMondrianSchema( eq( "b" ), any(),
+      any(), any( ModelServerPublish.class ), anyBoolean() );
+    jobEntry.setModelNames( "a,b,c" );
+    jobEntry.setParallelism( "2" );
+
+    Result result = jobEntry.execute( new Result(), 0 );
+
+    assertFalse( result.getResult() );
+    assertEquals( 1, result.getNrErrors() );
+    verify( modelServerPublish, times( 1 ) ).connectionNameExists( "sales" );
+    verify( publishService, times( 1 ) ).publishDatabaseMeta( any( ModelServerPublish.class ),
+      any( DatabaseMeta.class ), any(), anyBoolean() );
+    verify( publishService ).deleteXMI( any( ModelServerPublish.class ), eq( "b" ), any() );
+    verify( publishService, times( 1 ) ).deleteXMI( any( ModelServerPublish.class ), anyString(), any() );
+    verify( publishService, never() ).deleteDatabaseMeta( any( ModelServerPublish.class ),
+      any( DatabaseMeta.class ) );
+
+    List<RowMetaAndData> rows = result.getRows();
+    assertEquals( 3, rows.size() );
+    assertEquals( "a", rows.get( 0 ).getString( "model_name", null ) );
+    assertEquals( "sales", rows.get( 0 ).getString( "connection_name", null ) );
+    assertEquals( JobEntryBulkDatasourcePublish.STATUS_PUBLISHED, rows.get( 0 ).getString( "status", null ) );
+    assertEquals( JobEntryBulkDatasourcePublish.STATUS_FAILED, rows.get( 1 ).getString( "status", null ) );
+    assertTrue( rows.get( 1 ).getString( "message", "" ).contains( "no catalog" ) );
+    assertEquals( JobEntryBulkDatasourcePublish.STATUS_PUBLISHED, rows.get( 2 ).getString( "status", null ) );
+  }
+
+  @Test
+  public void testConnectionRolledBackWhenNoModelPublished() throws Exception {
+    built( "a" );
+    doThrow( new KettleException() ).when( publishService ).publishMetadataXmi( anyString(), any(),
+      any( ModelServerPublish.class ), anyBoolean() );
+    jobEntry.setModelNames( "a" );
+
+    Result result = jobEntry.execute( new Result(), 0 );
+
+    assertFalse( result.getResult() );
+    verify( publishService, never() ).deleteXMI( any( ModelServerPublish.class ), anyString(), any() );
+    verify( publishService ).deleteDatabaseMeta( any( ModelServerPublish.class ), any( DatabaseMeta.class ) );
+  }
+
+  @Test
+  public void testUnchangedConnectionNotRolledBack() throws Exception {
+    built( "a" );
+    doReturn( false ).when( publishService ).publishDatabaseMeta( any( ModelServerPublish.class ),
+      any( DatabaseMeta.class ), any(), anyBoolean() );
+    doThrow( new KettleException() ).when( publishService ).publishMetadataXmi( anyString(), any(),
+      any( ModelServerPublish.class ), anyBoolean() );
+    jobEntry.setModelNames( "a" );
+
+    Result result = jobEntry.execute( new Result(), 0 );
+
+    assertFalse( result.getResult() );
+    verify( publishService, never() ).deleteDatabaseMeta( any( ModelServerPublish.class ),
+      any( DatabaseMeta.class ) );
+  }
+
+  @Test
+  public void testModelsOfFailedConnectionNotPublished() throws Exception {
+    built( "a", "b" );
+    when( modelServerPublish.connectionNameExists( "sales" ) ).thenReturn(
+      new DatabaseConnection() );
+    jobEntry.getDataSourcePublishModel().setOverride( false );
+    jobEntry.setModelNames( "a,b,unknown" );
+
+    Result result = jobEntry.execute( new Result(), 0 );
+
+    assertFalse( result.getResult() );
+    assertEquals( 3, result.getNrErrors() );
+    verify( publishService, never() ).publishMetadataXmi( anyString(), any(), any( ModelServerPublish.class ),
+      anyBoolean() );
+    verify( publishService, never() ).deleteDatabaseMeta( any( ModelServerPublish.class ),
+      any( DatabaseMeta.class ) );
+  }
+
+  @Test
+  public void testModelWithoutConnectionNameNotPublishedToDiscoveredConnection() throws Exception {
+    built( "a" );
+    when( parentJob.getVariable( "JobEntryBuildModel.XMI.b" ) ).thenReturn( "<xmi/>" );
+    doReturn( databaseMeta ).when( jobEntry ).discoverDatabaseMeta( jobMeta );
+    jobEntry.setModelNames( "a,b" );
+
+    Result result = jobEntry.execute( new Result(), 0 );
+
+    assertFalse( result.getResult() );
+    assertEquals( 1, result.getNrErrors() );
+    verify( publishService ).publishMetadataXmi( eq( "a" ), any(), any( ModelServerPublish.class ), anyBoolean() );
+    verify( publishService, never() ).publishMetadataXmi( eq( "b" ), any(), any( ModelServerPublish.class ),
+      anyBoolean() );
+    List<RowMetaAndData> rows = result.getRows();
+    assertEquals( JobEntryBulkDatasourcePublish.STATUS_FAILED, rows.get( 1 ).getString( "status", null ) );
+    assertTrue( rows.get( 1 ).getString( "message", "" ).contains(
+      jobEntry.getMsg( "JobEntryDatasourcePublish.Error.UnableToFindDBConnection" ) ) );
+  }
+
+  @Test
+  public void testInterruptedWhileSubmittingRollsBack() throws Exception {
+    built( "a", "b" );
+    jobEntry.setModelNames( "a,b" );
+    final AtomicInteger checks = new AtomicInteger();
+    doAnswer( new Answer<Boolean>() {
+      @Override public Boolean answer( final InvocationOnMock invocation ) {
+        // connection submitted, interrupt before the first model
+        if ( checks.incrementAndGet() == 2 ) {
+          Thread.currentThread().interrupt();
+        }
+        return false;
+      }
+    } ).when( parentJob ).isStopped();
+
+    Result result;
+    try {
+      result = jobEntry.execute( new Result(), 0 );
+    } finally {
+      assertTrue( Thread.interrupted() );
+    }
+
+    assertFalse( result.getResult() );
+    assertEquals( 2, result.getNrErrors() );
+    verify( publishService, never() ).publishMetadataXmi( anyString(), any(), any( ModelServerPublish.class ),
+      anyBoolean() );
+    verify( publishService ).deleteDatabaseMeta( any( ModelServerPublish.class ), any( DatabaseMeta.class ) );
+  }
+
+  @Test
+  public void testNoModels() throws Exception {
+    Result result = jobEntry.execute( new Result(), 0 );
+    assertFalse( result.getResult() );
+    assertEquals( 1, result.getNrErrors() );
+  }
+
+  @Test
+  public void testXmlRoundTrip() throws Exception {
+    jobEntry.setModelNames( "a\nb" );
+    jobEntry.setModelPattern( "sales_.*" );
+    jobEntry.setParallelism( "${PUBLISH_THREADS}" );
+    String entryXml = "<entry>" + jobEntry.getXML() + "</entry>";
+
+    JobEntryBulkDatasourcePublish loaded = new JobEntryBulkDatasourcePublish( publishService );
+    Node entryNode = DocumentBuilderFactory.newInstance().newDocumentBuilder()
+      .parse( IOUtils.toInputStream( entryXml, "UTF-8" ) ).getDocumentElement();
+    loaded.loadXML( entryNode, null, null, null, null );
+
+    assertEquals( "a\nb", loaded.getModelNames() );
+    assertEquals( "sales_.*", loaded.getModelPattern() );
+    assertEquals( "${PUBLISH_THREADS}", loaded.getParallelism() );
+    assertTrue( loaded.getDataSourcePublishModel().isOverride() );
+  }
+
+  private void built( final String... modelNames ) {
+    for ( String modelName : modelNames ) {
+      when( parentJob.getVariable( "JobEntryBuildModel.XMI." + modelName ) ).thenReturn( "<xmi/>" );
+      when( parentJob.getVariable( "JobEntryBuildModel.DatabaseConnection." + modelName ) ).thenReturn( "sales" );
+    }
+  }
+}
@@ -25,22 +25,32 @@ package org.pentaho.di.job.entries.publish;
 import org.apache.commons.io.IOUtils;
 import org.apache.commons.lang.StringUtils;
 import org.junit.Before;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 import org.mockito.ArgumentMatcher;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
 import org.pentaho.database.model.DatabaseAccessType;
 import org.pentaho.database.model.DatabaseConnection;
 import org.pentaho.di.core.KettleClientEnvironment;
 import org.pentaho.di.core.ProvidesDatabaseConnectionInformation;
 import org.pentaho.di.core.Result;
+import org.pentaho.di.core.RowMetaAndData;
 import org.pentaho.di.core.database.BaseDatabaseMeta;
 import org.pentaho.di.core.database.DatabaseInterface;
 import org.pentaho.di.core.database.DatabaseMeta;
 import org.pentaho.di.core.exception.KettleException;
 import org.pentaho.di.core.logging.LogChannelInterface;
+import org.pentaho.di.core.refinery.model.ModelArtifactStore;
+import org.pentaho.di.core.refinery.model.ModelServerFetcher;
+import org.pentaho.di.core.refinery.model.ModelServerFetcher.ServerException;
 import org.pentaho.di.core.refinery.publish.agilebi.BiServerConnection;
 import org.pentaho.di.core.refinery.publish.agilebi.ModelServerPublish;
 import org.pentaho.di.core.refinery.publish.model.DataSourceAclModel;
 import org.pentaho.di.core.refinery.publish.model.DataSourcePublishModel;
+import org.pentaho.di.core.refinery.publish.util.BiServerExecutor;
+import org.pentaho.di.core.refinery.publish.util.PublishLedger;
 import org.pentaho.di.core.refinery.publish.util.PublishRestUtil;
 import org.pentaho.di.job.Job;
 import org.pentaho.di.job.JobHopMeta;
@@ -62,7 +72,10 @@ import java.util.List;
 import java.util.Map;
 import java.util.Properties;
 import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 
+import static java.util.Arrays.asList;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
@@ -74,12 +87,15 @@ import static org.mockito.Mockito.anyBoolean;
 import static org.mockito.Mockito.anyString;
 import static org.mockito.Mockito.argThat;
 import static org.mockito.Mockito.contains;
+import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.doNothing;
 import static org.mockito.Mockito.doReturn;
 import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.eq;
 import static org.mockito.Mockito.isA;
 import static org.mockito.Mockito.matches;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.spy;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
@@ -90,6 +106,8 @@ import static org.mockito.Mockito.when;
  */
 public class JobEntryDatasourcePublishTest {
 
+  @Rule public TemporaryFolder folder = new TemporaryFolder();
+
   private JobEntryDatasourcePublish jobEntryDatasourcePublish;
   private Job parentJob;
   private JobMeta jobMeta;
@@ -129,6 +147,7 @@ public class JobEntryDatasourcePublishTest {
     result = mock( Result.class );
     biServerConnection = mock( BiServerConnection.class );
     modelServerPublish = mock( ModelServerPublish.class );
+    when( modelServerPublish.getExecutor() ).thenReturn( BiServerExecutor.getDefault() );
     publishRestUtil = mock( PublishRestUtil.class );
     connectionValidator = mock( ConnectionValidator.class );
     log = mock( LogChannelInterface.class );
@@ -535,19 +554,19 @@ public class JobEntryDatasourcePublishTest {
 
     datasourcePublishSpy.setDataSourcePublishModel( model );
 
-    doNothing().when( datasourcePublishServiceSpy ).publishDatabaseMeta( any( ModelServerPublish.class ),
-      any( DatabaseMeta.class ), anyBoolean() );
-    doNothing().when( datasourcePublishServiceSpy )
+    doReturn( true ).when( datasourcePublishServiceSpy ).publishDatabaseMeta( any( ModelServerPublish.class ),
+      any( DatabaseMeta.class ), any(), anyBoolean() );
+    doReturn( true ).when( datasourcePublishServiceSpy )
       .publishMetadataXmi( anyString(), anyString(), any( ModelServerPublish.class ),
         anyBoolean() );
-    doNothing().when( datasourcePublishServiceSpy )
+    doReturn( true ).when( datasourcePublishServiceSpy )
       .publishMondrianSchema( anyString(), anyString(), anyString(), any( ModelServerPublish.class ),
         anyBoolean() );
 
     datasourcePublishSpy.execute( result, 0 );
     verify( modelServerPublish ).setAclModel( argThat( matchesUser( "suzy" ) ) );
     verify( datasourcePublishServiceSpy )
-      .publishDatabaseMeta( any( ModelServerPublish.class ), any( DatabaseMeta.class ),
+      .publishDatabaseMeta( any( ModelServerPublish.class ), any( DatabaseMeta.class ), any(),
         anyBoolean() );
 
     model.setAccessType( "role" );
@@ -602,9 +621,9 @@ public class JobEntryDatasourcePublishTest {
       any( DatabaseMeta.class ) );
     doNothing().when( datasourcePublishServiceSpy ).deleteXMI( any( ModelServerPublish.class ), anyString(),
       any() );
-    doNothing().when( datasourcePublishServiceSpy ).publishDatabaseMeta( any( ModelServerPublish.class ),
-      any( DatabaseMeta.class ), anyBoolean() );
-    doNothing().when( datasourcePublishServiceSpy )
+    doReturn( true ).when( datasourcePublishServiceSpy ).publishDatabaseMeta( any( ModelServerPublish.class ),
+      any( DatabaseMeta.class ), any(), anyBoolean() );
+    doReturn( true ).when( datasourcePublishServiceSpy )
       .publishMetadataXmi( anyString(), any(), any( ModelServerPublish.class ),
         anyBoolean() );
     doThrow( new KettleException() ).when( datasourcePublishServiceSpy )
@@ -621,6 +640,139 @@ public class JobEntryDatasourcePublishTest {
       any() );
   }
 
+  @Test
+  public void testExecuteLooksUpConnectionOnce() throws Exception {
+    DatasourcePublishService datasourcePublishServiceSpy = spy( publishService );
+    JobEntryDatasourcePublish datasourcePublishSpy = spyPublish( datasourcePublishServiceSpy, true );
+
+    when( modelServerPublish.connectionNameExists( any() ) ).thenReturn( databaseConnection );
+    when( modelServerPublish.publishDataSource( anyBoolean(), any() ) ).thenReturn( true );
+    final DatabaseInterface databaseInterface = mock( DatabaseInterface.class );
+    when( databaseMeta.getDatabaseInterface() ).thenReturn( databaseInterface );
+    when( databaseInterface.getPluginId() ).thenReturn( "Oracle" );
+    doReturn( true ).when( datasourcePublishServiceSpy )
+      .publishMetadataXmi( anyString(), any(), any( ModelServerPublish.class ), anyBoolean() );
+    doReturn( true ).when( datasourcePublishServiceSpy )
+      .publishMondrianSchema( anyString(), any(), any(), any( ModelServerPublish.class ), anyBoolean() );
+
+    assertTrue( datasourcePublishSpy.execute( new Result( 0 ), 0 ).getResult() );
+    verify( modelServerPublish, times( 1 ) ).connectionNameExists( any() );
+    verify( modelServerPublish ).publishDataSource( true, databaseConnection.getId() );
+  }
+
+  @Test
+  public void testMetadataXmiPublishedWhileConnectionIsPublished() throws Exception {
+    DatasourcePublishService datasourcePublishServiceSpy = spy( publishService );
+    JobEntryDatasourcePublish datasourcePublishSpy = spyPublish( datasourcePublishServiceSpy, false );
+
+    final CountDownLatch xmiStarted = new CountDownLatch( 1 );
+    doAnswer( new Answer<Boolean>() {
+      @Override public Boolean answer( final InvocationOnMock invocation ) throws Throwable {
+        assertTrue( xmiStarted.await( 10, TimeUnit.SECONDS ) );
+        return true;
+      }
+    } ).when( datasourcePublishServiceSpy ).publishDatabaseMeta( any( ModelServerPublish.class ),
+      any( DatabaseMeta.class ), any(), anyBoolean() );
+    doAnswer( new Answer<Boolean>() {
+      @Override public Boolean answer( final InvocationOnMock invocation ) {
+        xmiStarted.countDown();
+        return true;
+      }
+    } ).when( datasourcePublishServiceSpy )
+      .publishMetadataXmi( anyString(), any(), any( ModelServerPublish.class ), anyBoolean() );
+    doReturn( true ).when( datasourcePublishServiceSpy )
+      .publishMondrianSchema( anyString(), any(), any(), any( ModelServerPublish.class ), anyBoolean() );
+
+    assertTrue( datasourcePublishSpy.execute( new Result( 0 ), 0 ).getResult() );
+  }
+
+  @Test
+  public void testRollbackFailedXmi() throws Exception {
+    DatasourcePublishService datasourcePublishServiceSpy = spy( publishService );
+    JobEntryDatasourcePublish datasourcePublishSpy = spyPublish( datasourcePublishServiceSpy, false );
+
+    doNothing().when( datasourcePublishServiceSpy ).deleteDatabaseMeta( any( ModelServerPublish.class ),
+      any( DatabaseMeta.class ) );
+    doReturn( true ).when( datasourcePublishServiceSpy ).publishDatabaseMeta( any( ModelServerPublish.class ),
+      any( DatabaseMeta.class ), any(), anyBoolean() );
+    doThrow( new KettleException() ).when( datasourcePublishServiceSpy )
+      .publishMetadataXmi( anyString(), any(), any( ModelServerPublish.class ), anyBoolean() );
+    doReturn( true ).when( datasourcePublishServiceSpy )
+      .publishMondrianSchema( anyString(), any(), any(), any( ModelServerPublish.class ), anyBoolean() );
+
+    assertFalse( datasourcePublishSpy.execute( new Result( 0 ), 0 ).getResult() );
+    verify( datasourcePublishServiceSpy, times( 1 ) ).deleteDatabaseMeta( any( ModelServerPublish.class ),
+      any( DatabaseMeta.class ) );
+    verify( datasourcePublishServiceSpy, never() ).deleteXMI( any( ModelServerPublish.class ), anyString(), any() );
+  }
+
+  @Test
+  public void testRollbackDeletesMondrianSchema() throws Exception {
+    DatasourcePublishService datasourcePublishServiceSpy = spy( publishService );
+    JobEntryDatasourcePublish datasourcePublishSpy = spyPublish( datasourcePublishServiceSpy, true );
+
+    doNothing().when( datasourcePublishServiceSpy ).deleteDatabaseMeta( any( ModelServerPublish.class ),
+      any( DatabaseMeta.class ) );
+    doNothing().when( datasourcePublishServiceSpy ).deleteMondrianSchema( any( ModelServerPublish.class ),
+      anyString() );
+    doReturn( true ).when( datasourcePublishServiceSpy ).publishDatabaseMeta( any( ModelServerPublish.class ),
+      any( DatabaseMeta.class ), any(), anyBoolean() );
+    // the metadata upload fails after the catalog is on the server
+    doThrow( new KettleException() ).when( datasourcePublishServiceSpy )
+      .publishMetadataXmi( anyString(), any(), any( ModelServerPublish.class ), anyBoolean() );
+    doReturn( true ).when( datasourcePublishServiceSpy )
+      .publishMondrianSchema( anyString(), any(), any(), any( ModelServerPublish.class ), anyBoolean() );
+
+    assertFalse( datasourcePublishSpy.execute( new Result( 0 ), 0 ).getResult() );
+    verify( datasourcePublishServiceSpy ).deleteMondrianSchema( modelServerPublish, "logicalModel" );
+    verify( datasourcePublishServiceSpy ).deleteDatabaseMeta( any( ModelServerPublish.class ),
+      any( DatabaseMeta.class ) );
+    verify( datasourcePublishServiceSpy, never() ).deleteXMI( any( ModelServerPublish.class ), anyString(), any() );
+  }
+
+  @Test
+  public void testRollbackLeavesUnchangedArtifacts() throws Exception {
+    DatasourcePublishService datasourcePublishServiceSpy = spy( publishService );
+    JobEntryDatasourcePublish datasourcePublishSpy = spyPublish( datasourcePublishServiceSpy, true );
+
+    doNothing().when( datasourcePublishServiceSpy ).deleteDatabaseMeta( any( ModelServerPublish.class ),
+      any( DatabaseMeta.class ) );
+    doNothing().when( datasourcePublishServiceSpy ).deleteXMI( any( ModelServerPublish.class ), anyString(), any() );
+    // both skipped as unchanged, they were on the server before
+    doReturn( false ).when( datasourcePublishServiceSpy ).publishDatabaseMeta( any( ModelServerPublish.class ),
+      any( DatabaseMeta.class ), any(), anyBoolean() );
+    doReturn( false ).when( datasourcePublishServiceSpy )
+      .publishMetadataXmi( anyString(), any(), any( ModelServerPublish.class ), anyBoolean() );
+    doThrow( new KettleException() ).when( datasourcePublishServiceSpy )
+      .publishMondrianSchema( anyString(), any(), any(), any( ModelServerPublish.class ), anyBoolean() );
+
+    assertFalse( datasourcePublishSpy.execute( new Result( 0 ), 0 ).getResult() );
+    verify( datasourcePublishServiceSpy, never() ).deleteDatabaseMeta( any( ModelServerPublish.class ),
+      any( DatabaseMeta.class ) );
+    verify( datasourcePublishServiceSpy, never() ).deleteXMI( any( ModelServerPublish.class ), anyString(), any() );
+  }
+
+  private JobEntryDatasourcePublish spyPublish( final DatasourcePublishService datasourcePublishService,
+                                                final boolean override ) throws Exception {
+    JobEntryDatasourcePublish datasourcePublishSpy =
+      spy( new JobEntryDatasourcePublish( datasourcePublishService ) );
+
+    when( datasourcePublishSpy.getParentJob() ).thenReturn( parentJob );
+    when( parentJob.getJobMeta() ).thenReturn( jobMeta );
+    doNothing().when( datasourcePublishSpy ).logBasic( anyString() );
+    when( datasourcePublishSpy.getModelServerPublish() ).thenReturn( modelServerPublish );
+    when( datasourcePublishSpy
+      .getConnectionValidator( any( BiServerConnection.class ) ) ).thenReturn( connectionValidator );
+    doReturn( databaseMeta ).when( datasourcePublishSpy ).discoverDatabaseMeta( any( JobMeta.class ) );
+
+    DataSourcePublishModel model = new DataSourcePublishModel();
+    model.setModelName( "logicalModel" );
+    model.setBiServerConnection( biServerConnection );
+    model.setOverride( override );
+    datasourcePublishSpy.setDataSourcePublishModel( model );
+    return datasourcePublishSpy;
+  }
+
   @Test
   public void testExecuteDoubleSlash() throws Exception {
     DatasourcePublishService datasourcePublishServiceSpy = spy( publishService );
@@ -652,12 +804,12 @@ public class JobEntryDatasourcePublishTest {
 
     datasourcePublishSpy.setDataSourcePublishModel( model );
 
-    doNothing().when( datasourcePublishServiceSpy ).publishDatabaseMeta( any( ModelServerPublish.class ),
-      any( DatabaseMeta.class ), anyBoolean() );
-    doNothing().when( datasourcePublishServiceSpy )
+    doReturn( true ).when( datasourcePublishServiceSpy ).publishDatabaseMeta( any( ModelServerPublish.class ),
+      any( DatabaseMeta.class ), any(), anyBoolean() );
+    doReturn( true ).when( datasourcePublishServiceSpy )
       .publishMetadataXmi( anyString(), anyString(), any( ModelServerPublish.class ),
         anyBoolean() );
-    doNothing().when( datasourcePublishServiceSpy )
+    doReturn( true ).when( datasourcePublishServiceSpy )
       .publishMondrianSchema( anyString(), anyString(), anyString(), any( ModelServerPublish.class ),
         anyBoolean() );
 
@@ -666,7 +818,7 @@ public class JobEntryDatasourcePublishTest {
     datasourcePublishSpy.execute( result, 0 );
     verify( modelServerPublish ).setAclModel( argThat( matchesUser( "suzy" ) ) );
     verify( datasourcePublishServiceSpy )
-      .publishDatabaseMeta( any( ModelServerPublish.class ), any( DatabaseMeta.class ),
+      .publishDatabaseMeta( any( ModelServerPublish.class ), any( DatabaseMeta.class ), any(),
         anyBoolean() );
     assertFalse( biServerConnection.getUrl().endsWith( "//" ) );
   }
@@ -968,6 +1120,352 @@ public class JobEntryDatasourcePublishTest {
       .publishMondrianSchema( any( InputStream.class ), anyString(), anyString(), anyBoolean() );
   }
 
+  @Test
+  public void testUnchangedModelsSkipped() throws Exception {
+    DatasourcePublishService datasourcePublishServiceSpy = spy( publishService );
+    doReturn( new PublishLedger( folder.newFile( "ledger.properties" ), true ) )
+      .when( datasourcePublishServiceSpy ).getPublishLedger();
+    doReturn( true ).when( datasourcePublishServiceSpy ).isOnServer( any( ModelServerPublish.class ), anyString(),
+      anyString() );
+    ModelServerPublish modelServerPublish = serverPublish();
+    when( modelServerPublish.publishMondrianSchema( any( InputStream.class ), anyString(), anyString(), anyBoolean() ) )
+      .thenReturn( ModelServerPublish.PUBLISH_SUCCESS );
+    when( modelServerPublish.publishMetaDataFile( any( InputStream.class ), anyString() ) )
+      .thenReturn( ModelServerPublish.PUBLISH_SUCCESS );
+
+    assertTrue(
+      datasourcePublishServiceSpy.publishMondrianSchema( "MyModel", "<Schema/>", "ds", modelServerPublish, true ) );
+    assertFalse(
+      datasourcePublishServiceSpy.publishMondrianSchema( "MyModel", "<Schema/>", "ds", modelServerPublish, true ) );
+    verify( modelServerPublish, times( 1 ) )
+      .publishMondrianSchema( any( InputStream.class ), anyString(), anyString(), anyBoolean() );
+
+    // changed content, parameters or ACL go out again
+    datasourcePublishServiceSpy.publishMondrianSchema( "MyModel", "<Schema a=\"b\"/>", "ds", modelServerPublish,
+      true );
+    datasourcePublishServiceSpy.publishMondrianSchema( "MyModel", "<Schema a=\"b\"/>", "ds2", modelServerPublish,
+      true );
+    DataSourceAclModel acl = new DataSourceAclModel();
+    acl.addUser( "suzy" );
+    when( modelServerPublish.getAclModel() ).thenReturn( acl );
+    datasourcePublishServiceSpy.publishMondrianSchema( "MyModel", "<Schema a=\"b\"/>", "ds2", modelServerPublish,
+      true );
+    verify( modelServerPublish, times( 4 ) )
+      .publishMondrianSchema( any( InputStream.class ), anyString(), anyString(), anyBoolean() );
+
+    // a model streamed from a source has the same digest as its String
+    datasourcePublishServiceSpy.publishMetadataXmi( "MyModel", "<xmi/>", modelServerPublish, true );
+    datasourcePublishServiceSpy.publishMetadataXmiFrom( "MyModel",
+      publishService.getArtifactStore().source( "<xmi/>" ), modelServerPublish, true );
+    verify( modelServerPublish, times( 1 ) ).publishMetaDataFile( any( InputStream.class ), anyString() );
+  }
+
+  @Test
+  public void testMetadataXmiStreamedFromStringAndHandle() throws Exception {
+    DatasourcePublishService datasourcePublishServiceSpy = spy( publishService );
+    doReturn( new PublishLedger( folder.newFile( "ledger.properties" ), true ) )
+      .when( datasourcePublishServiceSpy ).getPublishLedger();
+    ModelArtifactStore store = new ModelArtifactStore( folder.newFolder( "artifacts" ), false );
+    doReturn( store ).when( datasourcePublishServiceSpy ).getArtifactStore();
+    ModelServerPublish modelServerPublish = serverPublish();
+    final List<String> received = new ArrayList<>();
+    when( modelServerPublish.publishMetaDataFile( any( InputStream.class ), anyString() ) ).thenAnswer(
+      new Answer<Integer>() {
+        @Override public Integer answer( final InvocationOnMock invocation ) throws Throwable {
+          received.add( IOUtils.toString( (InputStream) invocation.getArguments()[ 0 ], "UTF-8" ) );
+          return ModelServerPublish.PUBLISH_SUCCESS;
+        }
+      } );
+    String xmi = "<xmi>" + StringUtils.repeat( "<column description=\"Spalte für Kennzahlen\"/>", 10000 ) + "</xmi>";
+
+    datasourcePublishServiceSpy.publishMetadataXmi( "FromString", xmi, modelServerPublish, true );
+    datasourcePublishServiceSpy.publishMetadataXmi( "FromHandle", store.store( xmi ), modelServerPublish, true );
+
+    assertEquals( asList( xmi, xmi ), received );
+  }
+
+  @Test
+  public void testUnchangedModelPublishedIfGoneOrNotOverriding() throws Exception {
+    DatasourcePublishService datasourcePublishServiceSpy = spy( publishService );
+    doReturn( new PublishLedger( folder.newFile( "ledger.properties" ), true ) )
+      .when( datasourcePublishServiceSpy ).getPublishLedger();
+    ModelServerPublish modelServerPublish = serverPublish();
+    when( modelServerPublish.publishDsw( any( InputStream.class ), anyString() ) )
+      .thenReturn( ModelServerPublish.PUBLISH_SUCCESS );
+
+    doReturn( false ).when( datasourcePublishServiceSpy ).isOnServer( modelServerPublish, "dsw/", "MyModel.xmi" );
+    datasourcePublishServiceSpy.publishDswXmi( "MyModel", "<xmi/>", modelServerPublish, true );
+    datasourcePublishServiceSpy.publishDswXmi( "MyModel", "<xmi/>", modelServerPublish, true );
+    verify( modelServerPublish, times( 2 ) ).publishDsw( any( InputStream.class ), anyString() );
+
+    doReturn( true ).when( datasourcePublishServiceSpy ).isOnServer( modelServerPublish, "dsw/", "MyModel.xmi" );
+    datasourcePublishServiceSpy.publishDswXmi( "MyModel", "<xmi/>", modelServerPublish, false );
+    verify( modelServerPublish, times( 3 ) ).publishDsw( any( InputStream.class ), anyString() );
+
+    datasourcePublishServiceSpy.publishDswXmi( "MyModel", "<xmi/>", modelServerPublish, true );
+    datasourcePublishServiceSpy.publishDswXmi( "MyModel", "<xmi/>", modelServerPublish, true );
+    verify( modelServerPublish, times( 4 ) ).publishDsw( any( InputStream.class ), anyString() );
+
+    // a failed publish leaves the server state unknown
+    when( modelServerPublish.publishDsw( any( InputStream.class ), anyString() ) )
+      .thenReturn( ModelServerPublish.PUBLISH_FAILED ).thenReturn( ModelServerPublish.PUBLISH_SUCCESS );
+    try {
+      datasourcePublishServiceSpy.publishDswXmi( "MyModel", "<xmi a=\"b\"/>", modelServerPublish, true );
+      fail( "expected Exception" );
+    } catch ( KettleException e ) {
+      // failed upload
+    }
+    datasourcePublishServiceSpy.publishDswXmi( "MyModel", "<xmi/>", modelServerPublish, true );
+    verify( modelServerPublish, times( 6 ) ).publishDsw( any( InputStream.class ), anyString() );
+  }
+
+  @Test
+  public void testIsOnServerAsksForTheIdOnly() throws Exception {
+    DatasourcePublishService datasourcePublishServiceSpy = spy( publishService );
+    ModelServerPublish modelServerPublish = serverPublish();
+    ModelServerFetcher fetcher = mock( ModelServerFetcher.class );
+    doReturn( fetcher ).when( datasourcePublishServiceSpy ).getModelServerFetcher( modelServerPublish );
+    when( fetcher.fetchDswList( "MyModel.xmi" ) ).thenReturn( asList( "MyModel.xmi", "MyModel.xmi.bak" ) );
+    when( fetcher.fetchAnalysisList( "MyModel" ) ).thenReturn( asList( "MyModel2" ) );
+    when( fetcher.fetchMetadataList( "MyModel.xmi" ) ).thenThrow( new ServerException() );
+
+    assertTrue( datasourcePublishServiceSpy.isOnServer( modelServerPublish, "dsw/", "MyModel.xmi" ) );
+    assertFalse( datasourcePublishServiceSpy.isOnServer( modelServerPublish, "analysis/", "MyModel" ) );
+    assertFalse( datasourcePublishServiceSpy.isOnServer( modelServerPublish, "metadata/", "MyModel.xmi" ) );
+    verify( fetcher, never() ).fetchDswList();
+    verify( fetcher, never() ).fetchAnalysisList();
+  }
+
+  @Test
+  public void testUnchangedConnectionSkipped() throws Exception {
+    DatasourcePublishService datasourcePublishServiceSpy = spy( publishService );
+    doReturn( new PublishLedger( folder.newFile( "ledger.properties" ), true ) )
+      .when( datasourcePublishServiceSpy ).getPublishLedger();
+    ModelServerPublish modelServerPublish = serverPublish();
+    DatabaseConnection sent = new DatabaseConnection();
+    sent.setName( "Sales DB" );
+    sent.setHostname( "localhost" );
+    when( modelServerPublish.createDatabaseConnection( null ) ).thenReturn( sent );
+    when( modelServerPublish.publishDataSource( anyBoolean(), any() ) ).thenReturn( true );
+    DatabaseInterface databaseInterface = mock( DatabaseInterface.class );
+    when( databaseMeta.getDatabaseInterface() ).thenReturn( databaseInterface );
+    when( databaseInterface.getPluginId() ).thenReturn( "Oracle" );
+    when( databaseMeta.getName() ).thenReturn( "Sales DB" );
+
+    assertTrue( datasourcePublishServiceSpy.publishDatabaseMeta( modelServerPublish, databaseMeta, null, true ) );
+    assertFalse(
+      datasourcePublishServiceSpy.publishDatabaseMeta( modelServerPublish, databaseMeta, databaseConnection, true ) );
+    verify( modelServerPublish, times( 1 ) ).publishDataSource( anyBoolean(), any() );
+
+    sent.setHostname( "dbserver" );
+    datasourcePublishServiceSpy.publishDatabaseMeta( modelServerPublish, databaseMeta, databaseConnection, true );
+    verify( modelServerPublish, times( 2 ) ).publishDataSource( anyBoolean(), any() );
+
+    // deleted on the server meanwhile
+    datasourcePublishServiceSpy.publishDatabaseMeta( modelServerPublish, databaseMeta, null, true );
+    verify( modelServerPublish, times( 3 ) ).publishDataSource( anyBoolean(), any() );
+
+    datasourcePublishServiceSpy.deleteDatabaseMeta( modelServerPublish, databaseMeta );
+    datasourcePublishServiceSpy.publishDatabaseMeta( modelServerPublish, databaseMeta, databaseConnection, true );
+    verify( modelServerPublish, times( 4 ) ).publishDataSource( anyBoolean(), any() );
+  }
+
+  private ModelServerPublish serverPublish() {
+    BiServerConnection server = new BiServerConnection();
+    server.setUrl( "http://localhost:8080/pentaho/" );
+    server.setUserId( "admin" );
+    ModelServerPublish modelServerPublish = mock( ModelServerPublish.class );
+    when( modelServerPublish.getBiServerConnection() ).thenReturn( server );
+    return modelServerPublish;
+  }
+
+  @Test
+  public void testPublishToAdditionalServers() throws Exception {
+    DatasourcePublishService datasourcePublishServiceSpy = spy( publishService );
+    ModelServerPublish second = mock( ModelServerPublish.class );
+    JobEntryDatasourcePublish datasourcePublishSpy = spyPublishToTwo( datasourcePublishServiceSpy, second,
+      DataSourcePublishModel.PUBLISH_POLICY_ALL_OR_NOTHING );
+
+    Result published = datasourcePublishSpy.execute( new Result( 0 ), 0 );
+    assertTrue( published.getResult() );
+    assertEquals( 0, published.getNrErrors() );
+    for ( ModelServerPublish server : new ModelServerPublish[] { modelServerPublish, second } ) {
+      verify( datasourcePublishServiceSpy )
+        .publishDatabaseMeta( eq( server ), any( DatabaseMeta.class ), any(), anyBoolean() );
+      verify( datasourcePublishServiceSpy ).publishMetadataXmi( anyString(), any(), eq( server ), anyBoolean() );
+      verify( server ).setAclModel( argThat( matchesEveryoneAcl() ) );
+    }
+    // the additional server has no user of its own
+    verify( second ).setBiServerConnection( argThat( new ArgumentMatcher<BiServerConnection>() {
+      @Override public boolean matches( final BiServerConnection connection ) {
+        return "http://node2:8080/pentaho/".equals( connection.getUrl() ) && "admin".equals( connection.getUserId() )
+          && "password".equals( connection.getPassword() );
+      }
+    } ) );
+    verify( datasourcePublishServiceSpy, never() ).deleteDatabaseMeta( any( ModelServerPublish.class ),
+      any( DatabaseMeta.class ) );
+
+    List<RowMetaAndData> rows = published.getRows();
+    assertEquals( 2, rows.size() );
+    assertEquals( "http://node1:8080/pentaho/", rows.get( 0 ).getString( "server_url", null ) );
+    assertEquals( JobEntryDatasourcePublish.STATUS_PUBLISHED, rows.get( 0 ).getString( "status", null ) );
+    assertEquals( "http://node2:8080/pentaho/", rows.get( 1 ).getString( "server_url", null ) );
+    assertEquals( JobEntryDatasourcePublish.STATUS_PUBLISHED, rows.get( 1 ).getString( "status", null ) );
+  }
+
+  @Test
+  public void testServerFailingRollsBackAllServers() throws Exception {
+    DatasourcePublishService datasourcePublishServiceSpy = spy( publishService );
+    ModelServerPublish second = mock( ModelServerPublish.class );
+    JobEntryDatasourcePublish datasourcePublishSpy = spyPublishToTwo( datasourcePublishServiceSpy, second,
+      DataSourcePublishModel.PUBLISH_POLICY_ALL_OR_NOTHING );
+    failMondrianSchemaOn( datasourcePublishServiceSpy, second );
+
+    Result published = datasourcePublishSpy.execute( new Result( 0 ), 0 );
+    assertFalse( published.getResult() );
+    assertEquals( 1, published.getNrErrors() );
+    for ( ModelServerPublish server : new ModelServerPublish[] { modelServerPublish, second } ) {
+      verify( datasourcePublishServiceSpy ).deleteDatabaseMeta( eq( server ), any( DatabaseMeta.class ) );
+      verify( datasourcePublishServiceSpy ).deleteXMI( eq( server ), anyString(), any() );
+    }
+    // only the server that got it has a catalog to delete
+    verify( datasourcePublishServiceSpy ).deleteMondrianSchema( eq( modelServerPublish ), anyString() );
+    verify( datasourcePublishServiceSpy, never() ).deleteMondrianSchema( eq( second ), anyString() );
+    List<RowMetaAndData> rows = published.getRows();
+    assertEquals( JobEntryDatasourcePublish.STATUS_ROLLED_BACK, rows.get( 0 ).getString( "status", null ) );
+    assertEquals( JobEntryDatasourcePublish.STATUS_FAILED, rows.get( 1 ).getString( "status", null ) );
+    assertEquals( "node down", rows.get( 1 ).getString( "message", null ) );
+  }
+
+  @Test
+  public void testServerFailingKeepsOthersOnBestEffort() throws Exception {
+    DatasourcePublishService datasourcePublishServiceSpy = spy( publishService );
+    ModelServerPublish second = mock( ModelServerPublish.class );
+    JobEntryDatasourcePublish datasourcePublishSpy = spyPublishToTwo( datasourcePublishServiceSpy, second,
+      DataSourcePublishModel.PUBLISH_POLICY_BEST_EFFORT );
+    failMondrianSchemaOn( datasourcePublishServiceSpy, second );
+
+    Result published = datasourcePublishSpy.execute( new Result( 0 ), 0 );
+    assertTrue( published.getResult() );
+    assertEquals( 0, published.getNrErrors() );
+    verify( datasourcePublishServiceSpy, never() ).deleteDatabaseMeta( eq( modelServerPublish ),
+      any( DatabaseMeta.class ) );
+    verify( datasourcePublishServiceSpy ).deleteDatabaseMeta( eq( second ), any( DatabaseMeta.class ) );
+    List<RowMetaAndData> rows = published.getRows();
+    assertEquals( JobEntryDatasourcePublish.STATUS_PUBLISHED, rows.get( 0 ).getString( "status", null ) );
+    assertEquals( JobEntryDatasourcePublish.STATUS_FAILED, rows.get( 1 ).getString( "status", null ) );
+
+    // no server made it
+    doReturn( modelServerPublish, second ).when( datasourcePublishSpy ).getModelServerPublish();
+    failMondrianSchemaOn( datasourcePublishServiceSpy, modelServerPublish );
+    published = datasourcePublishSpy.execute( new Result( 0 ), 0 );
+    assertFalse( published.getResult() );
+    assertEquals( 2, published.getNrErrors() );
+  }
+
+  @Test
+  public void testInvalidPublishPolicy() throws Exception {
+    DatasourcePublishService datasourcePublishServiceSpy = spy( publishService );
+    JobEntryDatasourcePublish datasourcePublishSpy =
+      spyPublishToTwo( datasourcePublishServiceSpy, mock( ModelServerPublish.class ), "sometimes" );
+
+    Result published = datasourcePublishSpy.execute( new Result( 0 ), 0 );
+    assertFalse( published.getResult() );
+    verify( datasourcePublishSpy ).logError( contains( "sometimes" ), isA( KettleException.class ) );
+    verify( datasourcePublishServiceSpy, never() )
+      .publishDatabaseMeta( any( ModelServerPublish.class ), any( DatabaseMeta.class ), any(), anyBoolean() );
+  }
+
+  @Test
+  public void testXmlRoundtripAdditionalServers() throws Exception {
+    DataSourcePublishModel model = new DataSourcePublishModel();
+    model.setBiServerConnection( new BiServerConnection() );
+    model.setPublishPolicy( DataSourcePublishModel.PUBLISH_POLICY_BEST_EFFORT );
+    BiServerConnection node2 = new BiServerConnection();
+    node2.setUrl( "http://node2:8080/pentaho/" );
+    BiServerConnection node3 = new BiServerConnection();
+    node3.setName( "node3" );
+    node3.setUrl( "${NODE3_URL}" );
+    node3.setUserId( "publisher" );
+    node3.setPassword( "secret" );
+    List<BiServerConnection> additional = new ArrayList<>();
+    additional.add( node2 );
+    additional.add( node3 );
+    model.setAdditionalBiServerConnections( additional );
+    jobEntryDatasourcePublish.setDataSourcePublishModel( model );
+    String entryXml = "<entry>" + jobEntryDatasourcePublish.getXML() + "</entry>";
+    assertFalse( entryXml.contains( "secret" ) );
+
+    JobEntryDatasourcePublish loaded = new JobEntryDatasourcePublish( publishService );
+    DocumentBuilder builder = DocumentBuilderFactory.newInstance().newDocumentBuilder();
+    loaded.loadXML( builder.parse( IOUtils.toInputStream( entryXml, "UTF-8" ) ).getDocumentElement(), null, null,
+      null, null );
+
+    DataSourcePublishModel loadedModel = loaded.getDataSourcePublishModel();
+    assertEquals( DataSourcePublishModel.PUBLISH_POLICY_BEST_EFFORT, loadedModel.getPublishPolicy() );
+    assertEquals( 2, loadedModel.getAdditionalBiServerConnections().size() );
+    assertEquals( "http://node2:8080/pentaho/", loadedModel.getAdditionalBiServerConnections().get( 0 ).getUrl() );
+    assertEquals( "", loadedModel.getAdditionalBiServerConnections().get( 0 ).getUserId() );
+    BiServerConnection loadedNode3 = loadedModel.getAdditionalBiServerConnections().get( 1 );
+    assertEquals( "node3", loadedNode3.getName() );
+    assertEquals( "${NODE3_URL}", loadedNode3.getUrl() );
+    assertEquals( "publisher", loadedNode3.getUserId() );
+    assertEquals( "secret", loadedNode3.getPassword() );
+    // the main server connection is not mixed up with the additional ones
+    assertEquals( "", loadedModel.getBiServerConnection().getUrl() );
+  }
+
+  /**
+   * Publishes to the usual mocked server and a second one, which takes the credentials of the first
+   */
+  private JobEntryDatasourcePublish spyPublishToTwo( final DatasourcePublishService datasourcePublishService,
+                                                     final ModelServerPublish second, final String publishPolicy )
+    throws Exception {
+    JobEntryDatasourcePublish datasourcePublishSpy = spyPublish( datasourcePublishService, true );
+    doReturn( modelServerPublish, second ).when( datasourcePublishSpy ).getModelServerPublish();
+    doReturn( serverConnection( "http://node1:8080/pentaho/" ) ).when( modelServerPublish ).getBiServerConnection();
+    doReturn( serverConnection( "http://node2:8080/pentaho/" ) ).when( second ).getBiServerConnection();
+    doReturn( BiServerExecutor.getDefault() ).when( second ).getExecutor();
+
+    DataSourcePublishModel model = datasourcePublishSpy.getDataSourcePublishModel();
+    model.setBiServerConnection( serverConnection( "http://node1:8080/pentaho/" ) );
+    List<BiServerConnection> additional = new ArrayList<>();
+    BiServerConnection node2 = new BiServerConnection();
+    node2.setUrl( "http://node2:8080/pentaho/" );
+    additional.add( node2 );
+    // the first server again is not published to twice
+    additional.add( serverConnection( "http://node1:8080/pentaho/" ) );
+    model.setAdditionalBiServerConnections( additional );
+    model.setPublishPolicy( publishPolicy );
+
+    doReturn( true ).when( datasourcePublishService ).publishDatabaseMeta( any( ModelServerPublish.class ),
+      any( DatabaseMeta.class ), any(), anyBoolean() );
+    doReturn( true ).when( datasourcePublishService )
+      .publishMetadataXmi( anyString(), any(), any( ModelServerPublish.class ), anyBoolean() );
+    doReturn( true ).when( datasourcePublishService )
+      .publishMondrianSchema( anyString(), any(), any(), any( ModelServerPublish.class ), anyBoolean() );
+    doNothing().when( datasourcePublishService ).deleteDatabaseMeta( any( ModelServerPublish.class ),
+      any( DatabaseMeta.class ) );
+    doNothing().when( datasourcePublishService ).deleteXMI( any( ModelServerPublish.class ), anyString(), any() );
+    doNothing().when( datasourcePublishService ).deleteMondrianSchema( any( ModelServerPublish.class ), anyString() );
+    return datasourcePublishSpy;
+  }
+
+  private static BiServerConnection serverConnection( final String url ) {
+    BiServerConnection connection = new BiServerConnection();
+    connection.setName( "default" );
+    connection.setUrl( url );
+    connection.setUserId( "admin" );
+    connection.setPassword( "password" );
+    return connection;
+  }
+
+  private static void failMondrianSchemaOn( final DatasourcePublishService datasourcePublishService,
+                                            final ModelServerPublish failing ) throws KettleException {
+    doThrow( new KettleException( "node down" ) ).when( datasourcePublishService )
+      .publishMondrianSchema( anyString(), any(), any(), eq( failing ), anyBoolean() );
+  }
+
   @Test
   public void testInvalidAccessTypeThrowsException() throws Exception {
     JobEntryDatasourcePublish datasourcePublishSpy = spy( jobEntryDatasourcePublish );
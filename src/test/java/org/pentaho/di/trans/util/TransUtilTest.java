@@ -24,9 +24,13 @@ package org.pentaho.di.trans.util;
 
 import org.junit.BeforeClass;
 import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
 import org.pentaho.di.core.KettleClientEnvironment;
+import org.pentaho.di.core.ObjectLocationSpecificationMethod;
 import org.pentaho.di.core.Props;
 import org.pentaho.di.core.ProvidesDatabaseConnectionInformation;
+import org.pentaho.di.core.exception.KettleException;
 import org.pentaho.di.core.logging.LogChannelInterface;
 import org.pentaho.di.core.plugins.PluginRegistry;
 import org.pentaho.di.core.plugins.StepPluginType;
@@ -34,14 +38,23 @@ import org.pentaho.di.repository.Repository;
 import org.pentaho.di.trans.TransMeta;
 import org.pentaho.di.trans.step.StepMeta;
 import org.pentaho.di.trans.step.StepMetaInterface;
+import org.pentaho.di.trans.steps.mapping.MappingMeta;
 import org.pentaho.di.trans.steps.tableoutput.TableOutputMeta;
 import org.pentaho.metastore.api.IMetaStore;
 
 import java.util.Arrays;
 import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static org.junit.Assert.*;
+import static org.mockito.AdditionalAnswers.returnsFirstArg;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 public class TransUtilTest {
@@ -71,6 +84,153 @@ public class TransUtilTest {
     assertNull( stepMap.get( "notOutputStep" ) );
   }
 
+  @Test
+  public void testSharedSubTransformationIsFetchedOnce() throws Exception {
+    final Repository repository = mock( Repository.class );
+    final IMetaStore metastore = mock( IMetaStore.class );
+    final TransMeta subTrans = mockTrans( "/shared.ktr", outputStep( "sharedOutput" ) );
+    final MappingMeta mapping = mockMapping( "/shared.ktr" );
+    when( mapping.fetchTransMeta( any( StepMetaInterface.class ), any(), any(), any() ) ).thenReturn( subTrans );
+    final TransMeta transMeta = mockTrans( "/parent.ktr",
+        subTransStep( "mapping1", mapping ), subTransStep( "mapping2", mapping ), outputStep( "parentOutput" ) );
+
+    Map<String, ProvidesDatabaseConnectionInformation> stepMap =
+        TransUtil.collectOutputStepInTrans( transMeta, repository, metastore );
+    assertEquals( 2, stepMap.size() );
+    assertNotNull( stepMap.get( "sharedOutput" ) );
+    assertNotNull( stepMap.get( "parentOutput" ) );
+    verify( mapping, times( 1 ) ).fetchTransMeta( any( StepMetaInterface.class ), any(), any(), any() );
+  }
+
+  @Test
+  public void testCyclicSubTransformationsTerminate() throws Exception {
+    final Repository repository = mock( Repository.class );
+    final IMetaStore metastore = mock( IMetaStore.class );
+    final MappingMeta toChild = mockMapping( "/child.ktr" );
+    final MappingMeta toParent = mockMapping( "/parent.ktr" );
+    final TransMeta child = mockTrans( "/child.ktr", outputStep( "childOutput" ), subTransStep( "back", toParent ) );
+    final TransMeta parent = mockTrans( "/parent.ktr", outputStep( "parentOutput" ), subTransStep( "down", toChild ) );
+    when( toChild.fetchTransMeta( any( StepMetaInterface.class ), any(), any(), any() ) ).thenReturn( child );
+    when( toParent.fetchTransMeta( any( StepMetaInterface.class ), any(), any(), any() ) ).thenReturn( parent );
+
+    Map<String, ProvidesDatabaseConnectionInformation> stepMap =
+        TransUtil.collectOutputStepInTrans( parent, repository, metastore );
+    assertEquals( 2, stepMap.size() );
+    assertNotNull( stepMap.get( "parentOutput" ) );
+    assertNotNull( stepMap.get( "childOutput" ) );
+  }
+
+  @Test
+  public void testScanCutShortByCycleIsNotReused() throws Exception {
+    final MappingMeta toChild = mockMapping( "/child.ktr" );
+    final MappingMeta toParent = mockMapping( "/parent.ktr" );
+    final TransMeta child = mockTrans( "/child.ktr", outputStep( "childOutput" ), subTransStep( "back", toParent ) );
+    final TransMeta parent = mockTrans( "/parent.ktr", outputStep( "parentOutput" ), subTransStep( "down", toChild ) );
+    when( toChild.fetchTransMeta( any( StepMetaInterface.class ), any(), any(), any() ) ).thenReturn( child );
+    when( toParent.fetchTransMeta( any( StepMetaInterface.class ), any(), any(), any() ) ).thenReturn( parent );
+
+    OutputStepScanner scanner = new OutputStepScanner( mock( Repository.class ), mock( IMetaStore.class ) );
+    scanner.scan( parent );
+    // the child was first scanned below the parent and stopped there, so it must not come back without its parent
+    Map<String, ProvidesDatabaseConnectionInformation> stepMap = scanner.scan( child );
+    assertEquals( 2, stepMap.size() );
+    assertNotNull( stepMap.get( "parentOutput" ) );
+    assertNotNull( stepMap.get( "childOutput" ) );
+  }
+
+  @Test
+  public void testRepositoryLoadsRunOneAtATime() throws Exception {
+    final AtomicInteger running = new AtomicInteger();
+    final AtomicInteger maxRunning = new AtomicInteger();
+    final MappingMeta first = mockMapping( "/first.ktr" );
+    final MappingMeta second = mockMapping( "/second.ktr" );
+    final TransMeta firstTrans = mockTrans( "/first.ktr", outputStep( "firstOutput" ) );
+    final TransMeta secondTrans = mockTrans( "/second.ktr", outputStep( "secondOutput" ) );
+    Answer<TransMeta> load = new Answer<TransMeta>() {
+      @Override public TransMeta answer( final InvocationOnMock invocation ) throws Exception {
+        maxRunning.set( Math.max( maxRunning.get(), running.incrementAndGet() ) );
+        Thread.sleep( 20 );
+        running.decrementAndGet();
+        return invocation.getMock() == first ? firstTrans : secondTrans;
+      }
+    };
+    when( first.fetchTransMeta( any( StepMetaInterface.class ), any(), any(), any() ) ).thenAnswer( load );
+    when( second.fetchTransMeta( any( StepMetaInterface.class ), any(), any(), any() ) ).thenAnswer( load );
+    final TransMeta transMeta = mockTrans( "/parent.ktr", subTransStep( "first", first ),
+        subTransStep( "second", second ) );
+
+    Map<String, ProvidesDatabaseConnectionInformation> stepMap =
+        TransUtil.collectOutputStepInTrans( transMeta, mock( Repository.class ), mock( IMetaStore.class ) );
+    assertEquals( 2, stepMap.size() );
+    // a repository is not safe to use from several threads
+    assertEquals( 1, maxRunning.get() );
+  }
+
+  @Test
+  public void testFileLoadsRunInParallel() throws Exception {
+    final CountDownLatch bothLoading = new CountDownLatch( 2 );
+    final MappingMeta first = mockMapping( "/first.ktr" );
+    final MappingMeta second = mockMapping( "/second.ktr" );
+    final TransMeta firstTrans = mockTrans( "/first.ktr", outputStep( "firstOutput" ) );
+    final TransMeta secondTrans = mockTrans( "/second.ktr", outputStep( "secondOutput" ) );
+    Answer<TransMeta> load = new Answer<TransMeta>() {
+      @Override public TransMeta answer( final InvocationOnMock invocation ) throws Exception {
+        bothLoading.countDown();
+        // only returns if the other load runs at the same time
+        assertTrue( bothLoading.await( 10, TimeUnit.SECONDS ) );
+        return invocation.getMock() == first ? firstTrans : secondTrans;
+      }
+    };
+    when( first.fetchTransMeta( any( StepMetaInterface.class ), any(), any(), any() ) ).thenAnswer( load );
+    when( second.fetchTransMeta( any( StepMetaInterface.class ), any(), any(), any() ) ).thenAnswer( load );
+    final TransMeta transMeta = mockTrans( "/parent.ktr", subTransStep( "first", first ),
+        subTransStep( "second", second ) );
+
+    Map<String, ProvidesDatabaseConnectionInformation> stepMap =
+        TransUtil.collectOutputStepInTrans( transMeta, null, mock( IMetaStore.class ) );
+    assertEquals( 2, stepMap.size() );
+  }
+
+  @Test( expected = KettleException.class )
+  public void testFetchFailureIsPropagated() throws Exception {
+    final MappingMeta mapping = mockMapping( "/broken.ktr" );
+    when( mapping.fetchTransMeta( any( StepMetaInterface.class ), any(), any(), any() ) )
+        .thenThrow( new KettleException( "cannot load" ) );
+    final TransMeta transMeta = mockTrans( "/parent.ktr", subTransStep( "mapping", mapping ) );
+
+    TransUtil.collectOutputStepInTrans( transMeta, mock( Repository.class ), mock( IMetaStore.class ) );
+  }
+
+  private static TransMeta mockTrans( final String fileName, final StepMeta... steps ) {
+    final TransMeta transMeta = mock( TransMeta.class );
+    when( transMeta.getFilename() ).thenReturn( fileName );
+    when( transMeta.getSteps() ).thenReturn( Arrays.asList( steps ) );
+    when( transMeta.environmentSubstitute( anyString() ) ).thenAnswer( returnsFirstArg() );
+    return transMeta;
+  }
+
+  private static MappingMeta mockMapping( final String fileName ) {
+    final MappingMeta mapping = mock( MappingMeta.class );
+    when( mapping.getSpecificationMethod() ).thenReturn( ObjectLocationSpecificationMethod.FILENAME );
+    when( mapping.getFileName() ).thenReturn( fileName );
+    return mapping;
+  }
+
+  private static StepMeta outputStep( final String name ) {
+    final StepMeta stepMeta = mock( StepMeta.class );
+    when( stepMeta.getName() ).thenReturn( name );
+    final StepMetaInterface outputInterface = mock( TableOutputMeta.class );
+    when( stepMeta.getStepMetaInterface() ).thenReturn( outputInterface );
+    return stepMeta;
+  }
+
+  private static StepMeta subTransStep( final String name, final StepMetaInterface stepMetaInterface ) {
+    final StepMeta stepMeta = mock( StepMeta.class );
+    when( stepMeta.getName() ).thenReturn( name );
+    when( stepMeta.getStepMetaInterface() ).thenReturn( stepMetaInterface );
+    return stepMeta;
+  }
+
   @BeforeClass
   public static void setUpBeforeClass() throws Exception {
     if ( !KettleClientEnvironment.isInitialized() ) {
@@ -29,10 +29,13 @@ import org.pentaho.di.core.exception.KettleException;
 import org.pentaho.di.core.gui.SpoonInterface;
 import org.pentaho.di.core.refinery.publish.agilebi.BiServerConnection;
 import org.pentaho.di.core.refinery.publish.model.DataSourcePublishModel;
+import org.pentaho.di.core.refinery.publish.model.ResponseStatus;
+import org.pentaho.di.core.refinery.publish.util.ConnectionValidationCache;
 import org.pentaho.di.core.refinery.publish.util.PublishRestUtil;
 
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 import static org.mockito.Mockito.*;
 
 /**
@@ -154,6 +157,7 @@ public class ConnectionValidatorTest {
     doReturn( true ).when( spy ).isPentahoServer();
     doReturn( true ).when( spy ).isUserInfoProvided();
     doReturn( true ).when( spy ).canConnect();
+    doReturn( null ).when( spy ).checkPermissions();
 
     spy.validateConnectionInDesignTime();
     verify( spy ).showInfo( anyString(), anyString() );
@@ -161,6 +165,106 @@ public class ConnectionValidatorTest {
     spy.validateConnectionInRuntime();
   }
 
+  @Test
+  public void testRuntimeValidationCached() throws KettleException {
+    BiServerConnection connection = connection( "password" );
+    ConnectionValidationCache cache = new ConnectionValidationCache( 60000 );
+    ConnectionValidator spy = spy( connectionValidator );
+    spy.setConnection( connection );
+    doReturn( cache ).when( spy ).getValidationCache();
+    when( publishRestUtil.isPentahoServer( connection ) ).thenReturn( true );
+    when( publishRestUtil.isUserInfoProvided( connection ) ).thenReturn( true );
+    when( publishRestUtil.checkCanPublish( connection ) ).thenReturn( status( 200, "true" ) );
+    when( publishRestUtil.checkCanManageDatasources( connection ) ).thenReturn( status( 200, "true" ) );
+
+    spy.validateConnectionInRuntime();
+    spy.validateConnectionInRuntime();
+
+    verify( publishRestUtil, times( 1 ) ).isPentahoServer( connection );
+    verify( publishRestUtil, times( 1 ) ).isUnauthenticatedUser( connection );
+    verify( publishRestUtil, times( 1 ) ).checkCanPublish( connection );
+    verify( publishRestUtil, times( 1 ) ).checkCanManageDatasources( connection );
+
+    // rejected credentials are checked again
+    cache.invalidate( connection );
+    spy.validateConnectionInRuntime();
+    verify( publishRestUtil, times( 2 ) ).isPentahoServer( connection );
+  }
+
+  @Test
+  public void testRuntimeValidationFailureNotCached() throws KettleException {
+    BiServerConnection connection = connection( "password" );
+    ConnectionValidationCache cache = new ConnectionValidationCache( 60000 );
+    ConnectionValidator spy = spy( connectionValidator );
+    spy.setConnection( connection );
+    doReturn( cache ).when( spy ).getValidationCache();
+    when( publishRestUtil.isPentahoServer( connection ) ).thenReturn( true );
+    when( publishRestUtil.isUserInfoProvided( connection ) ).thenReturn( true );
+    when( publishRestUtil.isUnauthenticatedUser( connection ) ).thenReturn( true );
+
+    try {
+      spy.validateConnectionInRuntime();
+      fail();
+    } catch ( KettleException e ) {
+      assertFalse( cache.isValid( connection ) );
+    }
+  }
+
+  @Test
+  public void testRuntimeValidationChecksServerBeforeCredentials() throws KettleException {
+    BiServerConnection connection = connection( "password" );
+    ConnectionValidator spy = spy( connectionValidator );
+    spy.setConnection( connection );
+    doReturn( new ConnectionValidationCache( 60000 ) ).when( spy ).getValidationCache();
+    when( publishRestUtil.isPentahoServer( connection ) ).thenReturn( false );
+    when( publishRestUtil.isUserInfoProvided( connection ) ).thenReturn( true );
+
+    try {
+      spy.validateConnectionInRuntime();
+      fail();
+    } catch ( KettleException e ) {
+      verify( publishRestUtil, never() ).isUnauthenticatedUser( connection );
+      verify( publishRestUtil, never() ).checkCanPublish( connection );
+      verify( publishRestUtil, never() ).checkCanManageDatasources( connection );
+    }
+  }
+
+  @Test
+  public void testRuntimeValidationUsesStatusOfDeniedCheck() throws KettleException {
+    BiServerConnection connection = connection( "password" );
+    ConnectionValidator spy = spy( connectionValidator );
+    spy.setConnection( connection );
+    doReturn( new ConnectionValidationCache( 60000 ) ).when( spy ).getValidationCache();
+    when( publishRestUtil.isPentahoServer( connection ) ).thenReturn( true );
+    when( publishRestUtil.isUserInfoProvided( connection ) ).thenReturn( true );
+    when( publishRestUtil.checkCanPublish( connection ) ).thenReturn( status( 200, "true" ) );
+    when( publishRestUtil.checkCanManageDatasources( connection ) ).thenReturn( status( 404, "" ) );
+    // a status left behind by some other check must not matter
+    when( publishRestUtil.getLastHTTPStatus() ).thenReturn( 200 );
+
+    try {
+      spy.validateConnectionInRuntime();
+      fail();
+    } catch ( KettleException e ) {
+      verify( spy ).getMsg( "JobEntryDatasourcePublish.Test.BadURLMsg" );
+    }
+  }
+
+  private static ResponseStatus status( final int status, final String message ) {
+    ResponseStatus response = new ResponseStatus();
+    response.setStatus( status );
+    response.setMessage( message );
+    return response;
+  }
+
+  private static BiServerConnection connection( final String password ) {
+    BiServerConnection connection = new BiServerConnection();
+    connection.setUrl( "http://localhost:8080/pentaho/" );
+    connection.setUserId( "admin" );
+    connection.setPassword( password );
+    return connection;
+  }
+
   @Test
   public void testTestConnection404() throws KettleException {
     ConnectionValidator spy = spy( connectionValidator );
@@ -169,6 +273,7 @@ public class ConnectionValidatorTest {
     doReturn( true ).when( spy ).isUserInfoProvided();
     doReturn( false ).when( spy ).canConnect();
     when( publishRestUtil.getLastHTTPStatus() ).thenReturn( 404 );
+    when( publishRestUtil.checkCanPublish( model.getBiServerConnection() ) ).thenReturn( status( 404, "" ) );
 
     spy.validateConnectionInDesignTime();
     verify( spy ).getMsg( "JobEntryDatasourcePublish.Test.BadURL" );